@@ -19,13 +19,18 @@ package org.jboss.quickstarts.wfk;
 
 import io.swagger.jaxrs.config.BeanConfig;
 
+import org.jboss.quickstarts.wfk.admin.AdminRestService;
+import org.jboss.quickstarts.wfk.admin.MetricsRestService;
 import org.jboss.quickstarts.wfk.booking.BookingRestService;
 import org.jboss.quickstarts.wfk.contact.ContactRestService;
 import org.jboss.quickstarts.wfk.customer.CustomerRestService;
 import org.jboss.quickstarts.wfk.flight.FlightRestService;
 import org.jboss.quickstarts.wfk.guestbooking.GuestBookingRestService;
 import org.jboss.quickstarts.wfk.travelagent.TravelAgentRestService;
+import org.jboss.quickstarts.wfk.travelagent.TravelCatalogueRestService;
 import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.MetricsFilter;
+import org.jboss.quickstarts.wfk.util.QueryBudgetFilter;
 import org.jboss.quickstarts.wfk.util.RestServiceExceptionHandler;
 import org.jboss.resteasy.plugins.providers.RegisterBuiltin;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
@@ -59,7 +64,7 @@ public class ContactServiceApplication extends Application {
         //Add additional RESTService containing packages here, separated by commas:
         // "org.jboss.quickstarts.wfk.contact," +
         // "org.jboss.quickstarts.wfk.other"
-        beanConfig.setResourcePackage("org.jboss.quickstarts.wfk.contact,org.jboss.quickstarts.wfk.customer,org.jboss.quickstarts.wfk.flight,org.jboss.quickstarts.wfk.booking,org.jboss.quickstarts.wfk.guestbooking,org.jboss.quickstarts.wfk.travelagent");
+        beanConfig.setResourcePackage("org.jboss.quickstarts.wfk.contact,org.jboss.quickstarts.wfk.customer,org.jboss.quickstarts.wfk.flight,org.jboss.quickstarts.wfk.booking,org.jboss.quickstarts.wfk.guestbooking,org.jboss.quickstarts.wfk.travelagent,org.jboss.quickstarts.wfk.admin");
 //        beanConfig.setResourcePackage("");
         beanConfig.setScan(true);
 
@@ -78,6 +83,11 @@ public class ContactServiceApplication extends Application {
         services.add(BookingRestService.class);
         services.add(GuestBookingRestService.class);
         services.add(TravelAgentRestService.class);
+        services.add(TravelCatalogueRestService.class);
+        services.add(AdminRestService.class);
+        services.add(MetricsRestService.class);
+        services.add(MetricsFilter.class);
+        services.add(QueryBudgetFilter.class);
         //Do not edit below
         services.add(RestServiceExceptionHandler.class);
         services.add(io.swagger.jaxrs.listing.ApiListingResource.class);
@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.admin;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.jboss.quickstarts.wfk.contact.ContactEmailFilter;
+import org.jboss.quickstarts.wfk.customer.CustomerCache;
+import org.jboss.quickstarts.wfk.customer.CustomerEmailFilter;
+import org.jboss.quickstarts.wfk.travelagent.CommodityCatalogue;
+import org.jboss.quickstarts.wfk.util.HttpClientPool;
+import org.jboss.quickstarts.wfk.util.RequestMetrics;
+import org.jboss.quickstarts.wfk.util.ResilienceRegistry;
+import org.jboss.quickstarts.wfk.util.UpstreamGuard;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>This class produces a RESTful service exposing the application's own operational state, for monitoring.</p>
+ *
+ * <p>The full path for accessing endpoints defined herein is: api/admin/*</p>
+ */
+@Path("/admin")
+@Produces(MediaType.APPLICATION_JSON)
+@Api(value = "/admin", description = "Operational state of the application")
+@Stateless
+public class AdminRestService {
+
+    @Inject
+    private HttpClientPool httpClientPool;
+
+    @Inject
+    private CommodityCatalogue commodityCatalogue;
+
+    @Inject
+    private ResilienceRegistry resilience;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private CustomerCache customerCache;
+
+    @Inject
+    private CustomerEmailFilter customerEmailFilter;
+
+    @Inject
+    private ContactEmailFilter contactEmailFilter;
+
+    @PersistenceUnit(unitName = "contacts_pu")
+    private EntityManagerFactory entityManagerFactory;
+
+    /**
+     * <p>Returns the usage of the pool of connections used for outgoing REST calls, in total and for each upstream
+     * route.</p>
+     *
+     * <p>Example: <pre>GET api/admin/http-client</pre></p>
+     *
+     * @return A Response containing the pool usage
+     */
+    @GET
+    @Path("/http-client")
+    @ApiOperation(value = "Fetch the usage of the outgoing HTTP connection pool",
+            notes = "For the pool as a whole and for each route: connections leased and available, calls waiting for a"
+                    + " connection, and the limit.")
+    public Response retrieveHttpClientStats() {
+        return Response.ok(httpClientPool.getStats()).build();
+    }
+
+    /**
+     * <p>Returns how the cached commodity catalogues behind <code>api/travel/*</code> have been served.</p>
+     *
+     * <p>Example: <pre>GET api/admin/travel-catalogue</pre></p>
+     *
+     * @return A Response containing the counts for each catalogue
+     */
+    @GET
+    @Path("/travel-catalogue")
+    @ApiOperation(value = "Fetch the use of the cached commodity catalogues",
+            notes = "For each commodity: requests served fresh and stale from the cache, requests that waited for the"
+                    + " upstream service, upstream reads and failed reads, and the age of the cached catalogue.")
+    public Response retrieveTravelCatalogueStats() {
+        return Response.ok(commodityCatalogue.getStats()).build();
+    }
+
+    /**
+     * <p>Returns how the near cache of Customers looked up by id and by email has been used.</p>
+     *
+     * <p>Example: <pre>GET api/admin/customer-cache</pre></p>
+     *
+     * @return A Response containing the counts for the caches by id and by email
+     */
+    @GET
+    @Path("/customer-cache")
+    @ApiOperation(value = "Fetch the use of the Customer near cache",
+            notes = "For the caches by id and by email: the Customers held and the limit, the time-to-live, the hits,"
+                    + " misses and evictions, and the hit ratio.")
+    public Response retrieveCustomerCacheStats() {
+        return Response.ok(customerCache.getStats()).build();
+    }
+
+    /**
+     * <p>Returns the state of the guard around each upstream service that has been called: its circuit breaker's state
+     * and transitions, its calls in flight, and its calls made, failed, timed out and rejected.</p>
+     *
+     * <p>Example: <pre>GET api/admin/resilience</pre></p>
+     *
+     * @return A Response containing the state of each guard, keyed by upstream service
+     */
+    @GET
+    @Path("/resilience")
+    @ApiOperation(value = "Fetch the circuit breakers and bulkheads of the upstream services",
+            notes = "For each upstream service called so far: the circuit breaker's state and how often it has opened,"
+                    + " half-opened and closed, and the calls in flight, made, failed, timed out and rejected.")
+    public Response retrieveResilienceStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, UpstreamGuard> guard : resilience.getGuards().entrySet()) {
+            stats.put(guard.getKey(), guard.getValue().getStats());
+        }
+        return Response.ok(stats).build();
+    }
+
+    /**
+     * <p>Returns the state of the Bloom filters consulted before the uniqueness check on Customer and Contact
+     * emails.</p>
+     *
+     * <p>Example: <pre>GET api/admin/email-filters</pre></p>
+     *
+     * @return A Response containing the state of each filter, keyed by the table it covers
+     */
+    @GET
+    @Path("/email-filters")
+    @ApiOperation(value = "Fetch the state of the email Bloom filters",
+            notes = "For the Customer and Contact filters: the emails put in and the capacity sized for, the emails"
+                    + " removed or replaced since the last rebuild, the checks answered without the database, the false"
+                    + " positives found by it, and the estimated and observed false positive rates.")
+    public Response retrieveEmailFilterStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        stats.put("customer", customerEmailFilter.getStats());
+        stats.put("contact", contactEmailFilter.getStats());
+        return Response.ok(stats).build();
+    }
+
+    /**
+     * <p>Returns the Hibernate statistics of the persistence unit: its totals, its slowest queries, the loads and fetches
+     * of each entity and collection, and the hit ratios of the second-level and query caches; and, for each resource
+     * method, the SQL statements and entity loads of the requests it has served.</p>
+     *
+     * <p>Example: <pre>GET api/admin/query-stats</pre></p>
+     *
+     * @return A Response containing the query statistics
+     */
+    @GET
+    @Path("/query-stats")
+    @ApiOperation(value = "Fetch the query statistics of the persistence unit and of each resource method",
+            notes = "Statements prepared and queries run, the slowest queries, the loads and fetches of each entity and"
+                    + " collection (fetches are where N+1 selects show), the hits and misses of the second-level and"
+                    + " query caches, and for each resource method the statements"
+                    + " and entity loads per request and how many requests went over the query budget.")
+    public Response retrieveQueryStats() {
+        return Response.ok(QueryStatsReport.build(statistics(), requestMetrics.getEndpoints())).build();
+    }
+
+    /**
+     * <p>Resets the Hibernate statistics of the persistence unit, for example before measuring a scenario. The counts
+     * of each resource method are not reset.</p>
+     *
+     * <p>Example: <pre>DELETE api/admin/query-stats</pre></p>
+     *
+     * @return A Response with no content
+     */
+    @DELETE
+    @Path("/query-stats")
+    @ApiOperation(value = "Reset the Hibernate statistics of the persistence unit")
+    public Response resetQueryStats() {
+        statistics().clear();
+        return Response.noContent().build();
+    }
+
+    private Statistics statistics() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+}
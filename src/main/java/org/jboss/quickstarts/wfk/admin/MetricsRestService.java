@@ -0,0 +1,244 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.admin;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+import org.jboss.quickstarts.wfk.contact.ContactEmailFilter;
+import org.jboss.quickstarts.wfk.customer.CustomerEmailFilter;
+import org.jboss.quickstarts.wfk.util.CircuitBreaker;
+import org.jboss.quickstarts.wfk.util.EmailFilter;
+import org.jboss.quickstarts.wfk.util.LatencyHistogram;
+import org.jboss.quickstarts.wfk.util.RequestMetrics;
+import org.jboss.quickstarts.wfk.util.ResilienceRegistry;
+import org.jboss.quickstarts.wfk.util.UpstreamGuard;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * <p>This class produces a RESTful service exposing the application's metrics in the Prometheus text format, for
+ * scraping.</p>
+ *
+ * <p>It serves the latency of the requests handled by each resource method, by response status, as recorded by the
+ * {@link org.jboss.quickstarts.wfk.util.MetricsFilter}, the state of the guard around each upstream service, and the
+ * state of the email Bloom filters.</p>
+ *
+ * <p>The full path for accessing endpoints defined herein is: api/metrics</p>
+ */
+@Path("/metrics")
+@Api(value = "/metrics", description = "Metrics of the application, for Prometheus")
+@Stateless
+public class MetricsRestService {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** The upper bounds of the histogram buckets served, in seconds. */
+    private static final double[] BUCKETS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final double MICROS_PER_SECOND = 1e6;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private ResilienceRegistry resilience;
+
+    @Inject
+    private CustomerEmailFilter customerEmailFilter;
+
+    @Inject
+    private ContactEmailFilter contactEmailFilter;
+
+    /**
+     * <p>Returns the metrics of the application.</p>
+     *
+     * <p>Example: <pre>GET api/metrics</pre></p>
+     *
+     * @return A Response containing the metrics as Prometheus text
+     */
+    @GET
+    @Produces(CONTENT_TYPE)
+    @ApiOperation(value = "Fetch the metrics of the application in the Prometheus text format",
+            notes = "Latency histograms and quantiles of the requests served, by resource method and status, and the"
+                    + " calls, failures, rejections and circuit breaker state of each upstream service, and the"
+                    + " insertions, removals and false positive rates of the email Bloom filters.")
+    public Response retrieveMetrics() {
+        StringBuilder out = new StringBuilder(4096);
+        writeRequests(out);
+        writeUpstreams(out);
+        writeEmailFilters(out);
+        return Response.ok(out.toString(), CONTENT_TYPE).build();
+    }
+
+    private void writeRequests(StringBuilder out) {
+        Map<String, RequestMetrics.Endpoint> endpoints = requestMetrics.getEndpoints();
+
+        header(out, "http_server_requests_seconds", "histogram",
+                "Latency of the requests served, by resource method and status.");
+        StringBuilder quantiles = new StringBuilder();
+        StringBuilder max = new StringBuilder();
+        for (RequestMetrics.Endpoint endpoint : endpoints.values()) {
+            for (Map.Entry<Integer, LatencyHistogram> entry : endpoint.getHistograms().entrySet()) {
+                String labels = "endpoint=\"" + escape(endpoint.getName()) + "\",status=\"" + entry.getKey() + "\"";
+                LatencyHistogram histogram = entry.getValue();
+                long[] snapshot = histogram.snapshot();
+                long count = LatencyHistogram.count(snapshot);
+
+                for (double bound : BUCKETS) {
+                    sample(out, "http_server_requests_seconds_bucket", labels + ",le=\"" + bound + "\"",
+                            LatencyHistogram.countBelow(snapshot, Math.round(bound * MICROS_PER_SECOND)));
+                }
+                sample(out, "http_server_requests_seconds_bucket", labels + ",le=\"+Inf\"", count);
+                sample(out, "http_server_requests_seconds_sum", labels,
+                        histogram.getSumMicros() / MICROS_PER_SECOND);
+                sample(out, "http_server_requests_seconds_count", labels, count);
+
+                for (double quantile : QUANTILES) {
+                    sample(quantiles, "http_server_requests_quantile_seconds",
+                            labels + ",quantile=\"" + quantile + "\"",
+                            LatencyHistogram.quantileMicros(snapshot, quantile) / MICROS_PER_SECOND);
+                }
+                sample(max, "http_server_requests_max_seconds", labels,
+                        histogram.getMaxMicros() / MICROS_PER_SECOND);
+            }
+        }
+
+        header(out, "http_server_requests_quantile_seconds", "gauge",
+                "Latency below which the given fraction of the requests served fell, to within 7%.");
+        out.append(quantiles);
+        header(out, "http_server_requests_max_seconds", "gauge", "Longest latency of the requests served.");
+        out.append(max);
+    }
+
+    private void writeUpstreams(StringBuilder out) {
+        Map<String, UpstreamGuard> guards = resilience.getGuards();
+
+        header(out, "upstream_circuit_state", "gauge",
+                "State of the circuit breaker of each upstream service: 1 for the current state, 0 for the others.");
+        for (UpstreamGuard guard : guards.values()) {
+            CircuitBreaker.State current = guard.getBreaker().getState();
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                sample(out, "upstream_circuit_state", upstream(guard) + ",state=\"" + state + "\"",
+                        state == current ? 1 : 0);
+            }
+        }
+
+        header(out, "upstream_circuit_transitions_total", "counter",
+                "Times the circuit breaker of each upstream service has moved to a state.");
+        for (UpstreamGuard guard : guards.values()) {
+            CircuitBreaker breaker = guard.getBreaker();
+            sample(out, "upstream_circuit_transitions_total", upstream(guard) + ",state=\"OPEN\"",
+                    breaker.getOpened());
+            sample(out, "upstream_circuit_transitions_total", upstream(guard) + ",state=\"HALF_OPEN\"",
+                    breaker.getHalfOpened());
+            sample(out, "upstream_circuit_transitions_total", upstream(guard) + ",state=\"CLOSED\"",
+                    breaker.getClosed());
+        }
+
+        header(out, "upstream_rejected_total", "counter",
+                "Calls to each upstream service rejected, because its circuit was open or its bulkhead was full.");
+        for (UpstreamGuard guard : guards.values()) {
+            sample(out, "upstream_rejected_total", upstream(guard) + ",reason=\"open\"",
+                    guard.getBreaker().getRejected());
+            sample(out, "upstream_rejected_total", upstream(guard) + ",reason=\"full\"",
+                    guard.getBulkhead().getRejected());
+        }
+
+        counter(out, guards, "upstream_calls_total", "calls", "Calls made to each upstream service.");
+        counter(out, guards, "upstream_failures_total", "failures", "Calls to each upstream service that failed.");
+        counter(out, guards, "upstream_timeouts_total", "timeouts", "Calls to each upstream service that timed out.");
+
+        header(out, "upstream_in_flight", "gauge", "Calls to each upstream service in flight.");
+        for (UpstreamGuard guard : guards.values()) {
+            sample(out, "upstream_in_flight", upstream(guard), guard.getBulkhead().getInFlight());
+        }
+    }
+
+    /*
+     * The counts are taken since each filter was last rebuilt, so they can go down and are served as gauges.
+     */
+    private void writeEmailFilters(StringBuilder out) {
+        Map<String, EmailFilter> filters = new LinkedHashMap<>();
+        filters.put("customer", customerEmailFilter);
+        filters.put("contact", contactEmailFilter);
+
+        gauge(out, filters, "email_filter_insertions", EmailFilter::getInsertions,
+                "Emails put into each email Bloom filter since it was built.");
+        gauge(out, filters, "email_filter_removals", EmailFilter::getRemovals,
+                "Emails removed or replaced since each email Bloom filter was built.");
+        gauge(out, filters, "email_filter_false_positives", EmailFilter::getFalsePositives,
+                "Emails each email Bloom filter reported as possibly registered that the database did not hold, since"
+                        + " it was built.");
+        gauge(out, filters, "email_filter_expected_fpp", EmailFilter::getExpectedFpp,
+                "False positive probability of each email Bloom filter, estimated from how full it is.");
+        gauge(out, filters, "email_filter_observed_fpp", EmailFilter::getObservedFpp,
+                "Fraction of the unregistered emails checked that each email Bloom filter wrongly reported as"
+                        + " possibly registered, since it was built.");
+    }
+
+    private static void gauge(StringBuilder out, Map<String, EmailFilter> filters, String name,
+                              ToDoubleFunction<EmailFilter> value, String help) {
+        header(out, name, "gauge", help);
+        for (Map.Entry<String, EmailFilter> filter : filters.entrySet()) {
+            sample(out, name, "table=\"" + filter.getKey() + "\"", value.applyAsDouble(filter.getValue()));
+        }
+    }
+
+    private static void counter(StringBuilder out, Map<String, UpstreamGuard> guards, String name, String stat,
+                                String help) {
+        header(out, name, "counter", help);
+        for (UpstreamGuard guard : guards.values()) {
+            sample(out, name, upstream(guard), ((Number) guard.getStats().get(stat)).longValue());
+        }
+    }
+
+    private static String upstream(UpstreamGuard guard) {
+        return "upstream=\"" + escape(guard.getName()) + "\"";
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /*
+     * Label values are quoted, so backslashes, quotes and line feeds in them have to be escaped.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.admin;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.jboss.quickstarts.wfk.util.RequestMetrics;
+
+/**
+ * <p>Builds the report served by <code>api/admin/query-stats</code> from the Hibernate statistics of the persistence
+ * unit and the query counts recorded for each resource method.</p>
+ *
+ * <p>The caches section gives the hits, misses and hit ratio of the second-level cache and of the query cache, in total
+ * and for each cache region.</p>
+ *
+ * <p>The fetch counts are the ones to watch for N+1 selects: an entity or collection is fetched when it is read on its
+ * own because an association was navigated, rather than loaded by the query that read its owner.</p>
+ */
+class QueryStatsReport {
+
+    /** How many of the slowest queries are reported, from the system property <code>query.stats.slowest</code>. */
+    private static final int SLOWEST = Integer.getInteger("query.stats.slowest", 10);
+
+    private QueryStatsReport() {
+    }
+
+    static Map<String, Object> build(Statistics statistics, Map<String, RequestMetrics.Endpoint> endpoints) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("enabled", statistics.isStatisticsEnabled());
+        report.put("totals", totals(statistics));
+        report.put("slowestQueries", slowestQueries(statistics));
+        report.put("entities", entities(statistics));
+        report.put("collections", collections(statistics));
+        report.put("caches", caches(statistics));
+
+        Map<String, Map<String, Long>> requests = new TreeMap<>();
+        for (RequestMetrics.Endpoint endpoint : endpoints.values()) {
+            Map<String, Long> stats = endpoint.getQueryStats();
+            if (stats.get("requests") > 0) {
+                requests.put(endpoint.getName(), stats);
+            }
+        }
+        report.put("requests", requests);
+        return report;
+    }
+
+    private static Map<String, Long> totals(Statistics statistics) {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        totals.put("sessions", statistics.getSessionOpenCount());
+        totals.put("transactions", statistics.getTransactionCount());
+        totals.put("statementsPrepared", statistics.getPrepareStatementCount());
+        totals.put("queries", statistics.getQueryExecutionCount());
+        totals.put("queryMaxMillis", statistics.getQueryExecutionMaxTime());
+        totals.put("entityLoads", statistics.getEntityLoadCount());
+        totals.put("entityFetches", statistics.getEntityFetchCount());
+        totals.put("collectionLoads", statistics.getCollectionLoadCount());
+        totals.put("collectionFetches", statistics.getCollectionFetchCount());
+        totals.put("flushes", statistics.getFlushCount());
+        return totals;
+    }
+
+    private static List<Map<String, Object>> slowestQueries(Statistics statistics) {
+        List<Map<String, Object>> queries = new ArrayList<>();
+        for (String query : statistics.getQueries()) {
+            QueryStatistics stats = statistics.getQueryStatistics(query);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("query", query);
+            entry.put("executions", stats.getExecutionCount());
+            entry.put("maxMillis", stats.getExecutionMaxTime());
+            entry.put("avgMillis", stats.getExecutionAvgTime());
+            entry.put("rows", stats.getExecutionRowCount());
+            entry.put("cacheHits", stats.getCacheHitCount());
+            queries.add(entry);
+        }
+        queries.sort(Comparator.comparing((Map<String, Object> entry) -> (Long) entry.get("maxMillis")).reversed());
+        return queries.size() > SLOWEST ? new ArrayList<>(queries.subList(0, SLOWEST)) : queries;
+    }
+
+    private static Map<String, Map<String, Long>> entities(Statistics statistics) {
+        Map<String, Map<String, Long>> entities = new TreeMap<>();
+        for (String name : statistics.getEntityNames()) {
+            EntityStatistics stats = statistics.getEntityStatistics(name);
+            Map<String, Long> entry = new LinkedHashMap<>();
+            entry.put("loads", stats.getLoadCount());
+            entry.put("fetches", stats.getFetchCount());
+            entry.put("inserts", stats.getInsertCount());
+            entry.put("updates", stats.getUpdateCount());
+            entry.put("deletes", stats.getDeleteCount());
+            entities.put(name, entry);
+        }
+        return entities;
+    }
+
+    private static Map<String, Object> caches(Statistics statistics) {
+        Map<String, Object> caches = new LinkedHashMap<>();
+        caches.put("secondLevel", cache(statistics.getSecondLevelCacheHitCount(),
+                statistics.getSecondLevelCacheMissCount(), statistics.getSecondLevelCachePutCount()));
+        caches.put("query", cache(statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount()));
+
+        Map<String, Map<String, Object>> regions = new TreeMap<>();
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            SecondLevelCacheStatistics stats = statistics.getSecondLevelCacheStatistics(region);
+            if (stats != null) {
+                Map<String, Object> entry = cache(stats.getHitCount(), stats.getMissCount(), stats.getPutCount());
+                entry.put("elementsInMemory", stats.getElementCountInMemory());
+                regions.put(region, entry);
+            }
+        }
+        caches.put("regions", regions);
+        return caches;
+    }
+
+    private static Map<String, Object> cache(long hits, long misses, long puts) {
+        Map<String, Object> cache = new LinkedHashMap<>();
+        cache.put("hits", hits);
+        cache.put("misses", misses);
+        cache.put("puts", puts);
+        cache.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return cache;
+    }
+
+    private static Map<String, Map<String, Long>> collections(Statistics statistics) {
+        Map<String, Map<String, Long>> collections = new TreeMap<>();
+        for (String role : statistics.getCollectionRoleNames()) {
+            CollectionStatistics stats = statistics.getCollectionStatistics(role);
+            Map<String, Long> entry = new LinkedHashMap<>();
+            entry.put("loads", stats.getLoadCount());
+            entry.put("fetches", stats.getFetchCount());
+            collections.put(role, entry);
+        }
+        return collections;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * jboss-wfk-quickstarts
+ * <p/>
+ * Copyright (c) 2015 Jonny Daenen, Hugo Firth & Bas Ketsman
+ * Email: <me@hugofirth.com/>
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.area;
+
+import java.io.Serializable;
+
+/**
+ * <p>A US telephone area code and the state it belongs to, as held by the {@link AreaDirectory} and returned by the
+ * remote {@link AreaService}.</p>
+ */
+public class Area implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+
+    private String state;
+
+    private String stateAbbr;
+
+    public Area() {
+    }
+
+    public Area(Integer id, String state, String stateAbbr) {
+        this.id = id;
+        this.state = state;
+        this.stateAbbr = stateAbbr;
+    }
+
+    /**
+     * @return The three digit area code
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public String getStateAbbr() {
+        return stateAbbr;
+    }
+
+    public void setStateAbbr(String stateAbbr) {
+        this.stateAbbr = stateAbbr;
+    }
+
+    @Override
+    public String toString() {
+        return "Area [id=" + id + ", state=" + state + ", stateAbbr=" + stateAbbr + "]";
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * jboss-wfk-quickstarts
+ * <p/>
+ * Copyright (c) 2015 Jonny Daenen, Hugo Firth & Bas Ketsman
+ * Email: <me@hugofirth.com/>
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.area;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.inject.Inject;
+import javax.ws.rs.NotFoundException;
+
+import org.jboss.quickstarts.wfk.util.ResilienceRegistry;
+import org.jboss.quickstarts.wfk.util.UpstreamGuard;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+
+/**
+ * <p>Resolves the area code of a telephone number to its state, in process, so that writes do not have to call the
+ * remote {@link AreaService}.</p>
+ *
+ * <p>The directory is loaded when the application starts from the bundled <code>area-codes.csv</code> into an array
+ * with one slot for each possible three digit code, so a lookup is an index into the array. The array is never changed
+ * once published; a refresh builds a new one and swaps it in, so lookups take no locks.</p>
+ *
+ * <p>If <code>area.refresh.url</code> is set to the base URL of the remote area code service, the directory is rebuilt
+ * from it every <code>area.refresh.hours</code> (24 by default), in the background on a timer, through the
+ * <code>areas</code> {@link UpstreamGuard}. A refresh that fails, or is stopped by the guard, keeps the current
+ * directory.</p>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AreaDirectory {
+
+    static final String DATA_FILE = "/area-codes.csv";
+
+    static final String REFRESH_URL = System.getProperty("area.refresh.url", "");
+
+    static final long REFRESH_HOURS = Long.getLong("area.refresh.hours", 24);
+
+    /** Area codes have three digits, so this is one slot for each. */
+    static final int CODES = 1000;
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+
+    private volatile Area[] areas = new Area[CODES];
+
+    @Resource
+    private TimerService timerService;
+
+    @Inject
+    private ResteasyClient client;
+
+    @Inject
+    private ResilienceRegistry resilience;
+
+    @PostConstruct
+    void start() {
+        InputStream data = getClass().getResourceAsStream(DATA_FILE);
+        if (data == null) {
+            throw new IllegalStateException("AreaDirectory - " + DATA_FILE + " is missing");
+        }
+        try {
+            areas = read(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("AreaDirectory - " + DATA_FILE + " could not be read", e);
+        }
+        log.info("AreaDirectory - Loaded " + count(areas) + " area codes from " + DATA_FILE);
+
+        if (!REFRESH_URL.isEmpty()) {
+            long interval = TimeUnit.HOURS.toMillis(REFRESH_HOURS);
+            timerService.createIntervalTimer(interval, interval, new TimerConfig("AreaDirectory refresh", false));
+        }
+    }
+
+    /**
+     * @param code An area code
+     * @return The Area with that code, or null if there is none
+     */
+    public Area find(int code) {
+        return code >= 0 && code < CODES ? areas[code] : null;
+    }
+
+    /**
+     * <p>Returns the Area of a telephone number in the <code>(212) 555-1212</code> form checked by the entities.</p>
+     *
+     * @param phoneNumber The telephone number
+     * @return The Area of its area code
+     * @throws InvalidAreaCodeException If the number has no area code, or one that does not exist
+     */
+    public Area resolve(String phoneNumber) throws InvalidAreaCodeException {
+        Area area = find(areaCode(phoneNumber));
+        if (area == null) {
+            throw new InvalidAreaCodeException("The area code provided does not exist");
+        }
+        return area;
+    }
+
+    /**
+     * @return The area code of a telephone number written as <code>(212) 555-1212</code>, or -1 if it has none
+     */
+    static int areaCode(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.length() < 5 || phoneNumber.charAt(0) != '(' || phoneNumber.charAt(4) != ')') {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 1; i <= 3; i++) {
+            char c = phoneNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    /**
+     * <p>Rebuilds the directory from the remote service, asking it about every code a telephone number may have.</p>
+     */
+    @Timeout
+    void refresh() {
+        AreaService remote = client.target(REFRESH_URL).proxy(AreaService.class);
+        UpstreamGuard guard = resilience.guard("areas");
+        Area[] fresh = new Area[CODES];
+        long start = System.currentTimeMillis();
+
+        // The entities only accept codes of the form [2-9][0-8][0-9].
+        for (int code = 200; code < CODES; code++) {
+            if (code / 10 % 10 == 9) {
+                continue;
+            }
+            int id = code;
+            try {
+                Area area = guard.execute(() -> remote.getAreaById(id));
+                if (area != null && area.getState() != null) {
+                    fresh[code] = new Area(code, area.getState(), area.getStateAbbr());
+                }
+            } catch (NotFoundException e) {
+                // Not an area code.
+            } catch (Exception e) {
+                log.warning("AreaDirectory.refresh() - Keeping the current directory, the remote service failed on "
+                        + code + ": " + e);
+                return;
+            }
+        }
+
+        int found = count(fresh);
+        if (found == 0) {
+            log.warning("AreaDirectory.refresh() - Keeping the current directory, the remote service has no area codes");
+            return;
+        }
+        areas = fresh;
+        log.info("AreaDirectory.refresh() - Loaded " + found + " area codes from " + REFRESH_URL + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * <p>Reads a directory from lines of <code>code,state abbreviation,state name</code>, ignoring blank lines and
+     * lines starting with #.</p>
+     */
+    static Area[] read(InputStream data) throws IOException {
+        Area[] areas = new Area[CODES];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(data, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",", 3);
+                if (fields.length != 3) {
+                    throw new IOException("Expected code,state abbreviation,state name but found: " + line);
+                }
+                int code;
+                try {
+                    code = Integer.parseInt(fields[0].trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Not an area code: " + line, e);
+                }
+                if (code < 0 || code >= CODES) {
+                    throw new IOException("Not an area code: " + line);
+                }
+                areas[code] = new Area(code, fields[2].trim(), fields[1].trim());
+            }
+        }
+        return areas;
+    }
+
+    private static int count(Area[] areas) {
+        int count = 0;
+        for (Area area : areas) {
+            if (area != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
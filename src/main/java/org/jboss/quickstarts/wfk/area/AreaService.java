@@ -0,0 +1,40 @@
+/**
+ * jboss-wfk-quickstarts
+ * <p/>
+ * Copyright (c) 2015 Jonny Daenen, Hugo Firth & Bas Ketsman
+ * Email: <me@hugofirth.com/>
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.area;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * <p>Client proxy interface for the remote area code service, used only to refresh the {@link AreaDirectory} in the
+ * background. Writes never call it.</p>
+ *
+ * <p>Responds 404 NOT_FOUND for an area code that does not exist.</p>
+ */
+@Path("/areas")
+@Produces(MediaType.APPLICATION_JSON)
+public interface AreaService {
+
+    @GET
+    @Path("/{id:[0-9]+}")
+    Area getAreaById(@PathParam("id") int id);
+}
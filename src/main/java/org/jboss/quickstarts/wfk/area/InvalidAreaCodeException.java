@@ -25,8 +25,11 @@ import javax.validation.ValidationException;
  *
  * <p>In such cases the ClientResponse status should be 404 NOT_FOUND.</p>
  *
+ * <p>It is also thrown by the {@link AreaDirectory} when a telephone number has an area code it does not hold.</p>
+ *
  * @author Xujie
  * @see AreaService
+ * @see AreaDirectory
  */
 public class InvalidAreaCodeException extends ValidationException {
 
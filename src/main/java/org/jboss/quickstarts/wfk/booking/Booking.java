@@ -6,9 +6,11 @@ import java.util.Date;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
@@ -16,12 +18,18 @@ import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Past;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import org.jboss.quickstarts.wfk.customer.Customer;
 import org.jboss.quickstarts.wfk.flight.Flight;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Versioned;
 
 /**
  * <p>This is a the Domain object. The Booking class represents how booking resources are represented in the application
@@ -37,27 +45,67 @@ import org.jboss.quickstarts.wfk.flight.Flight;
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
  */
 @Entity
+@EntityListeners(ModificationTracker.class)
 @NamedQueries({
         @NamedQuery(name = Booking.FIND_ALL, query = "SELECT c FROM Booking c ORDER BY c.id"),
         @NamedQuery(name = Booking.FIND_BY_CUSTOMER, query = "SELECT c FROM Booking c ORDER BY c.customer"),
+        @NamedQuery(name = Booking.FIND_PAGE_BY_CUSTOMER, query = "SELECT b FROM Booking b"
+                + " WHERE b.customer.id = :customerId AND b.id > :after ORDER BY b.id"),
+        @NamedQuery(name = Booking.FIND_PAGE_BY_FLIGHT, query = "SELECT b FROM Booking b"
+                + " WHERE b.flight.id = :flightId AND b.id > :after ORDER BY b.id"),
+        @NamedQuery(name = Booking.FIND_SEAT, query = "SELECT b.flight.id, b.bookingDate, b.version FROM Booking b"
+                + " WHERE b.id = :id"),
+        @NamedQuery(name = Booking.FIND_SEATS_BY_CUSTOMER, query = "SELECT b.flight.id, b.bookingDate FROM Booking b"
+                + " WHERE b.customer.id = :customerId"),
+        // The revision covers the Customer and Flight too, as a Booking is returned with both of them nested.
+        @NamedQuery(name = Booking.FIND_REVISION, query = "SELECT b.version, b.lastModified, c.version, c.lastModified,"
+                + " f.version, f.lastModified FROM Booking b LEFT JOIN b.customer c LEFT JOIN b.flight f WHERE b.id = :id"),
+        @NamedQuery(name = Booking.UPDATE, query = "UPDATE Booking b SET b.customer = :customer, b.flight = :flight,"
+                + " b.bookingDate = :bookingDate, b.lastModified = :lastModified, b.version = b.version + 1"
+                + " WHERE b.id = :id AND b.version = :version"),
+        @NamedQuery(name = Booking.UPDATE_ANY_VERSION, query = "UPDATE Booking b SET b.customer = :customer, b.flight = :flight,"
+                + " b.bookingDate = :bookingDate, b.lastModified = :lastModified, b.version = b.version + 1"
+                + " WHERE b.id = :id"),
 })
 @XmlRootElement
-@Table(name = "booking"/*, uniqueConstraints = @UniqueConstraint(columnNames = "email")*/)
-public class Booking implements Serializable {
+/*
+ * The indexes let the Bookings of one Customer or one Flight be read a page at a time, in id order.
+ */
+@Table(name = "booking"/*, uniqueConstraints = @UniqueConstraint(columnNames = "email")*/, indexes = {
+        @Index(name = "booking_customer_idx", columnList = "customer, id"),
+        @Index(name = "booking_flight_idx", columnList = "flight, id")
+})
+public class Booking implements Serializable, Versioned {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Booking.id";
     public static final String FIND_BY_CUSTOMER = "Booking.customer";
+    public static final String FIND_PAGE_BY_CUSTOMER = "Booking.findPageByCustomer";
+    public static final String FIND_PAGE_BY_FLIGHT = "Booking.findPageByFlight";
+    public static final String FIND_SEAT = "Booking.findSeat";
+    public static final String FIND_SEATS_BY_CUSTOMER = "Booking.findSeatsByCustomer";
+    public static final String FIND_REVISION = "Booking.findRevision";
+    public static final String UPDATE = "Booking.update";
+    public static final String UPDATE_ANY_VERSION = "Booking.updateAnyVersion";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "booking_id")
     private Long id;
+
+    @Version
+    private Long version;
+
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date lastModified;
     
 //    @ManyToOne( cascade = {CascadeType.PERSIST, CascadeType.MERGE} )// owning side
     @JoinColumn(name="customer")
 //  @Column(name = "first_name")
     @ManyToOne
+    @JsonIgnoreProperties("bookings")
     private Customer customer;
     
 //    /*@ManyToOne( cascade = {CascadeType.PERSIST, CascadeType.MERGE} )// owning side
@@ -65,6 +113,7 @@ public class Booking implements Serializable {
 //  @Column(name = "flight")
     @ManyToOne
     @JoinColumn(name="flight")
+    @JsonIgnoreProperties("bookings")
     private Flight flight;
 
 
@@ -81,6 +130,26 @@ public class Booking implements Serializable {
     public void setId(Long id) {
         this.id = id;
     }
+
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
  
     public Customer getCustomer() {
 		return customer;
@@ -1,11 +1,15 @@
 package org.jboss.quickstarts.wfk.booking;
 
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -13,6 +17,10 @@ import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Revision;
+
 public class BookingRepository {
 
     @Inject
@@ -21,6 +29,9 @@ public class BookingRepository {
     @Inject
     private EntityManager em;
 
+    @Inject
+    private ModificationTracker tracker;
+
     /**
      * <p>Returns a List of all persisted {@link Booking} objects, sorted alphabetically by last name.</p>
      *
@@ -31,6 +42,17 @@ public class BookingRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns the version and last modified time of a single Booking, specified by a Long id, without loading it.</p>
+     *
+     * @param id The id field of the Booking
+     * @return The revision of the Booking, or null if there is no such Booking
+     */
+    Revision findRevision(Long id) {
+        List<Object[]> rows = em.createNamedQuery(Booking.FIND_REVISION, Object[].class).setParameter("id", id).getResultList();
+        return rows.isEmpty() ? null : Revision.of(rows.get(0));
+    }
+
     /**
      * <p>Returns a single Booking object, specified by a Long id.<p/>
      *
@@ -42,6 +64,66 @@ public class BookingRepository {
     }
 
 
+    /**
+     * <p>Returns the selected fields of a single Booking, specified by a Long id.<p/>
+     *
+     * @param id The id field of the Booking to be returned
+     * @param fields The fields to select
+     * @return The selected fields of the Booking with the specified id, or null if there is none
+     */
+    Tuple findById(Long id, FieldSelection fields) {
+        List<Tuple> tuples = fields.query(em, Booking.class, (cb, b) -> cb.equal(b.get("id"), id)).getResultList();
+        return tuples.isEmpty() ? null : tuples.get(0);
+    }
+
+    /**
+     * <p>Returns the selected fields of the Bookings made by Customers with the given names, in id order. Either name
+     * may be null, in which case it does not restrict the results.</p>
+     *
+     * @param firstName The firstName of the Customers whose Bookings are to be returned, or null
+     * @param lastName The lastName of the Customers whose Bookings are to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByCustomerName(String firstName, String lastName, FieldSelection fields) {
+        FieldSelection.Restriction<Booking> where = firstName == null && lastName == null ? null : (cb, b) -> cb.and(
+                lastName == null ? cb.conjunction() : cb.equal(b.get("customer").get("lastName"), lastName),
+                firstName == null ? cb.conjunction() : cb.equal(b.get("customer").get("firstName"), firstName));
+        return fields.query(em, Booking.class, where, "id").getResultList();
+    }
+
+    /**
+     * <p>Returns one page of the Bookings made by a Customer, in id order.</p>
+     *
+     * @param customerId The id of the Customer
+     * @param after The id of the last Booking on the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return
+     * @return List of at most limit Booking objects
+     */
+    List<Booking> findPageByCustomer(Long customerId, Long after, int limit) {
+        return em.createNamedQuery(Booking.FIND_PAGE_BY_CUSTOMER, Booking.class)
+                .setParameter("customerId", customerId)
+                .setParameter("after", after == null ? Long.MIN_VALUE : after)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * <p>Returns one page of the Bookings made on a Flight, in id order.</p>
+     *
+     * @param flightId The id of the Flight
+     * @param after The id of the last Booking on the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return
+     * @return List of at most limit Booking objects
+     */
+    List<Booking> findPageByFlight(Long flightId, Long after, int limit) {
+        return em.createNamedQuery(Booking.FIND_PAGE_BY_FLIGHT, Booking.class)
+                .setParameter("flightId", flightId)
+                .setParameter("after", after == null ? Long.MIN_VALUE : after)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
     /**
      * <p>Returns a list of Booking objects, specified by a String firstName.<p/>
      *
@@ -94,25 +176,46 @@ public class BookingRepository {
     }
 
     /**
-     * <p>Updates an existing Booking object in the application database with the provided Booking object.</p>
-     *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * <p>Updates an existing Booking in the application database with a single UPDATE statement, without reading it
+     * first. When a version is given the row is only updated if it is still at that version, so that a concurrent change
+     * is detected rather than overwritten.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The statement bypasses the persistence context and its entity listeners, so the new last modified time and
+     * version are set on the given Booking here, and the write is recorded with the {@link ModificationTracker}. Without a
+     * version to match, the version written is read back, so that the caller can still tag its response.</p>
      *
-     * @param Booking The Booking object to be merged with an existing Booking
-     * @return The Booking that has been merged
-     * @throws ConstraintViolationException, ValidationException, Exception
+     * @param booking The Booking holding the new values
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Booking was updated, false if there is no Booking with its id (at that version)
      */
-    Booking update(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("BookingRepository.update() - Updating " + booking.getCustomer().getFirstName() + " " + booking.getCustomer().getLastName());
+    boolean update(Booking booking, Long version) {
+        log.info("BookingRepository.update() - Updating " + booking.getId());
+
+        Date now = new Date();
+        Query query = em.createNamedQuery(version == null ? Booking.UPDATE_ANY_VERSION : Booking.UPDATE)
+                .setParameter("id", booking.getId())
+                .setParameter("customer", booking.getCustomer())
+                .setParameter("flight", booking.getFlight())
+                .setParameter("bookingDate", booking.getBookingDate(), TemporalType.DATE)
+                .setParameter("lastModified", now, TemporalType.TIMESTAMP);
+        if (version != null) {
+            query.setParameter("version", version);
+        }
+        if (query.executeUpdate() == 0) {
+            return false;
+        }
 
-        // Either update the Booking or add it if it can't be found.
-        em.merge(booking);
+        tracker.modified(Booking.class);
+        booking.setLastModified(now);
+        booking.setVersion(version == null ? findVersion(booking.getId()) : version + 1);
+        return true;
+    }
 
-        return booking;
+    /*
+     * The UPDATE holds the lock on the row until the transaction ends, so the version read here is the one it wrote.
+     */
+    private Long findVersion(Long id) {
+        return (Long) em.createNamedQuery(Booking.FIND_REVISION, Object[].class).setParameter("id", id).getSingleResult()[0];
     }
 
     /**
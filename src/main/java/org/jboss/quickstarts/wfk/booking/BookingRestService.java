@@ -3,18 +3,31 @@ package org.jboss.quickstarts.wfk.booking;
 
 import io.swagger.annotations.*;
 
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.dto.DtoMapper;
+import org.jboss.quickstarts.wfk.flight.Flight;
+import org.jboss.quickstarts.wfk.util.ConditionalGet;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.Revision;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Tuple;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -42,12 +55,28 @@ import java.util.logging.Logger;
 @Api(value = "/bookings", description = "Operations about bookings")
 @Stateless
 public class BookingRestService {
+    /** Fields that may be selected with the fields query parameter. The Customer and Flight are selected by id. */
+    static final Map<String, String> FIELDS;
+
+    static {
+        Map<String, String> fields = new LinkedHashMap<>(FieldSelection.allowing("id", "bookingDate"));
+        fields.put("customerId", "customer.id");
+        fields.put("flightId", "flight.id");
+        FIELDS = Collections.unmodifiableMap(fields);
+    }
+
     @Inject
     private @Named("logger") Logger log;
     
     @Inject
     private BookingService service;
 
+    @Context
+    private UriInfo uriInfo;
+
+    @Context
+    private Request request;
+
     /**
      * <p>Return all the Bookings.  They are sorted alphabetically by name.</p>
      *
@@ -55,30 +84,48 @@ public class BookingRestService {
      *
      * <p>Examples: <pre>GET api/bookings?firstname=John</pre>, <pre>GET api/bookings?firstname=John&lastname=Smith</pre></p>
      *
+     * <p>A comma separated list of fields limits each Booking to just those fields, and only those columns are read
+     * from the database. Example: <pre>GET api/bookings?fields=id,customerId,flightId</pre></p>
+     *
+     * <p>The response carries an ETag, and is answered with 304 Not Modified if the client's copy is still current.
+     * The Customer table is part of the ETag, as the Bookings are searched by their Customer's name.</p>
+     *
      * @return A Response containing a list of Bookings
      */
     @GET
-    @ApiOperation(value = "Fetch all Bookings by customer", notes = "Returns a JSON array of all stored Booking objects.")
-    public Response retrieveAllBookings(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
-        List<Booking> bookings;
-
-        if(firstname == null && lastname == null) {
-            bookings = service.findAllOrderedByName();
-        } else if(lastname == null) {
-                bookings = service.findAllByFirstName(firstname);
-        } else if(firstname == null) {
-                bookings = service.findAllByLastName(lastname);
-        } else {
-                bookings = service.findAllByFirstName(firstname);
-                bookings.retainAll(service.findAllByLastName(lastname));
-        }
+    @ApiOperation(value = "Fetch all Bookings by customer", notes = "Returns a JSON array of all stored Booking objects."
+            + " Supply fields to return only some fields.")
+    public Response retrieveAllBookings(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname,
+                                        @QueryParam(FieldSelection.QUERY_PARAM) String fields) {
+        FieldSelection selection = FieldSelection.parse(fields, FIELDS);
+        return ConditionalGet.respondForTables(request, uriInfo, () -> {
+            if (selection != null) {
+                return Response.ok(selection.toMaps(service.findAllByCustomerName(firstname, lastname, selection)));
+            }
 
-        return Response.ok(bookings).build();
+            List<Booking> bookings;
+
+            if(firstname == null && lastname == null) {
+                bookings = service.findAllOrderedByName();
+            } else if(lastname == null) {
+                    bookings = service.findAllByFirstName(firstname);
+            } else if(firstname == null) {
+                    bookings = service.findAllByLastName(lastname);
+            } else {
+                    bookings = service.findAllByFirstName(firstname);
+                    bookings.retainAll(service.findAllByLastName(lastname));
+            }
+
+            return Response.ok(DtoMapper.toBookings(bookings, DtoMapper.DEFAULT_DEPTH));
+        }, Booking.class, Customer.class, Flight.class);
     }
 
     /**
      * <p>Search for and return a Booking identified by id.</p>
      *
+     * <p>The ETag is built from the versions of the Booking, its Customer and its Flight, which are read on their own
+     * first, so that a client whose copy is current gets a 304 without the Booking being loaded.</p>
+     *
      * @param id The long parameter value provided as a Booking's id
      * @return A Response containing a single Booking
      */
@@ -96,16 +143,36 @@ public class BookingRestService {
     public Response retrieveBookingById(
             @ApiParam(value = "Id of Booking to be fetched", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Comma separated fields to return, for example id,customerId,flightId")
+            @QueryParam(FieldSelection.QUERY_PARAM)
+            String fields) {
 
-        Booking booking = service.findById(id);
-        if (booking == null) {
+        FieldSelection selection = FieldSelection.parse(fields, FIELDS);
+        Revision revision = service.findRevision(id);
+        if (revision == null) {
             // Verify that the booking exists. Return 404, if not present.
             throw new RestServiceException("No Booking with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Booking = " + booking.toString());
 
-        return Response.ok(booking).build();
+        return ConditionalGet.respond(request, revision.getLastModified(),
+                ConditionalGet.tag(uriInfo, id, revision.getVersions()), () -> {
+            if (selection != null) {
+                Tuple tuple = service.findById(id, selection);
+                if (tuple == null) {
+                    throw new RestServiceException("No Booking with the id " + id + " was found!", Response.Status.NOT_FOUND);
+                }
+                return Response.ok(selection.toMap(tuple));
+            }
+
+            Booking booking = service.findById(id);
+            if (booking == null) {
+                throw new RestServiceException("No Booking with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            log.info("findById " + id + ": found Booking = " + booking.toString());
+
+            return Response.ok(DtoMapper.toBooking(booking, DtoMapper.DEFAULT_DEPTH));
+        });
     }
 
     /**
@@ -122,7 +189,7 @@ public class BookingRestService {
     @ApiResponses(value = {
             @ApiResponse(code = 201, message = "Booking created successfully."),
             @ApiResponse(code = 400, message = "Invalid Booking supplied in request body"),
-            @ApiResponse(code = 409, message = "Booking supplied in request body conflicts with an existing Booking"),
+            @ApiResponse(code = 409, message = "Booking supplied in request body conflicts with an existing Booking, or its Flight is sold out"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response createBooking(
@@ -150,6 +217,11 @@ builder = Response.status(Response.Status.CREATED).entity(booking);
             }
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
 
+        } catch (SoldOutException e) {
+            // Handle a Flight with no seats left on that date
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("flight", "The flight is sold out on that date, please choose another");
+            throw new RestServiceException("Conflict", responseObj, Response.Status.CONFLICT, e);
         } catch (UniqueEmailException e) {
             // Handle the unique constraint violation
             Map<String, String> responseObj = new HashMap<>();
@@ -168,9 +240,15 @@ builder = Response.status(Response.Status.CREATED).entity(booking);
      * <p>Updates the booking with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>The Booking is not read first. It is updated with one statement that only matches the version the client last read,
+     * given as the ETag in If-Match or as the version in the body; if neither is given, whatever is stored is
+     * overwritten. When nothing is updated the response is 404 if the Booking does not exist, and 412 if it has been
+     * changed since.</p>
+     *
      * @param booking The Booking object, constructed automatically from JSON input, to be <i>updated</i> via
-     * {@link BookingService#update(Booking)}
+     * {@link BookingService#update(Booking, Long)}
      * @param id The long parameter value provided as the id of the Booking to be updated
+     * @param ifMatch The ETag of the Booking as the client last read it, or null
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
@@ -180,13 +258,17 @@ builder = Response.status(Response.Status.CREATED).entity(booking);
             @ApiResponse(code = 200, message = "Booking updated successfully"),
             @ApiResponse(code = 400, message = "Invalid Booking supplied in request body"),
             @ApiResponse(code = 404, message = "Booking with id not found"),
-            @ApiResponse(code = 409, message = "Booking details supplied in request body conflict with another existing Booking"),
+            @ApiResponse(code = 409, message = "Booking details supplied in request body conflict with another existing Booking, or its Flight is sold out"),
+            @ApiResponse(code = 412, message = "Booking has been changed since it was read"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response updateBooking(
             @ApiParam(value = "Id of Booking to be updated", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
             long id,
+            @ApiParam(value = "ETag of the Booking as last read; the update is refused with 412 if it has changed since")
+            @HeaderParam(HttpHeaders.IF_MATCH)
+            String ifMatch,
             @ApiParam(value = "JSON representation of Booking object to be updated in the database", required = true)
             Booking booking) {
 
@@ -202,21 +284,14 @@ builder = Response.status(Response.Status.CREATED).entity(booking);
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(booking.getId()) == null) {
-            // Verify that the booking exists. Return 404, if not present.
-            throw new RestServiceException("No Booking with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        // The version the client last read. There is no read here to check the Booking exists; the update finds out.
+        Long version = ConditionalGet.expectedVersion(ifMatch, id, booking.getVersion());
 
-        Response.ResponseBuilder builder;
+        boolean updated;
 
         try {
-            // Apply the changes the Booking.
-            service.update(booking);
-
-            // Create an OK Response and pass the booking back in case it is needed.
-            builder = Response.ok(booking);
-
-
+            // Apply the changes the Booking, in one UPDATE that only matches the version the client read.
+            updated = service.update(booking, version);
         } catch (ConstraintViolationException ce) {
             //Handle bean validation issues
             Map<String, String> responseObj = new HashMap<>();
@@ -225,6 +300,11 @@ builder = Response.status(Response.Status.CREATED).entity(booking);
                 responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
             }
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+        } catch (SoldOutException e) {
+            // Handle a move to a Flight with no seats left on that date
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("flight", "The flight is sold out on that date, please choose another");
+            throw new RestServiceException("Conflict", responseObj, Response.Status.CONFLICT, e);
         } /*catch (UniqueEmailException e) {
             // Handle the unique constraint violation
             Map<String, String> responseObj = new HashMap<>();
@@ -240,8 +320,14 @@ builder = Response.status(Response.Status.CREATED).entity(booking);
             throw new RestServiceException(e);
         }
 
+        if (!updated) {
+            // Only now is it worth finding out whether the Booking exists: 404 if not, 412 if it has changed.
+            throw ConditionalGet.notUpdated("Booking", id, service.findRevision(id) != null);
+        }
+
         log.info("updateBooking completed. Booking = " + booking.toString());
-        return builder.build();
+        // Create an OK Response and pass the booking back in case it is needed.
+        return ConditionalGet.tagged(Response.ok(booking), uriInfo, id, booking).build();
     }
 
     /**
@@ -16,18 +16,18 @@
  */
 package org.jboss.quickstarts.wfk.booking;
 
-import org.jboss.quickstarts.wfk.area.Area;
-import org.jboss.quickstarts.wfk.area.AreaService;
-import org.jboss.resteasy.client.jaxrs.ResteasyClient;
-import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
-import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.Revision;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Tuple;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.logging.Logger;
 
 /**
@@ -57,15 +57,8 @@ public class BookingService {
     @Inject
     private BookingRepository crud;
 
-    private ResteasyClient client;
-
-    /**
-     * <p>Create a new client which will be used for our outgoing REST client communication</p>
-     */
-    public BookingService() {
-        // Create client service instance to make REST requests to upstream service
-        client = new ResteasyClientBuilder().build();
-    }
+    @Inject
+    private SeatInventory seats;
 
     /**
      * <p>Returns a List of all persisted {@link Booking} objects, sorted alphabetically by last name.<p/>
@@ -76,6 +69,16 @@ public class BookingService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns the version and last modified time of a single Booking, specified by a Long id, without loading it.<p/>
+     *
+     * @param id The id field of the Booking
+     * @return The revision of the Booking, or null if there is no such Booking
+     */
+    Revision findRevision(Long id) {
+        return crud.findRevision(id);
+    }
+
     /**
      * <p>Returns a single Booking object, specified by a Long id.<p/>
      *
@@ -85,6 +88,54 @@ public class BookingService {
     Booking findById(Long id) {
         return crud.findById(id);
     }
+
+    /**
+     * <p>Returns the selected fields of a single Booking, specified by a Long id.<p/>
+     *
+     * @param id The id field of the Booking to be returned
+     * @param fields The fields to select
+     * @return The selected fields, or null if there is no such Booking
+     */
+    Tuple findById(Long id, FieldSelection fields) {
+        return crud.findById(id, fields);
+    }
+
+    /**
+     * <p>Returns the selected fields of the Bookings made by Customers with the given names. Either name may be
+     * null.<p/>
+     *
+     * @param firstName The firstName of the Customers whose Bookings are to be returned, or null
+     * @param lastName The lastName of the Customers whose Bookings are to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByCustomerName(String firstName, String lastName, FieldSelection fields) {
+        return crud.findAllByCustomerName(firstName, lastName, fields);
+    }
+    /**
+     * <p>Returns one page of the Bookings made by a Customer, in id order.<p/>
+     *
+     * @param customerId The id of the Customer
+     * @param after The id of the last Booking on the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return
+     * @return List of Booking objects
+     */
+    public List<Booking> findPageByCustomer(Long customerId, Long after, int limit) {
+        return crud.findPageByCustomer(customerId, after, limit);
+    }
+
+    /**
+     * <p>Returns one page of the Bookings made on a Flight, in id order.<p/>
+     *
+     * @param flightId The id of the Flight
+     * @param after The id of the last Booking on the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return
+     * @return List of Booking objects
+     */
+    public List<Booking> findPageByFlight(Long flightId, Long after, int limit) {
+        return crud.findPageByFlight(flightId, after, limit);
+    }
+
     /**
      * <p>Returns a single Booking object, specified by a String firstName.<p/>
      *
@@ -108,11 +159,13 @@ public class BookingService {
     /**
      * <p>Writes the provided Booking object to the application database.<p/>
      *
-     * <p>Validates the data in the provided Booking object using a {@link BookingValidator} object.<p/>
+     * <p>Validates the data in the provided Booking object using a {@link BookingValidator} object, and takes a seat for
+     * it from the {@link SeatInventory}.<p/>
      *
      * @param booking The Booking object to be written to the database using a {@link BookingRepository} object
      * @return The Booking object that has been successfully written to the application database
      * @throws ConstraintViolationException, ValidationException, Exception
+     * @throws SoldOutException If the Flight has no seats left on the Booking's date
      */
     public Booking create(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
         log.info("BookingService.create() - Creating " + booking);
@@ -120,6 +173,9 @@ public class BookingService {
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
         validator.validateBooking(booking);
 
+        // Take a seat; this is undone if the Booking is not written.
+        seats.reserve(booking);
+
         // Write the booking to the database.
         return crud.create(booking);
     }
@@ -129,18 +185,47 @@ public class BookingService {
      *
      * <p>Validates the data in the provided Booking object using a BookingValidator object.<p/>
      *
+     * <p>The Booking is written with one UPDATE statement that also checks its version, rather than being read and then
+     * merged. If it moves to another Flight or date, a seat is taken there and the old one given back.<p/>
+     *
+     * <p>The Flight and date it held are read along with its version, and the UPDATE only matches that version, so the
+     * seat given back is the one it really held. When no version is given and another update gets in between, the
+     * Booking is read and written again rather than both updates giving back the same seat.<p/>
+     *
      * @param booking The Booking object to be passed as an update to the application database
-     * @return The Booking object that has been successfully updated in the application database
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Booking was updated, false if there is no Booking with its id (at that version)
      * @throws ConstraintViolationException, ValidationException, Exception
+     * @throws SoldOutException If the Booking moves to a Flight and date with no seats left
      */
-    Booking update(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("BookingService.update() - Updating " + booking.getCustomer().getFirstName() + " " + booking.getCustomer().getLastName());
+    boolean update(Booking booking, Long version) throws ConstraintViolationException, ValidationException, Exception {
+        log.info("BookingService.update() - Updating " + booking.getId());
         
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
         validator.validateBooking(booking);
 
-        // Either update the booking or add it if it can't be found.
-        return crud.update(booking);
+        while (true) {
+            Object[] seat = seats.findSeat(booking.getId());
+            if (seat == null) {
+                return false;
+            }
+            Long stored = (Long) seat[2];
+            if (version != null && !version.equals(stored)) {
+                return false;
+            }
+
+            if (crud.update(booking, stored)) {
+                Long flightId = booking.getFlight() == null ? null : booking.getFlight().getId();
+                if (!(Objects.equals(seat[0], flightId) && sameDay((Date) seat[1], booking.getBookingDate()))) {
+                    seats.reserve(booking);
+                    seats.release((Long) seat[0], (Date) seat[1]);
+                }
+                return true;
+            }
+            if (version != null) {
+                return false;
+            }
+        }
     }
 
     /**
@@ -157,10 +242,18 @@ public class BookingService {
 
         if (booking.getId() != null) {
             deletedBooking = crud.delete(booking);
+            seats.release(booking.getFlight() == null ? null : booking.getFlight().getId(), booking.getBookingDate());
         } else {
             log.info("delete() - No ID was found so can't Delete.");
         }
 
         return deletedBooking;
     }
+
+    private static boolean sameDay(Date a, Date b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return new java.sql.Date(a.getTime()).toLocalDate().equals(new java.sql.Date(b.getTime()).toLocalDate());
+    }
 }
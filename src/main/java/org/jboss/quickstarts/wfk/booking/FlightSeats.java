@@ -0,0 +1,102 @@
+package org.jboss.quickstarts.wfk.booking;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+
+import org.jboss.quickstarts.wfk.flight.Flight;
+
+/**
+ * <p>The number of seats sold on a {@link Flight} on one date. There is a row for each date on which the Flight has
+ * been booked, created when it is first booked on that date.</p>
+ *
+ * <p>The row is only ever changed with the conditional UPDATE statements below, which sell a seat only while fewer than
+ * the Flight's capacity have been sold, so two Bookings cannot both take the last seat.</p>
+ *
+ * @see SeatInventory
+ */
+@Entity
+@NamedQueries({
+        @NamedQuery(name = FlightSeats.FIND_SOLD, query = "SELECT s.sold FROM FlightSeats s"
+                + " WHERE s.flight.id = :flightId AND s.date = :date"),
+        @NamedQuery(name = FlightSeats.RESERVE, query = "UPDATE FlightSeats s SET s.sold = s.sold + 1"
+                + " WHERE s.flight.id = :flightId AND s.date = :date"
+                + " AND s.sold < (SELECT f.capacity FROM Flight f WHERE f.id = :flightId)"),
+        @NamedQuery(name = FlightSeats.RELEASE, query = "UPDATE FlightSeats s SET s.sold = s.sold - 1"
+                + " WHERE s.flight.id = :flightId AND s.date = :date AND s.sold > 0")
+})
+@Table(name = "flight_seats", uniqueConstraints = @UniqueConstraint(columnNames = {"flight_id", "flight_date"}))
+public class FlightSeats implements Serializable {
+    /** Default value included to remove warning. Remove or modify at will. **/
+    private static final long serialVersionUID = 1L;
+
+    public static final String FIND_SOLD = "FlightSeats.findSold";
+    public static final String RESERVE = "FlightSeats.reserve";
+    public static final String RELEASE = "FlightSeats.release";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "flight_seats_id")
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "flight_id", nullable = false)
+    private Flight flight;
+
+    @Column(name = "flight_date", nullable = false)
+    @Temporal(TemporalType.DATE)
+    private Date date;
+
+    @Column(name = "sold", nullable = false)
+    private int sold;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Flight getFlight() {
+        return flight;
+    }
+
+    public void setFlight(Flight flight) {
+        this.flight = flight;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public void setDate(Date date) {
+        this.date = date;
+    }
+
+    public int getSold() {
+        return sold;
+    }
+
+    public void setSold(int sold) {
+        this.sold = sold;
+    }
+
+    @Override
+    public String toString() {
+        return "FlightSeats [flight=" + (flight == null ? null : flight.getId()) + ", date=" + date + ", sold=" + sold + "]";
+    }
+}
@@ -0,0 +1,47 @@
+package org.jboss.quickstarts.wfk.booking;
+
+import java.util.Date;
+import java.util.logging.Logger;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.PersistenceException;
+
+/**
+ * <p>Creates the {@link FlightSeats} row for a Flight and date the first time it is booked.</p>
+ *
+ * <p>The row is inserted in a transaction of its own, so that if two Bookings race to create it the loser's failed
+ * insert only rolls back that transaction, and not the Booking, which then goes on to use the winner's row.</p>
+ */
+@Stateless
+public class FlightSeatsCreator {
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private SeatInventoryRepository crud;
+
+    /**
+     * <p>Inserts the row for the Flight and date, with no seats sold, unless there already is one.</p>
+     *
+     * @param flightId The id of the Flight
+     * @param date The date of the Flight
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void createIfAbsent(Long flightId, Date date) {
+        if (crud.findSold(flightId, date) != null) {
+            return;
+        }
+        try {
+            crud.create(flightId, date);
+        } catch (PersistenceException e) {
+            // Inserted by another transaction since we looked; this one is rolled back, and theirs is used.
+            log.fine("FlightSeatsCreator.createIfAbsent() - Seats for flight " + flightId + " on " + date
+                    + " were created concurrently: " + e);
+        }
+    }
+}
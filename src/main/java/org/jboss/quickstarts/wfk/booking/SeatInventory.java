@@ -0,0 +1,303 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.booking;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.jboss.quickstarts.wfk.util.NearCache;
+
+/**
+ * <p>Keeps the Bookings on each Flight and date within the Flight's capacity.</p>
+ *
+ * <p>The seats left on each Flight and date are counted in memory with an atomic counter, which a Booking takes a seat
+ * from without any lock. Once a Flight is full, further Bookings are turned away by the counter alone, without going to
+ * the database. Otherwise the seat is also sold in the database by a conditional UPDATE of the {@link FlightSeats} row,
+ * which only matches while seats are left: that is the final guard, and a counter that turns out to have been too
+ * generous (because seats were sold elsewhere) is set to zero. If the transaction rolls back, the seat is put back.</p>
+ *
+ * <p>The UPDATE is the only statement that waits on other Bookings of the same Flight and date, and it holds the row
+ * lock only until the Booking commits; there is no read of the seats sold and no count of the Bookings first.</p>
+ *
+ * <p>Counters are loaded from the database when first used and then dropped after <code>seat.inventory.ttlMillis</code>
+ * (default 30 seconds), so that seats returned elsewhere are picked up; at most <code>seat.inventory.maxSize</code>
+ * (default 10000) are kept.</p>
+ */
+@ApplicationScoped
+public class SeatInventory {
+
+    static final int MAX_SIZE = Integer.getInteger("seat.inventory.maxSize", 10000);
+
+    static final long TTL_MILLIS = Long.getLong("seat.inventory.ttlMillis", TimeUnit.SECONDS.toMillis(30));
+
+    private static final int STRIPES = 64;
+
+    private final NearCache<Seats, Counter> counters = new NearCache<>(MAX_SIZE, TTL_MILLIS);
+
+    /* Serialise the first Bookings of a Flight and date while its row is created, without a lock for every key. */
+    private final Object[] creating = new Object[STRIPES];
+
+    private final AtomicLong reserved = new AtomicLong();
+
+    private final AtomicLong rejectedInMemory = new AtomicLong();
+
+    private final AtomicLong rejectedByDatabase = new AtomicLong();
+
+    @Inject
+    private SeatInventoryRepository crud;
+
+    @Inject
+    private FlightSeatsCreator creator;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    public SeatInventory() {
+        for (int i = 0; i < STRIPES; i++) {
+            creating[i] = new Object();
+        }
+    }
+
+    /**
+     * <p>Takes a seat for the Booking on its Flight and date. Bookings without a Flight or date, or on a Flight that does
+     * not exist, are left for validation and the database to reject.</p>
+     *
+     * @param booking The Booking about to be written
+     * @throws SoldOutException If there are no seats left on the Flight on that date
+     */
+    void reserve(Booking booking) throws SoldOutException {
+        if (booking.getFlight() == null || booking.getFlight().getId() == null || booking.getBookingDate() == null) {
+            return;
+        }
+        Seats seats = new Seats(booking.getFlight().getId(), booking.getBookingDate());
+        Counter counter = counters.get(seats, this::load);
+        if (counter == null) {
+            return;
+        }
+
+        if (!counter.take()) {
+            rejectedInMemory.incrementAndGet();
+            throw soldOut(seats);
+        }
+
+        boolean sold = false;
+        try {
+            sold = crud.reserve(seats.flightId, seats.sqlDate());
+        } catch (RuntimeException e) {
+            counter.give();
+            throw e;
+        }
+        if (!sold) {
+            // Sold elsewhere since the counter was loaded; the database is right.
+            counter.empty();
+            rejectedByDatabase.incrementAndGet();
+            throw soldOut(seats);
+        }
+        reserved.incrementAndGet();
+
+        afterCompletion(status -> {
+            if (status != Status.STATUS_COMMITTED) {
+                counter.give();
+            }
+        });
+    }
+
+    /**
+     * <p>Gives back the seat held by a Booking that is being deleted, or moved to another Flight or date.</p>
+     *
+     * @param flightId The id of the Flight the Booking was on
+     * @param date The date the Booking was on
+     */
+    void release(Long flightId, Date date) {
+        if (flightId == null || date == null) {
+            return;
+        }
+        Seats seats = new Seats(flightId, date);
+        if (crud.release(seats.flightId, seats.sqlDate())) {
+            // Load the counter afresh once the seat is really back.
+            afterCompletion(status -> counters.invalidate(seats));
+        }
+    }
+
+    /**
+     * <p>Gives back the seats held by every Booking of a Customer, before the Customer and its Bookings are deleted.</p>
+     *
+     * @param customerId The id of the Customer
+     */
+    public void releaseForCustomer(Long customerId) {
+        for (Object[] seat : crud.findSeatsByCustomer(customerId)) {
+            release((Long) seat[0], (Date) seat[1]);
+        }
+    }
+
+    /**
+     * @param bookingId The id of a Booking
+     * @return The {flight id, booking date, version} of the Booking as stored, or null if there is no such Booking
+     */
+    Object[] findSeat(Long bookingId) {
+        return crud.findSeat(bookingId);
+    }
+
+    /**
+     * <p>Drops the counters of a Flight whose capacity may have changed, now and again once the surrounding transaction
+     * completes.</p>
+     *
+     * @param flightId The id of the Flight
+     */
+    public void invalidateFlight(Long flightId) {
+        if (flightId == null) {
+            return;
+        }
+        counters.invalidateIf(counter -> flightId.equals(counter.flightId));
+        afterCompletion(status -> counters.invalidateIf(counter -> flightId.equals(counter.flightId)));
+    }
+
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    public long getRejectedInMemory() {
+        return rejectedInMemory.get();
+    }
+
+    public long getRejectedByDatabase() {
+        return rejectedByDatabase.get();
+    }
+
+    private Counter load(Seats seats) {
+        Integer capacity = crud.findCapacity(seats.flightId);
+        if (capacity == null) {
+            return null;
+        }
+        Date date = seats.sqlDate();
+        Integer sold = crud.findSold(seats.flightId, date);
+        if (sold == null) {
+            // First Booking on this Flight and date: create the row the UPDATE will sell from. The row is committed
+            // before the lock is let go, so the other first Bookings find it rather than racing to insert it too.
+            synchronized (creating[(seats.hashCode() & 0x7fffffff) % STRIPES]) {
+                creator.createIfAbsent(seats.flightId, date);
+            }
+            sold = crud.findSold(seats.flightId, date);
+            if (sold == null) {
+                sold = 0;
+            }
+        }
+        return new Counter(seats.flightId, Math.max(0, capacity - sold));
+    }
+
+    private SoldOutException soldOut(Seats seats) {
+        return new SoldOutException("Flight " + seats.flightId + " is sold out on " + seats.date);
+    }
+
+    private void afterCompletion(IntConsumer listener) {
+        if (transactions != null && transactions.getTransactionKey() != null
+                && transactions.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    listener.accept(status);
+                }
+            });
+        } else {
+            listener.accept(Status.STATUS_COMMITTED);
+        }
+    }
+
+    /**
+     * <p>A Flight on a date.</p>
+     */
+    private static final class Seats {
+
+        final Long flightId;
+
+        final LocalDate date;
+
+        Seats(Long flightId, Date date) {
+            this.flightId = flightId;
+            // Booking dates are stored without a time, so Bookings on the same day share their seats.
+            this.date = new java.sql.Date(date.getTime()).toLocalDate();
+        }
+
+        Date sqlDate() {
+            return java.sql.Date.valueOf(date);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Seats)) {
+                return false;
+            }
+            Seats other = (Seats) obj;
+            return flightId.equals(other.flightId) && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(flightId, date);
+        }
+    }
+
+    /**
+     * <p>The seats left on a Flight on a date, as far as this server knows.</p>
+     */
+    private static final class Counter {
+
+        final Long flightId;
+
+        private final AtomicInteger remaining;
+
+        Counter(Long flightId, int remaining) {
+            this.flightId = flightId;
+            this.remaining = new AtomicInteger(remaining);
+        }
+
+        boolean take() {
+            int left;
+            do {
+                left = remaining.get();
+                if (left <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(left, left - 1));
+            return true;
+        }
+
+        void give() {
+            remaining.incrementAndGet();
+        }
+
+        void empty() {
+            remaining.set(0);
+        }
+    }
+}
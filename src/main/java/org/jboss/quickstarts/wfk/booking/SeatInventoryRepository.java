@@ -0,0 +1,108 @@
+package org.jboss.quickstarts.wfk.booking;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+
+import org.jboss.quickstarts.wfk.flight.Flight;
+
+/**
+ * <p>Reads and writes the {@link FlightSeats} rows behind the {@link SeatInventory}.</p>
+ */
+public class SeatInventoryRepository {
+
+    @Inject
+    private EntityManager em;
+
+    /**
+     * <p>Returns the capacity of a Flight. The Flight is looked up by id, so it usually comes from the second-level
+     * cache.</p>
+     *
+     * @param flightId The id of the Flight
+     * @return The number of seats on the Flight on each date; or null if there is no such Flight
+     */
+    Integer findCapacity(Long flightId) {
+        Flight flight = em.find(Flight.class, flightId);
+        return flight == null ? null : flight.getCapacity();
+    }
+
+    /**
+     * @param flightId The id of the Flight
+     * @param date The date of the Flight
+     * @return The number of seats sold on the Flight on that date; or null if it has not been booked on that date yet
+     */
+    Integer findSold(Long flightId, Date date) {
+        List<Integer> sold = em.createNamedQuery(FlightSeats.FIND_SOLD, Integer.class)
+                .setParameter("flightId", flightId)
+                .setParameter("date", date, TemporalType.DATE)
+                .getResultList();
+        return sold.isEmpty() ? null : sold.get(0);
+    }
+
+    /**
+     * <p>Inserts the row counting the seats sold on a Flight on a date, with none sold. Fails if another transaction
+     * has inserted it first.</p>
+     *
+     * @param flightId The id of the Flight
+     * @param date The date of the Flight
+     */
+    void create(Long flightId, Date date) {
+        FlightSeats seats = new FlightSeats();
+        seats.setFlight(em.getReference(Flight.class, flightId));
+        seats.setDate(date);
+        em.persist(seats);
+        em.flush();
+    }
+
+    /**
+     * <p>Sells one seat on a Flight on a date, with one UPDATE statement that only matches while seats are left.</p>
+     *
+     * @param flightId The id of the Flight
+     * @param date The date of the Flight
+     * @return true if a seat was sold; false if the Flight is full on that date, or has no row for it
+     */
+    boolean reserve(Long flightId, Date date) {
+        return em.createNamedQuery(FlightSeats.RESERVE)
+                .setParameter("flightId", flightId)
+                .setParameter("date", date, TemporalType.DATE)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * <p>Returns one seat on a Flight on a date.</p>
+     *
+     * @param flightId The id of the Flight
+     * @param date The date of the Flight
+     * @return true if a seat was returned; false if none had been sold
+     */
+    boolean release(Long flightId, Date date) {
+        return em.createNamedQuery(FlightSeats.RELEASE)
+                .setParameter("flightId", flightId)
+                .setParameter("date", date, TemporalType.DATE)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * @param bookingId The id of a Booking
+     * @return The {flight id, booking date, version} of the Booking, or null if there is no such Booking
+     */
+    Object[] findSeat(Long bookingId) {
+        List<Object[]> rows = em.createNamedQuery(Booking.FIND_SEAT, Object[].class)
+                .setParameter("id", bookingId)
+                .getResultList();
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * @param customerId The id of a Customer
+     * @return The {flight id, booking date} of each of the Customer's Bookings
+     */
+    List<Object[]> findSeatsByCustomer(Long customerId) {
+        return em.createNamedQuery(Booking.FIND_SEATS_BY_CUSTOMER, Object[].class)
+                .setParameter("customerId", customerId)
+                .getResultList();
+    }
+}
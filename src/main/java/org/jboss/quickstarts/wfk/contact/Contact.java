@@ -17,7 +17,13 @@
 package org.jboss.quickstarts.wfk.contact;
 
 import org.hibernate.validator.constraints.Email;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.validator.constraints.NotEmpty;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Versioned;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -42,24 +48,54 @@ import java.util.Objects;
  * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
  */
+/*
+ * Contacts are read by id far more often than they are written, so they are kept in the second-level cache.
+ */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+@EntityListeners(ModificationTracker.class)
 @NamedQueries({
         @NamedQuery(name = Contact.FIND_ALL, query = "SELECT c FROM Contact c ORDER BY c.lastName ASC, c.firstName ASC"),
-        @NamedQuery(name = Contact.FIND_BY_EMAIL, query = "SELECT c FROM Contact c WHERE c.email = :email")
+        @NamedQuery(name = Contact.FIND_BY_EMAIL, query = "SELECT c FROM Contact c WHERE c.email = :email"),
+        @NamedQuery(name = Contact.FIND_ALL_EMAILS, query = "SELECT c.email FROM Contact c"),
+        @NamedQuery(name = Contact.FIND_REVISION, query = "SELECT c.version, c.lastModified FROM Contact c WHERE c.id = :id"),
+        @NamedQuery(name = Contact.FIND_REVISION_BY_EMAIL,
+                query = "SELECT c.id, c.version, c.lastModified FROM Contact c WHERE c.email = :email"),
+        @NamedQuery(name = Contact.UPDATE, query = "UPDATE Contact c SET c.firstName = :firstName, c.lastName = :lastName,"
+                + " c.email = :email, c.phoneNumber = :phoneNumber, c.birthDate = :birthDate, c.state = :state,"
+                + " c.lastModified = :lastModified, c.version = c.version + 1 WHERE c.id = :id AND c.version = :version"),
+        @NamedQuery(name = Contact.UPDATE_ANY_VERSION, query = "UPDATE Contact c SET c.firstName = :firstName, c.lastName = :lastName,"
+                + " c.email = :email, c.phoneNumber = :phoneNumber, c.birthDate = :birthDate, c.state = :state,"
+                + " c.lastModified = :lastModified, c.version = c.version + 1 WHERE c.id = :id")
 })
 @XmlRootElement
-@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
-public class Contact implements Serializable {
+@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"),
+        indexes = @Index(name = "contact_name_idx", columnList = "last_name, first_name"))
+public class Contact implements Serializable, Versioned {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Contact.findAll";
     public static final String FIND_BY_EMAIL = "Contact.findByEmail";
+    public static final String FIND_ALL_EMAILS = "Contact.findAllEmails";
+    public static final String FIND_REVISION = "Contact.findRevision";
+    public static final String FIND_REVISION_BY_EMAIL = "Contact.findRevisionByEmail";
+    public static final String UPDATE = "Contact.update";
+    public static final String UPDATE_ANY_VERSION = "Contact.updateAnyVersion";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "contact_id")
     private Long id;
 
+    @Version
+    private Long version;
+
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date lastModified;
+
     @NotNull
     @Size(min = 1, max = 25)
     @Pattern(regexp = "[A-Za-z-']+", message = "Please use a name without numbers or specials")
@@ -88,8 +124,13 @@ public class Contact implements Serializable {
     @Temporal(TemporalType.DATE)
     private Date birthDate;
 
-    /*@Column(name = "state")
-    private String state;*/
+    /*
+     * Resolved from the area code of the phone number by the AreaDirectory whenever the Contact is written, so it is
+     * not accepted from clients.
+     */
+    @Column(name = "state")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String state;
 
     public Long getId() {
         return id;
@@ -99,6 +140,26 @@ public class Contact implements Serializable {
         this.id = id;
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
     public String getFirstName() {
         return firstName;
     }
@@ -139,13 +200,13 @@ public class Contact implements Serializable {
         this.birthDate = birthDate;
     }
 
-   /* public void setState(String state) {
+    public void setState(String state) {
         this.state = state;
     }
 
     public String getState() {
         return this.state;
-    }*/
+    }
 
     @Override
     public boolean equals(Object o) {
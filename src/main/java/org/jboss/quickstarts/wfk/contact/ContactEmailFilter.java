@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import java.util.Collection;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+
+import org.jboss.quickstarts.wfk.util.EmailFilter;
+
+/**
+ * <p>The Bloom filter of registered Contact emails consulted by {@link ContactValidator} before it looks an email up in the
+ * database.</p>
+ *
+ * <p>It is filled when the application starts and checked every ten minutes, being rebuilt if enough Contacts have been
+ * deleted or have changed email to make it stale. The filter is thread-safe, so the container does not need to lock
+ * around it.</p>
+ *
+ * @author Xujie
+ * @see EmailFilter
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ContactEmailFilter extends EmailFilter {
+
+    @Inject
+    private ContactRepository crud;
+
+    @PostConstruct
+    void init() {
+        rebuild();
+    }
+
+    @Schedule(hour = "*", minute = "*/10", persistent = false)
+    void checkStaleness() {
+        rebuildIfStale();
+    }
+
+    @Override
+    protected Collection<String> loadEmails() {
+        return crud.findAllEmails();
+    }
+}
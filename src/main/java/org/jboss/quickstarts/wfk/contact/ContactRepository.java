@@ -19,12 +19,21 @@ package org.jboss.quickstarts.wfk.contact;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
+
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Revision;
+
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -47,6 +56,9 @@ public class ContactRepository {
     @Inject
     private EntityManager em;
 
+    @Inject
+    private ModificationTracker tracker;
+
     /**
      * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.</p>
      *
@@ -57,6 +69,30 @@ public class ContactRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns the version and last modified time of a single Contact, specified by a Long id, without loading it.</p>
+     *
+     * @param id The id field of the Contact
+     * @return The revision of the Contact, or null if there is no such Contact
+     */
+    Revision findRevision(Long id) {
+        List<Object[]> rows = em.createNamedQuery(Contact.FIND_REVISION, Object[].class).setParameter("id", id).getResultList();
+        return rows.isEmpty() ? null : Revision.of(rows.get(0));
+    }
+
+    /**
+     * <p>Returns the id, version and last modified time of a single Contact, specified by a String email, without loading
+     * it.</p>
+     *
+     * @param email The email field of the Contact
+     * @return The revision of the Contact, carrying its id, or null if there is no such Contact
+     */
+    Revision findRevisionByEmail(String email) {
+        List<Object[]> rows = em.createNamedQuery(Contact.FIND_REVISION_BY_EMAIL, Object[].class)
+                .setParameter("email", email).getResultList();
+        return rows.isEmpty() ? null : Revision.withId(rows.get(0));
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a Long id.<p/>
      *
@@ -80,6 +116,15 @@ public class ContactRepository {
         return query.getSingleResult();
     }
 
+    /**
+     * <p>Returns the email of every persisted {@link Contact}, without loading the Contacts themselves.</p>
+     *
+     * @return List of emails
+     */
+    List<String> findAllEmails() {
+        return em.createNamedQuery(Contact.FIND_ALL_EMAILS, String.class).getResultList();
+    }
+
     /**
      * <p>Returns a list of Contact objects, specified by a String firstName.<p/>
      *
@@ -112,6 +157,54 @@ public class ContactRepository {
         return em.createQuery(criteria).getResultList();
     }
 
+    /**
+     * <p>Returns a List of Contact objects, specified by both a String firstName and a String lastName.</p>
+     *
+     * <p>Both names are matched in a single query, so the database can answer it from the name index rather than
+     * fetching each name bucket separately and intersecting them in memory.</p>
+     *
+     * @param firstName The firstName field of the Contacts to be returned
+     * @param lastName The lastName field of the Contacts to be returned
+     * @return The Contacts with the specified firstName and lastName
+     */
+    List<Contact> findAllByName(String firstName, String lastName) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Contact> criteria = cb.createQuery(Contact.class);
+        Root<Contact> contact = criteria.from(Contact.class);
+        criteria.select(contact)
+                .where(cb.and(cb.equal(contact.get("lastName"), lastName), cb.equal(contact.get("firstName"), firstName)))
+                .orderBy(cb.asc(contact.get("id")));
+        return em.createQuery(criteria).getResultList();
+    }
+
+    /**
+     * <p>Returns the selected fields of the Contacts with the given names, sorted alphabetically by last name. Either
+     * name may be null, in which case it does not restrict the results.</p>
+     *
+     * @param firstName The firstName field of the Contacts to be returned, or null
+     * @param lastName The lastName field of the Contacts to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByName(String firstName, String lastName, FieldSelection fields) {
+        FieldSelection.Restriction<Contact> where = (cb, c) -> cb.and(
+                lastName == null ? cb.conjunction() : cb.equal(c.get("lastName"), lastName),
+                firstName == null ? cb.conjunction() : cb.equal(c.get("firstName"), firstName));
+        return fields.query(em, Contact.class, where, "lastName", "firstName", "id").getResultList();
+    }
+
+    /**
+     * <p>Returns the selected fields of a single Contact, specified by a Long id.<p/>
+     *
+     * @param id The id field of the Contact to be returned
+     * @param fields The fields to select
+     * @return The selected fields of the Contact with the specified id, or null if there is none
+     */
+    Tuple findById(Long id, FieldSelection fields) {
+        List<Tuple> tuples = fields.query(em, Contact.class, (cb, c) -> cb.equal(c.get("id"), id)).getResultList();
+        return tuples.isEmpty() ? null : tuples.get(0);
+    }
+
     /**
      * <p>Persists the provided Contact object to the application database using the EntityManager.</p>
      *
@@ -134,25 +227,49 @@ public class ContactRepository {
     }
 
     /**
-     * <p>Updates an existing Contact object in the application database with the provided Contact object.</p>
-     *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * <p>Updates an existing Contact in the application database with a single UPDATE statement, without reading it
+     * first. When a version is given the row is only updated if it is still at that version, so that a concurrent change
+     * is detected rather than overwritten.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The statement bypasses the persistence context and its entity listeners, so the new last modified time and
+     * version are set on the given Contact here, and the write is recorded with the {@link ModificationTracker}. Without a
+     * version to match, the version written is read back, so that the caller can still tag its response.</p>
      *
-     * @param contact The Contact object to be merged with an existing Contact
-     * @return The Contact that has been merged
-     * @throws ConstraintViolationException, ValidationException, Exception
+     * @param contact The Contact holding the new values
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Contact was updated, false if there is no Contact with its id (at that version)
      */
-    Contact update(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
+    boolean update(Contact contact, Long version) {
         log.info("ContactRepository.update() - Updating " + contact.getFirstName() + " " + contact.getLastName());
 
-        // Either update the contact or add it if it can't be found.
-        em.merge(contact);
+        Date now = new Date();
+        Query query = em.createNamedQuery(version == null ? Contact.UPDATE_ANY_VERSION : Contact.UPDATE)
+                .setParameter("id", contact.getId())
+                .setParameter("firstName", contact.getFirstName())
+                .setParameter("lastName", contact.getLastName())
+                .setParameter("email", contact.getEmail())
+                .setParameter("phoneNumber", contact.getPhoneNumber())
+                .setParameter("state", contact.getState())
+                .setParameter("birthDate", contact.getBirthDate(), TemporalType.DATE)
+                .setParameter("lastModified", now, TemporalType.TIMESTAMP);
+        if (version != null) {
+            query.setParameter("version", version);
+        }
+        if (query.executeUpdate() == 0) {
+            return false;
+        }
 
-        return contact;
+        tracker.modified(Contact.class);
+        contact.setLastModified(now);
+        contact.setVersion(version == null ? findVersion(contact.getId()) : version + 1);
+        return true;
+    }
+
+    /*
+     * The UPDATE holds the lock on the row until the transaction ends, so the version read here is the one it wrote.
+     */
+    private Long findVersion(Long id) {
+        return (Long) em.createNamedQuery(Contact.FIND_REVISION, Object[].class).setParameter("id", id).getSingleResult()[0];
     }
 
     /**
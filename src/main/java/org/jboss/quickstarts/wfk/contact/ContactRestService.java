@@ -2,19 +2,32 @@ package org.jboss.quickstarts.wfk.contact;
 
 
 import io.swagger.annotations.*;
+import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
 import org.jboss.quickstarts.wfk.contact.ContactService;
+import org.jboss.quickstarts.wfk.util.ConditionalGet;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.NdjsonExporter;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.Revision;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.persistence.Tuple;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,12 +56,22 @@ import java.util.logging.Logger;
 @Api(value = "/contacts", description = "Operations about contacts")
 @Stateless
 public class ContactRestService {
+    /** Fields that may be selected with the fields query parameter. */
+    static final Map<String, String> FIELDS =
+            FieldSelection.allowing("id", "firstName", "lastName", "email", "phoneNumber", "birthDate", "state");
+
     @Inject
     private @Named("logger") Logger log;
     
     @Inject
     private ContactService service;
 
+    @Context
+    private UriInfo uriInfo;
+
+    @Context
+    private Request request;
+
     /**
      * <p>Return all the Contacts.  They are sorted alphabetically by name.</p>
      *
@@ -56,26 +79,60 @@ public class ContactRestService {
      *
      * <p>Examples: <pre>GET api/contacts?firstname=John</pre>, <pre>GET api/contacts?firstname=John&lastname=Smith</pre></p>
      *
+     * <p>A comma separated list of fields limits each Contact to just those fields, and only those columns are read
+     * from the database. Example: <pre>GET api/contacts?fields=id,firstName,lastName</pre></p>
+     *
+     * <p>The response carries an ETag, and is answered with 304 Not Modified if the client's copy is still current.</p>
+     *
      * @return A Response containing a list of Contacts
      */
     @GET
-    @ApiOperation(value = "Fetch all Contacts", notes = "Returns a JSON array of all stored Contact objects.")
-    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
-        //Create an empty collection to contain the intersection of Contacts to be returned
-        List<Contact> contacts;
-
-        if(firstname == null && lastname == null) {
-            contacts = service.findAllOrderedByName();
-        } else if(lastname == null) {
-                contacts = service.findAllByFirstName(firstname);
-        } else if(firstname == null) {
-                contacts = service.findAllByLastName(lastname);
-        } else {
-                contacts = service.findAllByFirstName(firstname);
-                contacts.retainAll(service.findAllByLastName(lastname));
-        }
+    @ApiOperation(value = "Fetch all Contacts", notes = "Returns a JSON array of all stored Contact objects."
+            + " Supply fields to return only some fields.")
+    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname,
+                                        @QueryParam(FieldSelection.QUERY_PARAM) String fields) {
+        FieldSelection selection = FieldSelection.parse(fields, FIELDS);
+        return ConditionalGet.respondForTables(request, uriInfo, () -> {
+            if (selection != null) {
+                return Response.ok(selection.toMaps(service.findAllByName(firstname, lastname, selection)));
+            }
+
+            //Create an empty collection to contain the Contacts to be returned
+            List<Contact> contacts;
+
+            if(firstname == null && lastname == null) {
+                contacts = service.findAllOrderedByName();
+            } else if(lastname == null) {
+                    contacts = service.findAllByFirstName(firstname);
+            } else if(firstname == null) {
+                    contacts = service.findAllByLastName(lastname);
+            } else {
+                    contacts = service.findAllByName(firstname, lastname);
+            }
 
-        return Response.ok(contacts).build();
+            return Response.ok(contacts);
+        }, Contact.class);
+    }
+
+    /**
+     * <p>Stream all the Contacts as newline-delimited JSON, one Contact per line.  They are sorted alphabetically by
+     * name.</p>
+     *
+     * <p>The Contacts are written out as they are read from the database instead of being collected into a List first,
+     * so this is the endpoint to use when exporting the whole table.</p>
+     *
+     * <p>Example: <pre>GET api/contacts/export</pre></p>
+     *
+     * @return A Response streaming every Contact
+     */
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExporter.APPLICATION_NDJSON)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @ApiOperation(value = "Export all Contacts", notes = "Streams every stored Contact as newline-delimited JSON, one object per line.")
+    public Response exportContacts() {
+        StreamingOutput stream = output -> service.exportAll(output);
+        return Response.ok(stream).build();
     }
 
     /**
@@ -84,6 +141,8 @@ public class ContactRestService {
      * <p>Path annotation includes very simple regex to differentiate between email addresses and Ids.
      * <strong>DO NOT</strong> attempt to use this regex to validate email addresses.</p>
      *
+     * <p>The Contact is tagged as it is when fetched by id, so a client whose copy is current gets a 304 without the
+     * Contact being loaded.</p>
      *
      * @param email The string parameter value provided as a Contact's email
      * @return A Response containing a single Contact
@@ -104,14 +163,22 @@ public class ContactRestService {
             @PathParam("email")
             String email) {
 
-        Contact contact;
-        try {
-            contact = service.findByEmail(email);
-        } catch (NoResultException e) {
+        Revision revision = service.findRevisionByEmail(email);
+        if (revision == null) {
             // Verify that the contact exists. Return 404, if not present.
             throw new RestServiceException("No Contact with the email " + email + " was found!", Response.Status.NOT_FOUND);
         }
-        return Response.ok(contact).build();
+
+        return ConditionalGet.respond(request, revision.getLastModified(),
+                ConditionalGet.tag(uriInfo, revision.getId(), revision.getVersions()), () -> {
+            Contact contact;
+            try {
+                contact = service.findByEmail(email);
+            } catch (NoResultException e) {
+                throw new RestServiceException("No Contact with the email " + email + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(contact);
+        });
     }
 
     /**
@@ -134,16 +201,36 @@ public class ContactRestService {
     public Response retrieveContactById(
             @ApiParam(value = "Id of Contact to be fetched", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "Comma separated fields to return, for example id,firstName,lastName")
+            @QueryParam(FieldSelection.QUERY_PARAM)
+            String fields) {
 
-        Contact contact = service.findById(id);
-        if (contact == null) {
+        FieldSelection selection = FieldSelection.parse(fields, FIELDS);
+        Revision revision = service.findRevision(id);
+        if (revision == null) {
             // Verify that the contact exists. Return 404, if not present.
             throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Contact = " + contact.toString());
 
-        return Response.ok(contact).build();
+        return ConditionalGet.respond(request, revision.getLastModified(),
+                ConditionalGet.tag(uriInfo, id, revision.getVersions()), () -> {
+            if (selection != null) {
+                Tuple tuple = service.findById(id, selection);
+                if (tuple == null) {
+                    throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+                }
+                return Response.ok(selection.toMap(tuple));
+            }
+
+            Contact contact = service.findById(id);
+            if (contact == null) {
+                throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            log.info("findById " + id + ": found Contact = " + contact.toString());
+
+            return Response.ok(contact);
+        });
     }
 
     /**
@@ -196,6 +283,11 @@ public class ContactRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("email", "That email is already used, please use a unique email");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
+        } catch (InvalidAreaCodeException e) {
+            // Handle a phone number whose area code the AreaDirectory does not know
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("phoneNumber", "The telephone area code provided is not recognised, please provide another");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
         }  catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
@@ -209,9 +301,15 @@ public class ContactRestService {
      * <p>Updates the contact with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>The Contact is not read first. It is updated with one statement that only matches the version the client last read,
+     * given as the ETag in If-Match or as the version in the body; if neither is given, whatever is stored is
+     * overwritten. When nothing is updated the response is 404 if the Contact does not exist, and 412 if it has been
+     * changed since.</p>
+     *
      * @param contact The Contact object, constructed automatically from JSON input, to be <i>updated</i> via
-     * {@link ContactService#update(Contact)}
+     * {@link ContactService#update(Contact, Long)}
      * @param id The long parameter value provided as the id of the Contact to be updated
+     * @param ifMatch The ETag of the Contact as the client last read it, or null
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
@@ -222,12 +320,16 @@ public class ContactRestService {
             @ApiResponse(code = 400, message = "Invalid Contact supplied in request body"),
             @ApiResponse(code = 404, message = "Contact with id not found"),
             @ApiResponse(code = 409, message = "Contact details supplied in request body conflict with another existing Contact"),
+            @ApiResponse(code = 412, message = "Contact has been changed since it was read"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response updateContact(
             @ApiParam(value = "Id of Contact to be updated", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
             long id,
+            @ApiParam(value = "ETag of the Contact as last read; the update is refused with 412 if it has changed since")
+            @HeaderParam(HttpHeaders.IF_MATCH)
+            String ifMatch,
             @ApiParam(value = "JSON representation of Contact object to be updated in the database", required = true)
             Contact contact) {
 
@@ -243,21 +345,14 @@ public class ContactRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(contact.getId()) == null) {
-            // Verify that the contact exists. Return 404, if not present.
-            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        // The version the client last read. There is no read here to check the Contact exists; the update finds out.
+        Long version = ConditionalGet.expectedVersion(ifMatch, id, contact.getVersion());
 
-        Response.ResponseBuilder builder;
+        boolean updated;
 
         try {
-            // Apply the changes the Contact.
-            service.update(contact);
-
-            // Create an OK Response and pass the contact back in case it is needed.
-            builder = Response.ok(contact);
-
-
+            // Apply the changes the Contact, in one UPDATE that only matches the version the client read.
+            updated = service.update(contact, version);
         } catch (ConstraintViolationException ce) {
             //Handle bean validation issues
             Map<String, String> responseObj = new HashMap<>();
@@ -272,13 +367,24 @@ public class ContactRestService {
             responseObj.put("email", "That email is already used, please use a unique email");
             throw new RestServiceException("Contact details supplied in request body conflict with another Contact",
                     responseObj, Response.Status.CONFLICT, e);
+        } catch (InvalidAreaCodeException e) {
+            // Handle a phone number whose area code the AreaDirectory does not know
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("phoneNumber", "The telephone area code provided is not recognised, please provide another");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
+        if (!updated) {
+            // Only now is it worth finding out whether the Contact exists: 404 if not, 412 if it has changed.
+            throw ConditionalGet.notUpdated("Contact", id, service.findRevision(id) != null);
+        }
+
         log.info("updateContact completed. Contact = " + contact.toString());
-        return builder.build();
+        // Create an OK Response and pass the contact back in case it is needed.
+        return ConditionalGet.tagged(Response.ok(contact), uriInfo, id, contact).build();
     }
 
     /**
@@ -16,16 +16,20 @@
  */
 package org.jboss.quickstarts.wfk.contact;
 
-import org.jboss.quickstarts.wfk.area.AreaService;
-import org.jboss.resteasy.client.jaxrs.ResteasyClient;
-import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
-import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+import org.jboss.quickstarts.wfk.area.AreaDirectory;
+import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.NdjsonExporter;
+import org.jboss.quickstarts.wfk.util.Revision;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Tuple;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -56,15 +60,14 @@ public class ContactService {
     @Inject
     private ContactRepository crud;
 
-    private ResteasyClient client;
+    @Inject
+    private NdjsonExporter exporter;
 
-    /**
-     * <p>Create a new client which will be used for our outgoing REST client communication</p>
-     */
-    public ContactService() {
-        // Create client service instance to make REST requests to upstream service
-        client = new ResteasyClientBuilder().build();
-    }
+    @Inject
+    private ContactEmailFilter emailFilter;
+
+    @Inject
+    private AreaDirectory areaDirectory;
 
     /**
      * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.<p/>
@@ -75,6 +78,39 @@ public class ContactService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Writes every persisted {@link Contact} to the output as newline-delimited JSON, sorted alphabetically by last
+     * name.<p/>
+     *
+     * @param output The stream to write the Contacts to
+     * @return The number of Contacts written
+     * @throws IOException If the output cannot be written
+     */
+    long exportAll(OutputStream output) throws IOException {
+        return exporter.export(Contact.FIND_ALL, output);
+    }
+
+    /**
+     * <p>Returns the version and last modified time of a single Contact, specified by a Long id, without loading it.<p/>
+     *
+     * @param id The id field of the Contact
+     * @return The revision of the Contact, or null if there is no such Contact
+     */
+    Revision findRevision(Long id) {
+        return crud.findRevision(id);
+    }
+
+    /**
+     * <p>Returns the id, version and last modified time of a single Contact, specified by a String email, without loading
+     * it.<p/>
+     *
+     * @param email The email field of the Contact
+     * @return The revision of the Contact, carrying its id, or null if there is no such Contact
+     */
+    Revision findRevisionByEmail(String email) {
+        return crud.findRevisionByEmail(email);
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a Long id.<p/>
      *
@@ -117,14 +153,52 @@ public class ContactService {
         return crud.findAllByLastName(lastName);
     }
 
+    /**
+     * <p>Returns a List of Contact objects, specified by both a String firstName and a String lastName.<p/>
+     *
+     * @param firstName The firstName field of the Contacts to be returned
+     * @param lastName The lastName field of the Contacts to be returned
+     * @return The Contacts with the specified firstName and lastName
+     */
+    List<Contact> findAllByName(String firstName, String lastName) {
+        return crud.findAllByName(firstName, lastName);
+    }
+
+    /**
+     * <p>Returns the selected fields of the Contacts with the given names, sorted alphabetically by last name. Either
+     * name may be null.<p/>
+     *
+     * @param firstName The firstName field of the Contacts to be returned, or null
+     * @param lastName The lastName field of the Contacts to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByName(String firstName, String lastName, FieldSelection fields) {
+        return crud.findAllByName(firstName, lastName, fields);
+    }
+
+    /**
+     * <p>Returns the selected fields of a single Contact, specified by a Long id.<p/>
+     *
+     * @param id The id field of the Contact to be returned
+     * @param fields The fields to select
+     * @return The selected fields, or null if there is no such Contact
+     */
+    Tuple findById(Long id, FieldSelection fields) {
+        return crud.findById(id, fields);
+    }
+
     /**
      * <p>Writes the provided Contact object to the application database.<p/>
      *
      * <p>Validates the data in the provided Contact object using a {@link ContactValidator} object.<p/>
      *
+     * <p>The state is resolved from the area code of the phone number by the {@link AreaDirectory}.<p/>
+     *
      * @param contact The Contact object to be written to the database using a {@link ContactRepository} object
      * @return The Contact object that has been successfully written to the application database
      * @throws ConstraintViolationException, ValidationException, Exception
+     * @throws InvalidAreaCodeException If the area code of the phone number does not exist
      */
     Contact create(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
         log.info("ContactService.create() - Creating " + contact.getFirstName() + " " + contact.getLastName());
@@ -132,11 +206,13 @@ public class ContactService {
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-        //Create client service instance to make REST requests to upstream service
-        ResteasyWebTarget target = client.target("http://csc8104-states.b9ad.pro-us-east-1.openshiftapps.com");
+        contact.setState(areaDirectory.resolve(contact.getPhoneNumber()).getState());
 
         // Write the contact to the database.
-        return crud.create(contact);
+        crud.create(contact);
+        emailFilter.add(contact.getEmail());
+
+        return contact;
     }
 
     /**
@@ -144,20 +220,30 @@ public class ContactService {
      *
      * <p>Validates the data in the provided Contact object using a ContactValidator object.<p/>
      *
+     * <p>The Contact is written with one UPDATE statement that also checks its version, rather than being read and then
+     * merged.<p/>
+     *
      * @param contact The Contact object to be passed as an update to the application database
-     * @return The Contact object that has been successfully updated in the application database
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Contact was updated, false if there is no Contact with its id (at that version)
      * @throws ConstraintViolationException, ValidationException, Exception
+     * @throws InvalidAreaCodeException If the area code of the phone number does not exist
      */
-    Contact update(Contact contact) throws ConstraintViolationException, ValidationException, Exception {
+    boolean update(Contact contact, Long version) throws ConstraintViolationException, ValidationException, Exception {
         log.info("ContactService.update() - Updating " + contact.getFirstName() + " " + contact.getLastName());
         
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
+        contact.setState(areaDirectory.resolve(contact.getPhoneNumber()).getState());
+
+        if (!crud.update(contact, version)) {
+            return false;
+        }
+        // The Contact is not read first, so an email it is replacing is not known and stays in the filter, where at
+        // worst it causes a false positive that is settled by the database.
+        emailFilter.add(contact.getEmail());
 
-        // Set client target location and define the proxy API class
-        ResteasyWebTarget target = client.target("http://csc8104-states.b9ad.pro-us-east-1.openshiftapps.com");
-        AreaService service = target.proxy(AreaService.class);// Either update the contact or add it if it can't be found.
-        return crud.update(contact);
+        return true;
     }
 
     /**
@@ -174,6 +260,7 @@ public class ContactService {
 
         if (contact.getId() != null) {
             deletedContact = crud.delete(contact);
+            emailFilter.recordRemoval(contact.getEmail());
         } else {
             log.info("delete() - No ID was found so can't Delete.");
         }
@@ -40,6 +40,9 @@ public class ContactValidator {
     @Inject
     private ContactRepository crud;
 
+    @Inject
+    private ContactEmailFilter emailFilter;
+
     /**
      * <p>Validates the given Contact object and throws validation exceptions based on the type of error. If the error is standard
      * bean validation errors then it will throw a ConstraintValidationException with the set of the constraints violated.<p/>
@@ -74,17 +77,25 @@ public class ContactValidator {
      * <p>Since Update will being using an email that is already in the database we need to make sure that it is the email
      * from the record being updated.</p>
      *
+     * <p>The {@link ContactEmailFilter} is asked first, so the database is only queried when the email might already be
+     * registered.</p>
+     *
      * @param email The email to check is unique
      * @param id The user id to check the email against if it was found
      * @return boolean which represents whether the email was found, and if so if it belongs to the user with id
      */
     boolean emailAlreadyExists(String email, Long id) {
+        // The Bloom filter has never seen this email, so it cannot be registered and there is nothing to look up.
+        if (!emailFilter.mightContain(email)) {
+            return false;
+        }
+
         Contact contact = null;
         Contact contactWithID = null;
         try {
             contact = crud.findByEmail(email);
         } catch (NoResultException e) {
-            // ignore
+            emailFilter.recordFalsePositive();
         }
 
         if (contact != null && id != null) {
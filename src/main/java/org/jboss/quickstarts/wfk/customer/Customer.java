@@ -5,30 +5,50 @@ import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedEntityGraphs;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
+import javax.persistence.Persistence;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Past;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.QueryHints;
 import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.NotEmpty;
 import org.jboss.quickstarts.wfk.booking.Booking;
 import org.jboss.quickstarts.wfk.travelagent.TravelAgent;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Versioned;
 
 /**
  * <p>This is a the Domain object. The Contact class represents how contact resources are represented in the application
@@ -43,25 +63,76 @@ import org.jboss.quickstarts.wfk.travelagent.TravelAgent;
  * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
  */
+/*
+ * Customers are looked up by id and by email over and over (every Booking refers to one), so they are kept in the
+ * second-level cache, as are the results of the lookup by email.
+ */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+@EntityListeners(ModificationTracker.class)
 @NamedQueries({
-        @NamedQuery(name = Customer.FIND_ALL, query = "SELECT c FROM Customer c ORDER BY c.lastName ASC, c.firstName ASC"),
-        @NamedQuery(name = Customer.FIND_BY_EMAIL, query = "SELECT c FROM Customer c WHERE c.email = :email")
+        @NamedQuery(name = Customer.FIND_ALL, query = "SELECT c FROM Customer c ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Customer.FIND_PAGE_AFTER, query = "SELECT c FROM Customer c WHERE c.lastName > :lastName"
+                + " OR (c.lastName = :lastName AND (c.firstName > :firstName OR (c.firstName = :firstName AND c.id > :id)))"
+                + " ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Customer.FIND_BY_EMAIL, query = "SELECT c FROM Customer c WHERE c.email = :email",
+                hints = @QueryHint(name = QueryHints.CACHEABLE, value = "true")),
+        @NamedQuery(name = Customer.FIND_ALL_EMAILS, query = "SELECT c.email FROM Customer c"),
+        @NamedQuery(name = Customer.FIND_REVISION, query = "SELECT c.version, c.lastModified FROM Customer c WHERE c.id = :id"),
+        @NamedQuery(name = Customer.FIND_REVISION_BY_EMAIL,
+                query = "SELECT c.id, c.version, c.lastModified FROM Customer c WHERE c.email = :email"),
+        @NamedQuery(name = Customer.UPDATE, query = "UPDATE Customer c SET c.firstName = :firstName, c.lastName = :lastName,"
+                + " c.email = :email, c.phoneNumber = :phoneNumber, c.birthDate = :birthDate, c.state = :state,"
+                + " c.lastModified = :lastModified, c.version = c.version + 1 WHERE c.id = :id AND c.version = :version"),
+        @NamedQuery(name = Customer.UPDATE_ANY_VERSION, query = "UPDATE Customer c SET c.firstName = :firstName, c.lastName = :lastName,"
+                + " c.email = :email, c.phoneNumber = :phoneNumber, c.birthDate = :birthDate, c.state = :state,"
+                + " c.lastModified = :lastModified, c.version = c.version + 1 WHERE c.id = :id")
+})
+/*
+ * The entity graphs are the two shapes a Customer can be read in: without its Bookings (the default, as the
+ * association is lazy), or with them fetched in the same query.
+ */
+@NamedEntityGraphs({
+        @NamedEntityGraph(name = Customer.GRAPH_SUMMARY),
+        @NamedEntityGraph(name = Customer.GRAPH_WITH_BOOKINGS, attributeNodes = @NamedAttributeNode("bookings"))
 })
 @XmlRootElement
-@Table(name = "customer", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+@JsonIgnoreProperties(value = "bookings", allowGetters = true)
+/*
+ * The name index covers the (lastName, firstName, id) sort key used by FIND_ALL and FIND_PAGE_AFTER, so fetching a page
+ * is a range scan that starts at the cursor instead of a sort of the whole table.
+ */
+@Table(name = "customer", uniqueConstraints = @UniqueConstraint(columnNames = "email"),
+        indexes = @Index(name = "customer_name_idx", columnList = "last_name, first_name, id"))
 
-public class Customer implements Serializable {
+public class Customer implements Serializable, Versioned {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 2L;
 
     public static final String FIND_ALL = "Customer.findAll";
+    public static final String FIND_PAGE_AFTER = "Customer.findPageAfter";
     public static final String FIND_BY_EMAIL = "Customer.findByEmail";
+    public static final String FIND_ALL_EMAILS = "Customer.findAllEmails";
+    public static final String FIND_REVISION = "Customer.findRevision";
+    public static final String FIND_REVISION_BY_EMAIL = "Customer.findRevisionByEmail";
+    public static final String UPDATE = "Customer.update";
+    public static final String UPDATE_ANY_VERSION = "Customer.updateAnyVersion";
+    public static final String GRAPH_SUMMARY = "Customer.summary";
+    public static final String GRAPH_WITH_BOOKINGS = "Customer.withBookings";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "customer_id")
     private Long id;
 
+    @Version
+    private Long version;
+
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date lastModified;
+
     @NotNull
     @Size(min = 1, max = 25)
     @Pattern(regexp = "[A-Za-z-']+", message = "Please use a name without numbers or specials")
@@ -91,21 +162,43 @@ public class Customer implements Serializable {
     @Temporal(TemporalType.DATE)
     private Date birthDate;
 
-    /*@Column(name = "state")
-    private String state;*/
+    /*
+     * Resolved from the area code of the phone number by the AreaDirectory whenever the Customer is written, so it is
+     * not accepted from clients.
+     */
+    @Column(name = "state")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String state;
     
 //    @OneToMany(mappedBy = "customer", cascade=CascadeType.ALL, fetch=FetchType.EAGER)
-    @OneToMany(mappedBy="customer", cascade = CascadeType.REMOVE, fetch = FetchType.EAGER)
+    /*
+     * Lazy, so that reading a Customer does not read all of its Bookings too. When the Bookings of several Customers are
+     * needed they are loaded in batches, rather than with one query per Customer.
+     */
+    @OneToMany(mappedBy="customer", cascade = CascadeType.REMOVE, fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
     private List<Booking> bookings;
     
+    @JsonIgnore
     public List<Booking> getBookings() {
 		return bookings;
 	}
 
+    @JsonIgnore
 	public void setBookings(List<Booking> bookings) {
 		this.bookings = bookings;
 	}
 
+    /*
+     * The Bookings as written to JSON: only when they have already been loaded, for example through the withBookings
+     * entity graph, so that serializing a Customer never triggers a lazy load (or fails outside a transaction).
+     */
+    @JsonProperty("bookings")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    List<Booking> getLoadedBookings() {
+        return Persistence.getPersistenceUtil().isLoaded(this, "bookings") ? bookings : null;
+    }
+
 	public Long getId() {
         return id;
     }
@@ -114,6 +207,26 @@ public class Customer implements Serializable {
         this.id = id;
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
     public String getFirstName() {
         return firstName;
     }
@@ -154,12 +267,19 @@ public class Customer implements Serializable {
         this.birthDate = birthDate;
     }
 
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((birthDate == null) ? 0 : birthDate.hashCode());
-		result = prime * result + ((bookings == null) ? 0 : bookings.hashCode());
 		result = prime * result + ((email == null) ? 0 : email.hashCode());
 		result = prime * result + ((firstName == null) ? 0 : firstName.hashCode());
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
@@ -182,11 +302,6 @@ public class Customer implements Serializable {
 				return false;
 		} else if (!birthDate.equals(other.birthDate))
 			return false;
-		if (bookings == null) {
-			if (other.bookings != null)
-				return false;
-		} else if (!bookings.equals(other.bookings))
-			return false;
 		if (email == null) {
 			if (other.email != null)
 				return false;
@@ -218,7 +333,7 @@ public class Customer implements Serializable {
 	@Override
 	public String toString() {
 		return "Customer [id=" + id + ", firstName=" + firstName + ", lastName=" + lastName + ", email=" + email
-				+ ", phoneNumber=" + phoneNumber + ", birthDate=" + birthDate + ", bookings=" + bookings + "]";
+				+ ", phoneNumber=" + phoneNumber + ", birthDate=" + birthDate + "]";
 	}
 
     
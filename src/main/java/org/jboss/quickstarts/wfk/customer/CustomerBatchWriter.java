@@ -0,0 +1,32 @@
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.List;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+
+/**
+ * <p>Writes a chunk of already validated Customers in a transaction of its own, so that a chunk which fails is rolled
+ * back without affecting the chunks written before it.</p>
+ *
+ * <p>The inserts of a chunk are sent to the database together as JDBC batches (see <code>hibernate.jdbc.batch_size</code>
+ * in persistence.xml).</p>
+ *
+ * @see CustomerService#importAll(List, java.util.Map)
+ */
+@Stateless
+public class CustomerBatchWriter {
+
+    @Inject
+    private CustomerRepository crud;
+
+    /**
+     * @param customers The Customers to persist
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void persist(List<Customer> customers) {
+        crud.createAll(customers);
+    }
+}
@@ -0,0 +1,150 @@
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.jboss.quickstarts.wfk.util.NearCache;
+
+/**
+ * <p>An application wide cache of {@link Customer} objects looked up by id and by email, sitting in front of
+ * {@link CustomerRepository#findById(Long)} and {@link CustomerRepository#findByEmail(String)}.</p>
+ *
+ * <p>Only the summary shape of a Customer is cached, without its Bookings. The cache keeps its own copy of each
+ * Customer and hands every caller a fresh copy, so a caller that changes the Customer it was given changes neither the
+ * cached one nor the one another request is holding. Anything that changes a Customer must call
+ * {@link #invalidate(Customer)}. Entries are dropped straight away and dropped again once the surrounding transaction
+ * completes, so a read made by another request before the commit cannot leave the old state behind.</p>
+ *
+ * <p>The size and time-to-live can be tuned with the <code>customer.cache.maxSize</code> and
+ * <code>customer.cache.ttlMillis</code> system properties.</p>
+ *
+ * @see NearCache
+ */
+@ApplicationScoped
+public class CustomerCache {
+
+    static final int MAX_SIZE = Integer.getInteger("customer.cache.maxSize", 1000);
+
+    static final long TTL_MILLIS = Long.getLong("customer.cache.ttlMillis", TimeUnit.MINUTES.toMillis(5));
+
+    private final NearCache<Long, Customer> byId = new NearCache<>(MAX_SIZE, TTL_MILLIS);
+
+    private final NearCache<String, Customer> byEmail = new NearCache<>(MAX_SIZE, TTL_MILLIS);
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    /**
+     * <p>Returns the Customer with the given id, using the loader only if it is not cached.</p>
+     *
+     * @param id The id of the Customer
+     * @param loader Reads the Customer from the database
+     * @return The Customer with the specified id; or null
+     */
+    Customer findById(Long id, Function<Long, Customer> loader) {
+        return copyOf(byId.get(id, key -> copyOf(loader.apply(key))));
+    }
+
+    /**
+     * <p>Returns the Customer with the given email, using the loader only if it is not cached. Emails that are not
+     * registered are not cached, so whatever the loader does for a missing Customer happens on every call.</p>
+     *
+     * @param email The email of the Customer
+     * @param loader Reads the Customer from the database
+     * @return The Customer with the specified email
+     */
+    Customer findByEmail(String email, Function<String, Customer> loader) {
+        return copyOf(byEmail.get(email, key -> copyOf(loader.apply(key))));
+    }
+
+    /**
+     * <p>Drops any cached copy of the given Customer, under its id and under any email it has been cached by.</p>
+     *
+     * @param customer The Customer that has been, or is about to be, changed
+     */
+    public void invalidate(Customer customer) {
+        if (customer == null) {
+            return;
+        }
+        final Long id = customer.getId();
+        final String email = customer.getEmail();
+        evict(id, email);
+
+        if (transactions != null && transactions.getTransactionKey() != null
+                && transactions.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    evict(id, email);
+                }
+            });
+        }
+    }
+
+    /**
+     * <p>Drops every cached Customer.</p>
+     */
+    public void invalidateAll() {
+        byId.invalidateAll();
+        byEmail.invalidateAll();
+    }
+
+    /**
+     * <p>Returns the size of the caches by id and by email, and their hits, misses and evictions.</p>
+     *
+     * @return The counts of each cache, keyed by what it is looked up by
+     */
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        stats.put("byId", byId.getStats());
+        stats.put("byEmail", byEmail.getStats());
+        return stats;
+    }
+
+    /**
+     * <p>Copies the fields of the summary shape of a Customer. The Bookings are left out, so the copy holds nothing that
+     * is shared with the original or bound to the persistence context it was read in.</p>
+     *
+     * @param customer The Customer to copy, or null
+     * @return The copy, or null if customer was null
+     */
+    static Customer copyOf(Customer customer) {
+        if (customer == null) {
+            return null;
+        }
+        Customer copy = new Customer();
+        copy.setId(customer.getId());
+        copy.setVersion(customer.getVersion());
+        copy.setLastModified(customer.getLastModified() == null ? null : new Date(customer.getLastModified().getTime()));
+        copy.setFirstName(customer.getFirstName());
+        copy.setLastName(customer.getLastName());
+        copy.setEmail(customer.getEmail());
+        copy.setPhoneNumber(customer.getPhoneNumber());
+        copy.setBirthDate(customer.getBirthDate() == null ? null : new Date(customer.getBirthDate().getTime()));
+        copy.setState(customer.getState());
+        return copy;
+    }
+
+    private void evict(Long id, String email) {
+        if (id != null) {
+            byId.invalidate(id);
+            byEmail.invalidateIf(cached -> id.equals(cached.getId()));
+        }
+        if (email != null) {
+            byEmail.invalidate(email);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.jboss.quickstarts.wfk.customer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.persistence.Tuple;
+
+/**
+ * <p>The position of a {@link Customer} within the (lastName, firstName, id) ordering used when paging through the
+ * customer list.</p>
+ *
+ * <p>Clients only ever see the opaque token produced by {@link #encode()} and hand it back unchanged to fetch the next
+ * page. Because the next page is found by seeking past these key values, rather than by skipping an offset, the cost of
+ * fetching a page does not grow with how deep into the list the client is.</p>
+ *
+ * @see CustomerRepository#findPageOrderedByName(CustomerCursor, int)
+ */
+public class CustomerCursor {
+
+    // Names are restricted to [A-Za-z-'] by the Customer model so a line break can never appear inside a key value.
+    private static final String SEPARATOR = "\n";
+
+    private final Long id;
+    private final String lastName;
+    private final String firstName;
+
+    CustomerCursor(Long id, String lastName, String firstName) {
+        this.id = id;
+        this.lastName = lastName;
+        this.firstName = firstName;
+    }
+
+    /**
+     * <p>Returns a cursor positioned directly after the given Customer.</p>
+     *
+     * @param customer The last Customer of the current page
+     * @return A cursor from which the next page starts
+     */
+    static CustomerCursor after(Customer customer) {
+        return new CustomerCursor(customer.getId(), customer.getLastName(), customer.getFirstName());
+    }
+
+    /**
+     * <p>Returns a cursor positioned directly after the Customer a tuple was read from. The tuple must hold the id,
+     * lastName and firstName fields.</p>
+     *
+     * @param tuple The last tuple of the current page
+     * @return A cursor from which the next page starts
+     */
+    static CustomerCursor after(Tuple tuple) {
+        return new CustomerCursor(tuple.get("id", Long.class), tuple.get("lastName", String.class),
+                tuple.get("firstName", String.class));
+    }
+
+    /**
+     * <p>Parses a token previously produced by {@link #encode()}.</p>
+     *
+     * @param token The opaque token supplied by the client
+     * @return The decoded cursor
+     * @throws IllegalArgumentException If the token was not produced by this class
+     */
+    static CustomerCursor decode(String token) throws IllegalArgumentException {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        String[] parts = decoded.split(SEPARATOR, 3);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        return new CustomerCursor(Long.valueOf(parts[0]), parts[1], parts[2]);
+    }
+
+    /**
+     * @return The opaque, URL safe representation of this cursor
+     */
+    String encode() {
+        String raw = id + SEPARATOR + lastName + SEPARATOR + firstName;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Long getId() {
+        return id;
+    }
+
+    String getLastName() {
+        return lastName;
+    }
+
+    String getFirstName() {
+        return firstName;
+    }
+}
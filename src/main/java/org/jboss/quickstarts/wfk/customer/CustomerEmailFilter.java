@@ -0,0 +1,47 @@
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.Collection;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+
+import org.jboss.quickstarts.wfk.util.EmailFilter;
+
+/**
+ * <p>The Bloom filter of registered Customer emails consulted by {@link CustomerValidator} before it looks an email up in the
+ * database.</p>
+ *
+ * <p>It is filled when the application starts and checked every ten minutes, being rebuilt if enough Customers have been
+ * deleted or have changed email to make it stale. The filter is thread-safe, so the container does not need to lock
+ * around it.</p>
+ *
+ * @see EmailFilter
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CustomerEmailFilter extends EmailFilter {
+
+    @Inject
+    private CustomerRepository crud;
+
+    @PostConstruct
+    void init() {
+        rebuild();
+    }
+
+    @Schedule(hour = "*", minute = "*/10", persistent = false)
+    void checkStaleness() {
+        rebuildIfStale();
+    }
+
+    @Override
+    protected Collection<String> loadEmails() {
+        return crud.findAllEmails();
+    }
+}
@@ -0,0 +1,91 @@
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * <p>The outcome of importing one row of a batch posted to <code>api/customers/batch</code>.</p>
+ *
+ * <p>Rows are numbered from 0 in the order they appeared in the request body. A row that was created carries the id
+ * of the new Customer; any other row carries a map of fields, and related errors, in the same form as the single
+ * Customer endpoints return.</p>
+ *
+ * @see CustomerService#importAll(java.util.List, java.util.Map)
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CustomerImportResult {
+
+    public enum Status {
+        /** The Customer was written to the database. */
+        CREATED,
+        /** The row could not be read, or failed bean validation. */
+        INVALID,
+        /** The email is already registered, or appears earlier in the same batch. */
+        CONFLICT,
+        /** The row was valid but could not be written. */
+        FAILED
+    }
+
+    private final int row;
+
+    private Status status;
+
+    private Long id;
+
+    private Map<String, String> errors;
+
+    private final Customer customer;
+
+    private CustomerImportResult(int row, Status status, Customer customer, Map<String, String> errors) {
+        this.row = row;
+        this.status = status;
+        this.customer = customer;
+        this.errors = errors;
+    }
+
+    static CustomerImportResult pending(int row, Customer customer) {
+        return new CustomerImportResult(row, null, customer, null);
+    }
+
+    static CustomerImportResult rejected(int row, Status status, Map<String, String> errors) {
+        return new CustomerImportResult(row, status, null, errors);
+    }
+
+    static CustomerImportResult rejected(int row, Status status, String field, String error) {
+        return rejected(row, status, Collections.singletonMap(field, error));
+    }
+
+    void created() {
+        this.status = Status.CREATED;
+        this.id = customer.getId();
+    }
+
+    void failed(String error) {
+        this.status = Status.FAILED;
+        this.errors = Collections.singletonMap("error", error);
+    }
+
+    @JsonIgnore
+    Customer getCustomer() {
+        return customer;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Map<String, String> getErrors() {
+        return errors;
+    }
+}
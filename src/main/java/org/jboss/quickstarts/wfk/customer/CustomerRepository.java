@@ -1,11 +1,17 @@
 package org.jboss.quickstarts.wfk.customer;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -13,6 +19,11 @@ import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import org.hibernate.Hibernate;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Revision;
+
 public class CustomerRepository {
 
     @Inject
@@ -21,6 +32,9 @@ public class CustomerRepository {
     @Inject
     private EntityManager em;
 
+    @Inject
+    private ModificationTracker tracker;
+
     /**
      * <p>Returns a List of all persisted {@link Customer} objects, sorted alphabetically by last name.</p>
      *
@@ -31,6 +45,73 @@ public class CustomerRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns one page of persisted {@link Customer} objects in (lastName, firstName, id) order.</p>
+     *
+     * <p>Rather than skipping an offset, the query seeks directly past the cursor on the customer name index, so every
+     * page costs the same no matter how far into the list it is.</p>
+     *
+     * @param after The position of the last Customer on the previous page, or null for the first page
+     * @param limit The maximum number of Customers to return
+     * @return List of at most limit Customer objects
+     */
+    List<Customer> findPageOrderedByName(CustomerCursor after, int limit) {
+        TypedQuery<Customer> query;
+        if (after == null) {
+            query = em.createNamedQuery(Customer.FIND_ALL, Customer.class);
+        } else {
+            query = em.createNamedQuery(Customer.FIND_PAGE_AFTER, Customer.class)
+                    .setParameter("lastName", after.getLastName())
+                    .setParameter("firstName", after.getFirstName())
+                    .setParameter("id", after.getId());
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns one page of the selected fields of persisted {@link Customer} objects in (lastName, firstName, id)
+     * order. The sort key is always selected, so the cursor for the next page can be read from the last tuple.</p>
+     *
+     * @param after The position of the last Customer on the previous page, or null for the first page
+     * @param limit The maximum number of Customers to return
+     * @param fields The fields to select
+     * @return List of at most limit tuples
+     */
+    List<Tuple> findPageOrderedByName(CustomerCursor after, int limit, FieldSelection fields) {
+        FieldSelection.Restriction<Customer> where = after == null ? null : (cb, c) -> cb.or(
+                cb.greaterThan(c.get("lastName"), after.getLastName()),
+                cb.and(cb.equal(c.get("lastName"), after.getLastName()), cb.or(
+                        cb.greaterThan(c.get("firstName"), after.getFirstName()),
+                        cb.and(cb.equal(c.get("firstName"), after.getFirstName()),
+                                cb.greaterThan(c.<Long>get("id"), after.getId())))));
+        return fields.query(em, Customer.class, where, "lastName", "firstName", "id")
+                .setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns the version and last modified time of a single Customer, specified by a Long id, without loading it.</p>
+     *
+     * @param id The id field of the Customer
+     * @return The revision of the Customer, or null if there is no such Customer
+     */
+    Revision findRevision(Long id) {
+        List<Object[]> rows = em.createNamedQuery(Customer.FIND_REVISION, Object[].class).setParameter("id", id).getResultList();
+        return rows.isEmpty() ? null : Revision.of(rows.get(0));
+    }
+
+    /**
+     * <p>Returns the id, version and last modified time of a single Customer, specified by a String email, without loading
+     * it.</p>
+     *
+     * @param email The email field of the Customer
+     * @return The revision of the Customer, carrying its id, or null if there is no such Customer
+     */
+    Revision findRevisionByEmail(String email) {
+        List<Object[]> rows = em.createNamedQuery(Customer.FIND_REVISION_BY_EMAIL, Object[].class)
+                .setParameter("email", email).getResultList();
+        return rows.isEmpty() ? null : Revision.withId(rows.get(0));
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a Long id.<p/>
      *
@@ -41,6 +122,51 @@ public class CustomerRepository {
         return em.find(Customer.class, id);
     }
 
+    /**
+     * <p>Returns a single Customer object, specified by a Long id, read in the shape described by the named entity graph
+     * (see {@link Customer#GRAPH_SUMMARY} and {@link Customer#GRAPH_WITH_BOOKINGS}).<p/>
+     *
+     * @param id The id field of the Customer to be returned
+     * @param graph The name of the entity graph to fetch
+     * @return The Customer with the specified id
+     */
+    Customer findById(Long id, String graph) {
+        return em.find(Customer.class, id,
+                Collections.<String, Object>singletonMap("javax.persistence.fetchgraph", em.getEntityGraph(graph)));
+    }
+
+    /**
+     * <p>Returns the selected fields of a single Customer, specified by a Long id.<p/>
+     *
+     * @param id The id field of the Customer to be returned
+     * @param fields The fields to select
+     * @return The selected fields of the Customer with the specified id, or null if there is none
+     */
+    Tuple findById(Long id, FieldSelection fields) {
+        List<Tuple> tuples = fields.query(em, Customer.class, (cb, c) -> cb.equal(c.get("id"), id)).getResultList();
+        return tuples.isEmpty() ? null : tuples.get(0);
+    }
+
+    /**
+     * <p>Brings Customers that have already been read into the shape described by the named entity graph.</p>
+     *
+     * <p>A collection cannot be fetch joined into a query that is limited to a page of results, so lists are read in
+     * the summary shape and, for the withBookings graph, their Bookings are initialised afterwards. The association is
+     * annotated with @BatchSize, so this loads the Bookings of many Customers per query rather than one query each.</p>
+     *
+     * @param customers The Customers to fetch the graph for
+     * @param graph The name of the entity graph to fetch
+     * @return The same list of Customers
+     */
+    List<Customer> fetchGraph(List<Customer> customers, String graph) {
+        if (Customer.GRAPH_WITH_BOOKINGS.equals(graph)) {
+            for (Customer customer : customers) {
+                Hibernate.initialize(customer.getBookings());
+            }
+        }
+        return customers;
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a String email.</p>
      *
@@ -54,6 +180,15 @@ public class CustomerRepository {
         return query.getSingleResult();
     }
 
+    /**
+     * <p>Returns the email of every persisted {@link Customer}, without loading the Customers themselves.</p>
+     *
+     * @return List of emails
+     */
+    List<String> findAllEmails() {
+        return em.createNamedQuery(Customer.FIND_ALL_EMAILS, String.class).getResultList();
+    }
+
     /**
      * <p>Returns a list of Customer objects, specified by a String firstName.<p/>
      *
@@ -86,6 +221,42 @@ public class CustomerRepository {
         return em.createQuery(criteria).getResultList();
     }
 
+    /**
+     * <p>Returns a List of Customer objects, specified by both a String firstName and a String lastName.</p>
+     *
+     * <p>Both names are matched in a single query, so the database can answer it from the name index rather than
+     * fetching each name bucket separately and intersecting them in memory.</p>
+     *
+     * @param firstName The firstName field of the Customers to be returned
+     * @param lastName The lastName field of the Customers to be returned
+     * @return The Customers with the specified firstName and lastName
+     */
+    List<Customer> findAllByName(String firstName, String lastName) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Customer> criteria = cb.createQuery(Customer.class);
+        Root<Customer> customer = criteria.from(Customer.class);
+        criteria.select(customer)
+                .where(cb.and(cb.equal(customer.get("lastName"), lastName), cb.equal(customer.get("firstName"), firstName)))
+                .orderBy(cb.asc(customer.get("id")));
+        return em.createQuery(criteria).getResultList();
+    }
+
+    /**
+     * <p>Returns the selected fields of the Customers with the given names, sorted alphabetically by last name. Either
+     * name may be null, in which case it does not restrict the results.</p>
+     *
+     * @param firstName The firstName field of the Customers to be returned, or null
+     * @param lastName The lastName field of the Customers to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByName(String firstName, String lastName, FieldSelection fields) {
+        FieldSelection.Restriction<Customer> where = (cb, c) -> cb.and(
+                lastName == null ? cb.conjunction() : cb.equal(c.get("lastName"), lastName),
+                firstName == null ? cb.conjunction() : cb.equal(c.get("firstName"), firstName));
+        return fields.query(em, Customer.class, where, "lastName", "firstName", "id").getResultList();
+    }
+
     /**
      * <p>Persists the provided Customer object to the application database using the EntityManager.</p>
      *
@@ -108,25 +279,67 @@ public class CustomerRepository {
     }
 
     /**
-     * <p>Updates an existing Customer object in the application database with the provided Customer object.</p>
+     * <p>Persists all of the provided Customer objects, then flushes and clears the persistence context.</p>
+     *
+     * <p>Flushing once at the end lets Hibernate send the inserts to the database in JDBC batches, and clearing
+     * afterwards stops the persisted Customers from piling up in memory over a large import.</p>
      *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * @param customers The Customer objects to be persisted
+     */
+    void createAll(List<Customer> customers) {
+        log.info("CustomerRepository.createAll() - Creating " + customers.size() + " Customers");
+
+        for (Customer customer : customers) {
+            em.persist(customer);
+        }
+        em.flush();
+        em.clear();
+    }
+
+    /**
+     * <p>Updates an existing Customer in the application database with a single UPDATE statement, without reading it
+     * first. When a version is given the row is only updated if it is still at that version, so that a concurrent change
+     * is detected rather than overwritten.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The statement bypasses the persistence context and its entity listeners, so the new last modified time and
+     * version are set on the given Customer here, and the write is recorded with the {@link ModificationTracker}. Without a
+     * version to match, the version written is read back, so that the caller can still tag its response.</p>
      *
-     * @param Customer The Customer object to be merged with an existing Customer
-     * @return The Customer that has been merged
-     * @throws ConstraintViolationException, ValidationException, Exception
+     * @param customer The Customer holding the new values
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Customer was updated, false if there is no Customer with its id (at that version)
      */
-    Customer update(Customer customer) throws ConstraintViolationException, ValidationException, Exception {
+    boolean update(Customer customer, Long version) {
         log.info("CustomerRepository.update() - Updating " + customer.getFirstName() + " " + customer.getLastName());
 
-        // Either update the Customer or add it if it can't be found.
-        em.merge(customer);
+        Date now = new Date();
+        Query query = em.createNamedQuery(version == null ? Customer.UPDATE_ANY_VERSION : Customer.UPDATE)
+                .setParameter("id", customer.getId())
+                .setParameter("firstName", customer.getFirstName())
+                .setParameter("lastName", customer.getLastName())
+                .setParameter("email", customer.getEmail())
+                .setParameter("phoneNumber", customer.getPhoneNumber())
+                .setParameter("state", customer.getState())
+                .setParameter("birthDate", customer.getBirthDate(), TemporalType.DATE)
+                .setParameter("lastModified", now, TemporalType.TIMESTAMP);
+        if (version != null) {
+            query.setParameter("version", version);
+        }
+        if (query.executeUpdate() == 0) {
+            return false;
+        }
+
+        tracker.modified(Customer.class);
+        customer.setLastModified(now);
+        customer.setVersion(version == null ? findVersion(customer.getId()) : version + 1);
+        return true;
+    }
 
-        return customer;
+    /*
+     * The UPDATE holds the lock on the row until the transaction ends, so the version read here is the one it wrote.
+     */
+    private Long findVersion(Long id) {
+        return (Long) em.createNamedQuery(Customer.FIND_REVISION, Object[].class).setParameter("id", id).getSingleResult()[0];
     }
 
     /**
@@ -141,19 +354,18 @@ public class CustomerRepository {
 
         if (customer.getId() != null) {
             /*
-             * The Hibernate session (aka EntityManager's persistent context) is closed and invalidated after the commit(), 
-             * because it is bound to a transaction. The object goes into a detached status. If you open a new persistent 
-             * context, the object isn't known as in a persistent state in this new context, so you have to merge it. 
-             * 
-             * Merge sees that the object has a primary key (id), so it knows it is not new and must hit the database 
-             * to reattach it. 
-             * 
-             * Note, there is NO remove method which would just take a primary key (id) and a entity class as argument. 
-             * You first need an object in a persistent state to be able to delete it.
-             * 
-             * Therefore we merge first and then we can remove it.
+             * The Customer passed in is usually a copy handed out by the CustomerCache, without its Bookings, so it is not
+             * merged: that would drop the Bookings the removal cascades to. The managed Customer is removed instead, as
+             * long as it is still at the version the caller read.
              */
-            em.remove(em.merge(customer));
+            Customer managed = em.find(Customer.class, customer.getId());
+            if (managed != null) {
+                if (customer.getVersion() != null && !customer.getVersion().equals(managed.getVersion())) {
+                    throw new OptimisticLockException("Customer " + customer.getId() + " has changed since it was read",
+                            null, managed);
+                }
+                em.remove(managed);
+            }
 
         } else {
             log.info("CustomerRepository.delete() - No ID was found so can't Delete.");
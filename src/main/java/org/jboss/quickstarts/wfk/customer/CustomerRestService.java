@@ -1,21 +1,52 @@
 package org.jboss.quickstarts.wfk.customer;
 
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.*;
 
+import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.booking.BookingService;
 import org.jboss.quickstarts.wfk.contact.UniqueEmailException;
+import org.jboss.quickstarts.wfk.dto.DtoMapper;
+import org.jboss.quickstarts.wfk.flight.Flight;
+import org.jboss.quickstarts.wfk.util.ConditionalGet;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.NdjsonExporter;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Paging;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.Revision;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.persistence.Tuple;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,12 +75,36 @@ import java.util.logging.Logger;
 @Api(value = "/customers", description = "Operations about customers")
 @Stateless
 public class CustomerRestService {
+    /** Response header carrying the token for the next page, when there is one. */
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    /** Value of the view query parameter selecting {@link Customer#GRAPH_SUMMARY}, the default. */
+    static final String VIEW_SUMMARY = "summary";
+    /** Value of the view query parameter selecting {@link Customer#GRAPH_WITH_BOOKINGS}. */
+    static final String VIEW_WITH_BOOKINGS = "withBookings";
+    /** Largest number of rows accepted in one batch import. */
+    static final int MAX_IMPORT_ROWS = Integer.getInteger("customer.import.maxRows", 10000);
+
+    /** Fields that may be selected with the fields query parameter. */
+    static final Map<String, String> FIELDS =
+            FieldSelection.allowing("id", "firstName", "lastName", "email", "phoneNumber", "birthDate", "state");
+
+    private static final ObjectMapper MAPPER = new JacksonConfig().getContext(Customer.class);
+
     @Inject
     private @Named("logger") Logger log;
     
     @Inject
     private CustomerService service;
 
+    @Inject
+    private BookingService bookingService;
+
+    @Context
+    private UriInfo uriInfo;
+
+    @Context
+    private Request request;
+
     /**
      * <p>Return all the Contacts.  They are sorted alphabetically by name.</p>
      *
@@ -57,12 +112,55 @@ public class CustomerRestService {
      *
      * <p>Examples: <pre>GET api/contacts?firstname=John</pre>, <pre>GET api/contacts?firstname=John&lastname=Smith</pre></p>
      *
+     * <p>When a limit or cursor is supplied the list is returned one page at a time. If there are more Customers the
+     * response carries the opaque token for the next page in the X-Next-Cursor header, and as a Link header with
+     * rel="next".</p>
+     *
+     * <p>Example: <pre>GET api/customers?limit=20</pre>, followed by <pre>GET api/customers?limit=20&cursor=...</pre></p>
+     *
+     * <p>Customers are returned without their Bookings unless <pre>view=withBookings</pre> is given.</p>
+     *
+     * <p>A comma separated list of fields limits each Customer to just those fields, and only those columns are read
+     * from the database. Example: <pre>GET api/customers?fields=id,firstName,lastName</pre></p>
+     *
+     * <p>The response carries an ETag and Last-Modified time, and is answered with 304 Not Modified, without reading
+     * the Customers, if the client's copy is still current.</p>
+     *
      * @return A Response containing a list of Contacts
      */
     @GET
-    @ApiOperation(value = "Fetch all Contacts", notes = "Returns a JSON array of all stored Contact objects.")
-    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
-        //Create an empty collection to contain the intersection of customers to be returned
+    @ApiOperation(value = "Fetch all Contacts", notes = "Returns a JSON array of all stored Contact objects. Supply limit"
+            + " and cursor to page through the Customers; the next cursor is returned in the X-Next-Cursor header."
+            + " Supply view=withBookings to include each Customer's Bookings, or fields to return only some fields.")
+    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname,
+                                        @QueryParam("cursor") String cursor, @QueryParam("limit") Integer limit,
+                                        @QueryParam("view") String view, @QueryParam(FieldSelection.QUERY_PARAM) String fields) {
+        String graph = graphFor(view);
+        FieldSelection selection = selectionFor(fields, graph);
+        if ((cursor != null || limit != null) && (firstname != null || lastname != null)) {
+            throw new RestServiceException("Paging cannot be combined with a name search", Response.Status.BAD_REQUEST);
+        }
+
+        return ConditionalGet.respondForTables(request, uriInfo,
+                () -> retrieveCustomers(firstname, lastname, cursor, limit, graph, selection), tablesFor(graph));
+    }
+
+    /**
+     * <p>Builds the response to {@link #retrieveAllContacts}, once it is known that the client's copy is not current.</p>
+     *
+     * @return A Response containing a list of Customers
+     */
+    private Response.ResponseBuilder retrieveCustomers(String firstname, String lastname, String cursor, Integer limit,
+                                                       String graph, FieldSelection selection) {
+        if (cursor != null || limit != null) {
+            return retrieveCustomerPage(cursor, limit, graph, selection);
+        }
+
+        if (selection != null) {
+            return Response.ok(selection.toMaps(service.findAllByName(firstname, lastname, selection)));
+        }
+
+        //Create an empty collection to contain the customers to be returned
         List<Customer> customers;
 
         if(firstname == null && lastname == null) {
@@ -72,11 +170,140 @@ public class CustomerRestService {
         } else if(firstname == null) {
                 customers = service.findAllByLastName(lastname);
         } else {
-                customers = service.findAllByFirstName(firstname);
-                customers.retainAll(service.findAllByLastName(lastname));
+                customers = service.findAllByName(firstname, lastname);
         }
 
-        return Response.ok(customers).build();
+        return Response.ok(DtoMapper.toCustomers(service.fetchGraph(customers, graph), DtoMapper.DEFAULT_DEPTH));
+    }
+
+    /**
+     * <p>Returns a single page of Customers starting after the given cursor, adding the next page token to the response
+     * when more Customers remain.</p>
+     *
+     * @param cursor The opaque token returned with the previous page, or null for the first page
+     * @param limit The maximum number of Customers to return, or null for the default page size
+     * @param graph The name of the entity graph to fetch for each Customer
+     * @param fields The fields to return for each Customer, or null for whole Customers
+     * @return A Response containing a list of Customers
+     */
+    private Response.ResponseBuilder retrieveCustomerPage(String cursor, Integer limit, String graph, FieldSelection fields) {
+        int pageSize = Paging.pageSize(limit);
+
+        CustomerCursor after = null;
+        if (cursor != null) {
+            try {
+                after = CustomerCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                Map<String, String> responseObj = new HashMap<>();
+                responseObj.put("cursor", "The cursor is not one returned by this service");
+                throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+            }
+        }
+
+        // Ask for one extra row so we know whether there is a next page without a separate count query.
+        if (fields != null) {
+            List<Tuple> tuples = service.findPageOrderedByName(after, pageSize + 1, fields);
+            if (tuples.size() > pageSize) {
+                tuples = tuples.subList(0, pageSize);
+                String next = CustomerCursor.after(tuples.get(pageSize - 1)).encode();
+                return withNextCursor(Response.ok(fields.toMaps(tuples)), next);
+            }
+            return Response.ok(fields.toMaps(tuples));
+        }
+
+        List<Customer> customers = service.findPageOrderedByName(after, pageSize + 1);
+        Response.ResponseBuilder builder;
+
+        if (customers.size() > pageSize) {
+            customers = service.fetchGraph(customers.subList(0, pageSize), graph);
+            String next = CustomerCursor.after(customers.get(pageSize - 1)).encode();
+            builder = withNextCursor(Response.ok(DtoMapper.toCustomers(customers, DtoMapper.DEFAULT_DEPTH)), next);
+        } else {
+            builder = Response.ok(DtoMapper.toCustomers(service.fetchGraph(customers, graph), DtoMapper.DEFAULT_DEPTH));
+        }
+
+        return builder;
+    }
+
+    /**
+     * <p>Adds the token for the next page to a response, as the X-Next-Cursor header and as a Link header with
+     * rel="next".</p>
+     *
+     * @param builder The response for the current page
+     * @param next The token for the next page
+     * @return The same builder
+     */
+    private Response.ResponseBuilder withNextCursor(Response.ResponseBuilder builder, String next) {
+        return builder.header(NEXT_CURSOR_HEADER, next)
+                .link(uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", next).build(), "next");
+    }
+
+    /**
+     * <p>Returns the entities whose tables a list of Customers read with the given entity graph is built from.</p>
+     *
+     * @param graph The name of the entity graph
+     * @return The entity classes
+     */
+    private static Class<?>[] tablesFor(String graph) {
+        return Customer.GRAPH_SUMMARY.equals(graph)
+                ? new Class<?>[] {Customer.class}
+                : new Class<?>[] {Customer.class, Booking.class};
+    }
+
+    /**
+     * <p>Parses the fields query parameter, which cannot be combined with the withBookings view.</p>
+     *
+     * @param fields The fields query parameter, or null
+     * @param graph The name of the entity graph requested with the view query parameter
+     * @return The fields to select, or null to return whole Customers
+     */
+    private static FieldSelection selectionFor(String fields, String graph) {
+        FieldSelection selection = FieldSelection.parse(fields, FIELDS);
+        if (selection != null && !Customer.GRAPH_SUMMARY.equals(graph)) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put(FieldSelection.QUERY_PARAM, "The fields cannot be combined with view=" + VIEW_WITH_BOOKINGS);
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
+        }
+        return selection;
+    }
+
+    /**
+     * <p>Maps the view query parameter onto the name of a Customer entity graph.</p>
+     *
+     * @param view The view query parameter, or null for the default
+     * @return The name of the entity graph to fetch
+     */
+    private static String graphFor(String view) {
+        if (view == null || VIEW_SUMMARY.equals(view)) {
+            return Customer.GRAPH_SUMMARY;
+        }
+        if (VIEW_WITH_BOOKINGS.equals(view)) {
+            return Customer.GRAPH_WITH_BOOKINGS;
+        }
+        Map<String, String> responseObj = new HashMap<>();
+        responseObj.put("view", "The view must be either " + VIEW_SUMMARY + " or " + VIEW_WITH_BOOKINGS);
+        throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
+    }
+
+    /**
+     * <p>Stream all the Customers as newline-delimited JSON, one Customer per line.  They are sorted alphabetically by
+     * name.</p>
+     *
+     * <p>The Customers are written out as they are read from the database instead of being collected into a List first,
+     * so this is the endpoint to use when exporting the whole table.</p>
+     *
+     * <p>Example: <pre>GET api/customers/export</pre></p>
+     *
+     * @return A Response streaming every Customer
+     */
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExporter.APPLICATION_NDJSON)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @ApiOperation(value = "Export all Customers", notes = "Streams every stored Customer as newline-delimited JSON, one object per line.")
+    public Response exportCustomers() {
+        StreamingOutput stream = output -> service.exportAll(output);
+        return Response.ok(stream).build();
     }
 
     /**
@@ -85,6 +312,8 @@ public class CustomerRestService {
      * <p>Path annotation includes very simple regex to differentiate between email addresses and Ids.
      * <strong>DO NOT</strong> attempt to use this regex to validate email addresses.</p>
      *
+     * <p>The ETag is the one the Customer is given when fetched by id, built from its id and version, which are read on
+     * their own first, so that a client whose copy is current gets a 304 without the Customer being loaded.</p>
      *
      * @param email The string parameter value provided as a Customer's email
      * @return A Response containing a single Customer
@@ -105,19 +334,31 @@ public class CustomerRestService {
             @PathParam("email")
             String email) {
 
-        Customer customer;
-        try {
-            customer = service.findByEmail(email);
-        } catch (NoResultException e) {
+        Revision revision = service.findRevisionByEmail(email);
+        if (revision == null) {
             // Verify that the customer exists. Return 404, if not present.
             throw new RestServiceException("No Customer with the email " + email + " was found!", Response.Status.NOT_FOUND);
         }
-        return Response.ok(customer).build();
+
+        return ConditionalGet.respond(request, revision.getLastModified(),
+                ConditionalGet.tag(uriInfo, revision.getId(), revision.getVersions()), () -> {
+            Customer customer;
+            try {
+                customer = service.findByEmail(email);
+            } catch (NoResultException e) {
+                throw new RestServiceException("No Customer with the email " + email + " was found!", Response.Status.NOT_FOUND);
+            }
+            return Response.ok(DtoMapper.toCustomer(customer, DtoMapper.DEFAULT_DEPTH));
+        });
     }
 
     /**
      * <p>Search for and return a customer identified by id.</p>
      *
+     * <p>The ETag is built from the Customer's version (and, for the withBookings view, the state of the Bookings table),
+     * which is read on its own first, so that a client whose copy is current gets a 304 without the Customer being
+     * loaded.</p>
+     *
      * @param id The long parameter value provided as a customer's id
      * @return A Response containing a single customer
      */
@@ -135,16 +376,105 @@ public class CustomerRestService {
     public Response retrieveCustomerById(
             @ApiParam(value = "Id of Customer to be fetched", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @ApiParam(value = "summary (the default) or withBookings", allowableValues = "summary, withBookings")
+            @QueryParam("view")
+            String view,
+            @ApiParam(value = "Comma separated fields to return, for example id,firstName,lastName")
+            @QueryParam(FieldSelection.QUERY_PARAM)
+            String fields) {
+
+        String graph = graphFor(view);
+        FieldSelection selection = selectionFor(fields, graph);
+
+        Revision revision = service.findRevision(id);
+        if (revision == null) {
+            // Verify that the customer exists. Return 404, if not present.
+            throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+        EntityTag tag;
+        Date lastModified;
+        if (Customer.GRAPH_SUMMARY.equals(graph)) {
+            tag = ConditionalGet.tag(uriInfo, id, revision.getVersions());
+            lastModified = revision.getLastModified();
+        } else {
+            tag = ConditionalGet.tag(uriInfo, id, revision.getVersions(), ModificationTracker.counts(Booking.class));
+            lastModified = ConditionalGet.latest(revision.getLastModified(), ModificationTracker.lastModified(Booking.class));
+        }
 
-        Customer customer = service.findById(id);
-        if (customer == null) {
+        return ConditionalGet.respond(request, lastModified, tag, () -> {
+            if (selection != null) {
+                Tuple tuple = service.findById(id, selection);
+                if (tuple == null) {
+                    throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
+                }
+                return Response.ok(selection.toMap(tuple));
+            }
+
+            Customer customer = service.findById(id, graph);
+            if (customer == null) {
+                throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            log.info("findById " + id + ": found Customer = " + customer.toString());
+
+            return Response.ok(DtoMapper.toCustomer(customer, DtoMapper.DEFAULT_DEPTH));
+        });
+    }
+
+    /**
+     * <p>Returns one page of the Bookings made by the Customer with the given id, in the order they were made.</p>
+     *
+     * <p>If there are more Bookings the response carries the id to continue after in the X-Next-Cursor header, and a
+     * Link header with rel="next".</p>
+     *
+     * <p>Example: <pre>GET api/customers/1/bookings?limit=20</pre>, followed by
+     * <pre>GET api/customers/1/bookings?limit=20&after=...</pre></p>
+     *
+     * @param id The long parameter value provided as a Customer's id
+     * @param after The id of the last Booking on the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return, or null for the default page size
+     * @return A Response containing a list of Bookings
+     */
+    @GET
+    @Path("/{id:[0-9]+}/bookings")
+    @ApiOperation(
+            value = "Fetch the Bookings of a Customer",
+            notes = "Returns a page of the Customer's Bookings; the value to pass as after for the next page is returned"
+                    + " in the X-Next-Cursor header."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message ="Bookings found"),
+            @ApiResponse(code = 400, message = "Invalid limit"),
+            @ApiResponse(code = 404, message = "Customer with id not found")
+    })
+    public Response retrieveCustomerBookings(
+            @ApiParam(value = "Id of Customer whose Bookings are to be fetched", allowableValues = "range[0, infinity]", required = true)
+            @PathParam("id")
+            long id,
+            @QueryParam("after")
+            Long after,
+            @QueryParam("limit")
+            Integer limit) {
+
+        int pageSize = Paging.pageSize(limit);
+        if (service.findRevision(id) == null) {
             // Verify that the customer exists. Return 404, if not present.
             throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Customer = " + customer.toString());
 
-        return Response.ok(customer).build();
+        return ConditionalGet.respondForTables(request, uriInfo, () -> {
+            // Ask for one extra row so we know whether there is a next page without a separate count query.
+            List<Booking> bookings = bookingService.findPageByCustomer(id, after, pageSize + 1);
+
+            if (bookings.size() > pageSize) {
+                bookings = bookings.subList(0, pageSize);
+                String next = String.valueOf(bookings.get(pageSize - 1).getId());
+                return Response.ok(DtoMapper.toBookings(bookings, DtoMapper.DEFAULT_DEPTH))
+                        .header(NEXT_CURSOR_HEADER, next)
+                        .link(uriInfo.getRequestUriBuilder().replaceQueryParam("after", next).build(), "next");
+            }
+            return Response.ok(DtoMapper.toBookings(bookings, DtoMapper.DEFAULT_DEPTH));
+        }, Booking.class, Customer.class, Flight.class);
     }
 
     /**
@@ -197,6 +527,11 @@ public class CustomerRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("email", "That email is already used, please use a unique email");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
+        } catch (InvalidAreaCodeException e) {
+            // Handle a phone number whose area code the AreaDirectory does not know
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("phoneNumber", "The telephone area code provided is not recognised, please provide another");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
         }  catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
@@ -206,13 +541,113 @@ public class CustomerRestService {
         return builder.build();
     }
 
+    /**
+     * <p>Creates many new Customers from a single request. The body is either a JSON array of Customers or, with the
+     * <code>application/x-ndjson</code> content type, one Customer object per line.</p>
+     *
+     * <p>Every row is validated and imported separately; the response is always 200 (OK) with one result per row,
+     * giving either the id of the created Customer or a map of fields, and related errors. Only a body that cannot be
+     * read at all, or has too many rows, is rejected as a whole with 400.</p>
+     *
+     * @param headers The request headers, used to tell a JSON array from NDJSON
+     * @param body The request body
+     * @return A Response containing the result of each row
+     */
+    @POST
+    @Path("/batch")
+    @Consumes({MediaType.APPLICATION_JSON, NdjsonExporter.APPLICATION_NDJSON})
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @ApiOperation(value = "Add many new Customers to the database",
+            notes = "Accepts a JSON array of Customers, or newline-delimited JSON, and reports the outcome of every row.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Batch processed; see the status of each row"),
+            @ApiResponse(code = 400, message = "Request body is not a JSON array or NDJSON, or has too many rows")
+    })
+    public Response importCustomers(@Context HttpHeaders headers, InputStream body) {
+        List<Customer> customers = new ArrayList<>();
+        Map<Integer, String> unreadable = new HashMap<>();
+
+        try {
+            if (NdjsonExporter.APPLICATION_NDJSON.equals(mediaTypeOf(headers))) {
+                readNdjson(body, customers, unreadable);
+            } else {
+                readJsonArray(body, customers, unreadable);
+            }
+        } catch (IOException e) {
+            throw new RestServiceException("The request body could not be read", Response.Status.BAD_REQUEST, e);
+        }
+
+        List<CustomerImportResult> results = service.importAll(customers, unreadable);
+
+        log.info("importCustomers completed. " + results.size() + " rows processed");
+        return Response.ok(results).build();
+    }
+
+    private static String mediaTypeOf(HttpHeaders headers) {
+        MediaType type = headers.getMediaType();
+        return type == null ? null : type.getType() + "/" + type.getSubtype();
+    }
+
+    private void readJsonArray(InputStream body, List<Customer> customers, Map<Integer, String> unreadable)
+            throws IOException {
+        JsonNode rows = MAPPER.readTree(body);
+        if (rows == null || !rows.isArray()) {
+            throw new RestServiceException("The request body must be a JSON array of Customers", Response.Status.BAD_REQUEST);
+        }
+        checkImportSize(rows.size());
+        for (JsonNode row : rows) {
+            readRow(row, customers, unreadable);
+        }
+    }
+
+    private void readNdjson(InputStream body, List<Customer> customers, Map<Integer, String> unreadable)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            checkImportSize(customers.size() + 1);
+            try {
+                readRow(MAPPER.readTree(line), customers, unreadable);
+            } catch (JsonProcessingException e) {
+                unreadable.put(customers.size(), "Malformed JSON: " + e.getOriginalMessage());
+                customers.add(null);
+            }
+        }
+    }
+
+    private void readRow(JsonNode row, List<Customer> customers, Map<Integer, String> unreadable) {
+        try {
+            customers.add(MAPPER.treeToValue(row, Customer.class));
+        } catch (IOException e) {
+            unreadable.put(customers.size(), "Not a valid Customer: " + e.getMessage());
+            customers.add(null);
+        }
+    }
+
+    private void checkImportSize(int rows) {
+        if (rows > MAX_IMPORT_ROWS) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("body", "A batch may contain at most " + MAX_IMPORT_ROWS + " Customers");
+            throw new RestServiceException("Too many Customers in one batch", responseObj, Response.Status.BAD_REQUEST);
+        }
+    }
+
     /**
      * <p>Updates the customer with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>The Customer is not read first. It is updated with one statement that only matches the version the client last read,
+     * given as the ETag in If-Match or as the version in the body; if neither is given, whatever is stored is
+     * overwritten. When nothing is updated the response is 404 if the Customer does not exist, and 412 if it has been
+     * changed since.</p>
+     *
      * @param customer The customer object, constructed automatically from JSON input, to be <i>updated</i> via
      * {@link customerService#update(customer)}
      * @param id The long parameter value provided as the id of the customer to be updated
+     * @param ifMatch The ETag of the Customer as the client last read it, or null
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
@@ -223,12 +658,16 @@ public class CustomerRestService {
             @ApiResponse(code = 400, message = "Invalid Customer supplied in request body"),
             @ApiResponse(code = 404, message = "Customer with id not found"),
             @ApiResponse(code = 409, message = "Customer details supplied in request body conflict with another existing Customer"),
+            @ApiResponse(code = 412, message = "Customer has been changed since it was read"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response updateCustomer(
             @ApiParam(value = "Id of Customer to be updated", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
             long id,
+            @ApiParam(value = "ETag of the Customer as last read; the update is refused with 412 if it has changed since")
+            @HeaderParam(HttpHeaders.IF_MATCH)
+            String ifMatch,
             @ApiParam(value = "JSON representation of Customer object to be updated in the database", required = true)
             Customer customer) {
 
@@ -244,21 +683,14 @@ public class CustomerRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(customer.getId()) == null) {
-            // Verify that the customer exists. Return 404, if not present.
-            throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        // The version the client last read. There is no read here to check the Customer exists; the update finds out.
+        Long version = ConditionalGet.expectedVersion(ifMatch, id, customer.getVersion());
 
-        Response.ResponseBuilder builder;
+        boolean updated;
 
         try {
-            // Apply the changes the Customer.
-            service.update(customer);
-
-            // Create an OK Response and pass the customer back in case it is needed.
-            builder = Response.ok(customer);
-
-
+            // Apply the changes the Customer, in one UPDATE that only matches the version the client read.
+            updated = service.update(customer, version);
         } catch (ConstraintViolationException ce) {
             //Handle bean validation issues
             Map<String, String> responseObj = new HashMap<>();
@@ -273,13 +705,24 @@ public class CustomerRestService {
             responseObj.put("email", "That email is already used, please use a unique email");
             throw new RestServiceException("Customer details supplied in request body conflict with another Customer",
                     responseObj, Response.Status.CONFLICT, e);
+        } catch (InvalidAreaCodeException e) {
+            // Handle a phone number whose area code the AreaDirectory does not know
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("phoneNumber", "The telephone area code provided is not recognised, please provide another");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
+        if (!updated) {
+            // Only now is it worth finding out whether the Customer exists: 404 if not, 412 if it has changed.
+            throw ConditionalGet.notUpdated("Customer", id, service.findRevision(id) != null);
+        }
+
         log.info("updateCustomer completed. Customer = " + customer.toString());
-        return builder.build();
+        // Create an OK Response and pass the customer back in case it is needed.
+        return ConditionalGet.tagged(Response.ok(customer), uriInfo, id, customer).build();
     }
 
     /**
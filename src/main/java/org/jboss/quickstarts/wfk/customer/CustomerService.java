@@ -1,22 +1,36 @@
 package org.jboss.quickstarts.wfk.customer;
 
-import org.jboss.quickstarts.wfk.area.Area;
-import org.jboss.quickstarts.wfk.area.AreaService;
+import org.jboss.quickstarts.wfk.area.AreaDirectory;
 import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
-import org.jboss.resteasy.client.jaxrs.ResteasyClient;
-import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
-import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+import org.jboss.quickstarts.wfk.booking.SeatInventory;
+import org.jboss.quickstarts.wfk.contact.UniqueEmailException;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.NdjsonExporter;
+import org.jboss.quickstarts.wfk.util.Revision;
 
+import javax.ejb.EJBException;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Tuple;
+import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
-import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 public class CustomerService {
 
+    /** Number of valid rows of an import written in each transaction. */
+    static final int IMPORT_CHUNK_SIZE = Integer.getInteger("customer.import.chunkSize", 500);
+
     @Inject
     private @Named("logger") Logger log;
 
@@ -26,15 +40,23 @@ public class CustomerService {
     @Inject
     private CustomerRepository crud;
 
-    private ResteasyClient client;
+    @Inject
+    private NdjsonExporter exporter;
 
-    /**
-     * <p>Create a new client which will be used for our outgoing REST client communication</p>
-     */
-    public CustomerService() {
-        // Create client service instance to make REST requests to upstream service
-        client = new ResteasyClientBuilder().build();
-    }
+    @Inject
+    private CustomerCache cache;
+
+    @Inject
+    private CustomerEmailFilter emailFilter;
+
+    @Inject
+    private SeatInventory seats;
+
+    @Inject
+    private CustomerBatchWriter batchWriter;
+
+    @Inject
+    private AreaDirectory areaDirectory;
 
     /**
      * <p>Returns a List of all persisted {@link Customer} objects, sorted alphabetically by last name.<p/>
@@ -45,6 +67,88 @@ public class CustomerService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Writes every persisted {@link Customer} to the output as newline-delimited JSON, sorted alphabetically by last
+     * name.<p/>
+     *
+     * @param output The stream to write the Customers to
+     * @return The number of Customers written
+     * @throws IOException If the output cannot be written
+     */
+    long exportAll(OutputStream output) throws IOException {
+        return exporter.export(Customer.FIND_ALL, output);
+    }
+
+    /**
+     * <p>Returns one page of persisted {@link Customer} objects, sorted alphabetically by last name.<p/>
+     *
+     * @param after The position of the last Customer on the previous page, or null for the first page
+     * @param limit The maximum number of Customers to return
+     * @return List of Customer objects
+     */
+    List<Customer> findPageOrderedByName(CustomerCursor after, int limit) {
+        return crud.findPageOrderedByName(after, limit);
+    }
+
+    /**
+     * <p>Returns the selected fields of one page of persisted {@link Customer} objects, sorted alphabetically by last
+     * name.<p/>
+     *
+     * @param after The position of the last Customer on the previous page, or null for the first page
+     * @param limit The maximum number of Customers to return
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findPageOrderedByName(CustomerCursor after, int limit, FieldSelection fields) {
+        return crud.findPageOrderedByName(after, limit, fields);
+    }
+
+    /**
+     * <p>Returns the selected fields of the Customers with the given names, sorted alphabetically by last name. Either
+     * name may be null.<p/>
+     *
+     * @param firstName The firstName field of the Customers to be returned, or null
+     * @param lastName The lastName field of the Customers to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByName(String firstName, String lastName, FieldSelection fields) {
+        return crud.findAllByName(firstName, lastName, fields);
+    }
+
+    /**
+     * <p>Returns the selected fields of a single Customer, specified by a Long id. This bypasses the cache, which holds
+     * whole Customers.<p/>
+     *
+     * @param id The id field of the Customer to be returned
+     * @param fields The fields to select
+     * @return The selected fields, or null if there is no such Customer
+     */
+    Tuple findById(Long id, FieldSelection fields) {
+        return crud.findById(id, fields);
+    }
+
+    /**
+     * <p>Returns the version and last modified time of a single Customer, specified by a Long id, without loading it.<p/>
+     *
+     * @param id The id field of the Customer
+     * @return The revision of the Customer, or null if there is no such Customer
+     */
+    Revision findRevision(Long id) {
+        return crud.findRevision(id);
+    }
+
+    /**
+     * <p>Returns the id, version and last modified time of a single Customer, specified by a String email, without loading
+     * it.<p/>
+     *
+     * @param email The email field of the Customer
+     * @return The revision of the Customer, carrying its id, or null if there is no such Customer
+     */
+    Revision findRevisionByEmail(String email) {
+        return crud.findRevisionByEmail(email);
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a Long id.<p/>
      *
@@ -52,7 +156,33 @@ public class CustomerService {
      * @return The Customer with the specified id
      */
     Customer findById(Long id) {
-        return crud.findById(id);
+        return cache.findById(id, crud::findById);
+    }
+
+    /**
+     * <p>Returns a single Customer object, specified by a Long id, read in the shape described by the named entity
+     * graph. Only the summary shape is served from the cache.<p/>
+     *
+     * @param id The id field of the Customer to be returned
+     * @param graph The name of the entity graph to fetch
+     * @return The Customer with the specified id
+     */
+    Customer findById(Long id, String graph) {
+        if (Customer.GRAPH_SUMMARY.equals(graph)) {
+            return findById(id);
+        }
+        return crud.findById(id, graph);
+    }
+
+    /**
+     * <p>Brings Customers that have already been read into the shape described by the named entity graph.<p/>
+     *
+     * @param customers The Customers to fetch the graph for
+     * @param graph The name of the entity graph to fetch
+     * @return The same list of Customers
+     */
+    List<Customer> fetchGraph(List<Customer> customers, String graph) {
+        return crud.fetchGraph(customers, graph);
     }
 
     /**
@@ -64,7 +194,7 @@ public class CustomerService {
      * @return The first Customer with the specified email
      */
     Customer findByEmail(String email) {
-        return crud.findByEmail(email);
+        return cache.findByEmail(email, crud::findByEmail);
     }
 
     /**
@@ -87,23 +217,161 @@ public class CustomerService {
         return crud.findAllByLastName(lastName);
     }
 
+    /**
+     * <p>Returns a List of Customer objects, specified by both a String firstName and a String lastName.<p/>
+     *
+     * @param firstName The firstName field of the Customers to be returned
+     * @param lastName The lastName field of the Customers to be returned
+     * @return The Customers with the specified firstName and lastName
+     */
+    List<Customer> findAllByName(String firstName, String lastName) {
+        return crud.findAllByName(firstName, lastName);
+    }
+
     /**
      * <p>Writes the provided Customer object to the application database.<p/>
      *
      * <p>Validates the data in the provided Customer object using a {@link CustomerValidator} object.<p/>
      *
+     * <p>The state is resolved from the area code of the phone number by the {@link AreaDirectory}.<p/>
+     *
      * @param Customer The Customer object to be written to the database using a {@link CustomerRepository} object
      * @return The Customer object that has been successfully written to the application database
      * @throws ConstraintViolationException, ValidationException, Exception
+     * @throws InvalidAreaCodeException If the area code of the phone number does not exist
      */
     public Customer create(Customer customer) throws ConstraintViolationException, ValidationException, Exception {
         log.info("CustomerService.create() - Creating " + customer.getFirstName() + " " + customer.getLastName());
         
         // Check to make sure the data fits with the parameters in the Customer model and passes validation.
         validator.validateCustomer(customer);
+        customer.setState(areaDirectory.resolve(customer.getPhoneNumber()).getState());
 
         // Write the customer to the database.
-        return crud.create(customer);
+        crud.create(customer);
+        cache.invalidate(customer);
+        emailFilter.add(customer.getEmail());
+
+        return customer;
+    }
+
+    /**
+     * <p>Validates and writes a batch of new Customers, reporting the outcome of each row separately so that a bad row
+     * does not stop the others from being imported.<p/>
+     *
+     * <p>Every row is validated in the same way as {@link #create(Customer)}, and an email may only be used once in the
+     * batch. Valid rows are written in chunks of {@link #IMPORT_CHUNK_SIZE}, each in its own transaction. If a chunk
+     * fails to write its rows are retried one at a time, so that only the rows at fault are reported as failed.<p/>
+     *
+     * <p>This must not be called inside a transaction, or one failing chunk would roll back the whole import.<p/>
+     *
+     * @param customers The Customers to import; a null entry stands for a row that could not be read
+     * @param unreadable Why each null entry could not be read, keyed by row number
+     * @return One result per row, in the same order as the rows
+     */
+    List<CustomerImportResult> importAll(List<Customer> customers, Map<Integer, String> unreadable) {
+        log.info("CustomerService.importAll() - Importing " + customers.size() + " Customers");
+
+        List<CustomerImportResult> results = new ArrayList<>(customers.size());
+        List<CustomerImportResult> chunk = new ArrayList<>();
+        Set<String> emails = new HashSet<>();
+
+        for (int row = 0; row < customers.size(); row++) {
+            Customer customer = customers.get(row);
+            CustomerImportResult result;
+
+            if (customer == null) {
+                result = CustomerImportResult.rejected(row, CustomerImportResult.Status.INVALID, "body",
+                        unreadable.getOrDefault(row, "The row is not a valid Customer"));
+            } else {
+                // The id is always assigned by the database.
+                customer.setId(null);
+                result = validateForImport(row, customer, emails);
+            }
+            results.add(result);
+
+            if (result.getStatus() == null) {
+                chunk.add(result);
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    writeChunk(chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk);
+        }
+
+        return results;
+    }
+
+    /**
+     * <p>Checks one row of an import, returning a rejected result if it fails validation or repeats an email, or a
+     * pending result ready to be written if it passes.</p>
+     */
+    private CustomerImportResult validateForImport(int row, Customer customer, Set<String> emails) {
+        try {
+            validator.validateCustomer(customer);
+        } catch (ConstraintViolationException ce) {
+            Map<String, String> errors = new HashMap<>();
+            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+                errors.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            return CustomerImportResult.rejected(row, CustomerImportResult.Status.INVALID, errors);
+        } catch (UniqueEmailException e) {
+            return CustomerImportResult.rejected(row, CustomerImportResult.Status.CONFLICT, "email",
+                    "That email is already used, please use a unique email");
+        }
+
+        try {
+            customer.setState(areaDirectory.resolve(customer.getPhoneNumber()).getState());
+        } catch (InvalidAreaCodeException e) {
+            return CustomerImportResult.rejected(row, CustomerImportResult.Status.INVALID, "phoneNumber",
+                    "The telephone area code provided is not recognised, please provide another");
+        }
+
+        if (!emails.add(customer.getEmail())) {
+            return CustomerImportResult.rejected(row, CustomerImportResult.Status.CONFLICT, "email",
+                    "That email is used by an earlier row of this batch");
+        }
+        return CustomerImportResult.pending(row, customer);
+    }
+
+    /**
+     * <p>Writes one chunk of validated rows, falling back to writing them one at a time if the chunk as a whole
+     * fails.</p>
+     */
+    private void writeChunk(List<CustomerImportResult> chunk) {
+        List<Customer> customers = new ArrayList<>(chunk.size());
+        for (CustomerImportResult result : chunk) {
+            customers.add(result.getCustomer());
+            emailFilter.add(result.getCustomer().getEmail());
+        }
+
+        try {
+            batchWriter.persist(customers);
+            for (CustomerImportResult result : chunk) {
+                result.created();
+            }
+            return;
+        } catch (EJBException e) {
+            log.warning("CustomerService.importAll() - Chunk of " + chunk.size() + " failed, retrying row by row: " + e);
+        }
+
+        for (CustomerImportResult result : chunk) {
+            // The failed attempt may have assigned ids that were then rolled back.
+            result.getCustomer().setId(null);
+            try {
+                batchWriter.persist(Collections.singletonList(result.getCustomer()));
+                result.created();
+            } catch (EJBException e) {
+                Throwable cause = e;
+                while (cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                result.failed(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+            }
+        }
     }
 
     /**
@@ -111,22 +379,31 @@ public class CustomerService {
      *
      * <p>Validates the data in the provided Customer object using a CustomerValidator object.<p/>
      *
+     * <p>The Customer is written with one UPDATE statement that also checks its version, rather than being read and then
+     * merged.<p/>
+     *
      * @param Customer The Customer object to be passed as an update to the application database
-     * @return The Customer object that has been successfully updated in the application database
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Customer was updated, false if there is no Customer with its id (at that version)
      * @throws ConstraintViolationException, ValidationException, Exception
+     * @throws InvalidAreaCodeException If the area code of the phone number does not exist
      */
-    Customer update(Customer customer) throws ConstraintViolationException, ValidationException, Exception {
+    boolean update(Customer customer, Long version) throws ConstraintViolationException, ValidationException, Exception {
         log.info("CustomerService.update() - Updating " + customer.getFirstName() + " " + customer.getLastName());
         
         // Check to make sure the data fits with the parameters in the Customer model and passes validation.
         validator.validateCustomer(customer);
+        customer.setState(areaDirectory.resolve(customer.getPhoneNumber()).getState());
 
-        // Set client target location and define the proxy API class
-        ResteasyWebTarget target = client.target("http://csc8104-states.b9ad.pro-us-east-1.openshiftapps.com");
-        AreaService service = target.proxy(AreaService.class);
+        if (!crud.update(customer, version)) {
+            return false;
+        }
+        cache.invalidate(customer);
+        // The Customer is not read first, so an email it is replacing is not known and stays in the filter, where at
+        // worst it causes a false positive that is settled by the database.
+        emailFilter.add(customer.getEmail());
 
-        // Either update the Customer or add it if it can't be found.
-        return crud.update(customer);
+        return true;
     }
 
     /**
@@ -142,7 +419,11 @@ public class CustomerService {
         Customer deletedCustomer = null;
 
         if (customer.getId() != null) {
+            // The Customer's Bookings are deleted along with it, so give back their seats first.
+            seats.releaseForCustomer(customer.getId());
             deletedCustomer = crud.delete(customer);
+            cache.invalidate(customer);
+            emailFilter.recordRemoval(customer.getEmail());
         } else {
             log.info("delete() - No ID was found so can't Delete.");
         }
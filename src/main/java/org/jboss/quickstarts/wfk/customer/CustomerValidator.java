@@ -19,6 +19,12 @@ public class CustomerValidator {
     @Inject
     private CustomerRepository crud;
 
+    @Inject
+    private CustomerCache cache;
+
+    @Inject
+    private CustomerEmailFilter emailFilter;
+
     /**
      * <p>Validates the given Customer object and throws validation exceptions based on the type of error. If the error is standard
      * bean validation errors then it will throw a ConstraintValidationException with the set of the constraints violated.<p/>
@@ -53,22 +59,30 @@ public class CustomerValidator {
      * <p>Since Update will being using an email that is already in the database we need to make sure that it is the email
      * from the record being updated.</p>
      *
+     * <p>The {@link CustomerEmailFilter} is asked first, so the database is only queried when the email might already be
+     * registered.</p>
+     *
      * @param email The email to check is unique
      * @param id The user id to check the email against if it was found
      * @return boolean which represents whether the email was found, and if so if it belongs to the user with id
      */
     boolean emailAlreadyExists(String email, Long id) {
+        // The Bloom filter has never seen this email, so it cannot be registered and there is nothing to look up.
+        if (!emailFilter.mightContain(email)) {
+            return false;
+        }
+
         Customer customer = null;
         Customer customerWithID = null;
         try {
-            customer = crud.findByEmail(email);
+            customer = cache.findByEmail(email, crud::findByEmail);
         } catch (NoResultException e) {
-            // ignore
+            emailFilter.recordFalsePositive();
         }
 
         if (customer != null && id != null) {
             try {
-                customerWithID = crud.findById(id);
+                customerWithID = cache.findById(id, crud::findById);
                 if (customerWithID != null && customerWithID.getEmail().equals(email)) {
                     customer = null;
                 }
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.dto;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * <p>The representation of a {@link org.jboss.quickstarts.wfk.booking.Booking} written to REST clients.</p>
+ *
+ * <p>The Customer and Flight are always identified by their ids. They are also nested, without their own Bookings,
+ * when the mapping depth allows it and the Booking is not itself nested inside that Customer or Flight.</p>
+ *
+ * @see DtoMapper#toBooking(org.jboss.quickstarts.wfk.booking.Booking, int)
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BookingDTO {
+
+    private Long id;
+
+    private Long customerId;
+
+    private Long flightId;
+
+    private Date bookingDate;
+
+    private CustomerDTO customer;
+
+    private FlightDTO flight;
+
+    public Long getId() {
+        return id;
+    }
+
+    void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getCustomerId() {
+        return customerId;
+    }
+
+    void setCustomerId(Long customerId) {
+        this.customerId = customerId;
+    }
+
+    public Long getFlightId() {
+        return flightId;
+    }
+
+    void setFlightId(Long flightId) {
+        this.flightId = flightId;
+    }
+
+    public Date getBookingDate() {
+        return bookingDate;
+    }
+
+    void setBookingDate(Date bookingDate) {
+        this.bookingDate = bookingDate;
+    }
+
+    public CustomerDTO getCustomer() {
+        return customer;
+    }
+
+    void setCustomer(CustomerDTO customer) {
+        this.customer = customer;
+    }
+
+    public FlightDTO getFlight() {
+        return flight;
+    }
+
+    void setFlight(FlightDTO flight) {
+        this.flight = flight;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.dto;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceUtil;
+
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.flight.Flight;
+import org.jboss.quickstarts.wfk.flight.Itinerary;
+import org.jboss.quickstarts.wfk.travelagent.TravelAgent;
+
+/**
+ * <p>Maps the entities onto the DTOs that are written to REST clients, so that the shape of a response is decided here
+ * rather than by whatever happens to be reachable from an entity.</p>
+ *
+ * <p>The depth is the number of associations that may be followed from the object being mapped, and is capped at
+ * {@link #MAX_DEPTH}. Beyond it, related objects are referred to by id only. A Booking nested inside a Customer or
+ * Flight never nests that Customer or Flight again, so the Customer&harr;Booking&harr;Flight cycle cannot be
+ * followed back on itself.</p>
+ *
+ * <p>Collections are only mapped when they have already been loaded, so mapping never runs a lazy load, and the DTOs
+ * can be written after the persistence context has closed.</p>
+ */
+public final class DtoMapper {
+
+    /** Depth used by the REST services: one level of related objects. */
+    public static final int DEFAULT_DEPTH = 1;
+
+    /** Largest depth honoured; anything deeper only repeats objects already in the response. */
+    public static final int MAX_DEPTH = 2;
+
+    private static final PersistenceUtil PERSISTENCE_UTIL = Persistence.getPersistenceUtil();
+
+    private DtoMapper() {
+    }
+
+    /**
+     * <p>Maps a Customer, including its Bookings if they are loaded and the depth allows.</p>
+     *
+     * @param customer The Customer to map, or null
+     * @param depth The number of associations that may be followed
+     * @return The CustomerDTO, or null if customer was null
+     */
+    public static CustomerDTO toCustomer(Customer customer, int depth) {
+        if (customer == null) {
+            return null;
+        }
+        int remaining = Math.min(depth, MAX_DEPTH);
+
+        CustomerDTO dto = new CustomerDTO();
+        dto.setId(customer.getId());
+        dto.setFirstName(customer.getFirstName());
+        dto.setLastName(customer.getLastName());
+        dto.setEmail(customer.getEmail());
+        dto.setPhoneNumber(customer.getPhoneNumber());
+        dto.setState(customer.getState());
+        dto.setBirthDate(customer.getBirthDate());
+        if (remaining > 0 && isLoaded(customer, "bookings", customer.getBookings())) {
+            dto.setBookings(customer.getBookings().stream()
+                    .map(booking -> toBooking(booking, remaining - 1, false, true))
+                    .collect(Collectors.toList()));
+        }
+        return dto;
+    }
+
+    /**
+     * <p>Maps a Flight, including its Bookings if they are loaded and the depth allows.</p>
+     *
+     * @param flight The Flight to map, or null
+     * @param depth The number of associations that may be followed
+     * @return The FlightDTO, or null if flight was null
+     */
+    public static FlightDTO toFlight(Flight flight, int depth) {
+        if (flight == null) {
+            return null;
+        }
+        int remaining = Math.min(depth, MAX_DEPTH);
+
+        FlightDTO dto = new FlightDTO();
+        dto.setId(flight.getId());
+        dto.setFlightNumber(flight.getFlightNumber());
+        dto.setDeparture(flight.getDeparture());
+        dto.setDestination(flight.getDestination());
+        dto.setCapacity(flight.getCapacity());
+        if (remaining > 0 && isLoaded(flight, "bookings", flight.getBookings())) {
+            dto.setBookings(flight.getBookings().stream()
+                    .map(booking -> toBooking(booking, remaining - 1, true, false))
+                    .collect(Collectors.toList()));
+        }
+        return dto;
+    }
+
+    /**
+     * <p>Maps a Booking. Its Customer and Flight are nested, without their Bookings, if the depth allows.</p>
+     *
+     * @param booking The Booking to map, or null
+     * @param depth The number of associations that may be followed
+     * @return The BookingDTO, or null if booking was null
+     */
+    public static BookingDTO toBooking(Booking booking, int depth) {
+        return toBooking(booking, depth, true, true);
+    }
+
+    /**
+     * <p>Maps a TravelAgent booking. It only holds ids, so there is no depth to follow.</p>
+     *
+     * @param travelAgent The TravelAgent to map, or null
+     * @return The TravelAgentDTO, or null if travelAgent was null
+     */
+    public static TravelAgentDTO toTravelAgent(TravelAgent travelAgent) {
+        if (travelAgent == null) {
+            return null;
+        }
+
+        TravelAgentDTO dto = new TravelAgentDTO();
+        dto.setId(travelAgent.getId());
+        dto.setCustomerId(travelAgent.getCustomerId());
+        dto.setHotelId(travelAgent.getHotelId());
+        dto.setFlightId(travelAgent.getFlightId());
+        dto.setTaxiId(travelAgent.getTaxiId());
+        dto.setBookingDate(travelAgent.getBookingDate());
+        return dto;
+    }
+
+    /**
+     * <p>Maps an Itinerary, replacing the ids of the Flights on each leg with the Flights themselves. Flights that are
+     * not in the map, having been read after the Itinerary was found, are left out.</p>
+     *
+     * @param itinerary The Itinerary to map
+     * @param flights The Flights on the Itinerary, by id
+     * @return The ItineraryDTO
+     */
+    public static ItineraryDTO toItinerary(Itinerary itinerary, Map<Long, Flight> flights) {
+        ItineraryDTO dto = new ItineraryDTO();
+        dto.setAirports(itinerary.getAirports());
+        dto.setLegs(itinerary.getLegs().stream().map(leg -> {
+            ItineraryDTO.LegDTO legDto = new ItineraryDTO.LegDTO();
+            legDto.setDeparture(leg.getDeparture());
+            legDto.setDestination(leg.getDestination());
+            legDto.setFlights(leg.getFlightIds().stream()
+                    .map(flights::get)
+                    .filter(Objects::nonNull)
+                    .map(flight -> toFlight(flight, 0))
+                    .collect(Collectors.toList()));
+            return legDto;
+        }).collect(Collectors.toList()));
+        return dto;
+    }
+
+    /*
+     * List forms of the mappings above, applying the same depth to every element.
+     */
+    public static List<CustomerDTO> toCustomers(List<Customer> customers, int depth) {
+        return customers.stream().map(customer -> toCustomer(customer, depth)).collect(Collectors.toList());
+    }
+
+    public static List<FlightDTO> toFlights(List<Flight> flights, int depth) {
+        return flights.stream().map(flight -> toFlight(flight, depth)).collect(Collectors.toList());
+    }
+
+    public static List<ItineraryDTO> toItineraries(List<Itinerary> itineraries, Map<Long, Flight> flights) {
+        return itineraries.stream().map(itinerary -> toItinerary(itinerary, flights)).collect(Collectors.toList());
+    }
+
+    public static List<BookingDTO> toBookings(List<Booking> bookings, int depth) {
+        return bookings.stream().map(booking -> toBooking(booking, depth)).collect(Collectors.toList());
+    }
+
+    public static List<TravelAgentDTO> toTravelAgents(List<TravelAgent> travelAgents) {
+        return travelAgents.stream().map(DtoMapper::toTravelAgent).collect(Collectors.toList());
+    }
+
+    private static BookingDTO toBooking(Booking booking, int depth, boolean withCustomer, boolean withFlight) {
+        if (booking == null) {
+            return null;
+        }
+        int remaining = Math.min(depth, MAX_DEPTH);
+
+        BookingDTO dto = new BookingDTO();
+        dto.setId(booking.getId());
+        dto.setBookingDate(booking.getBookingDate());
+        if (booking.getCustomer() != null) {
+            dto.setCustomerId(booking.getCustomer().getId());
+            if (withCustomer && remaining > 0) {
+                dto.setCustomer(toCustomer(booking.getCustomer(), 0));
+            }
+        }
+        if (booking.getFlight() != null) {
+            dto.setFlightId(booking.getFlight().getId());
+            if (withFlight && remaining > 0) {
+                dto.setFlight(toFlight(booking.getFlight(), 0));
+            }
+        }
+        return dto;
+    }
+
+    private static boolean isLoaded(Object entity, String attribute, Object value) {
+        return value != null && PERSISTENCE_UTIL.isLoaded(entity, attribute);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * <p>The representation of a {@link org.jboss.quickstarts.wfk.flight.Flight} written to REST clients.</p>
+ *
+ * <p>Bookings are only present when they were loaded and the mapping depth allowed them; each one refers back to this
+ * Flight by id rather than nesting it again.</p>
+ *
+ * @see DtoMapper#toFlight(org.jboss.quickstarts.wfk.flight.Flight, int)
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FlightDTO {
+
+    private Long id;
+
+    private String flightNumber;
+
+    private String departure;
+
+    private String destination;
+
+    private Integer capacity;
+
+    private List<BookingDTO> bookings;
+
+    public Long getId() {
+        return id;
+    }
+
+    void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getFlightNumber() {
+        return flightNumber;
+    }
+
+    void setFlightNumber(String flightNumber) {
+        this.flightNumber = flightNumber;
+    }
+
+    public String getDeparture() {
+        return departure;
+    }
+
+    void setDeparture(String departure) {
+        this.departure = departure;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public Integer getCapacity() {
+        return capacity;
+    }
+
+    void setCapacity(Integer capacity) {
+        this.capacity = capacity;
+    }
+
+    public List<BookingDTO> getBookings() {
+        return bookings;
+    }
+
+    void setBookings(List<BookingDTO> bookings) {
+        this.bookings = bookings;
+    }
+}
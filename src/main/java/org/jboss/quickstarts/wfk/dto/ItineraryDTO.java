@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.dto;
+
+import java.util.List;
+
+/**
+ * <p>The representation of an {@link org.jboss.quickstarts.wfk.flight.Itinerary} written to REST clients: the airports
+ * visited, and for each leg the Flights that fly it.</p>
+ *
+ * @see DtoMapper#toItinerary(org.jboss.quickstarts.wfk.flight.Itinerary, java.util.Map)
+ */
+public class ItineraryDTO {
+
+    private List<String> airports;
+
+    private List<LegDTO> legs;
+
+    public List<String> getAirports() {
+        return airports;
+    }
+
+    void setAirports(List<String> airports) {
+        this.airports = airports;
+    }
+
+    public List<LegDTO> getLegs() {
+        return legs;
+    }
+
+    void setLegs(List<LegDTO> legs) {
+        this.legs = legs;
+    }
+
+    /**
+     * <p>One leg of an Itinerary, with its Flights written without their Bookings.</p>
+     */
+    public static class LegDTO {
+
+        private String departure;
+
+        private String destination;
+
+        private List<FlightDTO> flights;
+
+        public String getDeparture() {
+            return departure;
+        }
+
+        void setDeparture(String departure) {
+            this.departure = departure;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        void setDestination(String destination) {
+            this.destination = destination;
+        }
+
+        public List<FlightDTO> getFlights() {
+            return flights;
+        }
+
+        void setFlights(List<FlightDTO> flights) {
+            this.flights = flights;
+        }
+    }
+}
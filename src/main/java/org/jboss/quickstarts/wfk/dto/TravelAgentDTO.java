@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.dto;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * <p>The representation of a {@link org.jboss.quickstarts.wfk.travelagent.TravelAgent} booking written to REST
+ * clients. The Customer, hotel, Flight and taxi are referred to by id only.</p>
+ *
+ * @see DtoMapper#toTravelAgent(org.jboss.quickstarts.wfk.travelagent.TravelAgent)
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TravelAgentDTO {
+
+    private Long id;
+
+    private long customerId;
+
+    private int hotelId;
+
+    private int flightId;
+
+    private int taxiId;
+
+    private Date bookingDate;
+
+    public Long getId() {
+        return id;
+    }
+
+    void setId(Long id) {
+        this.id = id;
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    void setCustomerId(long customerId) {
+        this.customerId = customerId;
+    }
+
+    public int getHotelId() {
+        return hotelId;
+    }
+
+    void setHotelId(int hotelId) {
+        this.hotelId = hotelId;
+    }
+
+    public int getFlightId() {
+        return flightId;
+    }
+
+    void setFlightId(int flightId) {
+        this.flightId = flightId;
+    }
+
+    public int getTaxiId() {
+        return taxiId;
+    }
+
+    void setTaxiId(int taxiId) {
+        this.taxiId = taxiId;
+    }
+
+    public Date getBookingDate() {
+        return bookingDate;
+    }
+
+    void setBookingDate(Date bookingDate) {
+        this.bookingDate = bookingDate;
+    }
+}
@@ -5,49 +5,123 @@ import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedEntityGraphs;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
+import javax.persistence.Persistence;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Past;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.QueryHints;
 import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.NotEmpty;
 import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Versioned;
 
+/*
+ * Flights are reference data: they rarely change but are read by every Booking, so they are kept in the second-level
+ * cache, and so is the list of all of them. The cache is transactional, so a change is seen by other transactions once
+ * it commits, and the bulk UPDATE queries below evict the whole region.
+ */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+@EntityListeners(ModificationTracker.class)
 @NamedQueries({
-        @NamedQuery(name = Flight.FIND_ALL, query = "SELECT f FROM Flight f ORDER BY f.flightNumber"),
-//        @NamedQuery(name = Flight.FIND_BY_EMAIL, query = "SELECT f FROM Flight f WHERE f.flightNumber = :flightNumber")
+        @NamedQuery(name = Flight.FIND_ALL, query = "SELECT f FROM Flight f ORDER BY f.flightNumber",
+                hints = @QueryHint(name = QueryHints.CACHEABLE, value = "true")),
+        @NamedQuery(name = Flight.UPDATE, query = "UPDATE Flight f SET f.flightNumber = :flightNumber, f.departure = :departure,"
+                + " f.destination = :destination, f.capacity = :capacity, f.lastModified = :lastModified,"
+                + " f.version = f.version + 1 WHERE f.id = :id AND f.version = :version"),
+        @NamedQuery(name = Flight.UPDATE_ANY_VERSION, query = "UPDATE Flight f SET f.flightNumber = :flightNumber,"
+                + " f.departure = :departure, f.destination = :destination, f.capacity = :capacity,"
+                + " f.lastModified = :lastModified, f.version = f.version + 1 WHERE f.id = :id"),
+        @NamedQuery(name = Flight.FIND_BY_FLIGHT_NUMBER, query = "SELECT f FROM Flight f WHERE f.flightNumber = :flightNumber"),
+        @NamedQuery(name = Flight.FIND_BY_ROUTE, query = "SELECT f FROM Flight f"
+                + " WHERE f.departure = :departure AND f.destination = :destination ORDER BY f.flightNumber"),
+        @NamedQuery(name = Flight.FIND_ALL_ROUTES, query = "SELECT f.id, f.departure, f.destination FROM Flight f"),
+        @NamedQuery(name = Flight.FIND_ALL_BY_ID, query = "SELECT f FROM Flight f WHERE f.id IN :ids"),
+        @NamedQuery(name = Flight.FIND_REVISION, query = "SELECT f.version, f.lastModified FROM Flight f WHERE f.id = :id")
+})
+/*
+ * The entity graphs are the two shapes a Flight can be read in: without its Bookings (the default, as the association is
+ * lazy), or with them fetched in the same query.
+ */
+@NamedEntityGraphs({
+        @NamedEntityGraph(name = Flight.GRAPH_SUMMARY),
+        @NamedEntityGraph(name = Flight.GRAPH_WITH_BOOKINGS, attributeNodes = @NamedAttributeNode("bookings"))
 })
 @XmlRootElement
-@Table(name = "flight", uniqueConstraints = @UniqueConstraint(columnNames = "flightNumber"))
+@JsonIgnoreProperties(value = "bookings", allowGetters = true)
+/*
+ * The route index covers FIND_BY_ROUTE, which is how a route is looked up until the in-memory FlightRouteIndex has been
+ * built, and when only some fields of the Flights on it are selected.
+ */
+@Table(name = "flight", uniqueConstraints = @UniqueConstraint(columnNames = "flightNumber"),
+        indexes = @Index(name = "flight_route_idx", columnList = "departure, destination"))
 
-public class Flight implements Serializable {
+public class Flight implements Serializable, Versioned {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Flight.findAll";
-//    public static final String FIND_BY_EMAIL = "Flight.findByEmail";
+    public static final String FIND_BY_FLIGHT_NUMBER = "Flight.findByFlightNumber";
+    public static final String FIND_BY_ROUTE = "Flight.findByRoute";
+    public static final String FIND_ALL_ROUTES = "Flight.findAllRoutes";
+    public static final String FIND_ALL_BY_ID = "Flight.findAllById";
+    public static final String FIND_REVISION = "Flight.findRevision";
+    public static final String UPDATE = "Flight.update";
+    public static final String UPDATE_ANY_VERSION = "Flight.updateAnyVersion";
+    public static final String GRAPH_SUMMARY = "Flight.summary";
+    public static final String GRAPH_WITH_BOOKINGS = "Flight.withBookings";
+
+    /** Seats on a Flight on each date, when a new Flight does not give its capacity. */
+    public static final int DEFAULT_CAPACITY = 180;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "flight_id")
     private Long id;
 
+    @Version
+    private Long version;
+
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date lastModified;
+
     @NotNull
     @Size(min = 1, max = 5)
     @Pattern(regexp = "[0-9A-Za-z]+", message = "Please use a name without numbers or specials")
@@ -65,18 +139,43 @@ public class Flight implements Serializable {
     @Pattern(regexp = "[A-Za-z-']+", message = "Please use a name without numbers or specials")
     @Column(name = "destination")
     private String destination;
+
+    /*
+     * The number of seats that may be booked on each date the Flight flies; see SeatInventory.
+     */
+    @NotNull
+    @Min(value = 1, message = "A Flight must have at least one seat")
+    @Column(name = "capacity")
+    private Integer capacity = DEFAULT_CAPACITY;
     
-    @OneToMany(mappedBy="customer", cascade=CascadeType.REMOVE, fetch=FetchType.EAGER)
+    /*
+     * Lazy, so that reading a Flight does not read all of its Bookings too. When the Bookings of several Flights are
+     * needed they are loaded in batches, rather than with one query per Flight.
+     */
+    @OneToMany(mappedBy="flight", cascade=CascadeType.REMOVE, fetch=FetchType.LAZY)
+    @BatchSize(size = 50)
     private List<Booking> bookings;
 
+    @JsonIgnore
     public List<Booking> getBookings() {
 		return bookings;
 	}
 
+    @JsonIgnore
 	public void setBookings(List<Booking> bookings) {
 		this.bookings = bookings;
 	}
 
+    /*
+     * The Bookings as written to JSON: only when they have already been loaded, for example through the withBookings
+     * entity graph, so that serializing a Flight never triggers a lazy load (or fails outside a transaction).
+     */
+    @JsonProperty("bookings")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    List<Booking> getLoadedBookings() {
+        return Persistence.getPersistenceUtil().isLoaded(this, "bookings") ? bookings : null;
+    }
+
 
 
     public Long getId() {
@@ -87,6 +186,26 @@ public class Flight implements Serializable {
         this.id = id;
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
     public String getFlightNumber() {
 		return flightNumber;
 	}
@@ -113,6 +232,14 @@ public class Flight implements Serializable {
 		this.destination = destination;
 	}
 
+	public Integer getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(Integer capacity) {
+		this.capacity = capacity;
+	}
+
 
 
 	@Override
@@ -155,7 +282,7 @@ public class Flight implements Serializable {
 	@Override
 	public String toString() {
 		return "Flight [id=" + id + ", flightNumber=" + flightNumber + ", departure=" + departure + ", destination="
-				+ destination + ", bookings=" + bookings + "]";
+				+ destination + "]";
 	}
 
     
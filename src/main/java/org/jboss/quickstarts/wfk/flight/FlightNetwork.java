@@ -0,0 +1,229 @@
+package org.jboss.quickstarts.wfk.flight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.jboss.quickstarts.wfk.flight.FlightRouteIndex.Route;
+
+/**
+ * <p>An immutable snapshot of the Flight network as a directed graph, with an airport for each node and an edge for
+ * each route that at least one Flight flies.</p>
+ *
+ * <p>The graph is held in compressed sparse row form: airports are numbered in alphabetical order, the edges leaving
+ * airport <i>a</i> are <code>targets[offsets[a]]</code> to <code>targets[offsets[a + 1] - 1]</code>, and the ids of the
+ * Flights on edge <i>e</i> are likewise a slice of one array. The edges arriving at each airport are held the same way,
+ * for searching backwards from a destination. A few flat arrays keep even a large network compact, and walking the
+ * edges of an airport is a scan of adjacent memory rather than a chain of map lookups.</p>
+ *
+ * @see FlightRouteIndex#getNetwork()
+ */
+final class FlightNetwork {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /* Airport codes, sorted, so that a code is numbered by binary search. */
+    private final String[] airports;
+
+    /* Edges leaving each airport, sorted by target. */
+    private final int[] offsets;
+    private final int[] targets;
+
+    /* Edges arriving at each airport, by source. */
+    private final int[] reverseOffsets;
+    private final int[] sources;
+
+    /* Flights on each edge, sorted by id. */
+    private final int[] flightOffsets;
+    private final long[] flightIds;
+
+    private FlightNetwork(String[] airports, int[] offsets, int[] targets, int[] reverseOffsets, int[] sources,
+                          int[] flightOffsets, long[] flightIds) {
+        this.airports = airports;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.reverseOffsets = reverseOffsets;
+        this.sources = sources;
+        this.flightOffsets = flightOffsets;
+        this.flightIds = flightIds;
+    }
+
+    /**
+     * <p>Builds the network from the route of every Flight.</p>
+     *
+     * @param routes The route of each Flight, by id
+     * @return The network
+     */
+    static FlightNetwork build(Map<Long, Route> routes) {
+        TreeSet<String> codes = new TreeSet<>();
+        for (Route route : routes.values()) {
+            codes.add(route.departure);
+            codes.add(route.destination);
+        }
+        String[] airports = codes.toArray(new String[codes.size()]);
+
+        // Sort the Flights by (departure, destination, id), packed into one long each for the sort.
+        int n = airports.length;
+        long[][] flights = new long[routes.size()][];
+        int i = 0;
+        for (Map.Entry<Long, Route> entry : routes.entrySet()) {
+            long from = Arrays.binarySearch(airports, entry.getValue().departure);
+            long to = Arrays.binarySearch(airports, entry.getValue().destination);
+            flights[i++] = new long[] {from * n + to, entry.getKey()};
+        }
+        Arrays.sort(flights, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        // Each run of Flights with the same (departure, destination) becomes one edge.
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[flights.length];
+        int[] flightOffsets = new int[flights.length + 1];
+        long[] flightIds = new long[flights.length];
+        int edges = 0;
+        for (int f = 0; f < flights.length; f++) {
+            if (f == 0 || flights[f][0] != flights[f - 1][0]) {
+                int from = (int) (flights[f][0] / n);
+                offsets[from + 1]++;
+                targets[edges] = (int) (flights[f][0] % n);
+                flightOffsets[edges] = f;
+                edges++;
+            }
+            flightIds[f] = flights[f][1];
+        }
+        flightOffsets[edges] = flights.length;
+        for (int a = 0; a < n; a++) {
+            offsets[a + 1] += offsets[a];
+        }
+        targets = Arrays.copyOf(targets, edges);
+        flightOffsets = Arrays.copyOf(flightOffsets, edges + 1);
+
+        // The same edges again, grouped by the airport they arrive at.
+        int[] reverseOffsets = new int[n + 1];
+        for (int e = 0; e < edges; e++) {
+            reverseOffsets[targets[e] + 1]++;
+        }
+        for (int a = 0; a < n; a++) {
+            reverseOffsets[a + 1] += reverseOffsets[a];
+        }
+        int[] sources = new int[edges];
+        int[] next = Arrays.copyOf(reverseOffsets, n);
+        for (int a = 0; a < n; a++) {
+            for (int e = offsets[a]; e < offsets[a + 1]; e++) {
+                sources[next[targets[e]]++] = a;
+            }
+        }
+
+        return new FlightNetwork(airports, offsets, targets, reverseOffsets, sources, flightOffsets, flightIds);
+    }
+
+    /**
+     * <p>Finds the best ways of getting from one airport to another, fewest legs first. Itineraries never visit an
+     * airport twice, and those with the same number of legs are in alphabetical order of the airports they visit.</p>
+     *
+     * <p>The search runs from both ends. A breadth-first search backwards from the destination finds how many legs each
+     * airport is from it, up to the limit, and the search forwards from the origin then only follows an edge if the
+     * destination can still be reached from its far end within the number of legs being looked for. Airports that
+     * cannot lead to the destination in time are never visited.</p>
+     *
+     * @param origin The airport to start from
+     * @param destination The airport to get to
+     * @param maxLegs The most legs an Itinerary may have
+     * @param limit The most Itineraries to return
+     * @return The Itineraries found, possibly none
+     */
+    List<Itinerary> search(String origin, String destination, int maxLegs, int limit) {
+        int from = Arrays.binarySearch(airports, origin);
+        int to = Arrays.binarySearch(airports, destination);
+        if (from < 0 || to < 0 || from == to || maxLegs < 1 || limit < 1) {
+            return Collections.emptyList();
+        }
+
+        int[] distance = distancesTo(to, maxLegs);
+        List<Itinerary> found = new ArrayList<>();
+        int[] path = new int[maxLegs];
+        boolean[] visited = new boolean[airports.length];
+        for (int legs = distance[from]; legs <= maxLegs && found.size() < limit; legs++) {
+            visited[from] = true;
+            collect(from, from, to, 0, legs, distance, path, visited, found, limit);
+        }
+        return found;
+    }
+
+    /**
+     * <p>Breadth-first search backwards from an airport, over the edges arriving at each airport.</p>
+     *
+     * @return The number of legs from each airport to the given one, or UNREACHABLE if it is more than maxLegs
+     */
+    private int[] distancesTo(int to, int maxLegs) {
+        int[] distance = new int[airports.length];
+        Arrays.fill(distance, UNREACHABLE);
+        int[] queue = new int[airports.length];
+        int head = 0;
+        int tail = 0;
+        distance[to] = 0;
+        queue[tail++] = to;
+        while (head < tail) {
+            int airport = queue[head++];
+            if (distance[airport] == maxLegs) {
+                continue;
+            }
+            for (int e = reverseOffsets[airport]; e < reverseOffsets[airport + 1]; e++) {
+                int source = sources[e];
+                if (distance[source] == UNREACHABLE) {
+                    distance[source] = distance[airport] + 1;
+                    queue[tail++] = source;
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * <p>Depth-first search forwards for the Itineraries with exactly the given number of legs.</p>
+     */
+    private void collect(int from, int airport, int to, int depth, int legs, int[] distance, int[] path,
+                         boolean[] visited, List<Itinerary> found, int limit) {
+        if (airport == to) {
+            if (depth == legs) {
+                found.add(itinerary(from, path, legs));
+            }
+            return;
+        }
+        for (int e = offsets[airport]; e < offsets[airport + 1] && found.size() < limit; e++) {
+            int target = targets[e];
+            if (visited[target] || distance[target] == UNREACHABLE || depth + 1 + distance[target] > legs) {
+                continue;
+            }
+            path[depth] = e;
+            visited[target] = true;
+            collect(from, target, to, depth + 1, legs, distance, path, visited, found, limit);
+            visited[target] = false;
+        }
+    }
+
+    private Itinerary itinerary(int from, int[] path, int legs) {
+        List<Itinerary.Leg> result = new ArrayList<>(legs);
+        int airport = from;
+        for (int i = 0; i < legs; i++) {
+            int e = path[i];
+            int departure = airport;
+            List<Long> ids = new ArrayList<>(flightOffsets[e + 1] - flightOffsets[e]);
+            for (int f = flightOffsets[e]; f < flightOffsets[e + 1]; f++) {
+                ids.add(flightIds[f]);
+            }
+            airport = targets[e];
+            result.add(new Itinerary.Leg(airports[departure], airports[airport], ids));
+        }
+        return new Itinerary(result);
+    }
+
+    int getAirportCount() {
+        return airports.length;
+    }
+
+    int getRouteCount() {
+        return targets.length;
+    }
+}
@@ -1,18 +1,28 @@
 package org.jboss.quickstarts.wfk.flight;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import org.hibernate.Hibernate;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Revision;
+
 public class FlightRepository {
 
     @Inject
@@ -21,6 +31,9 @@ public class FlightRepository {
     @Inject
     private EntityManager em;
 
+    @Inject
+    private ModificationTracker tracker;
+
     /**
      * <p>Returns a List of all persisted {@link Flight} objects, sorted alphabetically by last name.</p>
      *
@@ -42,19 +55,126 @@ public class FlightRepository {
     }
 
     /**
-     * <p>Returns a list of Flight objects, specified by a String firstName.<p/>
+     * <p>Returns the version and last modified time of a single Flight, specified by a Long id, without loading it.</p>
+     *
+     * @param id The id field of the Flight
+     * @return The revision of the Flight, or null if there is no such Flight
+     */
+    Revision findRevision(Long id) {
+        List<Object[]> rows = em.createNamedQuery(Flight.FIND_REVISION, Object[].class).setParameter("id", id).getResultList();
+        return rows.isEmpty() ? null : Revision.of(rows.get(0));
+    }
+
+    /**
+     * <p>Brings Flights that have already been read into the shape described by the named entity graph.</p>
+     *
+     * <p>A collection cannot be fetch joined into a query that is limited to a page of results, so lists are read in
+     * the summary shape and, for the withBookings graph, their Bookings are initialised afterwards. The association is
+     * annotated with @BatchSize, so this loads the Bookings of many Flights per query rather than one query each.</p>
      *
-     * @param firstName The firstName field of the Flights to be returned
-     * @return The Flights with the specified firstName
+     * @param flights The Flights to fetch the graph for
+     * @param graph The name of the entity graph to fetch
+     * @return The same list of Flights
      */
-    List<Flight> findAllByFirstName(String firstName) {
-        CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<Flight> criteria = cb.createQuery(Flight.class);
-        Root<Flight> flight = criteria.from(Flight.class);
-        // Swap criteria statements if you would like to try out type-safe criteria queries, a new feature in JPA 2.0.
-        // criteria.select(flight).where(cb.equal(flight.get(flight_.firstName), firstName));
-        criteria.select(flight).where(cb.equal(flight.get("firstName"), firstName));
-        return em.createQuery(criteria).getResultList();
+    List<Flight> fetchGraph(List<Flight> flights, String graph) {
+        if (Flight.GRAPH_WITH_BOOKINGS.equals(graph)) {
+            for (Flight flight : flights) {
+                Hibernate.initialize(flight.getBookings());
+            }
+        }
+        return flights;
+    }
+
+    /**
+     * <p>Returns a list of Flight objects, specified by a String flightNumber. As flight numbers are unique the list
+     * holds at most one Flight.<p/>
+     *
+     * @param flightNumber The flightNumber field of the Flights to be returned
+     * @return The Flights with the specified flightNumber
+     */
+    List<Flight> findAllByFlightNumber(String flightNumber) {
+        return em.createNamedQuery(Flight.FIND_BY_FLIGHT_NUMBER, Flight.class)
+                .setParameter("flightNumber", flightNumber)
+                .getResultList();
+    }
+
+    /**
+     * <p>Returns the Flights from one airport to another, sorted by flight number, using the (departure, destination)
+     * index on the table.<p/>
+     *
+     * @param departure The departure field of the Flights to be returned
+     * @param destination The destination field of the Flights to be returned
+     * @return The Flights on the route
+     */
+    List<Flight> findAllByRoute(String departure, String destination) {
+        return em.createNamedQuery(Flight.FIND_BY_ROUTE, Flight.class)
+                .setParameter("departure", departure)
+                .setParameter("destination", destination)
+                .getResultList();
+    }
+
+    /**
+     * <p>Returns the selected fields of the Flights from one airport to another, sorted by flight number.</p>
+     *
+     * @param departure The departure field of the Flights to be returned
+     * @param destination The destination field of the Flights to be returned
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByRoute(String departure, String destination, FieldSelection fields) {
+        FieldSelection.Restriction<Flight> where = (cb, f) -> cb.and(
+                cb.equal(f.get("departure"), departure), cb.equal(f.get("destination"), destination));
+        return fields.query(em, Flight.class, where, "flightNumber", "id").getResultList();
+    }
+
+    /**
+     * <p>Returns the Flights with the given ids, sorted by flight number. Flights in the second-level cache are looked up
+     * by id without reading the database, and the rest are read with a single query; ids with no Flight are skipped.</p>
+     *
+     * @param ids The id fields of the Flights to be returned
+     * @return The Flights with the specified ids
+     */
+    List<Flight> findAllById(Collection<Long> ids) {
+        Cache cache = em.getEntityManagerFactory().getCache();
+        List<Flight> flights = new ArrayList<>(ids.size());
+        List<Long> misses = new ArrayList<>();
+        for (Long id : ids) {
+            Flight flight = cache.contains(Flight.class, id) ? em.find(Flight.class, id) : null;
+            if (flight != null) {
+                flights.add(flight);
+            } else {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            flights.addAll(em.createNamedQuery(Flight.FIND_ALL_BY_ID, Flight.class).setParameter("ids", misses).getResultList());
+        }
+        flights.sort(Comparator.comparing(Flight::getFlightNumber));
+        return flights;
+    }
+
+    /**
+     * <p>Returns the id, departure and destination of every Flight, from which the {@link FlightRouteIndex} is
+     * built.</p>
+     *
+     * @return List of {id, departure, destination} rows
+     */
+    List<Object[]> findAllRoutes() {
+        return em.createNamedQuery(Flight.FIND_ALL_ROUTES, Object[].class).getResultList();
+    }
+
+    /**
+     * <p>Returns the selected fields of the Flights with the given flight number, or of every Flight if it is null,
+     * sorted by flight number.</p>
+     *
+     * @param flightNumber The flightNumber field of the Flights to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByFlightNumber(String flightNumber, FieldSelection fields) {
+        FieldSelection.Restriction<Flight> where =
+                flightNumber == null ? null : (cb, f) -> cb.equal(f.get("flightNumber"), flightNumber);
+        return fields.query(em, Flight.class, where, "flightNumber", "id").getResultList();
     }
 
     /**
@@ -79,25 +199,47 @@ public class FlightRepository {
     }
 
     /**
-     * <p>Updates an existing Flight object in the application database with the provided Flight object.</p>
-     *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * <p>Updates an existing Flight in the application database with a single UPDATE statement, without reading it
+     * first. When a version is given the row is only updated if it is still at that version, so that a concurrent change
+     * is detected rather than overwritten.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The statement bypasses the persistence context and its entity listeners, so the new last modified time and
+     * version are set on the given Flight here, and the write is recorded with the {@link ModificationTracker}. Without a
+     * version to match, the version written is read back, so that the caller can still tag its response.</p>
      *
-     * @param Flight The Flight object to be merged with an existing Flight
-     * @return The Flight that has been merged
-     * @throws ConstraintViolationException, ValidationException, Exception
+     * @param flight The Flight holding the new values
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Flight was updated, false if there is no Flight with its id (at that version)
      */
-    Flight update(Flight flight) throws ConstraintViolationException, ValidationException, Exception {
+    boolean update(Flight flight, Long version) {
         log.info("FlightRepository.update() - Updating " + flight.getFlightNumber());
 
-        // Either update the Flight or add it if it can't be found.
-        em.merge(flight);
+        Date now = new Date();
+        Query query = em.createNamedQuery(version == null ? Flight.UPDATE_ANY_VERSION : Flight.UPDATE)
+                .setParameter("id", flight.getId())
+                .setParameter("flightNumber", flight.getFlightNumber())
+                .setParameter("departure", flight.getDeparture())
+                .setParameter("destination", flight.getDestination())
+                .setParameter("capacity", flight.getCapacity())
+                .setParameter("lastModified", now, TemporalType.TIMESTAMP);
+        if (version != null) {
+            query.setParameter("version", version);
+        }
+        if (query.executeUpdate() == 0) {
+            return false;
+        }
 
-        return flight;
+        tracker.modified(Flight.class);
+        flight.setLastModified(now);
+        flight.setVersion(version == null ? findVersion(flight.getId()) : version + 1);
+        return true;
+    }
+
+    /*
+     * The UPDATE holds the lock on the row until the transaction ends, so the version read here is the one it wrote.
+     */
+    private Long findVersion(Long id) {
+        return (Long) em.createNamedQuery(Flight.FIND_REVISION, Object[].class).setParameter("id", id).getSingleResult()[0];
     }
 
 }
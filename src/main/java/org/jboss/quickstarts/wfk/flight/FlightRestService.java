@@ -14,18 +14,29 @@ import javax.validation.ConstraintViolationException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.booking.BookingService;
 import org.jboss.quickstarts.wfk.contact.UniqueEmailException;
 import org.jboss.quickstarts.wfk.customer.Customer;
 import org.jboss.quickstarts.wfk.customer.CustomerService;
+import org.jboss.quickstarts.wfk.dto.DtoMapper;
+import org.jboss.quickstarts.wfk.util.ConditionalGet;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.Paging;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
 import org.jboss.resteasy.annotations.cache.Cache;
 
@@ -58,34 +69,259 @@ import io.swagger.annotations.ApiResponses;
 @Api(value = "/flights", description = "Operations about flights")
 @Stateless
 public class FlightRestService {
+    /** Response header carrying the token for the next page, when there is one. */
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    /** Value of the view query parameter selecting {@link Flight#GRAPH_SUMMARY}, the default. */
+    static final String VIEW_SUMMARY = "summary";
+    /** Value of the view query parameter selecting {@link Flight#GRAPH_WITH_BOOKINGS}. */
+    static final String VIEW_WITH_BOOKINGS = "withBookings";
+    /** Most legs of an Itinerary when maxLegs is not given. */
+    static final int DEFAULT_MAX_LEGS = 3;
+    /** Number of Itineraries returned when limit is not given. */
+    static final int DEFAULT_ITINERARIES = 5;
+    /** Fields that may be selected with the fields query parameter. */
+    static final Map<String, String> FIELDS = FieldSelection.allowing("id", "flightNumber", "departure", "destination");
+
     @Inject
     private @Named("logger") Logger log;
     
     @Inject
     private FlightService service;
 
+    @Inject
+    private BookingService bookingService;
+
+    @Context
+    private UriInfo uriInfo;
+
+    @Context
+    private Request request;
+
+    /**
+     * <p>Return all the Flights.  They are sorted by flight number.</p>
+     *
+     * <p>The url may optionally include a query parameter specifying a Flight's number</p>
+     *
+     * <p>Example: <pre>GET api/flights?flightNumber=AB123</pre></p>
+     *
+     * <p>The url may instead include both a departure and a destination, to return only the Flights on that route.
+     * Example: <pre>GET api/flights?departure=LHR&destination=JFK</pre></p>
+     *
+     * <p>Flights are returned without their Bookings unless <pre>view=withBookings</pre> is given.</p>
+     *
+     * <p>A comma separated list of fields limits each Flight to just those fields, and only those columns are read
+     * from the database. Example: <pre>GET api/flights?fields=id,flightNumber</pre></p>
+     *
+     * <p>The response carries an ETag, and is answered with 304 Not Modified if the client's copy is still current.</p>
+     *
+     * @return A Response containing a list of Flights
+     */
+    @GET
+    @ApiOperation(value = "Fetch all Flights", notes = "Returns a JSON array of all stored Flight objects."
+            + " Supply departure and destination to return only the Flights on that route,"
+            + " view=withBookings to include each Flight's Bookings, or fields to return only some fields.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message ="Flights found"),
+            @ApiResponse(code = 400, message = "Only one of departure and destination, or a route with a flightNumber")
+    })
+    public Response retrieveAllFlights(@QueryParam("flightNumber") String flightNumber,
+                                       @QueryParam("departure") String departure,
+                                       @QueryParam("destination") String destination,
+                                       @QueryParam("view") String view,
+                                       @QueryParam(FieldSelection.QUERY_PARAM) String fields) {
+        boolean byRoute = isRoute(flightNumber, departure, destination);
+        String graph = graphFor(view);
+        FieldSelection selection = FieldSelection.parse(fields, FIELDS);
+        if (selection != null) {
+            if (!Flight.GRAPH_SUMMARY.equals(graph)) {
+                Map<String, String> responseObj = new HashMap<>();
+                responseObj.put(FieldSelection.QUERY_PARAM, "The fields cannot be combined with view=" + VIEW_WITH_BOOKINGS);
+                throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
+            }
+            return ConditionalGet.respondForTables(request, uriInfo,
+                    () -> Response.ok(selection.toMaps(byRoute
+                            ? service.findAllByRoute(departure, destination, selection)
+                            : service.findAllByFlightNumber(flightNumber, selection))),
+                    Flight.class);
+        }
+
+        Class<?>[] tables = Flight.GRAPH_SUMMARY.equals(graph)
+                ? new Class<?>[] {Flight.class}
+                : new Class<?>[] {Flight.class, Booking.class};
+        return ConditionalGet.respondForTables(request, uriInfo, () -> {
+            //Create an empty collection to contain the intersection of flights to be returned
+            List<Flight> flights ;
+            if (byRoute) {
+                flights = service.findAllByRoute(departure, destination);
+            } else if(flightNumber == null) {
+                flights = service.findAllOrderedByName();
+            } else {
+                flights = service.findAllByFlightNumber(flightNumber);
+            }
+
+            return Response.ok(DtoMapper.toFlights(service.fetchGraph(flights, graph), DtoMapper.DEFAULT_DEPTH));
+        }, tables);
+    }
+
     /**
-     * <p>Return all the Contacts.  They are sorted alphabetically by name.</p>
+     * <p>Returns one page of the Bookings made on the Flight with the given id, in the order they were made.</p>
      *
-     * <p>The url may optionally include query parameters specifying a Contact's name</p>
+     * <p>If there are more Bookings the response carries the id to continue after in the X-Next-Cursor header, and a
+     * Link header with rel="next".</p>
      *
-     * <p>Examples: <pre>GET api/contacts?firstname=John</pre>, <pre>GET api/contacts?firstname=John&lastname=Smith</pre></p>
+     * <p>Example: <pre>GET api/flights/1/bookings?limit=20</pre>, followed by
+     * <pre>GET api/flights/1/bookings?limit=20&after=...</pre></p>
      *
-     * @return A Response containing a list of Contacts
+     * @param id The long parameter value provided as a Flight's id
+     * @param after The id of the last Booking on the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return, or null for the default page size
+     * @return A Response containing a list of Bookings
      */
     @GET
-    @ApiOperation(value = "Fetch all Flights", notes = "Returns a JSON array of all stored Contact objects.")
-    public Response retrieveAllContacts(@QueryParam("flightNumber") String flightNumber) {
-        //Create an empty collection to contain the intersection of flights to be returned
-        List<Flight> flights ;
-        if(flightNumber == null) {
-            flights = service.findAllOrderedByName();
+    @Path("/{id:[0-9]+}/bookings")
+    @ApiOperation(
+            value = "Fetch the Bookings of a Flight",
+            notes = "Returns a page of the Flight's Bookings; the value to pass as after for the next page is returned"
+                    + " in the X-Next-Cursor header."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message ="Bookings found"),
+            @ApiResponse(code = 400, message = "Invalid limit"),
+            @ApiResponse(code = 404, message = "Flight with id not found")
+    })
+    public Response retrieveFlightBookings(
+            @ApiParam(value = "Id of Flight whose Bookings are to be fetched", allowableValues = "range[0, infinity]", required = true)
+            @PathParam("id")
+            long id,
+            @QueryParam("after")
+            Long after,
+            @QueryParam("limit")
+            Integer limit) {
+
+        int pageSize = Paging.pageSize(limit);
+
+        if (service.findRevision(id) == null) {
+            // Verify that the flight exists. Return 404, if not present.
+            throw new RestServiceException("No Flight with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        return ConditionalGet.respondForTables(request, uriInfo, () -> {
+            // Ask for one extra row so we know whether there is a next page without a separate count query.
+            List<Booking> bookings = bookingService.findPageByFlight(id, after, pageSize + 1);
+
+            if (bookings.size() > pageSize) {
+                bookings = bookings.subList(0, pageSize);
+                String next = String.valueOf(bookings.get(pageSize - 1).getId());
+                return Response.ok(DtoMapper.toBookings(bookings, DtoMapper.DEFAULT_DEPTH))
+                        .header(NEXT_CURSOR_HEADER, next)
+                        .link(uriInfo.getRequestUriBuilder().replaceQueryParam("after", next).build(), "next");
+            }
+            return Response.ok(DtoMapper.toBookings(bookings, DtoMapper.DEFAULT_DEPTH));
+        }, Booking.class, Customer.class, Flight.class);
+    }
+
+    /**
+     * <p>Finds the best ways of flying from one airport to another, taking connecting Flights where there is no direct
+     * one. Itineraries with fewer legs come first, and no airport is visited twice.</p>
+     *
+     * <p>Example: <pre>GET api/flights/itineraries?departure=CHI&destination=BRI&maxLegs=2&limit=3</pre></p>
+     *
+     * @param departure The airport to start from
+     * @param destination The airport to get to
+     * @param maxLegs The most legs an Itinerary may have, or null for the default
+     * @param limit The most Itineraries to return, or null for the default
+     * @return A Response containing a list of Itineraries
+     */
+    @GET
+    @Path("/itineraries")
+    @ApiOperation(
+            value = "Find Itineraries between two airports",
+            notes = "Returns the Itineraries with the fewest legs first, each leg listing the Flights that fly it."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message ="Itineraries found, possibly none"),
+            @ApiResponse(code = 400, message = "Missing airport, or invalid maxLegs or limit")
+    })
+    public Response retrieveItineraries(
+            @ApiParam(value = "Airport to start from", required = true)
+            @QueryParam("departure")
+            String departure,
+            @ApiParam(value = "Airport to get to", required = true)
+            @QueryParam("destination")
+            String destination,
+            @ApiParam(value = "Most legs an Itinerary may have")
+            @QueryParam("maxLegs")
+            Integer maxLegs,
+            @ApiParam(value = "Most Itineraries to return")
+            @QueryParam("limit")
+            Integer limit) {
+
+        int legs = maxLegs == null ? Math.min(DEFAULT_MAX_LEGS, FlightRouteIndex.MAX_LEGS) : maxLegs;
+        int count = limit == null ? Math.min(DEFAULT_ITINERARIES, FlightRouteIndex.MAX_ITINERARIES) : limit;
+        Map<String, String> responseObj = new HashMap<>();
+        if (departure == null) {
+            responseObj.put("departure", "The departure must be given");
+        }
+        if (destination == null) {
+            responseObj.put("destination", "The destination must be given");
+        }
+        if (legs < 1 || legs > FlightRouteIndex.MAX_LEGS) {
+            responseObj.put("maxLegs", "The maxLegs must be between 1 and " + FlightRouteIndex.MAX_LEGS);
+        }
+        if (count < 1 || count > FlightRouteIndex.MAX_ITINERARIES) {
+            responseObj.put("limit", "The limit must be between 1 and " + FlightRouteIndex.MAX_ITINERARIES);
+        }
+        if (!responseObj.isEmpty()) {
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
+        }
+
+        return ConditionalGet.respondForTables(request, uriInfo, () -> {
+            List<Itinerary> itineraries = service.findItineraries(departure, destination, legs, count);
+            return Response.ok(DtoMapper.toItineraries(itineraries, service.findFlightsOn(itineraries)));
+        }, Flight.class);
+    }
+
+    /**
+     * <p>Checks the route query parameters: a departure and a destination must be given together, and cannot be
+     * combined with a flight number.</p>
+     *
+     * @param flightNumber The flightNumber query parameter, or null
+     * @param departure The departure query parameter, or null
+     * @param destination The destination query parameter, or null
+     * @return true if the Flights on a route were asked for
+     */
+    private static boolean isRoute(String flightNumber, String departure, String destination) {
+        if (departure == null && destination == null) {
+            return false;
+        }
+        Map<String, String> responseObj = new HashMap<>();
+        if (departure == null || destination == null) {
+            responseObj.put(departure == null ? "departure" : "destination",
+                    "The departure and destination must be given together");
+        } else if (flightNumber != null) {
+            responseObj.put("flightNumber", "The flightNumber cannot be combined with a departure and destination");
         } else {
-            flights = service.findAllByFlightNumber(flightNumber);
-            flights.retainAll(service.findAllByFlightNumber(flightNumber));
+            return true;
+        }
+        throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
     }
 
-        return Response.ok(flights).build();
+    /**
+     * <p>Maps the view query parameter onto the name of a Flight entity graph.</p>
+     *
+     * @param view The view query parameter, or null for the default
+     * @return The name of the entity graph to fetch
+     */
+    private static String graphFor(String view) {
+        if (view == null || VIEW_SUMMARY.equals(view)) {
+            return Flight.GRAPH_SUMMARY;
+        }
+        if (VIEW_WITH_BOOKINGS.equals(view)) {
+            return Flight.GRAPH_WITH_BOOKINGS;
+        }
+        Map<String, String> responseObj = new HashMap<>();
+        responseObj.put("view", "The view must be either " + VIEW_SUMMARY + " or " + VIEW_WITH_BOOKINGS);
+        throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
     }
 
     /**
@@ -151,9 +387,15 @@ public class FlightRestService {
      * <p>Updates the flight with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>The Flight is not read first. It is updated with one statement that only matches the version the client last read,
+     * given as the ETag in If-Match or as the version in the body; if neither is given, whatever is stored is
+     * overwritten. When nothing is updated the response is 404 if the Flight does not exist, and 412 if it has been
+     * changed since.</p>
+     *
      * @param flight The flight object, constructed automatically from JSON input, to be <i>updated</i> via
      * {@link flightService#update(flight)}
      * @param id The long parameter value provided as the id of the flight to be updated
+     * @param ifMatch The ETag of the Flight as the client last read it, or null
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
@@ -164,12 +406,16 @@ public class FlightRestService {
             @ApiResponse(code = 400, message = "Invalid Flight supplied in request body"),
             @ApiResponse(code = 404, message = "Flight with id not found"),
             @ApiResponse(code = 409, message = "Flight details supplied in request body conflict with another existing Flight"),
+            @ApiResponse(code = 412, message = "Flight has been changed since it was read"),
             @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
     })
     public Response updateFlight(
             @ApiParam(value = "Id of Flight to be updated", allowableValues = "range[0, infinity]", required = true)
             @PathParam("id")
             long id,
+            @ApiParam(value = "ETag of the Flight as last read; the update is refused with 412 if it has changed since")
+            @HeaderParam(HttpHeaders.IF_MATCH)
+            String ifMatch,
             @ApiParam(value = "JSON representation of Flight object to be updated in the database", required = true)
             Flight flight) {
 
@@ -185,21 +431,14 @@ public class FlightRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(flight.getId()) == null) {
-            // Verify that the flight exists. Return 404, if not present.
-            throw new RestServiceException("No Flight with the id " + id + " was found!", Response.Status.NOT_FOUND);
-        }
+        // The version the client last read. There is no read here to check the Flight exists; the update finds out.
+        Long version = ConditionalGet.expectedVersion(ifMatch, id, flight.getVersion());
 
-        Response.ResponseBuilder builder;
+        boolean updated;
 
         try {
-            // Apply the changes the Flight.
-            service.update(flight);
-
-            // Create an OK Response and pass the flight back in case it is needed.
-            builder = Response.ok(flight);
-
-
+            // Apply the changes the Flight, in one UPDATE that only matches the version the client read.
+            updated = service.update(flight, version);
         } catch (ConstraintViolationException ce) {
             //Handle bean validation issues
             Map<String, String> responseObj = new HashMap<>();
@@ -219,8 +458,14 @@ public class FlightRestService {
             throw new RestServiceException(e);
         }
 
+        if (!updated) {
+            // Only now is it worth finding out whether the Flight exists: 404 if not, 412 if it has changed.
+            throw ConditionalGet.notUpdated("Flight", id, service.findRevision(id) != null);
+        }
+
         log.info("updateFlight completed. Flight = " + flight.toString());
-        return builder.build();
+        // Create an OK Response and pass the flight back in case it is needed.
+        return ConditionalGet.tagged(Response.ok(flight), uriInfo, id, flight).build();
     }
 
 }
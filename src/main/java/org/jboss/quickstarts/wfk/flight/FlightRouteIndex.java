@@ -0,0 +1,272 @@
+package org.jboss.quickstarts.wfk.flight;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.jboss.quickstarts.wfk.util.NearCache;
+
+/**
+ * <p>An in-memory index of the ids of the {@link Flight}s on each route, by departure and then destination, so that
+ * the Flights from one airport to another are found with two hash lookups rather than a query.</p>
+ *
+ * <p>It is built from the database when the application starts and kept up to date by {@link FlightService}, which
+ * calls {@link #put(Flight)} whenever it creates or updates a Flight. The change is applied once the surrounding
+ * transaction commits, so a Flight that is rolled back never shows up. Reads take no lock; writes are serialised so
+ * that moving a Flight from one route to another, and a rebuild, are not interleaved.</p>
+ *
+ * <p>The index only holds ids: the Flights themselves are read by id, mostly from the second-level cache. Until the
+ * first build has finished {@link #find(String, String)} returns null, and callers query the database instead.</p>
+ *
+ * <p>The same routes, as a {@link FlightNetwork}, are searched for Itineraries that need a connection. The network is
+ * built when it is first needed after a change, and the Itineraries found are cached by origin and destination until
+ * the next change. The longest Itinerary searched for and the number kept per origin and destination can be tuned
+ * with the <code>flight.itinerary.maxLegs</code> (default 4) and <code>flight.itinerary.maxResults</code> (default 20)
+ * system properties, and the cache with <code>flight.itinerary.cache.maxSize</code> (default 1000) and
+ * <code>flight.itinerary.cache.ttlMillis</code> (default 10 minutes).</p>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class FlightRouteIndex {
+
+    static final int MAX_LEGS = Integer.getInteger("flight.itinerary.maxLegs", 4);
+
+    static final int MAX_ITINERARIES = Integer.getInteger("flight.itinerary.maxResults", 20);
+
+    static final int CACHE_SIZE = Integer.getInteger("flight.itinerary.cache.maxSize", 1000);
+
+    static final long CACHE_TTL_MILLIS = Long.getLong("flight.itinerary.cache.ttlMillis", TimeUnit.MINUTES.toMillis(10));
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+
+    @Inject
+    private FlightRepository crud;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    /* departure -> destination -> ids of the Flights on that route */
+    private volatile Map<String, Map<String, Set<Long>>> byDeparture = new ConcurrentHashMap<>();
+
+    /* id -> the route the Flight is indexed under, so that it can be taken off that route when it moves */
+    private volatile Map<Long, Route> routes = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    /* The routes as a graph; null when they have changed since it was last built. */
+    private volatile FlightNetwork network;
+
+    private final NearCache<Route, List<Itinerary>> itineraries = new NearCache<>(CACHE_SIZE, CACHE_TTL_MILLIS);
+
+    @PostConstruct
+    void init() {
+        rebuild();
+    }
+
+    /**
+     * <p>Returns the ids of the Flights from one airport to another.</p>
+     *
+     * @param departure The departure airport
+     * @param destination The destination airport
+     * @return The ids of the Flights on the route, possibly empty; or null if the index has not been built yet
+     */
+    public List<Long> find(String departure, String destination) {
+        if (!ready) {
+            return null;
+        }
+        Map<String, Set<Long>> destinations = byDeparture.get(departure);
+        Set<Long> ids = destinations == null ? null : destinations.get(destination);
+        return ids == null ? Collections.<Long>emptyList() : new ArrayList<>(ids);
+    }
+
+    /**
+     * <p>Returns the best Itineraries from one airport to another, fewest legs first, up to {@link #MAX_ITINERARIES} of
+     * them with up to {@link #MAX_LEGS} legs each.</p>
+     *
+     * @param origin The airport to start from
+     * @param destination The airport to get to
+     * @return The Itineraries, possibly none
+     * @see FlightNetwork#search(String, String, int, int)
+     */
+    public List<Itinerary> findItineraries(String origin, String destination) {
+        return itineraries.get(new Route(origin, destination),
+                route -> getNetwork().search(route.departure, route.destination, MAX_LEGS, MAX_ITINERARIES));
+    }
+
+    /**
+     * @return The current routes as a graph, built now if they have changed since it was last built
+     */
+    FlightNetwork getNetwork() {
+        FlightNetwork current = network;
+        if (current == null) {
+            synchronized (this) {
+                current = network;
+                if (current == null) {
+                    current = FlightNetwork.build(routes);
+                    network = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * <p>Indexes a Flight that has been, or is about to be, written under its current route, taking it off the route it
+     * was indexed under before. Inside a transaction this happens when the transaction commits.</p>
+     *
+     * @param flight The Flight that has been created or updated
+     */
+    public void put(Flight flight) {
+        final Long id = flight.getId();
+        if (id == null || flight.getDeparture() == null || flight.getDestination() == null) {
+            return;
+        }
+        final Route route = new Route(flight.getDeparture(), flight.getDestination());
+
+        if (transactions != null && transactions.getTransactionKey() != null
+                && transactions.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        index(id, route);
+                    }
+                }
+            });
+        } else {
+            index(id, route);
+        }
+    }
+
+    /**
+     * <p>Replaces the index with one built from the Flights currently in the database.</p>
+     */
+    public synchronized void rebuild() {
+        long started = System.currentTimeMillis();
+        List<Object[]> rows = crud.findAllRoutes();
+        build(rows);
+        log.info("FlightRouteIndex.rebuild() - Indexed " + rows.size() + " flights on " + getRouteCount() + " routes in "
+                + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    /**
+     * @param rows The {id, departure, destination} of every Flight
+     */
+    synchronized void build(Collection<Object[]> rows) {
+        Map<String, Map<String, Set<Long>>> nextByDeparture = new ConcurrentHashMap<>();
+        Map<Long, Route> nextRoutes = new ConcurrentHashMap<>();
+        for (Object[] row : rows) {
+            Long id = ((Number) row[0]).longValue();
+            Route route = new Route((String) row[1], (String) row[2]);
+            nextRoutes.put(id, route);
+            idsOn(nextByDeparture, route).add(id);
+        }
+        byDeparture = nextByDeparture;
+        routes = nextRoutes;
+        ready = true;
+        changed();
+    }
+
+    /**
+     * @return The number of distinct routes with at least one Flight on them
+     */
+    public int getRouteCount() {
+        int count = 0;
+        for (Map<String, Set<Long>> destinations : byDeparture.values()) {
+            count += destinations.size();
+        }
+        return count;
+    }
+
+    public int getFlightCount() {
+        return routes.size();
+    }
+
+    synchronized void index(Long id, Route route) {
+        Route previous = routes.put(id, route);
+        if (route.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            Map<String, Set<Long>> destinations = byDeparture.get(previous.departure);
+            Set<Long> ids = destinations == null ? null : destinations.get(previous.destination);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    destinations.remove(previous.destination);
+                    if (destinations.isEmpty()) {
+                        byDeparture.remove(previous.departure);
+                    }
+                }
+            }
+        }
+        idsOn(byDeparture, route).add(id);
+        changed();
+    }
+
+    /*
+     * The network is dropped before the cached Itineraries, so a search that races with the change either sees the new
+     * network or is not cached.
+     */
+    private void changed() {
+        network = null;
+        itineraries.invalidateAll();
+    }
+
+    private static Set<Long> idsOn(Map<String, Map<String, Set<Long>>> byDeparture, Route route) {
+        return byDeparture.computeIfAbsent(route.departure, d -> new ConcurrentHashMap<>())
+                .computeIfAbsent(route.destination, d -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * <p>A departure and destination pair.</p>
+     */
+    static final class Route {
+
+        final String departure;
+
+        final String destination;
+
+        Route(String departure, String destination) {
+            this.departure = departure;
+            this.destination = destination;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Route)) {
+                return false;
+            }
+            Route other = (Route) obj;
+            return Objects.equals(departure, other.departure) && Objects.equals(destination, other.destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(departure, destination);
+        }
+    }
+}
@@ -1,24 +1,22 @@
 package org.jboss.quickstarts.wfk.flight;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Tuple;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
-import javax.ws.rs.ClientErrorException;
-import javax.ws.rs.core.Response;
-
-import org.jboss.quickstarts.wfk.area.Area;
-import org.jboss.quickstarts.wfk.area.AreaService;
-import org.jboss.quickstarts.wfk.area.InvalidAreaCodeException;
-import org.jboss.quickstarts.wfk.customer.Customer;
-import org.jboss.quickstarts.wfk.customer.CustomerRepository;
-import org.jboss.quickstarts.wfk.customer.CustomerValidator;
-import org.jboss.resteasy.client.jaxrs.ResteasyClient;
-import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
-import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+
+import org.jboss.quickstarts.wfk.booking.SeatInventory;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
+import org.jboss.quickstarts.wfk.util.Revision;
 
 public class FlightService {
 
@@ -31,15 +29,11 @@ public class FlightService {
     @Inject
     private FlightRepository crud;
 
-    private ResteasyClient client;
+    @Inject
+    private FlightRouteIndex routes;
 
-    /**
-     * <p>Create a new client which will be used for our outgoing REST client communication</p>
-     */
-    public FlightService() {
-        // Create client service instance to make REST requests to upstream service
-        client = new ResteasyClientBuilder().build();
-    }
+    @Inject
+    private SeatInventory seats;
 
     /**
      * <p>Returns a List of all persisted {@link Flight} objects, sorted alphabetically by last name.<p/>
@@ -61,13 +55,119 @@ public class FlightService {
     }
 
     /**
-     * <p>Returns a single Flight object, specified by a String firstName.<p/>
+     * <p>Returns the version and last modified time of a single Flight, specified by a Long id, without loading it.<p/>
+     *
+     * @param id The id field of the Flight
+     * @return The revision of the Flight, or null if there is no such Flight
+     */
+    Revision findRevision(Long id) {
+        return crud.findRevision(id);
+    }
+
+    /**
+     * <p>Brings Flights that have already been read into the shape described by the named entity graph.<p/>
      *
-     * @param firstName The firstName field of the Flight to be returned
-     * @return The first Flight with the specified firstName
+     * @param flights The Flights to fetch the graph for
+     * @param graph The name of the entity graph to fetch
+     * @return The same list of Flights
+     */
+    List<Flight> fetchGraph(List<Flight> flights, String graph) {
+        return crud.fetchGraph(flights, graph);
+    }
+
+    /**
+     * <p>Returns the Flights with the given flight number; as flight numbers are unique there is at most one.<p/>
+     *
+     * @param flightNumber The flightNumber field of the Flights to be returned
+     * @return The Flights with the specified flightNumber
      */
     List<Flight> findAllByFlightNumber(String flightNumber) {
-        return crud.findAllByFirstName(flightNumber);
+        return crud.findAllByFlightNumber(flightNumber);
+    }
+
+    /**
+     * <p>Returns the Flights from one airport to another, sorted by flight number.<p/>
+     *
+     * <p>The ids of the Flights on the route come from the {@link FlightRouteIndex}, and the Flights are then read by id.
+     * Until the index has been built the route is queried from the database instead.<p/>
+     *
+     * @param departure The departure field of the Flights to be returned
+     * @param destination The destination field of the Flights to be returned
+     * @return The Flights on the route
+     */
+    List<Flight> findAllByRoute(String departure, String destination) {
+        List<Long> ids = routes.find(departure, destination);
+        if (ids == null) {
+            return crud.findAllByRoute(departure, destination);
+        }
+        return crud.findAllById(ids);
+    }
+
+    /**
+     * <p>Returns the best Itineraries from one airport to another, fewest legs first.<p/>
+     *
+     * <p>The Itineraries for each origin and destination are searched for once, up to the most legs and results that
+     * may be asked for, and cached by the {@link FlightRouteIndex} until a Flight is created or moved to another route.
+     * As they are sorted by the number of legs, the best within smaller limits are the first of them.<p/>
+     *
+     * @param departure The airport to start from
+     * @param destination The airport to get to
+     * @param maxLegs The most legs an Itinerary may have, no more than {@link FlightRouteIndex#MAX_LEGS}
+     * @param limit The most Itineraries to return, no more than {@link FlightRouteIndex#MAX_ITINERARIES}
+     * @return The Itineraries found, possibly none
+     */
+    List<Itinerary> findItineraries(String departure, String destination, int maxLegs, int limit) {
+        List<Itinerary> itineraries = new ArrayList<>();
+        for (Itinerary itinerary : routes.findItineraries(departure, destination)) {
+            if (itineraries.size() == limit || itinerary.getLegs().size() > maxLegs) {
+                break;
+            }
+            itineraries.add(itinerary);
+        }
+        return itineraries;
+    }
+
+    /**
+     * <p>Reads the Flights on the legs of the given Itineraries.<p/>
+     *
+     * @param itineraries The Itineraries
+     * @return The Flights on them, by id
+     */
+    Map<Long, Flight> findFlightsOn(List<Itinerary> itineraries) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Itinerary itinerary : itineraries) {
+            for (Itinerary.Leg leg : itinerary.getLegs()) {
+                ids.addAll(leg.getFlightIds());
+            }
+        }
+        Map<Long, Flight> flights = new HashMap<>();
+        for (Flight flight : crud.findAllById(ids)) {
+            flights.put(flight.getId(), flight);
+        }
+        return flights;
+    }
+
+    /**
+     * <p>Returns the selected fields of the Flights from one airport to another.<p/>
+     *
+     * @param departure The departure field of the Flights to be returned
+     * @param destination The destination field of the Flights to be returned
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByRoute(String departure, String destination, FieldSelection fields) {
+        return crud.findAllByRoute(departure, destination, fields);
+    }
+
+    /**
+     * <p>Returns the selected fields of the Flights with the given flight number, or of every Flight if it is null.<p/>
+     *
+     * @param flightNumber The flightNumber field of the Flights to be returned, or null
+     * @param fields The fields to select
+     * @return List of tuples
+     */
+    List<Tuple> findAllByFlightNumber(String flightNumber, FieldSelection fields) {
+        return crud.findAllByFlightNumber(flightNumber, fields);
     }
 
     /**
@@ -84,19 +184,11 @@ public class FlightService {
         
         // Check to make sure the data fits with the parameters in the Flight model and passes validation.
         validator.validateFlight(flight);
-        try {
-//            Area area = service.getAreaById(Integer.parseInt(flight.getPhoneNumber().substring(1, 4)));
-//            flight.setState("success");
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-            	throw new InvalidAreaCodeException("The area code provided does not exist", e);
-                } else {
-                throw e;
-            }
-        }
 
-        // Write the flight to the database.
-        return crud.create(flight);
+        // Write the flight to the database, and index it under its route once that commits.
+        Flight created = crud.create(flight);
+        routes.put(created);
+        return created;
     }
 
     /**
@@ -104,33 +196,28 @@ public class FlightService {
      *
      * <p>Validates the data in the provided Flight object using a FlightValidator object.<p/>
      *
+     * <p>The Flight is written with one UPDATE statement that also checks its version, rather than being read and then
+     * merged.<p/>
+     *
      * @param Flight The Flight object to be passed as an update to the application database
-     * @return The Flight object that has been successfully updated in the application database
+     * @param version The version the client last read, or null to overwrite whatever version is stored
+     * @return true if the Flight was updated, false if there is no Flight with its id (at that version)
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Flight update(Flight flight) throws ConstraintViolationException, ValidationException, Exception {
+    boolean update(Flight flight, Long version) throws ConstraintViolationException, ValidationException, Exception {
         log.info("FlightService.update() - Updating " + flight.getFlightNumber());
         
         // Check to make sure the data fits with the parameters in the Flight model and passes validation.
         validator.validateFlight(flight);
 
-        // Set client target location and define the proxy API class
-        ResteasyWebTarget target = client.target("http://csc8104-states.b9ad.pro-us-east-1.openshiftapps.com");
-        AreaService service = target.proxy(AreaService.class);
-
-        try {
-//            Area area = service.getAreaById(Integer.parseInt(flight.getPhoneNumber().substring(1, 4)));
-//            flight.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
-            }
+        if (!crud.update(flight, version)) {
+            return false;
         }
 
-        // Either update the Flight or add it if it can't be found.
-        return crud.update(flight);
+        // The Flight may have moved to another route, or changed its capacity.
+        routes.put(flight);
+        seats.invalidateFlight(flight.getId());
+        return true;
     }
 
 
@@ -0,0 +1,72 @@
+package org.jboss.quickstarts.wfk.flight;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A way of getting from one airport to another on one or more Flights, one leg per Flight taken. Each leg lists
+ * the ids of every Flight on its route, any of which may be taken.</p>
+ *
+ * <p>Itineraries are found by {@link FlightNetwork#search(String, String, int, int)} and are immutable, so they can be
+ * shared between requests.</p>
+ */
+public class Itinerary {
+
+    private final List<Leg> legs;
+
+    Itinerary(List<Leg> legs) {
+        this.legs = Collections.unmodifiableList(legs);
+    }
+
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    /**
+     * @return The airports visited, from the origin to the final destination
+     */
+    public List<String> getAirports() {
+        List<String> airports = new ArrayList<>(legs.size() + 1);
+        airports.add(legs.get(0).getDeparture());
+        for (Leg leg : legs) {
+            airports.add(leg.getDestination());
+        }
+        return airports;
+    }
+
+    @Override
+    public String toString() {
+        return "Itinerary " + getAirports();
+    }
+
+    /**
+     * <p>One leg of an Itinerary: a route, and the Flights flying it.</p>
+     */
+    public static class Leg {
+
+        private final String departure;
+
+        private final String destination;
+
+        private final List<Long> flightIds;
+
+        Leg(String departure, String destination, List<Long> flightIds) {
+            this.departure = departure;
+            this.destination = destination;
+            this.flightIds = Collections.unmodifiableList(flightIds);
+        }
+
+        public String getDeparture() {
+            return departure;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public List<Long> getFlightIds() {
+            return flightIds;
+        }
+    }
+}
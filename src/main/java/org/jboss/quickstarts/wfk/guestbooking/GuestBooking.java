@@ -56,7 +56,7 @@ public class GuestBooking implements Serializable {
     public static final String FIND_BY_CUSTOMER = "guestBooking.customer";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "guest_booking_id")
     private Long id;
 
     @ManyToOne // owning side
@@ -4,8 +4,10 @@ import io.swagger.annotations.*;
 
 import org.jboss.quickstarts.wfk.booking.Booking;
 import org.jboss.quickstarts.wfk.booking.BookingService;
+import org.jboss.quickstarts.wfk.booking.SoldOutException;
 import org.jboss.quickstarts.wfk.customer.Customer;
 import org.jboss.quickstarts.wfk.customer.CustomerService;
+import org.jboss.quickstarts.wfk.dto.DtoMapper;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
 //import org.jboss.quickstarts.wfk.util.RestServiceException;
 
@@ -14,6 +16,8 @@ import javax.ejb.TransactionManagement;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
 import javax.transaction.UserTransaction;
 //import javax.transaction.UserTransaction;
 import javax.validation.ConstraintViolation;
@@ -24,6 +28,7 @@ import javax.ws.rs.core.Response;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -101,10 +106,11 @@ public class GuestBookingRestService {
         	    booking.setCustomer(customer);
             	booking = bookingService.create(booking);
             	userTransaction.commit();
-        	    builder = Response.status(Response.Status.CREATED).entity(booking);
+        	    builder = Response.status(Response.Status.CREATED).entity(DtoMapper.toBooking(booking, DtoMapper.DEFAULT_DEPTH));
 
 
         } catch (ConstraintViolationException ce) {
+            rollback();
             //Handle bean validation issues
             Map<String, String> responseObj = new HashMap<>();
 
@@ -113,7 +119,14 @@ public class GuestBookingRestService {
             }
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
 
+        } catch (SoldOutException e) {
+            rollback();
+            // Handle a Flight with no seats left on that date
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("flight", "The flight is sold out on that date, please choose another");
+            throw new RestServiceException("Conflict", responseObj, Response.Status.CONFLICT, e);
         } catch (Exception e) {
+            rollback();
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
@@ -121,4 +134,19 @@ public class GuestBookingRestService {
         log.info("createGuestBooking completed. GuestBooking = " + guestBooking.toString());
         return builder.build();
     }
+
+    /**
+     * <p>Rolls back the transaction begun by {@link #createGuestBooking(GuestBooking)}, if it is still open, so that a
+     * Customer is never left behind without the Booking it was created for.</p>
+     */
+    private void rollback() {
+        try {
+            int status = userTransaction.getStatus();
+            if (status == Status.STATUS_ACTIVE || status == Status.STATUS_MARKED_ROLLBACK) {
+                userTransaction.rollback();
+            }
+        } catch (SystemException e) {
+            log.log(Level.SEVERE, "createGuestBooking() - Could not roll back", e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent;
+
+/**
+ * <p>The kinds of thing a {@link TravelAgent} books, each held by an upstream commodity service.</p>
+ *
+ * <p>The base URL of each service is read from the system property <code>travel.&lt;path&gt;.url</code>, for example
+ * <code>-Dtravel.hotels.url=http://hotels.example.com/api</code>; its resources are then found under
+ * <code>&lt;url&gt;/hotels</code>, and its bookings under <code>&lt;url&gt;/bookings</code>. A commodity with no URL
+ * configured is not booked upstream.</p>
+ */
+enum Commodity {
+
+    HOTEL("hotels", "hotelId"),
+    FLIGHT("flights", "flightId"),
+    TAXI("taxis", "taxiId");
+
+    private final String path;
+
+    private final String field;
+
+    private final String baseUrl;
+
+    Commodity(String path, String field) {
+        this.path = path;
+        this.field = field;
+        this.baseUrl = System.getProperty("travel." + path + ".url", "");
+    }
+
+    /**
+     * @return The path of the commodity's resources, relative to the base URL of its service
+     */
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The TravelAgent field that holds the id of the commodity
+     */
+    String getField() {
+        return field;
+    }
+
+    /**
+     * @return The base URL of the upstream service, or an empty String if there is none
+     */
+    String getBaseUrl() {
+        return baseUrl;
+    }
+
+    boolean isUpstream() {
+        return !baseUrl.isEmpty();
+    }
+
+    /**
+     * @return The id of this commodity that a TravelAgent refers to
+     */
+    long idOf(TravelAgent travelAgent) {
+        switch (this) {
+            case HOTEL:
+                return travelAgent.getHotelId();
+            case FLIGHT:
+                return travelAgent.getFlightId();
+            default:
+                return travelAgent.getTaxiId();
+        }
+    }
+}
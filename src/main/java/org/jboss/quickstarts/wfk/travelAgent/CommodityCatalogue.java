@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.MediaType;
+
+import org.jboss.quickstarts.wfk.util.AsyncCalls;
+import org.jboss.quickstarts.wfk.util.ResilienceRegistry;
+import org.jboss.quickstarts.wfk.util.UpstreamGuard;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+
+/**
+ * <p>Caches the catalogue of each {@link Commodity}, as read from its upstream service, so that the pages that list
+ * them do not each make a call upstream.</p>
+ *
+ * <p>A catalogue is served from the cache for <code>travel.catalogue.freshMillis</code> after it was read. After that it
+ * is still served, stale, for up to <code>travel.catalogue.staleMillis</code> more, while it is read again in the
+ * background. Only a caller with no catalogue it may be served, stale or not, waits for the read.</p>
+ *
+ * <p>At most one read of each catalogue is in flight at a time, and every caller that needs it shares it, so a burst of
+ * requests makes one upstream call. Reads are made through the {@link UpstreamGuard} of the commodity's service. A read
+ * that fails leaves the last catalogue in place, and it is served instead, however old; the next read in the background
+ * is then not tried for <code>travel.catalogue.retryMillis</code>.</p>
+ *
+ * <p>Catalogues are held as the JSON the upstream service returned, and passed on as they are.</p>
+ */
+@ApplicationScoped
+public class CommodityCatalogue {
+
+    static final long FRESH_MILLIS = Long.getLong("travel.catalogue.freshMillis", TimeUnit.MINUTES.toMillis(1));
+
+    static final long STALE_MILLIS = Long.getLong("travel.catalogue.staleMillis", TimeUnit.MINUTES.toMillis(10));
+
+    static final long RETRY_MILLIS = Long.getLong("travel.catalogue.retryMillis", TimeUnit.SECONDS.toMillis(5));
+
+    private static final Logger log = Logger.getLogger(CommodityCatalogue.class.getName());
+
+    private final Map<Commodity, Catalogue> catalogues = new EnumMap<>(Commodity.class);
+
+    @Inject
+    private ResteasyClient client;
+
+    @Inject
+    private ResilienceRegistry resilience;
+
+    public CommodityCatalogue() {
+        for (Commodity commodity : Commodity.values()) {
+            catalogues.put(commodity, new Catalogue());
+        }
+    }
+
+    /**
+     * <p>Returns the catalogue of a commodity, from the cache if it may still be served and otherwise once it has been
+     * read from the upstream service.</p>
+     *
+     * @param commodity A commodity with an upstream service
+     * @return The future catalogue, as JSON; it fails with the exception of the upstream call if there is no catalogue
+     * at all and it could not be read
+     */
+    CompletableFuture<String> get(Commodity commodity) {
+        Catalogue catalogue = catalogues.get(commodity);
+        Snapshot snapshot = catalogue.snapshot.get();
+        long now = System.currentTimeMillis();
+
+        if (snapshot != null && now < snapshot.readAt + FRESH_MILLIS) {
+            catalogue.fresh.incrementAndGet();
+            return CompletableFuture.completedFuture(snapshot.json);
+        }
+        if (snapshot != null && now < snapshot.readAt + FRESH_MILLIS + STALE_MILLIS) {
+            catalogue.stale.incrementAndGet();
+            if (now >= catalogue.retryAt) {
+                refresh(commodity, catalogue);
+            }
+            return CompletableFuture.completedFuture(snapshot.json);
+        }
+        catalogue.waited.incrementAndGet();
+        return refresh(commodity, catalogue);
+    }
+
+    /**
+     * <p>Reads a catalogue from its upstream service, unless a read of it is already in flight, in which case that one
+     * is returned instead.</p>
+     */
+    private CompletableFuture<String> refresh(Commodity commodity, Catalogue catalogue) {
+        CompletableFuture<String> read = new CompletableFuture<>();
+        CompletableFuture<String> inFlight;
+        while ((inFlight = catalogue.inFlight.get()) == null) {
+            if (catalogue.inFlight.compareAndSet(null, read)) {
+                start(commodity, catalogue, read);
+                return read;
+            }
+        }
+        return inFlight;
+    }
+
+    private void start(Commodity commodity, Catalogue catalogue, CompletableFuture<String> read) {
+        catalogue.reads.incrementAndGet();
+        read(commodity, json -> catalogue.snapshot.set(new Snapshot(json, System.currentTimeMillis())))
+                .handle((json, throwable) -> {
+                    if (throwable == null) {
+                        return json;
+                    }
+                    Throwable cause = AsyncCalls.unwrap(throwable);
+                    log.warning("CommodityCatalogue - Could not read the " + commodity.getPath() + " catalogue from "
+                            + commodity.getBaseUrl() + ": " + cause);
+                    catalogue.failures.incrementAndGet();
+                    catalogue.retryAt = System.currentTimeMillis() + RETRY_MILLIS;
+
+                    // Better an old catalogue than none.
+                    Snapshot last = catalogue.snapshot.get();
+                    if (last == null) {
+                        throw new CompletionException(cause);
+                    }
+                    return last.json;
+                })
+                .whenComplete((json, throwable) -> {
+                    // Let another read start before answering, so that whoever is answered sees the new catalogue.
+                    catalogue.inFlight.set(null);
+                    if (throwable == null) {
+                        read.complete(json);
+                    } else {
+                        read.completeExceptionally(AsyncCalls.unwrap(throwable));
+                    }
+                });
+    }
+
+    /**
+     * <p>Reads the catalogue of a commodity from its upstream service, through the service's {@link UpstreamGuard}.</p>
+     *
+     * @param commodity The commodity
+     * @param onRead Given the catalogue as soon as it has been read, even if the guard has stopped waiting for it
+     * @return The future catalogue, as JSON
+     */
+    CompletableFuture<String> read(Commodity commodity, Consumer<String> onRead) {
+        return resilience.guard(commodity.getPath()).call(() -> AsyncCalls.get(client.target(commodity.getBaseUrl())
+                .path(commodity.getPath()).request(MediaType.APPLICATION_JSON), String.class)
+                .thenApply(json -> {
+                    onRead.accept(json);
+                    return json;
+                }));
+    }
+
+    /**
+     * <p>Returns how each catalogue has been served: fresh or stale from the cache, or after waiting for a read; and how
+     * many reads were made upstream, and how many of those failed.</p>
+     *
+     * @return The counts for each commodity, keyed by its path
+     */
+    public Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        for (Map.Entry<Commodity, Catalogue> entry : catalogues.entrySet()) {
+            Catalogue catalogue = entry.getValue();
+            Snapshot snapshot = catalogue.snapshot.get();
+            Map<String, Long> counts = new LinkedHashMap<>();
+            counts.put("fresh", catalogue.fresh.get());
+            counts.put("stale", catalogue.stale.get());
+            counts.put("waited", catalogue.waited.get());
+            counts.put("reads", catalogue.reads.get());
+            counts.put("failures", catalogue.failures.get());
+            counts.put("ageMillis", snapshot == null ? null : System.currentTimeMillis() - snapshot.readAt);
+            stats.put(entry.getKey().getPath(), counts);
+        }
+        return stats;
+    }
+
+    private static final class Catalogue {
+        final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+        final AtomicReference<CompletableFuture<String>> inFlight = new AtomicReference<>();
+        volatile long retryAt;
+        final AtomicLong fresh = new AtomicLong();
+        final AtomicLong stale = new AtomicLong();
+        final AtomicLong waited = new AtomicLong();
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+    }
+
+    private static final class Snapshot {
+        final String json;
+        final long readAt;
+
+        Snapshot(String json, long readAt) {
+            this.json = json;
+            this.readAt = readAt;
+        }
+    }
+}
@@ -25,11 +25,16 @@ import javax.validation.ValidationException;
  *
  * <p>In such cases the ClientResponse status should be 404 NOT_FOUND.</p>
  *
+ * <p>It is also thrown when the upstream service of a {@link Commodity} has no commodity with the id a TravelAgent
+ * refers to, naming the TravelAgent field that holds that id.</p>
+ *
  * @author Xujie
  * @see TravelAgentService
  */
 public class InvalidTravelAgentCodeException extends ValidationException {
 
+    private String field;
+
     public InvalidTravelAgentCodeException(Throwable cause) {
         super(cause);
     }
@@ -41,4 +46,16 @@ public class InvalidTravelAgentCodeException extends ValidationException {
     public InvalidTravelAgentCodeException(String message) {
         super(message);
     }
+
+    public InvalidTravelAgentCodeException(String field, String message, Throwable cause) {
+        super(message, cause);
+        this.field = field;
+    }
+
+    /**
+     * @return The TravelAgent field holding the id that was not found, or null if not known
+     */
+    public String getField() {
+        return field;
+    }
 }
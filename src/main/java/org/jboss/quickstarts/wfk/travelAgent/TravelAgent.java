@@ -25,6 +25,10 @@ import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.util.ModificationTracker;
+import org.jboss.quickstarts.wfk.util.Versioned;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.Serializable;
 import java.util.Date;
@@ -44,24 +48,35 @@ import java.util.Date;
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
  */
 @Entity
+@EntityListeners(ModificationTracker.class)
 @NamedQueries({
         @NamedQuery(name = TravelAgent.FIND_ALL, query = "SELECT c FROM TravelAgent c ORDER BY c.id ASC"),
         @NamedQuery(name = TravelAgent.FIND_CUSTOMER_ALL, query = "SELECT c.customerId FROM TravelAgent c ORDER BY c.id"),
+        @NamedQuery(name = TravelAgent.FIND_REVISION, query = "SELECT c.version, c.lastModified FROM TravelAgent c WHERE c.id = :id"),
 })
 @XmlRootElement
 @Table(name = "travelagent")
-public class TravelAgent implements Serializable {
+public class TravelAgent implements Serializable, Versioned {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "TravelAgent.findAll";
     public static final String FIND_CUSTOMER_ALL = "TravelAgent.find_Customer_ALL";
+    public static final String FIND_REVISION = "TravelAgent.findRevision";
 //    public static final String FIND_BY_EMAIL = "TravelAgent.findByEmail";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "travel_agent_id")
     private Long id;
 
+    @Version
+    private Long version;
+
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date lastModified;
+
 
 	public static String getFindCustomerAll() {
 		return FIND_CUSTOMER_ALL;
@@ -91,6 +106,26 @@ public class TravelAgent implements Serializable {
 	public void setId(Long id) {
 		this.id = id;
 	}
+
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
 	public long getCustomerId() {
 		return customerId;
 	}
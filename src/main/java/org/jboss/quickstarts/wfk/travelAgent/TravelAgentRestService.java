@@ -3,7 +3,12 @@ package org.jboss.quickstarts.wfk.travelagent;
 
 
 import io.swagger.annotations.*;
+import org.jboss.quickstarts.wfk.dto.DtoMapper;
+import org.jboss.quickstarts.wfk.util.AsyncCalls;
+import org.jboss.quickstarts.wfk.util.CallRejectedException;
+import org.jboss.quickstarts.wfk.util.ConditionalGet;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.Revision;
 import org.jboss.resteasy.annotations.cache.Cache;
 
 import javax.ejb.Stateless;
@@ -13,11 +18,19 @@ import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 /**
@@ -43,12 +56,21 @@ import java.util.logging.Logger;
 @Api(value = "/travelAgents", description = "Operations about travelAgents")
 @Stateless
 public class TravelAgentRestService {
+    /** Longest a create may wait for the upstream services before it is answered with 503. */
+    static final long CREATE_TIMEOUT_MILLIS = Long.getLong("travelAgent.create.timeoutMillis", 10000);
+
     @Inject
     private @Named("logger") Logger log;
     
     @Inject
     private TravelAgentService service;
 
+    @Context
+    private UriInfo uriInfo;
+
+    @Context
+    private Request request;
+
     /**
      * <p>Return all the TravelAgents.  They are sorted alphabetically by name.</p>
      *
@@ -56,26 +78,30 @@ public class TravelAgentRestService {
      *
      * <p>Examples: <pre>GET api/travelAgents?firstname=John</pre>, <pre>GET api/travelAgents?firstname=John&lastname=Smith</pre></p>
      *
+     * <p>The response carries an ETag, and is answered with 304 Not Modified if the client's copy is still current.</p>
+     *
      * @return A Response containing a list of TravelAgents
      */
     @GET
     @ApiOperation(value = "Fetch all TravelAgents", notes = "Returns a JSON array of all stored TravelAgent objects.")
     public Response retrieveAllTravelAgents(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
-        //Create an empty collection to contain the intersection of TravelAgents to be returned
-        List<TravelAgent> travelAgents = null;
+        return ConditionalGet.respondForTables(request, uriInfo, () -> {
+            //Create an empty collection to contain the intersection of TravelAgents to be returned
+            List<TravelAgent> travelAgents = null;
 
-        if(firstname == null && lastname == null) {
-            travelAgents = service.findAllOrderedByName();
-        } /*else if(lastname == null) {
-                travelAgents = service.findAllByFirstName(firstname);
-        } else if(firstname == null) {
-                travelAgents = service.findAllByLastName(lastname);
-        } else {
-                travelAgents = service.findAllByFirstName(firstname);
-                travelAgents.retainAll(service.findAllByLastName(lastname));
-        }*/
+            if(firstname == null && lastname == null) {
+                travelAgents = service.findAllOrderedByName();
+            } /*else if(lastname == null) {
+                    travelAgents = service.findAllByFirstName(firstname);
+            } else if(firstname == null) {
+                    travelAgents = service.findAllByLastName(lastname);
+            } else {
+                    travelAgents = service.findAllByFirstName(firstname);
+                    travelAgents.retainAll(service.findAllByLastName(lastname));
+            }*/
 
-        return Response.ok(travelAgents).build();
+            return Response.ok(DtoMapper.toTravelAgents(travelAgents));
+        }, TravelAgent.class);
     }
 
     /**
@@ -113,7 +139,7 @@ public class TravelAgentRestService {
                 travelAgents.retainAll(service.findAllByLastName(lastname));
         }
 
-        return Response.ok(travelAgents).build();
+        return Response.ok(DtoMapper.toTravelAgents(travelAgents)).build();
     }*/
 
     /**
@@ -138,23 +164,38 @@ public class TravelAgentRestService {
             @PathParam("id")
             long id) {
 
-        TravelAgent travelAgent = service.findById(id);
-        if (travelAgent == null) {
+        Revision revision = service.findRevision(id);
+        if (revision == null) {
             // Verify that the travelAgent exists. Return 404, if not present.
             throw new RestServiceException("No TravelAgent with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found TravelAgent = " + travelAgent.toString());
 
-        return Response.ok(travelAgent).build();
+        return ConditionalGet.respond(request, revision.getLastModified(),
+                ConditionalGet.tag(uriInfo, id, revision.getVersions()), () -> {
+            TravelAgent travelAgent = service.findById(id);
+            if (travelAgent == null) {
+                throw new RestServiceException("No TravelAgent with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            log.info("findById " + id + ": found TravelAgent = " + travelAgent.toString());
+
+            return Response.ok(DtoMapper.toTravelAgent(travelAgent));
+        });
     }
 
     /**
      * <p>Creates a new travelAgent from the values provided. Performs validation and will return a JAX-RS response with
      * either 201 (Resource created) or with a map of fields, and related errors.</p>
      *
+     * <p>The request is suspended while the hotel, flight and taxi are booked with their upstream services, so that no
+     * request thread waits on them, and resumed when the TravelAgent has been written or its trip has been cancelled.</p>
+     *
+     * <p>If the request times out before the TravelAgent is being written, the trip is called off and its booked legs
+     * cancelled before the request is answered. Once the write has started the request waits for it instead, so a
+     * TravelAgent is never written for a request that was told it failed.</p>
+     *
+     * @param asyncResponse The suspended response, resumed with the outcome of the create operation
      * @param travelAgent The TravelAgent object, constructed automatically from JSON input, to be <i>created</i> via
      * {@link TravelAgentService#create(TravelAgent)}
-     * @return A Response indicating the outcome of the create operation
      */
     @SuppressWarnings("unused")
     @POST
@@ -163,9 +204,13 @@ public class TravelAgentRestService {
             @ApiResponse(code = 201, message = "TravelAgent created successfully."),
             @ApiResponse(code = 400, message = "Invalid TravelAgent supplied in request body"),
             @ApiResponse(code = 409, message = "TravelAgent supplied in request body conflicts with an existing TravelAgent"),
-            @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request")
+            @ApiResponse(code = 500, message = "An unexpected error occurred whilst processing the request"),
+            @ApiResponse(code = 502, message = "An upstream service could not book its leg of the trip"),
+            @ApiResponse(code = 503, message = "The upstream services did not answer in time, or one is unavailable"),
+            @ApiResponse(code = 504, message = "An upstream service did not answer in time, and the trip was cancelled")
     })
-    public Response createTravelAgent(
+    public void createTravelAgent(
+            @Suspended AsyncResponse asyncResponse,
             @ApiParam(value = "JSON representation of TravelAgent object to be added to the database", required = true)
             TravelAgent travelAgent) {
 
@@ -174,15 +219,11 @@ public class TravelAgentRestService {
             throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
         }
 
-        Response.ResponseBuilder builder;
+        CompletableFuture<TravelAgent> created;
 
         try {
             // Go add the new travelAgent.
-            service.create(travelAgent);
-
-            // Create a "Resource Created" 201 Response and pass the travelAgent back in case it is needed.
-            builder = Response.status(Response.Status.CREATED).entity(travelAgent);
-
+            created = service.create(travelAgent);
 
         } catch (ConstraintViolationException ce) {
             //Handle bean validation issues
@@ -198,8 +239,48 @@ public class TravelAgentRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("createTravelAgent completed. TravelAgent = " + travelAgent.toString());
-        return builder.build();
+        // Set before the resume is registered, as the timeout of a request that has been resumed can no longer be set.
+        asyncResponse.setTimeoutHandler(suspended -> {
+            if (created.cancel(false)) {
+                suspended.resume(new RestServiceException(
+                        "The upstream services did not answer in time, and the trip was cancelled",
+                        Response.Status.SERVICE_UNAVAILABLE));
+            } else {
+                suspended.setTimeout(CREATE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        });
+        asyncResponse.setTimeout(CREATE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        AsyncCalls.resume(asyncResponse, created.handle((written, throwable) -> {
+            if (throwable != null) {
+                throw createFailed(AsyncCalls.unwrap(throwable));
+            }
+            log.info("createTravelAgent completed. TravelAgent = " + written.toString());
+
+            // Create a "Resource Created" 201 Response and pass the travelAgent back in case it is needed.
+            return Response.status(Response.Status.CREATED).entity(written).build();
+        }));
+    }
+
+    /**
+     * @return The RestServiceException to answer a create with, once it has failed after the request was suspended
+     */
+    private RestServiceException createFailed(Throwable cause) {
+        Exception e = cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+        if (cause instanceof InvalidTravelAgentCodeException) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put(((InvalidTravelAgentCodeException) cause).getField(), cause.getMessage());
+            return new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } else if (cause instanceof CallRejectedException) {
+            return new RestServiceException(cause.getMessage(), Response.Status.SERVICE_UNAVAILABLE, e);
+        } else if (cause instanceof TimeoutException) {
+            return new RestServiceException("An upstream service did not answer in time, and the trip was cancelled",
+                    Response.Status.GATEWAY_TIMEOUT, e);
+        } else if (cause instanceof WebApplicationException || cause instanceof ProcessingException) {
+            return new RestServiceException("An upstream service could not book its leg of the trip",
+                    Response.Status.BAD_GATEWAY, e);
+        }
+        return new RestServiceException(e);
     }
 
     /**
@@ -16,17 +16,33 @@ package org.jboss.quickstarts.wfk.travelagent;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-import org.jboss.quickstarts.wfk.area.AreaService;
+import org.jboss.quickstarts.wfk.util.AsyncCalls;
+import org.jboss.quickstarts.wfk.util.ResilienceRegistry;
+import org.jboss.quickstarts.wfk.util.UpstreamGuard;
+import org.jboss.quickstarts.wfk.util.Revision;
 import org.jboss.resteasy.client.jaxrs.ResteasyClient;
-import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
-import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 /**
@@ -56,15 +72,20 @@ public class TravelAgentService {
     @Inject
     private TravelRepository crud;
 
-    private ResteasyClient client;
+    @Inject
+    private TravelAgentWriter writer;
 
-    /**
-     * <p>Create a new client which will be used for our outgoing REST client communication</p>
+    /*
+     * The shared, pooled client used for our outgoing REST client communication. See HttpClientPool.
      */
-    public TravelAgentService() {
-        // Create client service instance to make REST requests to upstream service
-        client = new ResteasyClientBuilder().build();
-    }
+    @Inject
+    private ResteasyClient client;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    @Inject
+    private ResilienceRegistry resilience;
 
     /**
      * <p>Returns a List of all persisted {@link TravelAgent} objects, sorted alphabetically by last name.<p/>
@@ -78,6 +99,16 @@ public class TravelAgentService {
         return crud.findAllOrderedByCustomerName();
     }
 
+    /**
+     * <p>Returns the version and last modified time of a single TravelAgent, specified by a Long id, without loading it.<p/>
+     *
+     * @param id The id field of the TravelAgent
+     * @return The revision of the TravelAgent, or null if there is no such TravelAgent
+     */
+    Revision findRevision(Long id) {
+        return crud.findRevision(id);
+    }
+
     /**
      * <p>Returns a single TravelAgent object, specified by a Long id.<p/>
      *
@@ -121,37 +152,133 @@ public class TravelAgentService {
     }*/
 
     /**
-     * <p>Writes the provided TravelAgent object to the application database.<p/>
+     * <p>Writes the provided TravelAgent object to the application database, having first reserved its trip.<p/>
      *
      * <p>Validates the data in the provided TravelAgent object using a {@link TravelAgentValidator} object.<p/>
      *
+     * <p>The hotel, flight and taxi are then booked with their upstream services (see {@link Commodity}) all at once, so
+     * the trip takes as long as its slowest leg rather than the sum of them. Each call is made through the
+     * {@link UpstreamGuard} of its service, which bounds how long it may take and how many may be in flight, and fails
+     * it straight away while the service is failing. The TravelAgent is written by a {@link TravelAgentWriter} once
+     * every leg is booked.<p/>
+     *
+     * <p>If a leg fails, times out, or the TravelAgent cannot be written, the trip fails straight away and every leg that
+     * was booked is cancelled, in parallel. A leg that is booked after it timed out is cancelled when it is booked.<p/>
+     *
+     * <p>The trip is also called off, in the same way, if the returned future is cancelled before the TravelAgent is
+     * written. Once the write has started cancelling has no effect, and the future completes with its outcome.<p/>
+     *
+     * <p>The calling thread only validates and starts the bookings; it does not wait for them.<p/>
+     *
      * @param travelagent The TravelAgent object to be written to the database using a {@link TravelRepository} object
-     * @return The TravelAgent object that has been successfully written to the application database
-     * @throws ConstraintViolationException, ValidationException, Exception
+     * @return The TravelAgent object once it has been successfully written to the application database. It fails with
+     * {@link InvalidTravelAgentCodeException} if an upstream service refuses a booking, with
+     * {@link java.util.concurrent.TimeoutException} if one does not answer in time, with
+     * {@link org.jboss.quickstarts.wfk.util.CallRejectedException} if a call is not let through, or with the exception
+     * of the call if
+     * a service could not be asked.
+     * @throws ConstraintViolationException, ValidationException If the TravelAgent is not valid
      */
-    TravelAgent create(TravelAgent travelagent) throws ConstraintViolationException, ValidationException, Exception {
+    CompletableFuture<TravelAgent> create(TravelAgent travelagent) throws ConstraintViolationException, ValidationException {
         log.info("TravelAgentService.create() - Creating " + travelagent.getId());
         
         // Check to make sure the data fits with the parameters in the TravelAgent model and passes validation.
         validator.validateTravelAgent(travelagent);
 
-        //Create client service instance to make REST requests to upstream service
-        ResteasyWebTarget target = client.target("http://csc8104-states.b9ad.pro-us-east-1.openshiftapps.com");
-        AreaService service = target.proxy(AreaService.class);
-
-        /*try {
-            Area area = service.getAreaById(Integer.parseInt(travelagent.getPhoneNumber().substring(1, 4)));
-            travelagent.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
+        Map<Commodity, CompletableFuture<Long>> bookings = new EnumMap<>(Commodity.class);
+        List<CompletableFuture<Long>> legs = new ArrayList<>();
+        for (Commodity commodity : Commodity.values()) {
+            if (commodity.isUpstream()) {
+                // The booking is kept apart from the guarded call, so that one made after the call timed out is still
+                // known about, and cancelled.
+                CompletableFuture<Long> booking = new CompletableFuture<>();
+                bookings.put(commodity, booking);
+                legs.add(guard(commodity).call(() -> {
+                    CompletableFuture<Long> booked = book(commodity, travelagent);
+                    booked.thenAccept(booking::complete);
+                    return booked;
+                }));
             }
-        }*/
+        }
 
         // Write the travelagent to the database.
-        return crud.create(travelagent);
+        CompletableFuture<TravelAgent> created = AsyncCalls.thenCall(
+                AsyncCalls.allOrFirstFailure(legs.toArray(new CompletableFuture<?>[0])),
+                () -> writer.create(travelagent), executor);
+
+        created.whenComplete((written, throwable) -> {
+            if (throwable != null) {
+                log.info("TravelAgentService.create() - Cancelling the trip of customer " + travelagent.getCustomerId()
+                        + ": " + AsyncCalls.unwrap(throwable));
+                bookings.forEach(this::cancel);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * <p>Books one leg of a trip with the upstream service of its commodity, by POSTing a booking of the commodity for
+     * the customer on the booking date to its <code>bookings</code> resource.<p/>
+     *
+     * @return A future for the id of the upstream booking, which fails with {@link InvalidTravelAgentCodeException} if
+     * the service refuses the booking
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Long> book(Commodity commodity, TravelAgent travelagent) {
+        Map<String, Object> booking = new HashMap<>();
+        booking.put("customer", Collections.singletonMap("id", travelagent.getCustomerId()));
+        booking.put(commodity.name().toLowerCase(), Collections.singletonMap("id", commodity.idOf(travelagent)));
+        booking.put("bookingDate", new SimpleDateFormat("yyyy-MM-dd").format(travelagent.getBookingDate()));
+
+        CompletableFuture<Long> booked = new CompletableFuture<>();
+        AsyncCalls.post(bookings(commodity).request(MediaType.APPLICATION_JSON), Entity.json(booking), Map.class)
+                .whenComplete((created, throwable) -> {
+                    Throwable cause = throwable == null ? null : AsyncCalls.unwrap(throwable);
+                    if (cause instanceof ClientErrorException) {
+                        booked.completeExceptionally(new InvalidTravelAgentCodeException(commodity.getField(),
+                                "The " + commodity.name().toLowerCase() + " with the id " + commodity.idOf(travelagent)
+                                        + " could not be booked", cause));
+                    } else if (cause != null) {
+                        booked.completeExceptionally(cause);
+                    } else if (created == null || !(created.get("id") instanceof Number)) {
+                        booked.completeExceptionally(new ProcessingException(
+                                "The " + commodity.name().toLowerCase() + " service did not return a booking id"));
+                    } else {
+                        booked.complete(((Number) created.get("id")).longValue());
+                    }
+                });
+        return booked;
+    }
+
+    /**
+     * <p>Cancels the upstream booking of one leg of a trip, once it has been made. A leg that was never booked needs no
+     * cancelling, and one that is already gone upstream counts as cancelled.<p/>
+     *
+     * <p>The DELETE is sent as a compensating call, which the breaker cannot refuse and which is retried if the service
+     * does not answer.<p/>
+     */
+    private void cancel(Commodity commodity, CompletableFuture<Long> booking) {
+        booking.thenAccept(id -> guard(commodity)
+                .compensate(() -> AsyncCalls.delete(bookings(commodity).path(String.valueOf(id)).request()))
+                .whenComplete((done, throwable) -> {
+                    Throwable cause = throwable == null ? null : AsyncCalls.unwrap(throwable);
+                    if (cause == null || cause instanceof NotFoundException) {
+                        log.info("TravelAgentService.cancel() - Cancelled " + commodity.name().toLowerCase()
+                                + " booking " + id);
+                    } else {
+                        log.severe("TravelAgentService.cancel() - Could not cancel " + commodity.name().toLowerCase()
+                                + " booking " + id + " at " + commodity.getBaseUrl() + ", it must be cancelled by hand: "
+                                + cause);
+                    }
+                }));
+    }
+
+    private UpstreamGuard guard(Commodity commodity) {
+        return resilience.guard(commodity.getPath());
+    }
+
+    private WebTarget bookings(Commodity commodity) {
+        return client.target(commodity.getBaseUrl()).path("bookings");
     }
 
     /**
@@ -0,0 +1,43 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+
+/**
+ * <p>Writes an already validated TravelAgent in a transaction.</p>
+ *
+ * <p>A TravelAgent is written once its upstream checks have completed, on a thread of the managed executor rather than
+ * the request thread, so it cannot rely on the transaction of the REST service that started them.</p>
+ *
+ * @see TravelAgentService#create(TravelAgent)
+ */
+@Stateless
+public class TravelAgentWriter {
+
+    @Inject
+    private TravelRepository crud;
+
+    /**
+     * @param travelagent The TravelAgent to persist
+     * @return The persisted TravelAgent
+     */
+    public TravelAgent create(TravelAgent travelagent) throws Exception {
+        return crud.create(travelagent);
+    }
+}
@@ -0,0 +1,99 @@
+package org.jboss.quickstarts.wfk.travelagent;
+
+import io.swagger.annotations.*;
+import org.jboss.quickstarts.wfk.util.AsyncCalls;
+import org.jboss.quickstarts.wfk.util.CallRejectedException;
+import org.jboss.quickstarts.wfk.util.RestServiceException;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>This class produces a RESTful service exposing the catalogues of the commodities a TravelAgent books, as served by
+ * their upstream services and cached by {@link CommodityCatalogue}.</p>
+ *
+ * <p>The full path for accessing endpoints defined herein is: api/travel/*</p>
+ *
+ * @see Commodity
+ */
+@Path("/travel")
+@Produces(MediaType.APPLICATION_JSON)
+@Api(value = "/travel", description = "Catalogues of the commodities a TravelAgent books")
+@Stateless
+public class TravelCatalogueRestService {
+
+    @Inject
+    private CommodityCatalogue catalogue;
+
+    @GET
+    @Path("/hotels")
+    @ApiOperation(value = "Fetch all hotels", notes = "Returns the hotels of the upstream hotel service.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "The hotels"),
+            @ApiResponse(code = 502, message = "The hotel service could not be asked"),
+            @ApiResponse(code = 503, message = "No hotel service is configured, or it is unavailable"),
+            @ApiResponse(code = 504, message = "The hotel service did not answer in time")
+    })
+    public void retrieveAllHotels(@Suspended AsyncResponse asyncResponse) {
+        retrieve(Commodity.HOTEL, asyncResponse);
+    }
+
+    @GET
+    @Path("/flights")
+    @ApiOperation(value = "Fetch all flights", notes = "Returns the flights of the upstream flight service.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "The flights"),
+            @ApiResponse(code = 502, message = "The flight service could not be asked"),
+            @ApiResponse(code = 503, message = "No flight service is configured, or it is unavailable"),
+            @ApiResponse(code = 504, message = "The flight service did not answer in time")
+    })
+    public void retrieveAllFlights(@Suspended AsyncResponse asyncResponse) {
+        retrieve(Commodity.FLIGHT, asyncResponse);
+    }
+
+    @GET
+    @Path("/taxis")
+    @ApiOperation(value = "Fetch all taxis", notes = "Returns the taxis of the upstream taxi service.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "The taxis"),
+            @ApiResponse(code = 502, message = "The taxi service could not be asked"),
+            @ApiResponse(code = 503, message = "No taxi service is configured, or it is unavailable"),
+            @ApiResponse(code = 504, message = "The taxi service did not answer in time")
+    })
+    public void retrieveAllTaxis(@Suspended AsyncResponse asyncResponse) {
+        retrieve(Commodity.TAXI, asyncResponse);
+    }
+
+    /**
+     * <p>Resumes the request with the catalogue of a commodity; straight away when it is cached.</p>
+     */
+    private void retrieve(Commodity commodity, AsyncResponse asyncResponse) {
+        String name = commodity.name().toLowerCase();
+        if (!commodity.isUpstream()) {
+            throw new RestServiceException("No " + name + " service is configured", Response.Status.SERVICE_UNAVAILABLE);
+        }
+
+        AsyncCalls.resume(asyncResponse, catalogue.get(commodity).handle((json, throwable) -> {
+            if (throwable != null) {
+                Throwable cause = AsyncCalls.unwrap(throwable);
+                Exception e = cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+                if (cause instanceof CallRejectedException) {
+                    throw new RestServiceException(cause.getMessage(), Response.Status.SERVICE_UNAVAILABLE, e);
+                } else if (cause instanceof TimeoutException) {
+                    throw new RestServiceException("The " + name + " service did not answer in time",
+                            Response.Status.GATEWAY_TIMEOUT, e);
+                }
+                throw new RestServiceException("The " + name + " service could not be asked", Response.Status.BAD_GATEWAY, e);
+            }
+            return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        }));
+    }
+}
@@ -27,6 +27,7 @@ import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
 import org.jboss.quickstarts.wfk.contact.Contact;
+import org.jboss.quickstarts.wfk.util.Revision;
 
 import java.util.List;
 import java.util.logging.Logger;
@@ -64,6 +65,17 @@ public class TravelRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns the version and last modified time of a single TravelAgent, specified by a Long id, without loading it.</p>
+     *
+     * @param id The id field of the TravelAgent
+     * @return The revision of the TravelAgent, or null if there is no such TravelAgent
+     */
+    Revision findRevision(Long id) {
+        List<Object[]> rows = em.createNamedQuery(TravelAgent.FIND_REVISION, Object[].class).setParameter("id", id).getResultList();
+        return rows.isEmpty() ? null : Revision.of(rows.get(0));
+    }
+
     /**
      * <p>Returns a single TravelAgent object, specified by a Long id.<p/>
      *
@@ -38,6 +38,7 @@ public class ApiOriginFilter implements Filter {
         res.addHeader("Access-Control-Allow-Origin", "*");
         res.addHeader("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT");
         res.addHeader("Access-Control-Allow-Headers", "Content-Type");
+        res.addHeader("Access-Control-Expose-Headers", "Link, X-Next-Cursor");
         chain.doFilter(request, response);
     }
 
@@ -0,0 +1,262 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Bridges the callbacks of asynchronous JAX-RS invocations, on both the client and the server side, to
+ * {@link CompletableFuture}s, so that calls to upstream services can be composed without a thread waiting on each
+ * one.</p>
+ *
+ * <p>The calls made through the shared client run on the container's managed executor, see {@link HttpClientPool}. A
+ * request thread that starts them is free as soon as they are started.</p>
+ */
+public final class AsyncCalls {
+
+    private AsyncCalls() {
+    }
+
+    /**
+     * <p>Starts a GET and returns its outcome.</p>
+     *
+     * <p>The future fails as the synchronous client would: with {@link NotFoundException} for 404, another
+     * {@link ClientErrorException} for other 4xx statuses, {@link ServerErrorException} for 5xx, and with the
+     * {@link javax.ws.rs.ProcessingException} if the call could not be made at all.</p>
+     *
+     * @param request The request to send
+     * @param type The type to read the response entity as, or Void to discard it
+     * @return The future response entity
+     */
+    public static <T> CompletableFuture<T> get(Invocation.Builder request, Class<T> type) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        request.async().get(callback(future, type));
+        return future;
+    }
+
+    /**
+     * <p>Starts a POST and returns its outcome, which fails as for {@link #get(Invocation.Builder, Class)}.</p>
+     *
+     * @param request The request to send
+     * @param entity The request entity
+     * @param type The type to read the response entity as, or Void to discard it
+     * @return The future response entity
+     */
+    public static <T> CompletableFuture<T> post(Invocation.Builder request, Entity<?> entity, Class<T> type) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        request.async().post(entity, callback(future, type));
+        return future;
+    }
+
+    /**
+     * <p>Starts a DELETE and returns its outcome, which fails as for {@link #get(Invocation.Builder, Class)}.</p>
+     *
+     * @param request The request to send
+     * @return A future that completes when the DELETE has succeeded
+     */
+    public static CompletableFuture<Void> delete(Invocation.Builder request) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        request.async().delete(callback(future, Void.class));
+        return future;
+    }
+
+    /**
+     * <p>Returns a future that completes as the given one does, or fails with {@link TimeoutException} if that takes
+     * longer than the timeout.</p>
+     *
+     * <p>The given future is left running, so that whoever started it can still act on its outcome, for example to undo
+     * a call that succeeded too late.</p>
+     *
+     * @param future The future to wait for
+     * @param timeoutMillis How long to wait for it
+     * @param scheduler The scheduler to time it on
+     * @return The future with a timeout
+     */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeoutMillis,
+                                                       ScheduledExecutorService scheduler) {
+        CompletableFuture<T> timed = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> timed.completeExceptionally(
+                new TimeoutException("No answer within " + timeoutMillis + " ms")), timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((value, throwable) -> {
+            timeout.cancel(false);
+            if (throwable != null) {
+                timed.completeExceptionally(unwrap(throwable));
+            } else {
+                timed.complete(value);
+            }
+        });
+        return timed;
+    }
+
+    /**
+     * <p>Returns a future that completes when all of the given futures have, or fails as soon as any one of them
+     * fails, without waiting for the rest.</p>
+     *
+     * @param futures The futures to wait for
+     * @return A future for all of them
+     */
+    public static CompletableFuture<Void> allOrFirstFailure(CompletableFuture<?>... futures) {
+        CompletableFuture<Void> all = new CompletableFuture<>();
+        for (CompletableFuture<?> future : futures) {
+            future.whenComplete((value, throwable) -> {
+                if (throwable != null) {
+                    all.completeExceptionally(unwrap(throwable));
+                }
+            });
+        }
+        CompletableFuture.allOf(futures).thenRun(() -> all.complete(null));
+        return all;
+    }
+
+    /**
+     * <p>Makes a call on the executor once the given future has completed, and returns its outcome; if the given future
+     * fails, the call is not made and the returned future fails the same way.</p>
+     *
+     * <p>The returned future can be cancelled until the call starts, which stops it being made. After that cancelling
+     * has no effect and the future completes with the outcome of the call, so that work the call did is never hidden
+     * behind a cancelled future.</p>
+     *
+     * @param future The future to wait for
+     * @param call The call to make once it has completed
+     * @param executor The executor to make the call on
+     * @return The future outcome of the call
+     */
+    public static <T> CompletableFuture<T> thenCall(CompletableFuture<?> future, Callable<T> call, Executor executor) {
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<T> outcome = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return started.compareAndSet(false, true) && super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        future.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                outcome.completeExceptionally(unwrap(throwable));
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    if (!started.compareAndSet(false, true)) {
+                        return;
+                    }
+                    try {
+                        outcome.complete(call.call());
+                    } catch (Exception e) {
+                        outcome.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                outcome.completeExceptionally(e);
+            }
+        });
+        return outcome;
+    }
+
+    /*
+     * The callback is always for a Response, as RESTEasy works out the entity type from the callback's type argument,
+     * which a generic callback does not have.
+     */
+    private static <T> InvocationCallback<Response> callback(CompletableFuture<T> future, Class<T> type) {
+        return new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                try {
+                    future.complete(read(response, type));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        };
+    }
+
+    private static <T> T read(Response response, Class<T> type) {
+        int status = response.getStatus();
+        if (status >= 200 && status < 300) {
+            if (type == Void.class) {
+                response.close();
+                return null;
+            }
+            return response.readEntity(type);
+        }
+
+        // Read the body now, which releases the connection, while leaving it readable for whoever handles the exception.
+        response.bufferEntity();
+        if (status == Response.Status.NOT_FOUND.getStatusCode()) {
+            throw new NotFoundException(response);
+        } else if (status >= 400 && status < 500) {
+            throw new ClientErrorException(response);
+        } else if (status >= 500) {
+            throw new ServerErrorException(response);
+        }
+        throw new WebApplicationException(response);
+    }
+
+    /**
+     * <p>Resumes a suspended request with the outcome of a stage: the Response it completes with, or the exception it
+     * fails with, which is then handled by the exception mappers as if the resource method had thrown it.</p>
+     *
+     * @param asyncResponse The suspended request
+     * @param stage The stage producing the Response
+     */
+    public static void resume(AsyncResponse asyncResponse, CompletionStage<Response> stage) {
+        stage.whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                asyncResponse.resume(unwrap(throwable));
+            } else {
+                asyncResponse.resume(response);
+            }
+        });
+    }
+
+    /**
+     * @return The exception that caused a stage or future to fail, without the wrappers added along the way
+     */
+    public static Throwable unwrap(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException)
+                && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A thread-safe Bloom filter of strings.</p>
+ *
+ * <p>{@link #mightContain(CharSequence)} never returns false for a value that has been {@link #put(CharSequence) put},
+ * but may return true for one that has not, with a probability that grows as the filter fills up. Values cannot be
+ * removed, so a filter tracking a changing set has to be rebuilt from time to time.</p>
+ *
+ * <p>Each value is hashed once to 64 bits and the two halves are combined to derive the bit positions ("double
+ * hashing"), so the cost of a lookup does not depend on the length of the value beyond that first hash.</p>
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+
+    private final long numBits;
+
+    private final int numHashes;
+
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * <p>Creates a filter sized to hold the expected number of values at the given false positive probability.</p>
+     *
+     * @param expectedInsertions The number of values the filter is expected to hold
+     * @param fpp The desired false positive probability once it holds them, between 0 and 1 exclusive
+     * @return An empty filter
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        if (expectedInsertions < 1 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be positive and fpp between 0 and 1");
+        }
+        long numBits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        return new BloomFilter(numBits, numHashes);
+    }
+
+    /**
+     * @param numBits The number of bits in the filter, rounded up to a multiple of 64
+     * @param numHashes The number of bits set for each value
+     */
+    public BloomFilter(long numBits, int numHashes) {
+        if (numBits < 1 || numHashes < 1) {
+            throw new IllegalArgumentException("numBits and numHashes must be positive");
+        }
+        long numWords = (numBits + 63) / 64;
+        if (numWords > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + numBits + " bits");
+        }
+        this.words = new AtomicLongArray((int) numWords);
+        this.numBits = numWords * 64;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * @param value The value to add
+     */
+    public void put(CharSequence value) {
+        long hash = hash(value);
+        long h1 = (int) hash;
+        long h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            setBit(index(h1, h2, i));
+        }
+        insertions.incrementAndGet();
+    }
+
+    /**
+     * @param value The value to look for
+     * @return false if the value has definitely never been added; true if it might have been
+     */
+    public boolean mightContain(CharSequence value) {
+        long hash = hash(value);
+        long h1 = (int) hash;
+        long h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = index(h1, h2, i);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of calls made to {@link #put(CharSequence)}, including repeats of the same value
+     */
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * @return The number of bits currently set
+     */
+    public long bitCount() {
+        long count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * <p>Estimates the probability that {@link #mightContain(CharSequence)} returns true for a value that was never
+     * added, from the fraction of bits currently set.</p>
+     *
+     * @return The estimated false positive probability
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bitCount() / numBits, numHashes);
+    }
+
+    private long index(long h1, long h2, int i) {
+        long combined = h1 + i * h2;
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return combined % numBits;
+    }
+
+    private void setBit(long bit) {
+        int word = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!words.compareAndSet(word, current, current | mask));
+    }
+
+    /* 64-bit FNV-1a over the characters, finished with the MurmurHash3 mixer to spread the bits. */
+    private static long hash(CharSequence value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Limits the number of calls in flight to one upstream service, so that a slow service can only ever hold that many
+ * threads and connections, however many requests need it.</p>
+ *
+ * <p>A call over the limit is rejected at once rather than queued, as a queue would only move the wait elsewhere.</p>
+ */
+public class Bulkhead {
+
+    private final int maxConcurrent;
+
+    private final Semaphore permits;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param maxConcurrent The most calls that may be in flight at once
+     */
+    public Bulkhead(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * <p>Asks to make a call. A caller that is allowed must call {@link #release()} once the call has finished.</p>
+     *
+     * @return true if the call may be made, false if it is rejected
+     */
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * @return The number of calls rejected because the limit had been reached
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
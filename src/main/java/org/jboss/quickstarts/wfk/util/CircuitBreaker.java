@@ -0,0 +1,198 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>Stops calls to an upstream service that keeps failing, so that callers fail fast instead of waiting on it.</p>
+ *
+ * <p>While CLOSED every call is let through, and the outcomes of the last <code>windowSize</code> are kept. Once at
+ * least <code>minimumCalls</code> have been seen and <code>failureRatePercent</code> of them failed, the breaker OPENs
+ * and rejects every call for <code>openMillis</code>. It then goes HALF_OPEN and lets one trial call through: the
+ * breaker CLOSEs again if it succeeds, and re-OPENs if it fails.</p>
+ *
+ * <p>Each state transition is logged and counted.</p>
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final Logger log = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private final String name;
+
+    private final int minimumCalls;
+
+    private final int failureRatePercent;
+
+    private final long openMillis;
+
+    /* The outcomes of the last calls, true for a failure, as a ring. All of the state is guarded by this. */
+    private final boolean[] window;
+
+    private int next;
+
+    private int calls;
+
+    private int failures;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private boolean trialInFlight;
+
+    private final AtomicLong opened = new AtomicLong();
+
+    private final AtomicLong halfOpened = new AtomicLong();
+
+    private final AtomicLong closed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param name The name of the upstream service, for logging
+     * @param windowSize The number of recent calls the failure rate is taken over
+     * @param minimumCalls The number of calls needed in the window before the breaker may open
+     * @param failureRatePercent The percentage of failed calls in the window at which the breaker opens
+     * @param openMillis How long the breaker stays open before it lets a trial call through
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRatePercent, long openMillis) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || failureRatePercent < 1
+                || failureRatePercent > 100 || openMillis < 1) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings for " + name);
+        }
+        this.name = name;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRatePercent = failureRatePercent;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * <p>Asks to make a call. A caller that is allowed must report the outcome with {@link #onSuccess()} or
+     * {@link #onFailure()}.</p>
+     *
+     * @return true if the call may be made, false if it is rejected
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openMillis) {
+                    transition(State.HALF_OPEN);
+                    trialInFlight = true;
+                    return true;
+                }
+                break;
+            case HALF_OPEN:
+                if (!trialInFlight) {
+                    trialInFlight = true;
+                    return true;
+                }
+                break;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (calls >= minimumCalls && failures * 100 >= failureRatePercent * calls) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    private void record(boolean failure) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void transition(State to) {
+        log.warning("CircuitBreaker " + name + " - " + state + " -> " + to
+                + (to == State.OPEN ? " (" + failures + " of the last " + calls + " calls failed)" : ""));
+        state = to;
+        trialInFlight = false;
+        switch (to) {
+            case OPEN:
+                openedAt = System.currentTimeMillis();
+                opened.incrementAndGet();
+                break;
+            case HALF_OPEN:
+                halfOpened.incrementAndGet();
+                break;
+            case CLOSED:
+                // Start afresh, rather than judging the recovered service by the failures that opened the breaker.
+                calls = 0;
+                failures = 0;
+                next = 0;
+                closed.incrementAndGet();
+                break;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of times the breaker has opened, including re-opening after a failed trial
+     */
+    public long getOpened() {
+        return opened.get();
+    }
+
+    public long getHalfOpened() {
+        return halfOpened.get();
+    }
+
+    public long getClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @return The number of calls rejected because the breaker was open
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * <p>Helpers for answering conditional GET requests (<code>If-None-Match</code> and <code>If-Modified-Since</code>)
+ * with 304 Not Modified before anything is loaded or serialized.</p>
+ *
+ * <p>A single resource is tagged with the versions of the rows it is built from, read with a query that fetches
+ * nothing else. A list is tagged with the {@link ModificationTracker} counters of the tables it is built from. Either
+ * way the tag also covers the query string, as the same resource has a different representation for each view or set
+ * of fields.</p>
+ *
+ * <p>The same tags are accepted back in <code>If-Match</code> on updates, which only go ahead while the resource is
+ * still at the version the tag was built from.</p>
+ */
+public final class ConditionalGet {
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * <p>Builds a strong ETag from the given parts and the query string of the request.</p>
+     *
+     * @param uriInfo The request being answered
+     * @param parts The values the representation depends on, such as row versions
+     * @return The ETag
+     */
+    public static EntityTag tag(UriInfo uriInfo, Object... parts) {
+        StringBuilder value = new StringBuilder();
+        for (Object part : parts) {
+            if (value.length() > 0) {
+                value.append('-');
+            }
+            value.append(part);
+        }
+        String query = uriInfo.getRequestUri().getRawQuery();
+        if (query != null) {
+            value.append('-').append(Integer.toHexString(query.hashCode()));
+        }
+        return new EntityTag(value.toString());
+    }
+
+    /**
+     * <p>Builds a strong ETag for a list built from the tables of the given entities.</p>
+     *
+     * @param uriInfo The request being answered
+     * @param types The entity classes whose tables the list is read from
+     * @return The ETag
+     */
+    public static EntityTag tableTag(UriInfo uriInfo, Class<?>... types) {
+        return tag(uriInfo, ModificationTracker.counts(types));
+    }
+
+    /**
+     * <p>Answers a request for a resource with the given ETag and modification time: with 304 if the client's copy is
+     * current, otherwise with the response built by the supplier, tagged.</p>
+     *
+     * @param request The request being answered
+     * @param lastModified The time the resource was last modified, or null if unknown
+     * @param tag The current ETag of the resource
+     * @param response Builds the full response; only called if the client's copy is not current
+     * @return The response
+     */
+    public static Response respond(Request request, Date lastModified, EntityTag tag,
+                                   Supplier<Response.ResponseBuilder> response) {
+        Response.ResponseBuilder builder = notModified(request, lastModified, tag);
+        if (builder == null) {
+            builder = tagged(response.get(), lastModified, tag);
+        }
+        return builder.build();
+    }
+
+    /**
+     * <p>Answers a request for a list built from the tables of the given entities, as
+     * {@link #respond(Request, Date, EntityTag, Supplier)} does.</p>
+     *
+     * @param request The request being answered
+     * @param uriInfo The request being answered
+     * @param response Builds the full response; only called if the client's copy is not current
+     * @param types The entity classes whose tables the list is read from
+     * @return The response
+     */
+    public static Response respondForTables(Request request, UriInfo uriInfo, Supplier<Response.ResponseBuilder> response,
+                                            Class<?>... types) {
+        return respond(request, ModificationTracker.lastModified(types), tableTag(uriInfo, types), response);
+    }
+
+    /**
+     * <p>Evaluates the preconditions of the request against the current state of the resource.</p>
+     *
+     * @param request The request being answered
+     * @param lastModified The time the resource was last modified, or null if unknown
+     * @param tag The current ETag of the resource
+     * @return A 304 response to return straight away, or null if the resource should be sent
+     */
+    public static Response.ResponseBuilder notModified(Request request, Date lastModified, EntityTag tag) {
+        Response.ResponseBuilder builder = lastModified == null
+                ? request.evaluatePreconditions(tag)
+                : request.evaluatePreconditions(toSeconds(lastModified), tag);
+        return builder == null ? null : tagged(builder, lastModified, tag);
+    }
+
+    /**
+     * <p>Adds the ETag and Last-Modified headers to a response.</p>
+     *
+     * @param builder The response
+     * @param lastModified The time the resource was last modified, or null if unknown
+     * @param tag The current ETag of the resource
+     * @return The same builder
+     */
+    public static Response.ResponseBuilder tagged(Response.ResponseBuilder builder, Date lastModified, EntityTag tag) {
+        builder.tag(tag);
+        if (lastModified != null) {
+            builder.lastModified(toSeconds(lastModified));
+        }
+        return builder;
+    }
+
+    /**
+     * <p>Adds the ETag and Last-Modified headers to the response to an update, if the new version is known. The tag is
+     * the one {@link #tag(UriInfo, Object...)} gives the resource when it is read back without a query string; for a
+     * resource whose tag also covers nested rows, such as a Booking, it holds only the resource's own version, which
+     * {@link #expectedVersion(String, long, Long)} accepts all the same.</p>
+     *
+     * @param builder The response
+     * @param uriInfo The request being answered
+     * @param id The id of the resource that was updated
+     * @param entity The updated resource
+     * @return The same builder
+     */
+    public static Response.ResponseBuilder tagged(Response.ResponseBuilder builder, UriInfo uriInfo, long id,
+                                                  Versioned entity) {
+        if (entity.getVersion() != null) {
+            tagged(builder, entity.getLastModified(), tag(uriInfo, id, entity.getVersion()));
+        }
+        return builder;
+    }
+
+    /**
+     * <p>Reads the version a client expects a resource to still be at before it is updated: from the If-Match header,
+     * which holds an ETag built by {@link #tag(UriInfo, Object...)} from the resource's id and versions, or else from
+     * the version given in the request body.</p>
+     *
+     * @param ifMatch The If-Match header, or null
+     * @param id The id of the resource being updated
+     * @param version The version given in the request body, or null
+     * @return The expected version, or null if whatever version is stored may be overwritten
+     * @throws RestServiceException With 412 Precondition Failed if If-Match holds anything but a strong ETag of this
+     * resource, as such a tag can never match
+     */
+    public static Long expectedVersion(String ifMatch, long id, Long version) {
+        if (ifMatch == null) {
+            return version;
+        }
+
+        String value = ifMatch.trim();
+        if ("*".equals(value)) {
+            return null;
+        }
+        // Weak tags (W/"...") and lists of tags are not quoted this way, and so fail to parse below.
+        if (value.length() > 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            String[] parts = value.substring(1, value.length() - 1).split("-");
+            try {
+                if (parts.length >= 2 && Long.parseLong(parts[0]) == id) {
+                    // The first version is that of the resource itself, any others are of rows nested in it.
+                    return Long.valueOf(parts[1].split("\\.")[0]);
+                }
+            } catch (NumberFormatException e) {
+                // Not one of our tags, so it cannot match.
+            }
+        }
+
+        Map<String, String> responseObj = new HashMap<>();
+        responseObj.put("If-Match", "The ETag does not match the resource being updated");
+        throw new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED);
+    }
+
+    /**
+     * <p>Explains an update by id and version that changed no row.</p>
+     *
+     * @param type The name of the type of resource, for the message
+     * @param id The id of the resource
+     * @param exists Whether a resource with the id exists, which need only be looked up once the update has failed
+     * @return 404 if there is no such resource, otherwise 412 Precondition Failed as it has changed since the client
+     * read it
+     */
+    public static RestServiceException notUpdated(String type, long id, boolean exists) {
+        if (!exists) {
+            return new RestServiceException("No " + type + " with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        Map<String, String> responseObj = new HashMap<>();
+        responseObj.put("version", "The " + type + " has been changed since it was read, please fetch it again");
+        return new RestServiceException("Precondition Failed", responseObj, Response.Status.PRECONDITION_FAILED);
+    }
+
+    /*
+     * HTTP dates have a resolution of one second, so the time is truncated before it is compared with, or sent as, one.
+     */
+    private static Date toSeconds(Date date) {
+        return new Date(date.getTime() / 1000 * 1000);
+    }
+
+    /**
+     * @param dates Modification times, any of which may be null
+     * @return The latest of the given times, or null if they are all null
+     */
+    public static Date latest(Date... dates) {
+        Date latest = null;
+        for (Date date : dates) {
+            if (date != null && (latest == null || date.after(latest))) {
+                latest = date;
+            }
+        }
+        return latest;
+    }
+}
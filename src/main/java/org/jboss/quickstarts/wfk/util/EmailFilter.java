@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>An in-memory {@link BloomFilter} of the email addresses already registered in a table, used to skip the database
+ * lookup in a uniqueness check when the email is certainly new.</p>
+ *
+ * <p>Subclasses supply the current emails through {@link #loadEmails()} and call {@link #rebuild()} at startup. Emails are
+ * added as they are written; removed or replaced emails cannot be taken out of a Bloom filter, so they are counted
+ * instead, and {@link #rebuildIfStale()} builds a fresh filter once they make up too large a share of it.</p>
+ *
+ * <p>The filter is only a shortcut: a positive answer is always confirmed against the database, and the unique
+ * constraint on the table remains the final guard.</p>
+ *
+ * <p>Sizing can be tuned with the <code>emailFilter.fpp</code> (target false positive probability, default 0.01),
+ * <code>emailFilter.minCapacity</code> (default 10000) and <code>emailFilter.staleRatio</code> (default 0.2) system
+ * properties.</p>
+ */
+public abstract class EmailFilter {
+
+    static final double FPP = Double.parseDouble(System.getProperty("emailFilter.fpp", "0.01"));
+
+    static final long MIN_CAPACITY = Long.getLong("emailFilter.minCapacity", 10000L);
+
+    static final double STALE_RATIO = Double.parseDouble(System.getProperty("emailFilter.staleRatio", "0.2"));
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+
+    private volatile BloomFilter filter = BloomFilter.create(MIN_CAPACITY, FPP);
+
+    /* While a rebuild is under way, the emails added meanwhile, which the table it read may not have held yet. */
+    private volatile Queue<String> added;
+
+    private volatile long capacity = MIN_CAPACITY;
+
+    private final AtomicLong removals = new AtomicLong();
+
+    private final AtomicLong negatives = new AtomicLong();
+
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    private volatile boolean ready;
+
+    /**
+     * @return Every email currently stored in the table
+     */
+    protected abstract Collection<String> loadEmails();
+
+    /**
+     * <p>Checks whether the email might already be registered. Until the first build has finished every email is
+     * reported as possibly registered, so callers fall back to the database.</p>
+     *
+     * @param email The email to check
+     * @return false if the email is certainly not registered; true if it might be
+     */
+    public boolean mightContain(String email) {
+        if (!ready || filter.mightContain(email)) {
+            return true;
+        }
+        negatives.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @param email An email that has been, or is about to be, written to the table
+     */
+    public void add(String email) {
+        if (email == null) {
+            return;
+        }
+        BloomFilter current;
+        do {
+            current = filter;
+            current.put(email);
+            Queue<String> rebuilding = added;
+            if (rebuilding != null) {
+                rebuilding.add(email);
+            }
+            // A filter swapped in meanwhile may have been built without it.
+        } while (current != filter);
+    }
+
+    /**
+     * @param email An email that has been removed from the table, or replaced with another
+     */
+    public void recordRemoval(String email) {
+        if (email != null) {
+            removals.incrementAndGet();
+        }
+    }
+
+    /**
+     * <p>To be called when {@link #mightContain(String)} said yes but the database found no such email.</p>
+     */
+    public void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    /**
+     * <p>Replaces the filter with a fresh one built from the emails currently in the table, sized for twice that many
+     * so that it has room to grow.</p>
+     *
+     * <p>Emails added while the table is being read are recorded, and put into the new filter once it has been swapped
+     * in; one added while it is being swapped in is put into it by {@link #add(String)} itself.</p>
+     */
+    public synchronized void rebuild() {
+        long started = System.currentTimeMillis();
+        long removalsBefore = removals.get();
+
+        Queue<String> rebuilding = new ConcurrentLinkedQueue<>();
+        added = rebuilding;
+        Collection<String> emails;
+        try {
+            emails = loadEmails();
+            capacity = Math.max(capacity, 2L * emails.size());
+            BloomFilter next = BloomFilter.create(capacity, FPP);
+            for (String email : emails) {
+                next.put(email);
+            }
+            filter = next;
+            for (String email : rebuilding) {
+                next.put(email);
+            }
+        } finally {
+            added = null;
+        }
+        removals.addAndGet(-removalsBefore);
+        negatives.set(0);
+        falsePositives.set(0);
+        ready = true;
+
+        log.info(getClass().getSimpleName() + ".rebuild() - Loaded " + emails.size() + " emails in "
+                + (System.currentTimeMillis() - started) + " ms, estimated false positive rate " + getExpectedFpp());
+    }
+
+    /**
+     * <p>Rebuilds the filter if it holds more emails than it was sized for, or if too many of the emails in it have since
+     * been removed or replaced.</p>
+     *
+     * @return true if the filter was rebuilt
+     */
+    public boolean rebuildIfStale() {
+        long insertions = filter.getInsertions();
+        log.info(getClass().getSimpleName() + " - " + insertions + " emails added, " + removals.get()
+                + " removed, estimated false positive rate " + getExpectedFpp() + ", observed " + getObservedFpp());
+        if (!ready || insertions > capacity || removals.get() > insertions * STALE_RATIO) {
+            rebuild();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The false positive probability estimated from how full the filter is
+     */
+    public double getExpectedFpp() {
+        return filter.expectedFpp();
+    }
+
+    /**
+     * @return Of the unregistered emails checked since the last rebuild, the fraction the filter wrongly reported as
+     * possibly registered, or 0 if there have been none
+     */
+    public double getObservedFpp() {
+        long fp = falsePositives.get();
+        long checked = fp + negatives.get();
+        return checked == 0 ? 0 : (double) fp / checked;
+    }
+
+    /**
+     * <p>Returns the state of the filter: the emails put into it and the capacity it was sized for, the emails removed or
+     * replaced since it was built, the checks it answered, and its estimated and observed false positive rates.</p>
+     *
+     * @return The counts, keyed by name
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("insertions", getInsertions());
+        stats.put("capacity", capacity);
+        stats.put("removals", removals.get());
+        stats.put("negatives", negatives.get());
+        stats.put("falsePositives", falsePositives.get());
+        stats.put("expectedFpp", getExpectedFpp());
+        stats.put("observedFpp", getObservedFpp());
+        return stats;
+    }
+
+    public long getInsertions() {
+        return filter.getInsertions();
+    }
+
+    public long getRemovals() {
+        return removals.get();
+    }
+
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+}
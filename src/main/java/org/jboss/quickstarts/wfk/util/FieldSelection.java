@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>A sparse fieldset: the subset of an entity's fields a client asked for with the <code>fields</code> query
+ * parameter, for example <pre>GET api/customers?fields=id,firstName,lastName</pre></p>
+ *
+ * <p>The fields are turned into a JPA tuple query that selects only the matching columns, so the rest of the row is
+ * never read from the database, let alone serialized. Each result is written as a JSON object holding just the
+ * requested fields, in the order they were asked for.</p>
+ *
+ * <p>Only whitelisted fields may be selected. The whitelist maps each field name a client may use onto the attribute
+ * path it is read from, which lets a field such as <code>customerId</code> be read from <code>customer.id</code>
+ * without joining the Customer.</p>
+ */
+public final class FieldSelection {
+    /** Name of the query parameter holding the comma separated field names. */
+    public static final String QUERY_PARAM = "fields";
+
+    private final Map<String, String> allowed;
+
+    private final List<String> fields;
+
+    private FieldSelection(Map<String, String> allowed, List<String> fields) {
+        this.allowed = allowed;
+        this.fields = fields;
+    }
+
+    /**
+     * <p>Restricts the rows a {@link FieldSelection} query returns.</p>
+     *
+     * @param <T> The entity being queried
+     */
+    @FunctionalInterface
+    public interface Restriction<T> {
+        Predicate on(CriteriaBuilder cb, Root<T> root);
+    }
+
+    /**
+     * <p>Builds a whitelist in which each field is read from the attribute of the same name.</p>
+     *
+     * @param names The selectable field names
+     * @return A map of field name to attribute path
+     */
+    public static Map<String, String> allowing(String... names) {
+        Map<String, String> allowed = new LinkedHashMap<>();
+        for (String name : names) {
+            allowed.put(name, name);
+        }
+        return Collections.unmodifiableMap(allowed);
+    }
+
+    /**
+     * <p>Parses the value of the fields query parameter against a whitelist.</p>
+     *
+     * @param fields The comma separated field names, or null if the parameter was not given
+     * @param allowed The selectable field names, mapped to the attribute paths they are read from
+     * @return The selection, or null if fields was null
+     * @throws RestServiceException with status 400 if a field is empty or not in the whitelist
+     */
+    public static FieldSelection parse(String fields, Map<String, String> allowed) {
+        if (fields == null) {
+            return null;
+        }
+
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : fields.split(",", -1)) {
+            String field = name.trim();
+            if (!allowed.containsKey(field)) {
+                Map<String, String> responseObj = new HashMap<>();
+                responseObj.put(QUERY_PARAM, (field.isEmpty() ? "Empty field name" : "Unknown field " + field)
+                        + "; the fields that may be selected are " + String.join(", ", allowed.keySet()));
+                throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
+            }
+            names.add(field);
+        }
+        return new FieldSelection(allowed, Collections.unmodifiableList(new ArrayList<>(names)));
+    }
+
+    /**
+     * @return The requested field names, in the order they were asked for
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * <p>Creates a query selecting the requested fields of the matching entities.</p>
+     *
+     * <p>The orderBy fields must be in the whitelist. Any that were not requested are selected too, so that a caller
+     * paging through the results can read its cursor from the last tuple; {@link #toMap(Tuple)} leaves them out.</p>
+     *
+     * @param em The EntityManager to create the query with
+     * @param type The entity to query
+     * @param where The restriction on the rows returned, or null for all rows
+     * @param orderBy The fields to sort by, in ascending order
+     * @param <T> The entity being queried
+     * @return A query returning one tuple per entity, each element aliased with its field name
+     */
+    public <T> TypedQuery<Tuple> query(EntityManager em, Class<T> type, Restriction<T> where, String... orderBy) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteria = cb.createTupleQuery();
+        Root<T> root = criteria.from(type);
+
+        Map<String, Path<?>> paths = new LinkedHashMap<>();
+        for (String field : fields) {
+            paths.put(field, path(root, allowed.get(field)));
+        }
+        List<Order> orders = new ArrayList<>();
+        for (String field : orderBy) {
+            paths.computeIfAbsent(field, name -> path(root, allowed.get(name)));
+            orders.add(cb.asc(paths.get(field)));
+        }
+
+        List<Selection<?>> selections = new ArrayList<>();
+        for (Map.Entry<String, Path<?>> entry : paths.entrySet()) {
+            selections.add(entry.getValue().alias(entry.getKey()));
+        }
+        criteria.multiselect(selections).orderBy(orders);
+        if (where != null) {
+            criteria.where(where.on(cb, root));
+        }
+        return em.createQuery(criteria);
+    }
+
+    /**
+     * <p>Converts a tuple returned by {@link #query} into a map of the requested fields, ready to be serialized.</p>
+     *
+     * @param tuple The tuple to convert
+     * @return A map of field name to value, in the order the fields were asked for
+     */
+    public Map<String, Object> toMap(Tuple tuple) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String field : fields) {
+            values.put(field, tuple.get(field));
+        }
+        return values;
+    }
+
+    public List<Map<String, Object>> toMaps(List<Tuple> tuples) {
+        List<Map<String, Object>> values = new ArrayList<>(tuples.size());
+        for (Tuple tuple : tuples) {
+            values.add(toMap(tuple));
+        }
+        return values;
+    }
+
+    private static Path<?> path(Root<?> root, String attributePath) {
+        Path<?> path = root;
+        for (String attribute : attributePath.split("\\.")) {
+            path = path.get(attribute);
+        }
+        return path;
+    }
+}
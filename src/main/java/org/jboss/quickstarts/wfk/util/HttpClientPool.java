@@ -0,0 +1,198 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient4Engine;
+
+/**
+ * <p>The one {@link ResteasyClient} the application makes outgoing REST calls with, produced for injection by
+ * {@link Resources}.</p>
+ *
+ * <p>Its connections are pooled and kept alive between calls, so that each call does not pay for a new TCP (and TLS)
+ * handshake. The pool is bounded in total and per route (scheme, host and port), and a call waits at most
+ * <code>http.client.leaseTimeoutMillis</code> for a free connection before failing, rather than queueing without limit
+ * behind a slow upstream service. Connect and read timeouts bound the call itself.</p>
+ *
+ * <p>All limits are read from system properties when the application starts. Individual routes may be given their own
+ * limit with <code>http.client.routes</code>, for example
+ * <code>-Dhttp.client.routes=http://areas.example.com=20,https://payments.example.com:8443=5</code>.</p>
+ *
+ * <p>Asynchronous calls (see {@link AsyncCalls}) run on the container's managed executor instead of a pool of the
+ * client's own, so that they are bounded and monitored with the rest of the application's threads.</p>
+ *
+ * <p>The client, and with it every pooled connection, is closed when the application is undeployed.</p>
+ */
+@ApplicationScoped
+public class HttpClientPool {
+
+    static final int MAX_TOTAL = Integer.getInteger("http.client.maxTotal", 50);
+
+    static final int MAX_PER_ROUTE = Integer.getInteger("http.client.maxPerRoute", 10);
+
+    static final String ROUTES = System.getProperty("http.client.routes", "");
+
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("http.client.connectTimeoutMillis", 2000);
+
+    static final int READ_TIMEOUT_MILLIS = Integer.getInteger("http.client.readTimeoutMillis", 5000);
+
+    static final int LEASE_TIMEOUT_MILLIS = Integer.getInteger("http.client.leaseTimeoutMillis", 1000);
+
+    static final long KEEP_ALIVE_MILLIS = Long.getLong("http.client.keepAliveMillis", TimeUnit.SECONDS.toMillis(30));
+
+    /** Idle time after which a pooled connection is checked before it is reused, as the server may have closed it. */
+    static final int VALIDATE_AFTER_MILLIS = Integer.getInteger("http.client.validateAfterMillis", 2000);
+
+    private static final Logger log = Logger.getLogger(HttpClientPool.class.getName());
+
+    private PoolingHttpClientConnectionManager connections;
+
+    private ResteasyClient client;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    @PostConstruct
+    void start() {
+        connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(MAX_TOTAL);
+        connections.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+        connections.setValidateAfterInactivity(VALIDATE_AFTER_MILLIS);
+        for (Map.Entry<HttpRoute, Integer> route : parseRoutes(ROUTES).entrySet()) {
+            connections.setMaxPerRoute(route.getKey(), route.getValue());
+        }
+
+        RequestConfig timeouts = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setSocketTimeout(READ_TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(LEASE_TIMEOUT_MILLIS)
+                .build();
+
+        // Keep a connection for as long as the server allows, but no longer than our own limit.
+        ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+            long server = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return server > 0 ? Math.min(server, KEEP_ALIVE_MILLIS) : KEEP_ALIVE_MILLIS;
+        };
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(timeouts)
+                .setKeepAliveStrategy(keepAlive)
+                .evictExpiredConnections()
+                .evictIdleConnections(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+
+        // The executor belongs to the container, so closing the client must not shut it down.
+        client = new ResteasyClientBuilder()
+                .httpEngine(new ApacheHttpClient4Engine(httpClient, true))
+                .asyncExecutor(executor, false)
+                .build();
+        log.info("HttpClientPool - " + MAX_TOTAL + " connections, " + MAX_PER_ROUTE + " per route");
+    }
+
+    @PreDestroy
+    void stop() {
+        // Closing the client closes the engine, the HttpClient, and the pool's connections.
+        try {
+            client.close();
+        } finally {
+            connections.shutdown();
+        }
+        log.info("HttpClientPool - closed");
+    }
+
+    /**
+     * @return The shared client; it must not be closed by its users
+     */
+    public ResteasyClient getClient() {
+        return client;
+    }
+
+    /**
+     * <p>Returns how the pool is being used: in total and for each route it has connected to, the connections leased
+     * to calls in progress, the idle connections kept alive, the calls waiting for a connection, and the limit.</p>
+     *
+     * @return The pool usage, keyed by "total" and by route
+     */
+    public Map<String, Map<String, Integer>> getStats() {
+        Map<String, Map<String, Integer>> stats = new LinkedHashMap<>();
+        stats.put("total", toMap(connections.getTotalStats()));
+        for (HttpRoute route : connections.getRoutes()) {
+            stats.put(route.getTargetHost().toURI(), toMap(connections.getStats(route)));
+        }
+        return stats;
+    }
+
+    private static Map<String, Integer> toMap(PoolStats stats) {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("leased", stats.getLeased());
+        map.put("available", stats.getAvailable());
+        map.put("pending", stats.getPending());
+        map.put("max", stats.getMax());
+        return map;
+    }
+
+    /**
+     * <p>Parses per-route limits given as comma separated <code>scheme://host[:port]=limit</code> entries.</p>
+     *
+     * @param routes The limits; entries that cannot be parsed are logged and skipped
+     * @return The limit for each route
+     */
+    static Map<HttpRoute, Integer> parseRoutes(String routes) {
+        Map<HttpRoute, Integer> limits = new LinkedHashMap<>();
+        for (String entry : routes.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int equals = entry.lastIndexOf('=');
+            try {
+                HttpHost host = HttpHost.create(entry.substring(0, equals).trim());
+                boolean secure = "https".equals(host.getSchemeName());
+                if (host.getPort() < 0) {
+                    // The pool keys routes by their actual port, so fill in the scheme's default.
+                    host = new HttpHost(host.getHostName(), secure ? 443 : 80, host.getSchemeName());
+                }
+                limits.put(new HttpRoute(host, null, secure), Integer.valueOf(entry.substring(equals + 1).trim()));
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "HttpClientPool - ignoring route limit " + entry, e);
+            }
+        }
+        return limits;
+    }
+}
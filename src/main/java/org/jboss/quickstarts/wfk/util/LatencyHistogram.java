@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A histogram of latencies in microseconds, with buckets laid out as in an HDR histogram: the first
+ * {@value #SUB_BUCKETS} microseconds have a bucket each, and every power of two above them is split into
+ * {@value #SUB_BUCKETS} equal buckets, so any latency is counted within about 6% of its value. Latencies above about
+ * 38 hours are counted in the last bucket.</p>
+ *
+ * <p>Recording finds the bucket with a shift and increments three counters, so it allocates nothing and takes no lock;
+ * it is safe to call from any number of threads. Readers see each counter as of some moment during the read, so a
+ * snapshot taken while latencies are recorded may be off by those recorded in the meantime.</p>
+ */
+public class LatencyHistogram {
+
+    /** The buckets in each power of two; must be a power of two itself. */
+    static final int SUB_BUCKETS = 16;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    private static final int MAX_SHIFT = 32;
+
+    static final int BUCKETS = SUB_BUCKETS + (MAX_SHIFT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong sumMicros = new AtomicLong();
+
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * <p>Counts one latency.</p>
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    public void recordNanos(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        counts.incrementAndGet(indexOf(micros));
+        sumMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((micros >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return The smallest latency, in microseconds, counted in the bucket
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return The smallest latency, in microseconds, counted in the bucket after it
+     */
+    static long upperBound(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(index + 1);
+    }
+
+    /**
+     * @return A copy of the counts, for reading several figures that agree with each other
+     */
+    public long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * <p>Returns how many of the latencies in a snapshot were below a bound. Bounds that fall inside a bucket are
+     * rounded down to the start of it, so the count is short by at most that bucket's count.</p>
+     *
+     * @param snapshot The counts, from {@link #snapshot()}
+     * @param boundMicros The bound, in microseconds
+     * @return The number of latencies in the buckets that end at or before the bound
+     */
+    public static long countBelow(long[] snapshot, long boundMicros) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS && upperBound(i) <= boundMicros; i++) {
+            count += snapshot[i];
+        }
+        return count;
+    }
+
+    /**
+     * @param snapshot The counts, from {@link #snapshot()}
+     * @return The number of latencies in the snapshot
+     */
+    public static long count(long[] snapshot) {
+        long count = 0;
+        for (long bucket : snapshot) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /**
+     * <p>Returns the latency below which the given fraction of the latencies in a snapshot fall, as the upper end of
+     * the bucket holding it.</p>
+     *
+     * @param snapshot The counts, from {@link #snapshot()}
+     * @param quantile The fraction, from 0 to 1
+     * @return The latency in microseconds, or 0 if the snapshot is empty
+     */
+    public static long quantileMicros(long[] snapshot, double quantile) {
+        long count = count(snapshot);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? lowerBound(i) : upperBound(i) - 1;
+            }
+        }
+        return lowerBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return The total of the latencies recorded, in microseconds
+     */
+    public long getSumMicros() {
+        return sumMicros.get();
+    }
+
+    /**
+     * @return The longest latency recorded, in microseconds
+     */
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+}
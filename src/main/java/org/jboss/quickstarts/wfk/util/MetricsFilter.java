@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * <p>Times every request served by the REST services, recording its latency against its resource method and response
+ * status in the {@link RequestMetrics}.</p>
+ *
+ * <p>The resource method's endpoint is looked up when the request is matched and kept with the start time on the
+ * request, so the response, which for suspended requests is written on another thread, only needs to record it.
+ * Requests that match no resource method never reach the request filter, so they are counted as
+ * {@value RequestMetrics#UNMATCHED} without a latency.</p>
+ *
+ * <p>The start time and endpoint are kept in a {@link Timing} taken from a fixed set allocated up front, and handed
+ * back once the response has been recorded, so timing a request allocates nothing. The number of them, which bounds
+ * the requests timed at once without allocating, can be tuned with the <code>metrics.timings</code> system property
+ * (default 1024). A request that finds none free, or whose response is never filtered and so never hands one back,
+ * gets one of its own.</p>
+ */
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    static final int TIMINGS = Integer.getInteger("metrics.timings", 1024);
+
+    /* How many of the timings a request tries before giving up and making its own. */
+    private static final int PROBES = 8;
+
+    private static final String TIMING = MetricsFilter.class.getName() + ".timing";
+
+    private final Timing[] timings;
+
+    /* 1 for each timing in use, 0 for each free. */
+    private final AtomicIntegerArray taken;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Inject
+    private RequestMetrics metrics;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    public MetricsFilter() {
+        this(TIMINGS, null, null);
+    }
+
+    /**
+     * @param size The number of timings to allocate up front
+     * @param metrics Where the latencies are recorded
+     * @param resourceInfo The resource method of the request being filtered
+     */
+    MetricsFilter(int size, RequestMetrics metrics, ResourceInfo resourceInfo) {
+        timings = new Timing[size];
+        for (int i = 0; i < size; i++) {
+            timings[i] = new Timing(i);
+        }
+        taken = new AtomicIntegerArray(size);
+        this.metrics = metrics;
+        this.resourceInfo = resourceInfo;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        Timing timing = take();
+        timing.endpoint = metrics.endpoint(resourceInfo.getResourceMethod());
+        timing.start = System.nanoTime();
+        request.setProperty(TIMING, timing);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        long end = System.nanoTime();
+        Object property = request.getProperty(TIMING);
+        if (property instanceof Timing) {
+            Timing timing = (Timing) property;
+            request.removeProperty(TIMING);
+            timing.endpoint.record(response.getStatus(), end - timing.start);
+            release(timing);
+        } else {
+            metrics.endpoint(null).record(response.getStatus(), 0);
+        }
+    }
+
+    /**
+     * @return A free timing, or a new one if none of those tried was free
+     */
+    Timing take() {
+        int size = timings.length;
+        if (size > 0) {
+            int first = next.getAndIncrement();
+            for (int i = 0; i < PROBES && i < size; i++) {
+                int slot = Math.floorMod(first + i, size);
+                if (taken.compareAndSet(slot, 0, 1)) {
+                    return timings[slot];
+                }
+            }
+        }
+        return new Timing(-1);
+    }
+
+    /**
+     * @param timing A timing that is no longer needed
+     */
+    void release(Timing timing) {
+        timing.endpoint = null;
+        if (timing.slot >= 0) {
+            taken.set(timing.slot, 0);
+        }
+    }
+
+    /**
+     * <p>The start time and endpoint of a request being timed.</p>
+     */
+    static final class Timing {
+
+        /* Its index among the timings allocated up front, or -1 if it was made for a single request. */
+        final int slot;
+
+        long start;
+
+        RequestMetrics.Endpoint endpoint;
+
+        Timing(int slot) {
+            this.slot = slot;
+        }
+    }
+}
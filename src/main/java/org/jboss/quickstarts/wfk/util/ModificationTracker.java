@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * <p>Counts the writes made to each entity table, so that a list response can be given an ETag without reading the
+ * list: while the counters of the tables it is built from are unchanged, so is the list.</p>
+ *
+ * <p>It is registered on the entities with <code>@EntityListeners</code>, and also sets the last modified time of
+ * {@link Versioned} entities. Writes that bypass the entity lifecycle, such as JPQL bulk updates, must inject it and
+ * call {@link #modified(Class)} themselves.</p>
+ *
+ * <p>A table's counter is bumped when the write is flushed and again once its transaction has completed. A list read
+ * in between, while the write is not yet visible, is therefore tagged with a count that is already stale by the time
+ * the write becomes visible, and is never mistaken for the new state.</p>
+ *
+ * <p>The counters live in memory, and are only meaningful to this server since it started; {@link #EPOCH} is included
+ * in every tag built from them so that tags from before a restart never match.</p>
+ */
+public class ModificationTracker {
+
+    /** Time this server started tracking modifications. */
+    public static final long EPOCH = System.currentTimeMillis();
+
+    private static final Map<Class<?>, Table> tables = new ConcurrentHashMap<>();
+
+    /**
+     * <p>The write counter and last modified time of one table.</p>
+     */
+    private static final class Table {
+        private final AtomicLong count = new AtomicLong();
+        private volatile long lastModified = EPOCH;
+
+        void bump() {
+            lastModified = System.currentTimeMillis();
+            count.incrementAndGet();
+        }
+    }
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    @PrePersist
+    @PreUpdate
+    void touch(Object entity) {
+        if (entity instanceof Versioned) {
+            ((Versioned) entity).setLastModified(new Date());
+        }
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    void record(Object entity) {
+        modified(entity.getClass());
+    }
+
+    /**
+     * <p>Records a write to the table of the given entity, now and again when the current transaction completes.</p>
+     *
+     * @param type The entity class whose table was written
+     */
+    public void modified(Class<?> type) {
+        Table table = table(type);
+        table.bump();
+
+        if (transactions != null && transactions.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    table.bump();
+                }
+            });
+        }
+    }
+
+    /**
+     * <p>Returns the number of writes to the tables of the given entities since this server started, joined into a
+     * single token.</p>
+     *
+     * @param types The entity classes whose tables are counted
+     * @return A token that changes whenever any of the tables is written
+     */
+    public static String counts(Class<?>... types) {
+        StringBuilder counts = new StringBuilder(Long.toHexString(EPOCH));
+        for (Class<?> type : types) {
+            counts.append('.').append(table(type).count.get());
+        }
+        return counts.toString();
+    }
+
+    /**
+     * <p>Returns the time any of the tables of the given entities was last written, or the time this server started if
+     * none has been written since.</p>
+     *
+     * @param types The entity classes whose tables are checked
+     * @return The latest modification time
+     */
+    public static Date lastModified(Class<?>... types) {
+        long lastModified = EPOCH;
+        for (Class<?> type : types) {
+            lastModified = Math.max(lastModified, table(type).lastModified);
+        }
+        return new Date(lastModified);
+    }
+
+    private static Table table(Class<?> type) {
+        return tables.computeIfAbsent(type, t -> new Table());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ * <p>Writes the results of a named query to a stream as newline-delimited JSON (NDJSON), one entity per line.</p>
+ *
+ * <p>Rows are read through a forward-only Hibernate cursor and the persistence context is cleared every
+ * {@link #CLEAR_INTERVAL} rows, so memory use stays flat however large the table is. Entities are serialized with the
+ * same settings as {@link JacksonConfig}, so each line matches what the JSON endpoints return.</p>
+ *
+ * <p>A JAX-RS {@link javax.ws.rs.core.StreamingOutput} is written after the resource method has returned and its
+ * transaction has ended, which is why this is an EJB that starts a transaction of its own for each export.</p>
+ *
+ * @see javax.ws.rs.core.StreamingOutput
+ */
+@Stateless
+public class NdjsonExporter {
+    /** Media type of a newline-delimited JSON response. */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /** Number of rows written between flushes of the output and clears of the persistence context. */
+    static final int CLEAR_INTERVAL = 500;
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private static final ObjectWriter WRITER = new JacksonConfig().getContext(Object.class).writer();
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private EntityManager em;
+
+    /**
+     * <p>Runs the named query and writes every result to the output as a line of JSON.</p>
+     *
+     * @param namedQuery The name of the JPA named query to export
+     * @param output The stream to write to; it is flushed but not closed
+     * @return The number of rows written
+     * @throws IOException If the output cannot be written, for example because the client has disconnected
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long export(String namedQuery, OutputStream output) throws IOException {
+        Query query = em.createNamedQuery(namedQuery).unwrap(Query.class);
+        query.setReadOnly(true);
+        query.setFetchSize(CLEAR_INTERVAL);
+
+        OutputStream out = new BufferedOutputStream(output);
+        long rows = 0;
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                out.write(WRITER.writeValueAsBytes(results.get(0)));
+                out.write(NEWLINE);
+
+                if (++rows % CLEAR_INTERVAL == 0) {
+                    out.flush();
+                    em.clear();
+                }
+            }
+            out.flush();
+        } finally {
+            results.close();
+        }
+
+        log.info("NdjsonExporter.export() - Wrote " + rows + " rows from " + namedQuery);
+        return rows;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * <p>A small in-process read-through cache, bounded in size with least-recently-used eviction and with a time-to-live
+ * on every entry.</p>
+ *
+ * <p>Values are loaded on a miss by the function passed to {@link #get(Object, Function)}; null values are never
+ * cached. A load that overlaps an invalidation is not cached either, so a reader cannot put back a value that a
+ * concurrent writer has just invalidated.</p>
+ *
+ * <p>Hits, misses and evictions are counted so that the cache can be tuned.</p>
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the cached values
+ */
+public class NearCache<K, V> {
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    /* Access ordered, so iteration starts at the least recently used entry. Guarded by this. */
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /* Bumped by every invalidation, so a load can tell whether it raced with one. */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize The maximum number of entries held before the least recently used is evicted
+     * @param ttlMillis How long an entry may be served for after it was loaded, in milliseconds
+     */
+    public NearCache(int maxSize, long ttlMillis) {
+        if (maxSize < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("maxSize and ttlMillis must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > NearCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * <p>Returns the cached value for the key, loading and caching it if it is absent or has expired.</p>
+     *
+     * <p>The loader runs without any lock held, and any exception it throws is passed on to the caller.</p>
+     *
+     * @param key The key to look up
+     * @param loader Loads the value on a miss; may return null
+     * @return The cached or freshly loaded value; or null
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+
+        long loadedGeneration = generation.get();
+        V value = loader.apply(key);
+        if (value != null) {
+            synchronized (this) {
+                if (generation.get() == loadedGeneration) {
+                    entries.put(key, new Entry<>(value, now + ttlMillis));
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * <p>Removes the entry for the key, if there is one.</p>
+     *
+     * @param key The key to remove
+     */
+    public void invalidate(K key) {
+        generation.incrementAndGet();
+        synchronized (this) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * <p>Removes every entry whose value matches the predicate. This walks the whole cache, so it is meant for the
+     * occasional lookup by a secondary key rather than for every call.</p>
+     *
+     * @param predicate Selects the values to remove
+     */
+    public void invalidateIf(Predicate<? super V> predicate) {
+        generation.incrementAndGet();
+        synchronized (this) {
+            for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext(); ) {
+                if (predicate.test(it.next().value)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Removes every entry.</p>
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        synchronized (this) {
+            entries.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The fraction of lookups answered from the cache, or 0 if there have been none
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * <p>Returns the size and limits of the cache, and how its lookups have been answered.</p>
+     *
+     * @return The counts, keyed by name
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("maxSize", maxSize);
+        stats.put("ttlMillis", ttlMillis);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("hitRatio", getHitRatio());
+        return stats;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
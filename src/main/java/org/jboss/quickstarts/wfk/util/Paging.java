@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>The page size limits shared by the list endpoints that are read a page at a time, such as a Customer's or a
+ * Flight's Bookings.</p>
+ */
+public final class Paging {
+
+    /** Page size used when a page is asked for without a limit. */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /** Largest page a client may ask for. */
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private Paging() {
+    }
+
+    /**
+     * <p>Checks a requested page size, returning the default page size if none was given.</p>
+     *
+     * @param limit The limit query parameter, or null
+     * @return The number of items to put on the page
+     * @throws RestServiceException With 400 Bad Request if the limit is out of range
+     */
+    public static int pageSize(Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("limit", "The limit must be between 1 and " + MAX_PAGE_SIZE);
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST);
+        }
+        return pageSize;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * <p>Counts the SQL statements and entity loads of every request served by the REST services with the
+ * {@link QueryCounter}, and records them against its resource method in the {@link RequestMetrics}.</p>
+ *
+ * <p>A request that prepares more statements than the budget, the system property <code>query.budget</code> (10 by
+ * default), is counted as over budget. In dev mode, enabled with the system property <code>dev.mode</code>, it is also
+ * logged and its response is given the header {@value #BUDGET_HEADER}, so that N+1 selects show up while the
+ * application is being worked on.</p>
+ */
+@Provider
+public class QueryBudgetFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    static final String BUDGET_HEADER = "X-Query-Budget-Exceeded";
+
+    static final int BUDGET = Integer.getInteger("query.budget", 10);
+
+    private static final boolean DEV_MODE = Boolean.getBoolean("dev.mode");
+
+    private static final String COUNTS = QueryBudgetFilter.class.getName() + ".counts";
+
+    private static final Logger log = Logger.getLogger(QueryBudgetFilter.class.getName());
+
+    private final int budget;
+
+    private final boolean devMode;
+
+    @Inject
+    private RequestMetrics metrics;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    public QueryBudgetFilter() {
+        this(BUDGET, DEV_MODE, null, null);
+    }
+
+    /**
+     * @param budget The most statements a request may prepare
+     * @param devMode Whether to log requests over the budget and mark their responses
+     * @param metrics Where the counts are recorded
+     * @param resourceInfo The resource method of the request being filtered
+     */
+    QueryBudgetFilter(int budget, boolean devMode, RequestMetrics metrics, ResourceInfo resourceInfo) {
+        this.budget = budget;
+        this.devMode = devMode;
+        this.metrics = metrics;
+        this.resourceInfo = resourceInfo;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        request.setProperty(COUNTS, QueryCounter.begin());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        Object property = request.getProperty(COUNTS);
+        if (!(property instanceof QueryCounter.Counts)) {
+            return;
+        }
+        QueryCounter.Counts counts = (QueryCounter.Counts) property;
+        QueryCounter.end(counts);
+
+        RequestMetrics.Endpoint endpoint = metrics.endpoint(resourceInfo.getResourceMethod());
+        boolean overBudget = counts.getStatements() > budget;
+        endpoint.recordQueries(counts.getStatements(), counts.getEntityLoads(), overBudget);
+
+        if (overBudget && devMode) {
+            log.warning("QueryBudgetFilter - " + request.getMethod() + " " + request.getUriInfo().getPath() + " ("
+                    + endpoint.getName() + ") prepared " + counts.getStatements() + " statements and loaded "
+                    + counts.getEntityLoads() + " entities, over the budget of " + budget);
+            response.getHeaders().putSingle(BUDGET_HEADER, "statements=" + counts.getStatements()
+                    + "; entities=" + counts.getEntityLoads() + "; budget=" + budget);
+        }
+    }
+}
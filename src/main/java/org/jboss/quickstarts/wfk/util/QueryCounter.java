@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.Serializable;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.type.Type;
+
+/**
+ * <p>Counts the SQL statements prepared and the entities loaded by Hibernate on behalf of the request being served on
+ * the current thread, so that requests issuing one query per row (N+1 selects) can be spotted.</p>
+ *
+ * <p>It is registered in <code>persistence.xml</code> as both the statement inspector and the interceptor of the
+ * <code>contacts_pu</code> persistence unit; Hibernate creates an instance for each role, and both count into the
+ * {@link Counts} of the current thread. Work done on other threads, such as that of a suspended request, and
+ * statements prepared while a response entity is being written, are not counted.</p>
+ */
+public class QueryCounter extends EmptyInterceptor implements StatementInspector {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<Counts> current = new ThreadLocal<>();
+
+    /**
+     * <p>The statements prepared and entities loaded during one request.</p>
+     */
+    public static final class Counts {
+        /*
+         * Only written by the thread serving the request, so incrementing is safe; volatile so that the response of a
+         * suspended request, written on another thread, reads them up to date.
+         */
+        private volatile long statements;
+        private volatile long entityLoads;
+
+        public long getStatements() {
+            return statements;
+        }
+
+        public long getEntityLoads() {
+            return entityLoads;
+        }
+    }
+
+    /**
+     * <p>Starts counting for a request served on the current thread.</p>
+     *
+     * @return The counts of the request
+     */
+    public static Counts begin() {
+        Counts counts = new Counts();
+        current.set(counts);
+        return counts;
+    }
+
+    /**
+     * <p>Stops counting for a request, if it is the one being counted on the current thread.</p>
+     *
+     * @param counts The counts returned by {@link #begin()}
+     */
+    public static void end(Counts counts) {
+        if (current.get() == counts) {
+            current.remove();
+        }
+    }
+
+    @Override
+    public String inspect(String sql) {
+        Counts counts = current.get();
+        if (counts != null) {
+            counts.statements++;
+        }
+        return sql;
+    }
+
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        Counts counts = current.get();
+        if (counts != null) {
+            counts.entityLoads++;
+        }
+        return false;
+    }
+}
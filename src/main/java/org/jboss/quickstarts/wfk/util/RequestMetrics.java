@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * <p>Holds a {@link LatencyHistogram} for each resource method and response status served by the REST services, as
+ * recorded by the {@link MetricsFilter}, and the SQL statements and entity loads of each resource method, as recorded
+ * by the {@link QueryBudgetFilter}.</p>
+ *
+ * <p>Each resource method's {@link Endpoint} is created the first time it is called, and the histogram for a status the
+ * first time the method responds with it. From then on, recording a request only looks them up.</p>
+ */
+@ApplicationScoped
+public class RequestMetrics {
+
+    /** The name given to requests that did not reach a resource method, such as those for unknown paths. */
+    static final String UNMATCHED = "unmatched";
+
+    private final ConcurrentMap<Method, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private final Endpoint unmatched = new Endpoint(UNMATCHED);
+
+    /**
+     * @param method The resource method that served a request, or null if none did
+     * @return The endpoint to record the request against
+     */
+    public Endpoint endpoint(Method method) {
+        if (method == null) {
+            return unmatched;
+        }
+        Endpoint endpoint = endpoints.get(method);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(method,
+                m -> new Endpoint(m.getDeclaringClass().getSimpleName() + "." + m.getName()));
+    }
+
+    /**
+     * @return The endpoints that have been called, keyed and sorted by name
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        Map<String, Endpoint> sorted = new TreeMap<>();
+        for (Endpoint endpoint : endpoints.values()) {
+            sorted.put(endpoint.getName(), endpoint);
+        }
+        sorted.put(unmatched.getName(), unmatched);
+        return sorted;
+    }
+
+    /**
+     * <p>The latencies of one resource method, by response status, and the queries it has made.</p>
+     */
+    public static class Endpoint {
+
+        private static final int STATUSES = 600;
+
+        private final String name;
+
+        private final AtomicReferenceArray<LatencyHistogram> byStatus = new AtomicReferenceArray<>(STATUSES);
+
+        private final AtomicLong queried = new AtomicLong();
+
+        private final AtomicLong statements = new AtomicLong();
+
+        private final AtomicLong maxStatements = new AtomicLong();
+
+        private final AtomicLong entityLoads = new AtomicLong();
+
+        private final AtomicLong maxEntityLoads = new AtomicLong();
+
+        private final AtomicLong overBudget = new AtomicLong();
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param status The response status
+         * @param nanos How long the request took, in nanoseconds
+         */
+        public void record(int status, long nanos) {
+            int index = status > 0 && status < STATUSES ? status : 0;
+            LatencyHistogram histogram = byStatus.get(index);
+            if (histogram == null) {
+                byStatus.compareAndSet(index, null, new LatencyHistogram());
+                histogram = byStatus.get(index);
+            }
+            histogram.recordNanos(nanos);
+        }
+
+        /**
+         * @param statements The SQL statements prepared by a request
+         * @param entityLoads The entities loaded by the request
+         * @param overBudget Whether the request prepared more statements than the budget
+         */
+        public void recordQueries(long statements, long entityLoads, boolean overBudget) {
+            queried.incrementAndGet();
+            this.statements.addAndGet(statements);
+            this.entityLoads.addAndGet(entityLoads);
+            raise(maxStatements, statements);
+            raise(maxEntityLoads, entityLoads);
+            if (overBudget) {
+                this.overBudget.incrementAndGet();
+            }
+        }
+
+        private static void raise(AtomicLong max, long value) {
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * @return The requests counted, their statements and entity loads in total and at most, and how many were over
+         * the budget
+         */
+        public Map<String, Long> getQueryStats() {
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("requests", queried.get());
+            stats.put("statements", statements.get());
+            stats.put("maxStatements", maxStatements.get());
+            stats.put("entityLoads", entityLoads.get());
+            stats.put("maxEntityLoads", maxEntityLoads.get());
+            stats.put("overBudget", overBudget.get());
+            return stats;
+        }
+
+        /**
+         * @return The histograms of the statuses responded with, keyed by status; 0 stands for a status out of range
+         */
+        public Map<Integer, LatencyHistogram> getHistograms() {
+            Map<Integer, LatencyHistogram> histograms = new TreeMap<>();
+            for (int status = 0; status < STATUSES; status++) {
+                LatencyHistogram histogram = byStatus.get(status);
+                if (histogram != null) {
+                    histograms.put(status, histogram);
+                }
+            }
+            return histograms;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * <p>Holds the {@link UpstreamGuard} of each upstream service, created on first use, so that every call site that
+ * calls the same service shares its circuit breaker and bulkhead.</p>
+ *
+ * <p>Each setting is read from the system property <code>resilience.&lt;upstream&gt;.&lt;setting&gt;</code>, falling
+ * back to <code>resilience.&lt;setting&gt;</code> and then to the default: <code>maxConcurrent</code> (20),
+ * <code>timeoutMillis</code> (3000), <code>windowSize</code> (20), <code>minimumCalls</code> (10),
+ * <code>failureRatePercent</code> (50), <code>openMillis</code> (30000), <code>compensationAttempts</code> (5) and
+ * <code>compensationBackoffMillis</code> (500).</p>
+ */
+@ApplicationScoped
+public class ResilienceRegistry {
+
+    private final ConcurrentMap<String, UpstreamGuard> guards = new ConcurrentHashMap<>();
+
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+
+    /**
+     * @param upstream The name of the upstream service
+     * @return The guard for the service
+     */
+    public UpstreamGuard guard(String upstream) {
+        return guards.computeIfAbsent(upstream, name -> new UpstreamGuard(name,
+                new Bulkhead((int) setting(name, "maxConcurrent", 20)),
+                new CircuitBreaker(name,
+                        (int) setting(name, "windowSize", 20),
+                        (int) setting(name, "minimumCalls", 10),
+                        (int) setting(name, "failureRatePercent", 50),
+                        setting(name, "openMillis", TimeUnit.SECONDS.toMillis(30))),
+                setting(name, "timeoutMillis", 3000),
+                scheduler,
+                (int) setting(name, "compensationAttempts", 5),
+                setting(name, "compensationBackoffMillis", 500)));
+    }
+
+    /**
+     * @return The guards created so far, keyed by upstream service
+     */
+    public Map<String, UpstreamGuard> getGuards() {
+        return new TreeMap<>(guards);
+    }
+
+    static long setting(String upstream, String key, long defaultValue) {
+        return Long.getLong("resilience." + upstream + "." + key, Long.getLong("resilience." + key, defaultValue));
+    }
+}
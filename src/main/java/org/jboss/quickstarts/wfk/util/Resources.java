@@ -18,8 +18,11 @@ package org.jboss.quickstarts.wfk.util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -44,6 +47,9 @@ public class Resources {
     @PersistenceContext(unitName = "contacts_pu")
     private EntityManager em;
 
+    @Inject
+    private HttpClientPool httpClientPool;
+
     @Produces
     @Named("logger")
     public Logger produceLog(InjectionPoint injectionPoint) {
@@ -56,4 +62,13 @@ public class Resources {
         return new ObjectMapper();
     }
 
+    /*
+     * The client is shared by the whole application and closed by the pool when it is undeployed, so there is no
+     * disposer: injecting it is cheap, and whoever injects it must not close it.
+     */
+    @Produces
+    public ResteasyClient produceClient() {
+        return httpClientPool.getClient();
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Date;
+
+/**
+ * <p>The versions and latest modification time of the rows a single resource is built from, read without loading the
+ * rows themselves so that a conditional GET can be answered first. A resource looked up by anything but its id also
+ * carries the id, which its ETag is built from.</p>
+ *
+ * @see ConditionalGet
+ */
+public final class Revision {
+
+    private final Long id;
+
+    private final String versions;
+
+    private final Date lastModified;
+
+    private Revision(Long id, String versions, Date lastModified) {
+        this.id = id;
+        this.versions = versions;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * <p>Reads a revision from a query result holding a version and a last modified time for each row, in that order,
+     * for example <code>SELECT b.version, b.lastModified, c.version, c.lastModified ...</code>.</p>
+     *
+     * @param row The query result
+     * @return The revision
+     */
+    public static Revision of(Object[] row) {
+        return of(null, row, 0);
+    }
+
+    /**
+     * <p>Reads a revision from a query result holding the id of the resource, followed by a version and a last modified
+     * time for each row, for example <code>SELECT c.id, c.version, c.lastModified ...</code>.</p>
+     *
+     * @param row The query result
+     * @return The revision, carrying the id
+     */
+    public static Revision withId(Object[] row) {
+        return of((Long) row[0], row, 1);
+    }
+
+    private static Revision of(Long id, Object[] row, int start) {
+        StringBuilder versions = new StringBuilder();
+        Date lastModified = null;
+        for (int i = start; i < row.length; i += 2) {
+            if (i > start) {
+                versions.append('.');
+            }
+            versions.append(row[i]);
+            lastModified = ConditionalGet.latest(lastModified, (Date) row[i + 1]);
+        }
+        return new Revision(id, versions.toString(), lastModified);
+    }
+
+    /**
+     * @return The id of the resource, or null if it was looked up by id
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * @return The versions of the rows, joined into a single token
+     */
+    public String getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return The latest time any of the rows was modified, or null if none is known
+     */
+    public Date getLastModified() {
+        return lastModified;
+    }
+}
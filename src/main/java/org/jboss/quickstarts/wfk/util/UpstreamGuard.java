@@ -0,0 +1,264 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.ws.rs.ClientErrorException;
+
+/**
+ * <p>Guards the calls to one upstream service with a {@link Bulkhead}, a {@link CircuitBreaker} and a timeout, and
+ * optionally a fallback.</p>
+ *
+ * <p>A call the bulkhead or breaker will not let through fails with {@link CallRejectedException} without being made.
+ * A call that fails or times out counts against the breaker; one answered with a 4xx status does not, as the service
+ * did answer.</p>
+ *
+ * <p>Compensating calls, which undo work that is no longer wanted, go around the bulkhead and breaker and are retried
+ * with backoff instead (see {@link #compensate(Supplier)}).</p>
+ *
+ * <p>Guards are obtained from the {@link ResilienceRegistry}, one for each upstream service.</p>
+ */
+public class UpstreamGuard {
+
+    private final String name;
+
+    private final Bulkhead bulkhead;
+
+    private final CircuitBreaker breaker;
+
+    private final long timeoutMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final int compensationAttempts;
+
+    private final long compensationBackoffMillis;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong compensations = new AtomicLong();
+
+    private final AtomicLong compensationRetries = new AtomicLong();
+
+    private final AtomicLong compensationsAbandoned = new AtomicLong();
+
+    UpstreamGuard(String name, Bulkhead bulkhead, CircuitBreaker breaker, long timeoutMillis,
+                  ScheduledExecutorService scheduler, int compensationAttempts, long compensationBackoffMillis) {
+        this.name = name;
+        this.bulkhead = bulkhead;
+        this.breaker = breaker;
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = scheduler;
+        this.compensationAttempts = compensationAttempts;
+        this.compensationBackoffMillis = compensationBackoffMillis;
+    }
+
+    /**
+     * <p>Makes an asynchronous call, if it is let through, and fails it with {@link TimeoutException} if it takes longer
+     * than the timeout.</p>
+     *
+     * <p>The call itself is left running after a timeout, and holds its place in the bulkhead until it finishes, so a
+     * caller that needs its late outcome should take it from the future it returns from <code>call</code>.</p>
+     *
+     * @param call Starts the call
+     * @return The future outcome of the call
+     */
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call) {
+        if (!tryAcquire()) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new CallRejectedException(rejection()));
+            return rejected;
+        }
+        calls.incrementAndGet();
+
+        CompletableFuture<T> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException e) {
+            started = new CompletableFuture<>();
+            started.completeExceptionally(e);
+        }
+        started.whenComplete((value, throwable) -> bulkhead.release());
+
+        CompletableFuture<T> timed = AsyncCalls.withTimeout(started, timeoutMillis, scheduler);
+        timed.whenComplete((value, throwable) -> record(throwable));
+        return timed;
+    }
+
+    /**
+     * <p>Makes an asynchronous call as {@link #call(Supplier)} does, and answers with the fallback if it fails for any
+     * reason, including being rejected.</p>
+     *
+     * @param call Starts the call
+     * @param fallback Given why the call failed, returns the value to use instead, or throws to fail after all
+     * @return The future outcome of the call, or of the fallback
+     */
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call, Function<Throwable, ? extends T> fallback) {
+        return call(call).handle((value, throwable) -> throwable == null ? value : fallback.apply(AsyncCalls.unwrap(throwable)));
+    }
+
+    /**
+     * <p>Makes a compensating call, such as cancelling a booking that is no longer wanted. It is retried, waiting twice
+     * as long before each attempt, until it succeeds, is answered with a 4xx status, or has been made the configured
+     * number of times; the future fails with the cause of the last attempt.</p>
+     *
+     * <p>It goes around the bulkhead and the breaker, which are most likely to refuse it just when the work it undoes
+     * failed, and its outcome does not count against the breaker. Each attempt is still bounded by the timeout.</p>
+     *
+     * @param call Starts one attempt of the call
+     * @return The future outcome of the call
+     */
+    public <T> CompletableFuture<T> compensate(Supplier<CompletableFuture<T>> call) {
+        compensations.incrementAndGet();
+        CompletableFuture<T> outcome = new CompletableFuture<>();
+        attempt(call, 1, outcome);
+        return outcome;
+    }
+
+    private <T> void attempt(Supplier<CompletableFuture<T>> call, int attempt, CompletableFuture<T> outcome) {
+        CompletableFuture<T> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException e) {
+            started = new CompletableFuture<>();
+            started.completeExceptionally(e);
+        }
+
+        AsyncCalls.withTimeout(started, timeoutMillis, scheduler).whenComplete((value, throwable) -> {
+            Throwable cause = throwable == null ? null : AsyncCalls.unwrap(throwable);
+            if (cause == null) {
+                outcome.complete(value);
+            } else if (cause instanceof ClientErrorException) {
+                outcome.completeExceptionally(cause);
+            } else if (attempt >= compensationAttempts) {
+                compensationsAbandoned.incrementAndGet();
+                outcome.completeExceptionally(cause);
+            } else {
+                compensationRetries.incrementAndGet();
+                scheduler.schedule(() -> attempt(call, attempt + 1, outcome),
+                        compensationBackoffMillis << (attempt - 1), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * <p>Makes a synchronous call, if it is let through. No timeout is applied, as the calling thread is the one making
+     * the call; it is bounded by the read timeout of the HTTP client instead.</p>
+     *
+     * @param call The call
+     * @return The outcome of the call
+     * @throws CallRejectedException If the call is not let through
+     * @throws Exception If the call fails
+     */
+    public <T> T execute(Callable<T> call) throws Exception {
+        if (!tryAcquire()) {
+            throw new CallRejectedException(rejection());
+        }
+        calls.incrementAndGet();
+        try {
+            T value = call.call();
+            record(null);
+            return value;
+        } catch (Exception e) {
+            record(e);
+            throw e;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private boolean tryAcquire() {
+        if (!bulkhead.tryAcquire()) {
+            return false;
+        }
+        if (!breaker.tryAcquire()) {
+            bulkhead.release();
+            return false;
+        }
+        return true;
+    }
+
+    private String rejection() {
+        return "The " + name + " service is unavailable: "
+                + (breaker.getState() == CircuitBreaker.State.CLOSED ? "too many calls in flight" : "circuit open");
+    }
+
+    private void record(Throwable throwable) {
+        Throwable cause = throwable == null ? null : AsyncCalls.unwrap(throwable);
+        if (cause == null || cause instanceof ClientErrorException) {
+            breaker.onSuccess();
+            return;
+        }
+        failures.incrementAndGet();
+        if (cause instanceof TimeoutException) {
+            timeouts.incrementAndGet();
+        }
+        breaker.onFailure();
+    }
+
+    /**
+     * <p>Returns the state of the guard: the breaker's state and transitions, the calls in flight and allowed, how
+     * many calls were made, failed, timed out, or were rejected by the breaker or the bulkhead, and how many
+     * compensating calls were made, retried, or given up on.</p>
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", breaker.getState());
+        stats.put("inFlight", bulkhead.getInFlight());
+        stats.put("maxConcurrent", bulkhead.getMaxConcurrent());
+        stats.put("timeoutMillis", timeoutMillis);
+        stats.put("calls", calls.get());
+        stats.put("failures", failures.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("rejectedOpen", breaker.getRejected());
+        stats.put("rejectedFull", bulkhead.getRejected());
+        stats.put("opened", breaker.getOpened());
+        stats.put("halfOpened", breaker.getHalfOpened());
+        stats.put("closed", breaker.getClosed());
+        stats.put("compensations", compensations.get());
+        stats.put("compensationRetries", compensationRetries.get());
+        stats.put("compensationsAbandoned", compensationsAbandoned.get());
+        return stats;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Date;
+
+/**
+ * <p>An entity with an optimistic lock version and a last modified time, both of which are used to answer conditional
+ * requests (see {@link ConditionalGet}).</p>
+ *
+ * <p>The version is maintained by JPA through <code>@Version</code>; the last modified time is set by
+ * {@link ModificationTracker} whenever the entity is written.</p>
+ */
+public interface Versioned {
+
+    Long getVersion();
+
+    void setVersion(Long version);
+
+    Date getLastModified();
+
+    void setLastModified(Date lastModified);
+}
@@ -19,11 +19,11 @@
 -- Since the database doesn't know to increase the Sequence to match what is manually loaded here it starts at 1 and tries
 --  to enter a record with the same PK and create an error.  If we use a high we don't interfere with the sequencing (at least until later).
 -- NOTE: this file should be removed for production systems. 
-insert into Contact (id, first_name, last_name, email, phone_number, birth_date) values (10001, 'John', 'Smith', 'john.smith@mailinator.com', '(212) 555-1212', '1963-06-03')
-insert into Contact (id, first_name, last_name, email, phone_number, birth_date) values (10002, 'Davey', 'Jones', 'davey.jones@locker.com', '(212) 555-3333', '1996-08-07')
-insert into Customer (id, first_name, last_name, email, phone_number, birth_date) values (10005, 'Xu', 'Jie', 'J.Xu40@lnewcastle.ac.uk', '(212) 555-1121', '1994-03-18')
-insert into Customer (id, first_name, last_name, email, phone_number, birth_date) values (10006, 'chong', 'Jie', 'J.Xu401@lnewcastle.ac.uk', '(212) 555-1111', '1994-03-18')
-insert into Flight (id, flightNumber, departure, destination) values (10007,'10003', 'CHI', 'BRI')
-insert into Flight (id, flightNumber, departure, destination) values (10008,'10004', 'CHI', 'BRI')
-insert into TravelAgent (id, customerId, hotelId, flightId, taxiId, BookingDate) values (10006, 10001, 10002, 10002, 10002, '1994-03-18')
-insert into TravelAgent (id, customerId, hotelId, flightId, taxiId, BookingDate) values (10006, 10001, 10002, 10002, 10002, '1994-03-18')
\ No newline at end of file
+insert into Contact (id, first_name, last_name, email, phone_number, birth_date, state, version, last_modified) values (10001, 'John', 'Smith', 'john.smith@mailinator.com', '(212) 555-1212', '1963-06-03', 'New York', 0, CURRENT_TIMESTAMP)
+insert into Contact (id, first_name, last_name, email, phone_number, birth_date, state, version, last_modified) values (10002, 'Davey', 'Jones', 'davey.jones@locker.com', '(212) 555-3333', '1996-08-07', 'New York', 0, CURRENT_TIMESTAMP)
+insert into Customer (id, first_name, last_name, email, phone_number, birth_date, state, version, last_modified) values (10005, 'Xu', 'Jie', 'J.Xu40@lnewcastle.ac.uk', '(212) 555-1121', '1994-03-18', 'New York', 0, CURRENT_TIMESTAMP)
+insert into Customer (id, first_name, last_name, email, phone_number, birth_date, state, version, last_modified) values (10006, 'chong', 'Jie', 'J.Xu401@lnewcastle.ac.uk', '(212) 555-1111', '1994-03-18', 'New York', 0, CURRENT_TIMESTAMP)
+insert into Flight (id, flightNumber, departure, destination, capacity, version, last_modified) values (10007,'10003', 'CHI', 'BRI', 180, 0, CURRENT_TIMESTAMP)
+insert into Flight (id, flightNumber, departure, destination, capacity, version, last_modified) values (10008,'10004', 'CHI', 'BRI', 180, 0, CURRENT_TIMESTAMP)
+insert into TravelAgent (id, customerId, hotelId, flightId, taxiId, BookingDate, version, last_modified) values (10006, 10001, 10002, 10002, 10002, '1994-03-18', 0, CURRENT_TIMESTAMP)
+insert into TravelAgent (id, customerId, hotelId, flightId, taxiId, BookingDate, version, last_modified) values (10006, 10001, 10002, 10002, 10002, '1994-03-18', 0, CURRENT_TIMESTAMP)
\ No newline at end of file
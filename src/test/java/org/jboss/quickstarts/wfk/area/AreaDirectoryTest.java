@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.area;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Checks the bundled area code data and the parsing done by the {@link AreaDirectory}, without a container.</p>
+ */
+public class AreaDirectoryTest {
+
+    private static Area[] areas;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        areas = AreaDirectory.read(AreaDirectoryTest.class.getResourceAsStream(AreaDirectory.DATA_FILE));
+    }
+
+    @Test
+    public void testBundledDataCoversTestNumbers() {
+        assertEquals("New York", areas[212].getState());
+        assertEquals("NY", areas[212].getStateAbbr());
+        assertEquals("California", areas[213].getState());
+        assertEquals("New Jersey", areas[201].getState());
+        assertNull("There is no area code 000", areas[0]);
+    }
+
+    @Test
+    public void testAreaCode() {
+        assertEquals(212, AreaDirectory.areaCode("(212) 555-1212"));
+        assertEquals(213, AreaDirectory.areaCode("(213)555-1212"));
+        assertEquals(-1, AreaDirectory.areaCode("212 555-1212"));
+        assertEquals(-1, AreaDirectory.areaCode("(2a2) 555-1212"));
+        assertEquals(-1, AreaDirectory.areaCode(null));
+    }
+
+    @Test
+    public void testReadSkipsCommentsAndBlankLines() throws IOException {
+        Area[] read = AreaDirectory.read(new ByteArrayInputStream(
+                "# comment\n\n305,FL,Florida\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Florida", read[305].getState());
+        assertEquals(Integer.valueOf(305), read[305].getId());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadRejectsBadLine() throws IOException {
+        AreaDirectory.read(new ByteArrayInputStream("1000,XX,Nowhere\n".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.booking;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.customer.CustomerRestService;
+import org.jboss.quickstarts.wfk.flight.Flight;
+import org.jboss.quickstarts.wfk.flight.FlightRestService;
+import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Books the same Flight on the same date from many threads at once, each Booking in a transaction of its own, and
+ * checks that exactly the Flight's capacity is sold and every other Booking is turned away with 409 Conflict.</p>
+ *
+ * <p>The time taken, and how many Bookings the {@link SeatInventory} turned away in memory rather than in the
+ * database, are logged rather than asserted, as they depend on the machine running the tests.</p>
+ */
+@RunWith(Arquillian.class)
+public class SeatInventoryBenchmarkTest {
+
+    private static final int CAPACITY = 50;
+
+    private static final int THREADS = 16;
+
+    private static final int BOOKINGS_PER_THREAD = 10;
+
+    private static final Logger log = Logger.getLogger(SeatInventoryBenchmarkTest.class.getName());
+
+    /**
+     * <p>Compiles an Archive using Shrinkwrap, containing those external dependencies necessary to run the tests.</p>
+     *
+     * @return Micro test war to be deployed and executed.
+     */
+    @Deployment
+    public static Archive<?> createTestArchive() {
+        File[] libs = Maven.resolver().loadPomFromFile("pom.xml")
+                .resolve(
+                        "io.swagger:swagger-jaxrs:1.5.16"
+        ).withTransitivity().asFile();
+
+        return ShrinkWrap
+                .create(WebArchive.class, "test.war")
+                .addPackages(true, "org.jboss.quickstarts.wfk")
+                .addAsLibraries(libs)
+                .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
+                .addAsWebInfResource("arquillian-ds.xml")
+                .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
+    }
+
+    @Inject
+    BookingRestService bookingRestService;
+
+    @Inject
+    BookingService bookingService;
+
+    @Inject
+    FlightRestService flightRestService;
+
+    @Inject
+    CustomerRestService customerRestService;
+
+    @Inject
+    SeatInventory seats;
+
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService")
+    ManagedExecutorService executor;
+
+    //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
+    private Date date = new Date(498484800000L);
+
+    @Test
+    public void benchmarkContendedBookings() throws Exception {
+        Flight flight = new Flight();
+        flight.setFlightNumber("SI100");
+        flight.setDeparture("GLA");
+        flight.setDestination("BHX");
+        flight.setCapacity(CAPACITY);
+        assertEquals("Unexpected response status", 201, flightRestService.createFlight(flight).getStatus());
+
+        Customer customer = new Customer();
+        customer.setFirstName("Seat");
+        customer.setLastName("Bench");
+        customer.setEmail("seat.bench@mailinator.com");
+        customer.setPhoneNumber("(212) 555-1234");
+        customer.setBirthDate(date);
+        assertEquals("Unexpected response status", 201, customerRestService.createCustomer(customer).getStatus());
+
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger soldOut = new AtomicInteger();
+        long rejectedInMemory = seats.getRejectedInMemory();
+        long rejectedByDatabase = seats.getRejectedByDatabase();
+
+        // Hold every thread at the start line, so that they all contend for the seats together.
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> bookers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            bookers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < BOOKINGS_PER_THREAD; i++) {
+                    Booking booking = new Booking();
+                    booking.setCustomer(customer);
+                    booking.setFlight(flight);
+                    booking.setBookingDate(date);
+                    try {
+                        bookingRestService.createBooking(booking);
+                        created.incrementAndGet();
+                    } catch (RestServiceException e) {
+                        assertEquals("Unexpected response status", Response.Status.CONFLICT, e.getStatus());
+                        soldOut.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        for (Future<?> booker : bookers) {
+            booker.get();
+        }
+        long elapsed = System.nanoTime() - started;
+
+        int attempts = THREADS * BOOKINGS_PER_THREAD;
+        assertEquals("Exactly the Flight's capacity should have been sold", CAPACITY, created.get());
+        assertEquals("Every other Booking should have been turned away", attempts - CAPACITY, soldOut.get());
+        assertEquals("Only the Bookings that were sold a seat should have been written", CAPACITY,
+                bookingService.findPageByFlight(flight.getId(), null, attempts).size());
+
+        log.info(String.format("%d Bookings from %d threads for %d seats: %.1f ms, %d turned away in memory and %d by"
+                        + " the database", attempts, THREADS, CAPACITY, elapsed / 1e6,
+                seats.getRejectedInMemory() - rejectedInMemory, seats.getRejectedByDatabase() - rejectedByDatabase));
+    }
+}
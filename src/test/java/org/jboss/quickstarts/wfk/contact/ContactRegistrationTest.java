@@ -19,7 +19,11 @@ package org.jboss.quickstarts.wfk.contact;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.quickstarts.wfk.util.FieldSelection;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.StatementCounter;
+import org.jboss.quickstarts.wfk.util.StatementCounter.Kind;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -30,9 +34,20 @@ import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.transaction.UserTransaction;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -71,6 +86,7 @@ public class ContactRegistrationTest {
                 .addPackages(true, "org.jboss.quickstarts.wfk")
                 .addAsLibraries(libs)
                 .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
                 .addAsWebInfResource("arquillian-ds.xml")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
     }
@@ -78,9 +94,18 @@ public class ContactRegistrationTest {
     @Inject
     ContactRestService contactRestService;
 
+    @Inject
+    ContactService contactService;
+
+    @Inject
+    UserTransaction userTransaction;
+
     @Inject
     @Named("logger") Logger log;
 
+    @ArquillianResource
+    URL deploymentUrl;
+
     //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
     private Date date = new Date(498484800000L);
 
@@ -136,6 +161,78 @@ public class ContactRegistrationTest {
 
     }
 
+    @Test
+    @InSequence(4)
+    public void testCreateStatementCount() throws Exception {
+        Contact contact = createContactInstance("Kate", "Doe", "kate@mailinator.com", "(212) 555-1234", date);
+
+        StatementCounter.reset();
+        Response response = contactRestService.createContact(contact);
+
+        assertEquals("Unexpected response status", 201, response.getStatus());
+        // Nothing is read back after the INSERT; a Contact id block or a uniqueness check on a filter false positive
+        // account for any other statements.
+        StatementCounter.assertCount(Kind.INSERT, 1);
+        StatementCounter.assertCount(Kind.DELETE, 0);
+        StatementCounter.assertCountAtMost(Kind.ANY, 4);
+        log.info("Created Contact " + contact.getId() + " within the statement limits");
+    }
+
+    @Test
+    @InSequence(5)
+    public void testListAndGetStatementCount() throws Exception {
+        userTransaction.begin();
+        try {
+            StatementCounter.reset();
+            List<Contact> contacts = contactService.findAllOrderedByName();
+            assertFalse("Contacts should have been listed", contacts.isEmpty());
+            StatementCounter.assertCount(Kind.ANY, 1);
+
+            // The revision, then the Contact.
+            Long id = contacts.get(0).getId();
+            StatementCounter.reset();
+            assertNotNull("Contact should have a revision", contactService.findRevision(id));
+            assertNotNull("Contact should be found", contactService.findById(id));
+            StatementCounter.assertCountAtMost(Kind.SELECT, 2);
+            StatementCounter.assertCount(Kind.ANY, StatementCounter.count(Kind.SELECT));
+        } finally {
+            userTransaction.rollback();
+        }
+        log.info("Listed and fetched Contacts within the statement limits");
+    }
+
+    /*
+     * Sent over HTTP, as the list is answered through the request's conditional GET headers, which only a real request
+     * carries.
+     */
+    @Test
+    @InSequence(6)
+    public void testFieldSelection() throws Exception {
+        Client client = ClientBuilder.newClient();
+        try {
+            WebTarget contacts = client.target(deploymentUrl.toURI()).path("api/contacts");
+
+            Response response = contacts.queryParam(FieldSelection.QUERY_PARAM, "email,id")
+                    .request(MediaType.APPLICATION_JSON).get();
+            assertEquals("Unexpected response status", 200, response.getStatus());
+            List<Map<String, Object>> selected = response.readEntity(new GenericType<List<Map<String, Object>>>() {});
+            assertFalse("Contacts should have been listed", selected.isEmpty());
+            for (Map<String, Object> contact : selected) {
+                assertEquals("Only the selected fields should be returned", new HashSet<>(Arrays.asList("id", "email")),
+                        contact.keySet());
+                assertNotNull(contact.get("email"));
+            }
+
+            response = contacts.queryParam(FieldSelection.QUERY_PARAM, "id,password")
+                    .request(MediaType.APPLICATION_JSON).get();
+            assertEquals("Unexpected response status", 400, response.getStatus());
+            assertTrue("The unknown field should be named", response.readEntity(String.class).contains("password"));
+        } finally {
+            client.close();
+        }
+        log.info("Selected the id and email of the Contacts");
+    }
+
     /**
      * <p>A utility method to construct a {@link org.jboss.quickstarts.wfk.contact.Contact Contact} object for use in
      * testing. This object is not persisted.</p>
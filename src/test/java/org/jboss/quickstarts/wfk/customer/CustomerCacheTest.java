@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.customer;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Checks that a {@link CustomerCache} never hands the same Customer to two callers, without a container.</p>
+ */
+public class CustomerCacheTest {
+
+    @Test
+    public void testCallersGetTheirOwnCopy() {
+        CustomerCache cache = new CustomerCache();
+        AtomicInteger loads = new AtomicInteger();
+        Customer stored = createCustomerInstance(7L, "Jane", "Doe", "jane@mailinator.com");
+
+        Customer first = cache.findById(7L, id -> {
+            loads.incrementAndGet();
+            return stored;
+        });
+        Customer second = cache.findById(7L, id -> {
+            loads.incrementAndGet();
+            return stored;
+        });
+
+        assertEquals("The second lookup should be answered from the cache", 1, loads.get());
+        Map<String, Object> byId = cache.getStats().get("byId");
+        assertEquals(1L, byId.get("hits"));
+        assertEquals(1L, byId.get("misses"));
+        assertEquals(1, byId.get("size"));
+        assertNotSame(first, second);
+        assertNotSame("The loaded Customer itself should not be cached", stored, first);
+
+        first.setLastName("Roe");
+        first.getBirthDate().setTime(0);
+        stored.setFirstName("Joan");
+        Customer third = cache.findById(7L, id -> stored);
+        assertEquals("Doe", third.getLastName());
+        assertEquals("Jane", third.getFirstName());
+        assertEquals(498484800000L, third.getBirthDate().getTime());
+    }
+
+    @Test
+    public void testInvalidateDropsBothKeys() {
+        CustomerCache cache = new CustomerCache();
+        Customer stored = createCustomerInstance(7L, "Jane", "Doe", "jane@mailinator.com");
+        cache.findById(7L, id -> stored);
+        cache.findByEmail("jane@mailinator.com", email -> stored);
+
+        Customer changed = createCustomerInstance(7L, "Jane", "Roe", "jane.roe@mailinator.com");
+        cache.invalidate(changed);
+
+        assertEquals("Roe", cache.findById(7L, id -> changed).getLastName());
+        assertNull("The old email should no longer find the Customer",
+                cache.findByEmail("jane@mailinator.com", email -> null));
+    }
+
+    private Customer createCustomerInstance(Long id, String firstName, String lastName, String email) {
+        Customer customer = new Customer();
+        customer.setId(id);
+        customer.setVersion(0L);
+        customer.setFirstName(firstName);
+        customer.setLastName(lastName);
+        customer.setEmail(email);
+        customer.setPhoneNumber("(212) 555-1234");
+        customer.setBirthDate(new Date(498484800000L));
+        return customer;
+    }
+}
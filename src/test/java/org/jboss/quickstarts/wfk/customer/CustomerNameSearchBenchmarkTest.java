@@ -0,0 +1,173 @@
+package org.jboss.quickstarts.wfk.customer;
+
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.transaction.UserTransaction;
+import java.io.File;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Compares the combined first and last name search (see {@link CustomerRepository#findAllByName(String, String)})
+ * with the previous approach of running one query per name and intersecting the results with
+ * {@link List#retainAll(java.util.Collection)}.</p>
+ *
+ * <p>Both approaches are timed against a deliberately large name bucket, every Customer sharing the same last name and
+ * spread over a handful of first names, which is the case where the in-memory intersection hurts most. The timings are
+ * logged rather than asserted, as they depend on the machine running the tests.</p>
+ *
+ * @see CustomerRepository
+ */
+@RunWith(Arquillian.class)
+public class CustomerNameSearchBenchmarkTest {
+
+    private static final int BUCKET_SIZE = 2000;
+
+    private static final String[] FIRST_NAMES = {"Alice", "Bob", "Carol", "Dave"};
+
+    private static final String LAST_NAME = "Bench";
+
+    private static final int ITERATIONS = 20;
+
+    @Deployment
+    public static Archive<?> createTestArchive() {
+        File[] libs = Maven.resolver().loadPomFromFile("pom.xml")
+                .resolve(
+                        "io.swagger:swagger-jaxrs:1.5.16"
+        ).withTransitivity().asFile();
+
+        return ShrinkWrap
+                .create(WebArchive.class, "test.war")
+                .addPackages(true, "org.jboss.quickstarts.wfk")
+                .addAsLibraries(libs)
+                .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
+                .addAsWebInfResource("arquillian-ds.xml")
+                .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
+    }
+
+    @Inject
+    CustomerRepository crud;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    UserTransaction utx;
+
+    @Inject
+    @Named("logger") Logger log;
+
+    //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
+    private Date date = new Date(498484800000L);
+
+    @Test
+    @InSequence(1)
+    public void seedNameBucket() throws Exception {
+        utx.begin();
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            Customer customer = new Customer();
+            customer.setFirstName(FIRST_NAMES[i % FIRST_NAMES.length]);
+            customer.setLastName(LAST_NAME);
+            customer.setEmail("bench" + i + "@mailinator.com");
+            customer.setPhoneNumber("(212) 555-1234");
+            customer.setBirthDate(date);
+            em.persist(customer);
+            if (i % 100 == 99) {
+                em.flush();
+                em.clear();
+            }
+        }
+        utx.commit();
+    }
+
+    @Test
+    @InSequence(2)
+    public void testCombinedSearchMatchesIntersection() throws Exception {
+        List<Customer> intersected = crud.findAllByFirstName(FIRST_NAMES[0]);
+        intersected.retainAll(crud.findAllByLastName(LAST_NAME));
+        List<Customer> combined = crud.findAllByName(FIRST_NAMES[0], LAST_NAME);
+
+        assertEquals("Unexpected number of Customers", BUCKET_SIZE / FIRST_NAMES.length, combined.size());
+        assertEquals("Combined search should return the same Customers", idsOf(intersected), idsOf(combined));
+    }
+
+    @Test
+    @InSequence(3)
+    public void benchmarkNameSearch() throws Exception {
+        // Warm up both paths so the comparison is not dominated by class loading and query plan compilation.
+        runIntersection();
+        runCombined();
+
+        long intersection = 0;
+        long combined = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            intersection += runIntersection();
+            combined += runCombined();
+        }
+
+        log.info(String.format("Name search over a bucket of %d Customers, mean of %d runs: "
+                        + "two queries + retainAll = %.2f ms, single combined query = %.2f ms",
+                BUCKET_SIZE, ITERATIONS, intersection / (ITERATIONS * 1e6), combined / (ITERATIONS * 1e6)));
+    }
+
+    private long runIntersection() {
+        long start = System.nanoTime();
+        List<Customer> customers = crud.findAllByFirstName(FIRST_NAMES[1]);
+        customers.retainAll(crud.findAllByLastName(LAST_NAME));
+        long elapsed = System.nanoTime() - start;
+        em.clear();
+        return elapsed;
+    }
+
+    private long runCombined() {
+        long start = System.nanoTime();
+        crud.findAllByName(FIRST_NAMES[1], LAST_NAME);
+        long elapsed = System.nanoTime() - start;
+        em.clear();
+        return elapsed;
+    }
+
+    private Set<Long> idsOf(List<Customer> customers) {
+        Set<Long> ids = new HashSet<>();
+        for (Customer customer : customers) {
+            ids.add(customer.getId());
+        }
+        return ids;
+    }
+
+}
@@ -20,7 +20,10 @@ package org.jboss.quickstarts.wfk.customer;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.dto.DtoMapper;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.StatementCounter;
+import org.jboss.quickstarts.wfk.util.StatementCounter.Kind;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -31,9 +34,14 @@ import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.transaction.UserTransaction;
 import javax.ws.rs.core.Response;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -72,6 +80,7 @@ public class CustomerRegistrationTest {
                 .addPackages(true, "org.jboss.quickstarts.wfk")
                 .addAsLibraries(libs)
                 .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
                 .addAsWebInfResource("arquillian-ds.xml")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
     }
@@ -79,6 +88,12 @@ public class CustomerRegistrationTest {
     @Inject
     CustomerRestService customerRestService;
 
+    @Inject
+    CustomerService customerService;
+
+    @Inject
+    UserTransaction userTransaction;
+
     @Inject
     @Named("logger") Logger log;
 
@@ -137,6 +152,191 @@ public class CustomerRegistrationTest {
 
     }
 
+    @Test
+    @InSequence(4)
+    public void testBatchImport() throws Exception {
+        List<Customer> customers = Arrays.asList(
+                createCustomerInstance("Anna", "Batch", "anna.batch@mailinator.com", "(212) 555-1234", date),
+                createCustomerInstance("", "Batch", "invalid.batch@mailinator.com", "(212) 555-1234", date),
+                createCustomerInstance("Bert", "Batch", "anna.batch@mailinator.com", "(212) 555-1234", date),
+                createCustomerInstance("Cleo", "Batch", "jane@mailinator.com", "(212) 555-1234", date),
+                null);
+
+        List<CustomerImportResult> results = customerService.importAll(customers,
+                Collections.singletonMap(4, "Malformed JSON"));
+
+        assertEquals("Unexpected number of results", 5, results.size());
+        assertEquals("Valid row should be created", CustomerImportResult.Status.CREATED, results.get(0).getStatus());
+        assertNotNull("Created row should report its id", results.get(0).getId());
+        assertEquals("Invalid row should be rejected", CustomerImportResult.Status.INVALID, results.get(1).getStatus());
+        assertEquals("Email repeated within the batch should conflict",
+                CustomerImportResult.Status.CONFLICT, results.get(2).getStatus());
+        assertEquals("Email already registered should conflict",
+                CustomerImportResult.Status.CONFLICT, results.get(3).getStatus());
+        assertEquals("Unreadable row should be rejected", CustomerImportResult.Status.INVALID, results.get(4).getStatus());
+        log.info("Batch import of " + results.size() + " rows created " + results.get(0).getId());
+    }
+
+    @Test
+    @InSequence(5)
+    public void testListStatementCount() throws Exception {
+        // Enough Customers that reading their Bookings one Customer at a time would break the limits below.
+        List<Customer> load = new ArrayList<>();
+        for (char c = 'A'; c <= 'T'; c++) {
+            load.add(createCustomerInstance("Load" + c, "List", "load" + c + "@mailinator.com", "(212) 555-1234", date));
+        }
+        customerService.importAll(load, Collections.<Integer, String>emptyMap());
+
+        userTransaction.begin();
+        try {
+            StatementCounter.reset();
+            List<Customer> customers = customerService.findAllOrderedByName();
+            DtoMapper.toCustomers(customerService.fetchGraph(customers, Customer.GRAPH_SUMMARY), DtoMapper.DEFAULT_DEPTH);
+            assertTrue("Unexpected number of customers", customers.size() > load.size());
+            StatementCounter.assertCount(Kind.ANY, 1);
+
+            // The Bookings are read for up to 50 Customers at a time, the remainder in a few smaller batches.
+            StatementCounter.reset();
+            DtoMapper.toCustomers(customerService.fetchGraph(customers, Customer.GRAPH_WITH_BOOKINGS),
+                    DtoMapper.DEFAULT_DEPTH);
+            StatementCounter.assertCountAtMost(Kind.SELECT, customers.size() / 50 + 4);
+            StatementCounter.assertCount(Kind.ANY, StatementCounter.count(Kind.SELECT));
+        } finally {
+            userTransaction.rollback();
+        }
+        log.info("Listed Customers within the statement limits");
+    }
+
+    @Test
+    @InSequence(6)
+    public void testGetStatementCount() throws Exception {
+        Long id = customerService.findByEmail("jack@mailinator.com").getId();
+
+        userTransaction.begin();
+        try {
+            // The revision, then the Customer unless the cache already holds it.
+            StatementCounter.reset();
+            assertNotNull("Customer should have a revision", customerService.findRevision(id));
+            DtoMapper.toCustomer(customerService.findById(id, Customer.GRAPH_SUMMARY), DtoMapper.DEFAULT_DEPTH);
+            StatementCounter.assertCountAtMost(Kind.SELECT, 2);
+            StatementCounter.assertCount(Kind.ANY, StatementCounter.count(Kind.SELECT));
+
+            // The revision, then the Customer and its Bookings in one query.
+            StatementCounter.reset();
+            assertNotNull("Customer should have a revision", customerService.findRevision(id));
+            DtoMapper.toCustomer(customerService.findById(id, Customer.GRAPH_WITH_BOOKINGS), DtoMapper.DEFAULT_DEPTH);
+            StatementCounter.assertCountAtMost(Kind.SELECT, 2);
+            StatementCounter.assertCount(Kind.ANY, StatementCounter.count(Kind.SELECT));
+        } finally {
+            userTransaction.rollback();
+        }
+        log.info("Fetched Customer " + id + " within the statement limits");
+    }
+
+    @Test
+    @InSequence(7)
+    public void testCreateStatementCount() throws Exception {
+        Customer customer = createCustomerInstance("Kate", "Doe", "kate@mailinator.com", "(212) 555-1234", date);
+
+        StatementCounter.reset();
+        Response response = customerRestService.createCustomer(customer);
+
+        assertEquals("Unexpected response status", 201, response.getStatus());
+        // The INSERT is the only write. A sequence call when the block of Customer ids runs out, and a SELECT when the
+        // email filter cannot rule kate@ out, are all that may come with it.
+        StatementCounter.assertCount(Kind.INSERT, 1);
+        StatementCounter.assertCount(Kind.DELETE, 0);
+        StatementCounter.assertCountAtMost(Kind.ANY, 4);
+        log.info("Created Customer " + customer.getId() + " within the statement limits");
+    }
+
+    @Test
+    @InSequence(8)
+    public void testUpdateIfMatch() throws Exception {
+        Customer stored = customerService.findByEmail("kate@mailinator.com");
+        long id = stored.getId();
+        long version = stored.getVersion();
+
+        Customer customer = createCustomerInstance("Kate", "Roe", "kate@mailinator.com", "(212) 555-1234", date);
+        customer.setId(id);
+        assertTrue("The Customer should be updated at the version read", customerService.update(customer, version));
+        assertEquals("Kate Roe should now be at the next version", String.valueOf(version + 1),
+                customerService.findRevision(id).getVersions());
+
+        // The ETag read before the update no longer matches.
+        customer.setLastName("Poe");
+        try {
+            customerRestService.updateCustomer(id, "\"" + id + "-" + version + "\"", customer);
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.PRECONDITION_FAILED, e.getStatus());
+        }
+
+        // Neither does a weak tag, nor one of another Customer.
+        for (String ifMatch : Arrays.asList("W/\"" + id + "-" + (version + 1) + "\"", "\"" + (id + 1) + "-0\"")) {
+            try {
+                customerRestService.updateCustomer(id, ifMatch, customer);
+                fail("Expected a RestServiceException to be thrown for " + ifMatch);
+            } catch (RestServiceException e) {
+                assertEquals("Unexpected response status", Response.Status.PRECONDITION_FAILED, e.getStatus());
+            }
+        }
+
+        // A Customer that does not exist is 404, whatever the tag.
+        Customer missing = createCustomerInstance("Kate", "Poe", "kate.poe@mailinator.com", "(212) 555-1234", date);
+        missing.setId(Long.MAX_VALUE);
+        try {
+            customerRestService.updateCustomer(Long.MAX_VALUE, "\"" + Long.MAX_VALUE + "-0\"", missing);
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.NOT_FOUND, e.getStatus());
+        }
+
+        assertEquals("The refused updates should have left the Customer alone", "Roe",
+                customerService.findById(id).getLastName());
+        log.info("Updates of Customer " + id + " honoured If-Match");
+    }
+
+    @Test
+    @InSequence(9)
+    public void testKeysetPaging() throws Exception {
+        List<Long> expected = new ArrayList<>();
+        for (Customer customer : customerService.findAllOrderedByName()) {
+            expected.add(customer.getId());
+        }
+        assertTrue("There should be more than one page of Customers", expected.size() > 7);
+
+        // Page through seven at a time as the REST service does, asking for one more to learn whether a page follows.
+        List<Long> paged = new ArrayList<>();
+        CustomerCursor after = null;
+        while (true) {
+            List<Customer> page = customerService.findPageOrderedByName(after, 8);
+            for (Customer customer : page.subList(0, Math.min(7, page.size()))) {
+                paged.add(customer.getId());
+            }
+            if (page.size() <= 7) {
+                break;
+            }
+            after = CustomerCursor.decode(CustomerCursor.after(page.get(6)).encode());
+        }
+        assertEquals("The pages should hold every Customer once, in name order", expected, paged);
+
+        try {
+            CustomerCursor.decode("bm90IGEgY3Vyc29y");
+            fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            log.info("A foreign cursor was refused: " + e.getMessage());
+        }
+
+        try {
+            customerRestService.retrieveAllContacts("Kate", null, null, 10, null, null);
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.BAD_REQUEST, e.getStatus());
+        }
+        log.info("Paged through " + paged.size() + " Customers");
+    }
+
     /**
      * <p>A utility method to construct a {@link org.jboss.quickstarts.wfk.customer.Customer Customer} object for use in
      * testing. This object is not persisted.</p>
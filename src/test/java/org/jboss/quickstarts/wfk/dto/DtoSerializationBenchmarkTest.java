@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.dto;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.flight.Flight;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Compares writing Customers with their Bookings through the {@link DtoMapper} against writing the entities
+ * directly, which is what the REST services did before.</p>
+ *
+ * <p>The graph is built in memory, so no container is needed. Both paths are warmed up before being timed, and the
+ * timings are logged rather than asserted, as they depend on the machine running the tests. The sizes written do not,
+ * so the DTOs are checked to be the smaller.</p>
+ */
+public class DtoSerializationBenchmarkTest {
+
+    private static final int CUSTOMERS = 500;
+
+    private static final int FLIGHTS = 50;
+
+    private static final int BOOKINGS_PER_CUSTOMER = 8;
+
+    private static final int WARMUP = 20;
+
+    private static final int ITERATIONS = 50;
+
+    private static final Logger log = Logger.getLogger(DtoSerializationBenchmarkTest.class.getName());
+
+    private static final ObjectMapper MAPPER = new JacksonConfig().getContext(Object.class);
+
+    private static List<Customer> customers;
+
+    @BeforeClass
+    public static void buildGraph() {
+        //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
+        Date date = new Date(498484800000L);
+
+        List<Flight> flights = new ArrayList<>();
+        for (int i = 0; i < FLIGHTS; i++) {
+            Flight flight = new Flight();
+            flight.setId((long) i);
+            flight.setFlightNumber("F" + (1000 + i));
+            flight.setDeparture("LHR");
+            flight.setDestination("JFK");
+            flight.setBookings(new ArrayList<>());
+            flights.add(flight);
+        }
+
+        customers = new ArrayList<>();
+        long bookingId = 0;
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = new Customer();
+            customer.setId((long) i);
+            customer.setFirstName("Bench");
+            customer.setLastName("Customer");
+            customer.setEmail("bench" + i + "@mailinator.com");
+            customer.setPhoneNumber("(212) 555-1234");
+            customer.setBirthDate(date);
+            customer.setBookings(new ArrayList<>());
+
+            for (int j = 0; j < BOOKINGS_PER_CUSTOMER; j++) {
+                Flight flight = flights.get((i + j) % FLIGHTS);
+                Booking booking = new Booking();
+                booking.setId(bookingId++);
+                booking.setCustomer(customer);
+                booking.setFlight(flight);
+                booking.setBookingDate(date);
+                customer.getBookings().add(booking);
+                flight.getBookings().add(booking);
+            }
+            customers.add(customer);
+        }
+    }
+
+    @Test
+    public void testDepthIsBounded() throws Exception {
+        JsonNode customer = MAPPER.readTree(MAPPER.writeValueAsBytes(
+                DtoMapper.toCustomer(customers.get(0), DtoMapper.DEFAULT_DEPTH)));
+        JsonNode booking = customer.get("bookings").get(0);
+
+        assertEquals(BOOKINGS_PER_CUSTOMER, customer.get("bookings").size());
+        assertEquals(0L, booking.get("customerId").asLong());
+        assertNotNull("Booking should refer to its Flight by id", booking.get("flightId"));
+        assertNull("Booking should not nest the Customer it belongs to", booking.get("customer"));
+        assertNull("Flight should not be nested beyond the default depth", booking.get("flight"));
+
+        JsonNode deep = MAPPER.readTree(MAPPER.writeValueAsBytes(DtoMapper.toCustomer(customers.get(0), 100)));
+        JsonNode flight = deep.get("bookings").get(0).get("flight");
+        assertNotNull("Flight should be nested at the maximum depth", flight);
+        assertNull("Nested Flight should not carry its Bookings", flight.get("bookings"));
+    }
+
+    @Test
+    public void benchmarkSerialization() throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            writeEntities();
+            writeDtos();
+        }
+
+        long entities = 0;
+        long dtos = 0;
+        int entityBytes = 0;
+        int dtoBytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            entityBytes = writeEntities();
+            entities += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            dtoBytes = writeDtos();
+            dtos += System.nanoTime() - start;
+        }
+
+        log.info(String.format("Writing %d Customers with %d Bookings each, mean of %d runs: "
+                        + "entities = %.2f ms (%d bytes), DTOs = %.2f ms (%d bytes)",
+                CUSTOMERS, BOOKINGS_PER_CUSTOMER, ITERATIONS,
+                entities / (ITERATIONS * 1e6), entityBytes, dtos / (ITERATIONS * 1e6), dtoBytes));
+        assertTrue("The DTOs should be smaller than the entities", dtoBytes < entityBytes);
+    }
+
+    private int writeEntities() throws Exception {
+        return MAPPER.writeValueAsBytes(customers).length;
+    }
+
+    private int writeDtos() throws Exception {
+        return MAPPER.writeValueAsBytes(DtoMapper.toCustomers(customers, DtoMapper.DEFAULT_DEPTH)).length;
+    }
+
+}
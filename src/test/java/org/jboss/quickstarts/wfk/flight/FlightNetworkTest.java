@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.flight;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Tests the Itinerary search over a {@link FlightNetwork}, and that the Itineraries cached by the
+ * {@link FlightRouteIndex} follow changes to the routes. The network is built in memory, so no container is
+ * needed.</p>
+ */
+public class FlightNetworkTest {
+
+    private static FlightRouteIndex index() {
+        FlightRouteIndex index = new FlightRouteIndex();
+        index.build(Arrays.asList(
+                new Object[] {1L, "CHI", "BRI"},
+                new Object[] {2L, "CHI", "BRI"},
+                new Object[] {3L, "CHI", "NYC"},
+                new Object[] {4L, "NYC", "BRI"},
+                new Object[] {5L, "NYC", "LON"},
+                new Object[] {6L, "LON", "BRI"},
+                new Object[] {7L, "BRI", "CHI"}));
+        return index;
+    }
+
+    private static List<List<String>> airports(List<Itinerary> itineraries) {
+        return itineraries.stream().map(Itinerary::getAirports).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testFewestLegsFirst() {
+        FlightNetwork network = index().getNetwork();
+        assertEquals(4, network.getAirportCount());
+        assertEquals(6, network.getRouteCount());
+
+        List<Itinerary> itineraries = network.search("CHI", "BRI", 4, 10);
+        assertEquals(Arrays.asList(
+                Arrays.asList("CHI", "BRI"),
+                Arrays.asList("CHI", "NYC", "BRI"),
+                Arrays.asList("CHI", "NYC", "LON", "BRI")), airports(itineraries));
+        assertEquals("Every Flight on a route should be offered", Arrays.asList(1L, 2L),
+                itineraries.get(0).getLegs().get(0).getFlightIds());
+        assertEquals(Arrays.asList(5L), itineraries.get(2).getLegs().get(1).getFlightIds());
+    }
+
+    @Test
+    public void testLimits() {
+        FlightNetwork network = index().getNetwork();
+        assertEquals(2, network.search("CHI", "BRI", 2, 10).size());
+        assertEquals(Arrays.asList(Arrays.asList("CHI", "BRI")), airports(network.search("CHI", "BRI", 4, 1)));
+
+        // Going back through CHI is not allowed, so NYC is two legs from BRI, and never four.
+        assertEquals(Arrays.asList(Arrays.asList("BRI", "CHI", "NYC")), airports(network.search("BRI", "NYC", 4, 10)));
+        assertTrue(network.search("LON", "NYC", 1, 10).isEmpty());
+        assertTrue(network.search("CHI", "XXX", 4, 10).isEmpty());
+        assertTrue(network.search("CHI", "CHI", 4, 10).isEmpty());
+    }
+
+    @Test
+    public void testCachedItinerariesFollowChanges() {
+        FlightRouteIndex index = index();
+        assertEquals(3, index.findItineraries("CHI", "BRI").size());
+        assertSame("The Itineraries should be cached", index.findItineraries("CHI", "BRI"),
+                index.findItineraries("CHI", "BRI"));
+
+        // Moving the only NYC to BRI Flight leaves one way through NYC.
+        Flight flight = new Flight();
+        flight.setId(4L);
+        flight.setDeparture("NYC");
+        flight.setDestination("MAD");
+        index.put(flight);
+        assertEquals(Arrays.asList(
+                Arrays.asList("CHI", "BRI"),
+                Arrays.asList("CHI", "NYC", "LON", "BRI")), airports(index.findItineraries("CHI", "BRI")));
+        assertEquals(Arrays.asList(4L), index.find("NYC", "MAD"));
+        assertTrue(index.find("NYC", "BRI").isEmpty());
+    }
+}
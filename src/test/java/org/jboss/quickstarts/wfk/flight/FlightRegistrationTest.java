@@ -21,7 +21,11 @@ package org.jboss.quickstarts.wfk.flight;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.jboss.quickstarts.wfk.dto.DtoMapper;
 import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.StatementCounter;
+import org.jboss.quickstarts.wfk.util.StatementCounter.Kind;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -32,9 +36,24 @@ import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.transaction.UserTransaction;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.File;
+import java.net.URL;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -73,6 +92,7 @@ public class FlightRegistrationTest {
                 .addPackages(true, "org.jboss.quickstarts.wfk")
                 .addAsLibraries(libs)
                 .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
                 .addAsWebInfResource("arquillian-ds.xml")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
     }
@@ -80,6 +100,18 @@ public class FlightRegistrationTest {
     @Inject
     FlightRestService flightRestService;
 
+    @Inject
+    FlightService flightService;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    @Inject
+    EntityManager em;
+
+    @ArquillianResource
+    URL deploymentUrl;
+
     @Inject
     @Named("logger") Logger log;
 
@@ -138,6 +170,126 @@ public class FlightRegistrationTest {
 
     }
 
+    @Test
+    @InSequence(4)
+    public void testCreateStatementCount() throws Exception {
+        Flight flight = createFlightInstance("LHR", "JFK", "BA117");
+
+        StatementCounter.reset();
+        Response response = flightRestService.createFlight(flight);
+
+        assertEquals("Unexpected response status", 201, response.getStatus());
+        // Flight numbers are left to the unique constraint rather than looked up, so besides the INSERT there is at
+        // most the sequence call for a new block of ids.
+        StatementCounter.assertCount(Kind.INSERT, 1);
+        StatementCounter.assertCount(Kind.DELETE, 0);
+        StatementCounter.assertCountAtMost(Kind.ANY, 3);
+        log.info("Created Flight " + flight.getId() + " within the statement limits");
+    }
+
+    @Test
+    @InSequence(5)
+    public void testListStatementCount() throws Exception {
+        userTransaction.begin();
+        try {
+            StatementCounter.reset();
+            List<Flight> flights = flightService.findAllOrderedByName();
+            DtoMapper.toFlights(flightService.fetchGraph(flights, Flight.GRAPH_SUMMARY), DtoMapper.DEFAULT_DEPTH);
+            assertFalse("Flights should have been listed", flights.isEmpty());
+            StatementCounter.assertCount(Kind.ANY, 1);
+
+            // The Bookings are read for up to 50 Flights at a time, the remainder in a few smaller batches.
+            StatementCounter.reset();
+            DtoMapper.toFlights(flightService.fetchGraph(flights, Flight.GRAPH_WITH_BOOKINGS), DtoMapper.DEFAULT_DEPTH);
+            StatementCounter.assertCountAtMost(Kind.SELECT, flights.size() / 50 + 4);
+            StatementCounter.assertCount(Kind.ANY, StatementCounter.count(Kind.SELECT));
+        } finally {
+            userTransaction.rollback();
+        }
+        log.info("Listed Flights within the statement limits");
+    }
+
+    @Test
+    @InSequence(6)
+    public void testFindByRoute() throws Exception {
+        Flight flight = createFlightInstance("MAN", "DUB", "EI203");
+        flightRestService.createFlight(flight);
+
+        List<Flight> flights = flightService.findAllByRoute("MAN", "DUB");
+        assertEquals("The new Flight should be on its route once created", 1, flights.size());
+        assertEquals("EI203", flights.get(0).getFlightNumber());
+
+        // Sent over HTTP, as the response is tagged from the request, which only a real request carries. No version is
+        // given, yet the response should still hold the version written, for the client's next If-Match.
+        Map<String, Object> body = new HashMap<>();
+        body.put("id", flight.getId());
+        body.put("flightNumber", "EI203");
+        body.put("departure", "MAN");
+        body.put("destination", "ORK");
+        Client client = ClientBuilder.newClient();
+        try {
+            Invocation.Builder put = client.target(deploymentUrl.toURI()).path("api/flights/" + flight.getId())
+                    .request(MediaType.APPLICATION_JSON);
+            Response response = put.put(Entity.json(body));
+            assertEquals("Unexpected response status", 200, response.getStatus());
+            Map<String, Object> updated = response.readEntity(new GenericType<Map<String, Object>>() {});
+            assertNotNull("The version written should be returned", updated.get("version"));
+            EntityTag tag = response.getEntityTag();
+            assertNotNull("The response should be tagged", tag);
+            assertEquals(flight.getId() + "-" + updated.get("version"), tag.getValue());
+
+            response = put.header(HttpHeaders.IF_MATCH, tag.toString()).put(Entity.json(body));
+            assertEquals("The tag returned should be accepted in If-Match", 200, response.getStatus());
+            response.close();
+        } finally {
+            client.close();
+        }
+
+        assertTrue("The Flight should have left its old route", flightService.findAllByRoute("MAN", "DUB").isEmpty());
+        flights = flightService.findAllByRoute("MAN", "ORK");
+        assertEquals("The Flight should be on its new route once updated", 1, flights.size());
+        assertEquals(flight.getId(), flights.get(0).getId());
+
+        try {
+            flightRestService.retrieveAllFlights(null, "MAN", null, null, null);
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.BAD_REQUEST, e.getStatus());
+        }
+        log.info("Found Flights by route");
+    }
+
+    @Test
+    @InSequence(7)
+    public void testSecondLevelCache() throws Exception {
+        Flight flight = createFlightInstance("GLA", "BHD", "BE811");
+        flightRestService.createFlight(flight);
+        Long id = flight.getId();
+        Cache cache = em.getEntityManagerFactory().getCache();
+        cache.evict(Flight.class, id);
+
+        // Each find has a persistence context of its own, so only the second-level cache can spare the read.
+        userTransaction.begin();
+        try {
+            StatementCounter.reset();
+            assertNotNull("Flight should be found", flightService.findById(id));
+            StatementCounter.assertCount(Kind.SELECT, "flight", 1);
+        } finally {
+            userTransaction.commit();
+        }
+        assertTrue("The Flight read should have been cached", cache.contains(Flight.class, id));
+
+        userTransaction.begin();
+        try {
+            StatementCounter.reset();
+            assertEquals("BE811", flightService.findById(id).getFlightNumber());
+            StatementCounter.assertCount(Kind.ANY, 0);
+        } finally {
+            userTransaction.commit();
+        }
+        log.info("Found Flight " + id + " in the second-level cache");
+    }
+
     /**
      * <p>A utility method to construct a {@link org.jboss.quickstarts.wfk.flight.Flight Flight} object for use in
      * testing. This object is not persisted.</p>
@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.guestbooking;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.booking.SoldOutException;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.flight.Flight;
+import org.jboss.quickstarts.wfk.flight.FlightRestService;
+import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.quickstarts.wfk.util.StatementCounter;
+import org.jboss.quickstarts.wfk.util.StatementCounter.Kind;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>A suite of tests, run with {@link org.jboss.arquillian Arquillian} to test the JAX-RS endpoint for
+ * GuestBooking creation functionality
+ * (see {@link GuestBookingRestService#createGuestBooking(GuestBooking) createGuestBooking(GuestBooking)}).<p/>
+ *
+ * @see GuestBookingRestService
+ */
+@RunWith(Arquillian.class)
+public class GuestBookingRegistrationTest {
+
+    /**
+     * <p>Compiles an Archive using Shrinkwrap, containing those external dependencies necessary to run the tests.</p>
+     *
+     * @return Micro test war to be deployed and executed.
+     */
+    @Deployment
+    public static Archive<?> createTestArchive() {
+        File[] libs = Maven.resolver().loadPomFromFile("pom.xml")
+                .resolve(
+                        "io.swagger:swagger-jaxrs:1.5.16"
+        ).withTransitivity().asFile();
+
+        return ShrinkWrap
+                .create(WebArchive.class, "test.war")
+                .addPackages(true, "org.jboss.quickstarts.wfk")
+                .addAsLibraries(libs)
+                .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
+                .addAsWebInfResource("arquillian-ds.xml")
+                .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
+    }
+
+    @Inject
+    GuestBookingRestService guestBookingRestService;
+
+    @Inject
+    FlightRestService flightRestService;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    @Named("logger") Logger log;
+
+    //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
+    private Date date = new Date(498484800000L);
+
+    @Test
+    @InSequence(1)
+    public void testRegisterStatementCount() throws Exception {
+        Flight flight = new Flight();
+        flight.setFlightNumber("GB100");
+        flight.setDeparture("EDI");
+        flight.setDestination("LHR");
+        assertEquals("Unexpected response status", 201, flightRestService.createFlight(flight).getStatus());
+
+        Customer customer = new Customer();
+        customer.setFirstName("Gail");
+        customer.setLastName("Guest");
+        customer.setEmail("gail.guest@mailinator.com");
+        customer.setPhoneNumber("(212) 555-1234");
+        customer.setBirthDate(date);
+
+        Booking booking = new Booking();
+        booking.setFlight(flight);
+        booking.setBookingDate(date);
+
+        GuestBooking guestBooking = new GuestBooking();
+        guestBooking.setCustomer(customer);
+        guestBooking.setBooking(booking);
+
+        StatementCounter.reset();
+        Response response = guestBookingRestService.createGuestBooking(guestBooking);
+
+        assertEquals("Unexpected response status", 201, response.getStatus());
+        // One insert each for the Customer and the Booking, and one for the seats sold on the Flight that day, as this is
+        // its first Booking; one conditional update sells the seat.
+        StatementCounter.assertCount(Kind.INSERT, 3);
+        StatementCounter.assertCount(Kind.UPDATE, 1);
+        StatementCounter.assertCount(Kind.DELETE, 0);
+        // The seats sold are read when the counter is loaded, before and after the row is created, and by the creator
+        // itself; an email the filter cannot rule out adds one more read.
+        StatementCounter.assertCount(Kind.SELECT, "flight_seats", 3);
+        StatementCounter.assertCountAtMost(Kind.SELECT, 4);
+        // The Flight's capacity comes from the second-level cache, which creating the Flight filled.
+        StatementCounter.assertCount(Kind.SELECT, "flight", 0);
+        // At most one sequence call each for the Customer, FlightSeats and Booking ids.
+        StatementCounter.assertCountAtMost(Kind.OTHER, 3);
+        StatementCounter.assertCountAtMost(Kind.ANY, 11);
+        log.info("Created guest booking " + booking.getId() + " within the statement limits");
+    }
+
+    @Test
+    @InSequence(2)
+    public void testSoldOut() throws Exception {
+        Flight flight = new Flight();
+        flight.setFlightNumber("GB101");
+        flight.setDeparture("EDI");
+        flight.setDestination("LGW");
+        flight.setCapacity(1);
+        assertEquals("Unexpected response status", 201, flightRestService.createFlight(flight).getStatus());
+
+        Response response = guestBookingRestService.createGuestBooking(
+                createGuestBookingInstance("Gina", "gina.guest@mailinator.com", flight));
+        assertEquals("Unexpected response status", 201, response.getStatus());
+
+        try {
+            guestBookingRestService.createGuestBooking(createGuestBookingInstance("Gus", "gus.guest@mailinator.com", flight));
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.CONFLICT, e.getStatus());
+            assertTrue("Unexpected error. Should be sold out", e.getCause() instanceof SoldOutException);
+            assertEquals("Unexpected response body", 1, e.getReasons().size());
+        }
+
+        // The Customer was created in the same transaction as the refused Booking, so it was rolled back with it.
+        assertEquals("The guest should not have been left behind", Long.valueOf(0),
+                em.createQuery("SELECT COUNT(c) FROM Customer c WHERE c.email = :email", Long.class)
+                        .setParameter("email", "gus.guest@mailinator.com").getSingleResult());
+        log.info("A guest booking on sold out Flight " + flight.getId() + " was refused");
+    }
+
+    private GuestBooking createGuestBookingInstance(String firstName, String email, Flight flight) {
+        Customer customer = new Customer();
+        customer.setFirstName(firstName);
+        customer.setLastName("Guest");
+        customer.setEmail(email);
+        customer.setPhoneNumber("(212) 555-1234");
+        customer.setBirthDate(date);
+
+        Booking booking = new Booking();
+        booking.setFlight(flight);
+        booking.setBookingDate(date);
+
+        GuestBooking guestBooking = new GuestBooking();
+        guestBooking.setCustomer(customer);
+        guestBooking.setBooking(booking);
+        return guestBooking;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent;
+
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Serves catalogues from a {@link CommodityCatalogue} whose upstream reads are answered by the test, and checks
+ * that callers share reads and are answered from the cache, without a container.</p>
+ */
+public class CommodityCatalogueTest {
+
+    /**
+     * <p>A catalogue whose reads stay in flight until the test answers them.</p>
+     */
+    private static final class ScriptedCatalogue extends CommodityCatalogue {
+
+        final List<CompletableFuture<String>> reads = new ArrayList<>();
+
+        @Override
+        CompletableFuture<String> read(Commodity commodity, Consumer<String> onRead) {
+            CompletableFuture<String> read = new CompletableFuture<>();
+            reads.add(read);
+            return read.thenApply(json -> {
+                onRead.accept(json);
+                return json;
+            });
+        }
+    }
+
+    @Test
+    public void testBurstSharesOneRead() throws Exception {
+        ScriptedCatalogue catalogue = new ScriptedCatalogue();
+
+        List<CompletableFuture<String>> answers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            answers.add(catalogue.get(Commodity.HOTEL));
+        }
+        assertEquals("Callers with no catalogue should wait for the same read", 1, catalogue.reads.size());
+        assertFalse(answers.get(0).isDone());
+
+        catalogue.reads.get(0).complete("[{\"id\":1}]");
+        for (CompletableFuture<String> answer : answers) {
+            assertEquals("[{\"id\":1}]", answer.getNow(null));
+        }
+
+        Map<String, Long> stats = catalogue.getStats().get("hotels");
+        assertEquals(Long.valueOf(3), stats.get("waited"));
+        assertEquals(Long.valueOf(1), stats.get("reads"));
+    }
+
+    @Test
+    public void testFreshCatalogueIsServedFromTheCache() {
+        ScriptedCatalogue catalogue = new ScriptedCatalogue();
+        catalogue.get(Commodity.TAXI);
+        catalogue.reads.get(0).complete("[]");
+
+        CompletableFuture<String> answer = catalogue.get(Commodity.TAXI);
+        assertEquals("A fresh catalogue should be answered straight away", "[]", answer.getNow(null));
+        assertEquals("without reading it again", 1, catalogue.reads.size());
+        assertEquals(Long.valueOf(1), catalogue.getStats().get("taxis").get("fresh"));
+
+        // Each commodity has its own catalogue.
+        catalogue.get(Commodity.HOTEL);
+        assertEquals(2, catalogue.reads.size());
+    }
+
+    @Test
+    public void testFailedReadWithNoCatalogue() throws Exception {
+        ScriptedCatalogue catalogue = new ScriptedCatalogue();
+        CompletableFuture<String> answer = catalogue.get(Commodity.FLIGHT);
+        catalogue.reads.get(0).completeExceptionally(new ProcessingException("down"));
+
+        try {
+            answer.get();
+            fail("Expected the read to fail, as there is no catalogue to fall back on");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ProcessingException);
+        }
+        assertEquals(Long.valueOf(1), catalogue.getStats().get("flights").get("failures"));
+        assertNull(catalogue.getStats().get("flights").get("ageMillis"));
+
+        // Nothing was cached, so the next caller starts another read.
+        catalogue.get(Commodity.FLIGHT);
+        assertEquals(2, catalogue.reads.size());
+    }
+}
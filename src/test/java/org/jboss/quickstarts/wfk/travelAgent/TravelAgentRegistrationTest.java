@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.util.RestServiceException;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>A suite of tests, run with {@link org.jboss.arquillian Arquillian} to test the asynchronous JAX-RS endpoint for
+ * TravelAgent creation (see {@link TravelAgentRestService#createTravelAgent(AsyncResponse, TravelAgent)}).</p>
+ *
+ * <p>No upstream commodity service is configured in the test deployment, so a trip has no legs to book and is written
+ * as soon as it is valid.</p>
+ *
+ * @see TravelAgentRestService
+ */
+@RunWith(Arquillian.class)
+public class TravelAgentRegistrationTest {
+
+    @Deployment
+    public static Archive<?> createTestArchive() {
+        File[] libs = Maven.resolver().loadPomFromFile("pom.xml")
+                .resolve(
+                        "io.swagger:swagger-jaxrs:1.5.16"
+        ).withTransitivity().asFile();
+
+        return ShrinkWrap
+                .create(WebArchive.class, "test.war")
+                .addPackages(true, "org.jboss.quickstarts.wfk")
+                .addAsLibraries(libs)
+                .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
+                .addAsWebInfResource("arquillian-ds.xml")
+                .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
+    }
+
+    @Inject
+    TravelAgentRestService travelAgentRestService;
+
+    @Inject
+    TravelAgentService travelAgentService;
+
+    @Inject
+    @Named("logger") Logger log;
+
+    //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
+    private Date date = new Date(498484800000L);
+
+    @Test
+    @InSequence(1)
+    public void testAsyncCreate() throws Exception {
+        TravelAgent travelAgent = createTravelAgentInstance(10001, date);
+        SuspendedResponse suspended = new SuspendedResponse();
+
+        travelAgentRestService.createTravelAgent(suspended, travelAgent);
+
+        Object resumed = suspended.outcome.get(10, TimeUnit.SECONDS);
+        assertTrue("Unexpected outcome " + resumed, resumed instanceof Response);
+        Response response = (Response) resumed;
+        assertEquals("Unexpected response status", 201, response.getStatus());
+        TravelAgent written = (TravelAgent) response.getEntity();
+        assertNotNull("The TravelAgent should have been given an id", written.getId());
+        assertNotNull("The TravelAgent should have been written", travelAgentService.findById(written.getId()));
+        assertEquals("The request should have been given a timeout", TravelAgentRestService.CREATE_TIMEOUT_MILLIS,
+                suspended.timeoutMillis);
+        log.info("TravelAgent " + written.getId() + " was created asynchronously");
+    }
+
+    @Test
+    @InSequence(2)
+    public void testAsyncCreateTimeoutAfterWrite() throws Exception {
+        TravelAgent travelAgent = createTravelAgentInstance(10002, date);
+        SuspendedResponse suspended = new SuspendedResponse();
+
+        travelAgentRestService.createTravelAgent(suspended, travelAgent);
+        Response response = (Response) suspended.outcome.get(10, TimeUnit.SECONDS);
+        assertEquals(201, response.getStatus());
+
+        // A timeout that fires once the write has started cannot call the trip off; it only waits longer.
+        suspended.timeoutHandler.handleTimeout(suspended);
+        assertEquals("The TravelAgent should not have been resumed twice", 1, suspended.resumes);
+        assertNotNull(travelAgentService.findById(((TravelAgent) response.getEntity()).getId()));
+    }
+
+    @Test
+    @InSequence(3)
+    public void testInvalidAsyncCreate() {
+        TravelAgent travelAgent = createTravelAgentInstance(10001, null);
+        SuspendedResponse suspended = new SuspendedResponse();
+
+        try {
+            travelAgentRestService.createTravelAgent(suspended, travelAgent);
+            fail("Expected a RestServiceException to be thrown");
+        } catch (RestServiceException e) {
+            assertEquals("Unexpected response status", Response.Status.BAD_REQUEST, e.getStatus());
+            assertEquals("Unexpected response body", 1, e.getReasons().size());
+        }
+        assertFalse("An invalid TravelAgent is refused before the request is suspended", suspended.outcome.isDone());
+        assertNull("No timeout should have been set", suspended.timeoutHandler);
+    }
+
+    private TravelAgent createTravelAgentInstance(int customerId, Date bookingDate) {
+        TravelAgent travelAgent = new TravelAgent();
+        travelAgent.setCustomerId(customerId);
+        travelAgent.setHotelId(1);
+        travelAgent.setFlightId(10007);
+        travelAgent.setTaxiId(1);
+        travelAgent.setBookingDate(bookingDate);
+        return travelAgent;
+    }
+
+    /**
+     * <p>Stands in for the container's suspended request, recording how it is resumed and its timeout.</p>
+     */
+    private static final class SuspendedResponse implements AsyncResponse {
+
+        final CompletableFuture<Object> outcome = new CompletableFuture<>();
+
+        volatile int resumes;
+
+        volatile long timeoutMillis;
+
+        volatile TimeoutHandler timeoutHandler;
+
+        @Override
+        public synchronized boolean resume(Object response) {
+            resumes++;
+            return outcome.complete(response);
+        }
+
+        @Override
+        public synchronized boolean resume(Throwable response) {
+            resumes++;
+            return outcome.complete(response);
+        }
+
+        @Override
+        public boolean cancel() {
+            return outcome.cancel(false);
+        }
+
+        @Override
+        public boolean cancel(int retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean cancel(Date retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return !outcome.isDone();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return outcome.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return outcome.isDone();
+        }
+
+        @Override
+        public boolean setTimeout(long time, TimeUnit unit) {
+            timeoutMillis = unit.toMillis(time);
+            return true;
+        }
+
+        @Override
+        public void setTimeoutHandler(TimeoutHandler handler) {
+            timeoutHandler = handler;
+        }
+
+        @Override
+        public Collection<Class<?>> register(Class<?> callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Collection<Class<?>> register(Object callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+            return Collections.emptyMap();
+        }
+    }
+}
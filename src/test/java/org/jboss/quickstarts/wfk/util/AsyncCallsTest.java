@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Checks that a call chained with {@link AsyncCalls#thenCall} can be cancelled until it starts, and only until then,
+ * without a container.</p>
+ */
+public class AsyncCallsTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCancelledBeforeCallStarts() throws Exception {
+        CompletableFuture<Void> legs = new CompletableFuture<>();
+        CompletableFuture<Integer> outcome = AsyncCalls.thenCall(legs, calls::incrementAndGet, executor);
+
+        assertTrue("Nothing has started yet", outcome.cancel(false));
+        legs.complete(null);
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(outcome.isCancelled());
+        assertEquals("The call is never made", 0, calls.get());
+    }
+
+    @Test
+    public void testNotCancelledOnceCallStarted() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> legs = new CompletableFuture<>();
+        CompletableFuture<Integer> outcome = AsyncCalls.thenCall(legs, () -> {
+            started.countDown();
+            release.await();
+            return calls.incrementAndGet();
+        }, executor);
+
+        legs.complete(null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertFalse("The call is under way", outcome.cancel(false));
+        release.countDown();
+
+        assertEquals("The outcome of the call is kept", Integer.valueOf(1), outcome.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailsWithoutCallIfFutureFails() throws Exception {
+        CompletableFuture<Void> legs = new CompletableFuture<>();
+        CompletableFuture<Integer> outcome = AsyncCalls.thenCall(legs, calls::incrementAndGet, executor);
+        IllegalStateException failure = new IllegalStateException("leg refused");
+        legs.completeExceptionally(failure);
+
+        try {
+            outcome.get(5, TimeUnit.SECONDS);
+            fail("Expected the outcome to fail as the legs did");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertEquals(0, calls.get());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Drives a {@link CircuitBreaker} through its states, and checks the {@link Bulkhead} limit and the compensating
+ * calls of an {@link UpstreamGuard}, without a container.</p>
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAtFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 4, 4, 50, 60000);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onSuccess();
+        }
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals("1 of 4 failed, under the rate", CircuitBreaker.State.CLOSED, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals("2 of the last 4 failed", CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getOpened());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    public void testHalfOpenTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 1, 100, 10);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(20);
+        assertTrue("The trial call is let through", breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse("Only one trial call at a time", breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals("A failed trial re-opens the breaker", CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(20);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getOpened());
+        assertEquals(2, breaker.getHalfOpened());
+        assertEquals(1, breaker.getClosed());
+    }
+
+    @Test
+    public void testBulkheadRejectsOverLimit() {
+        Bulkhead bulkhead = new Bulkhead(2);
+        assertTrue(bulkhead.tryAcquire());
+        assertTrue(bulkhead.tryAcquire());
+        assertFalse(bulkhead.tryAcquire());
+        assertEquals(2, bulkhead.getInFlight());
+        assertEquals(1, bulkhead.getRejected());
+
+        bulkhead.release();
+        assertTrue(bulkhead.tryAcquire());
+    }
+
+    @Test
+    public void testCompensationBypassesOpenBreakerAndRetries() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            CircuitBreaker breaker = new CircuitBreaker("test", 1, 1, 100, 60000);
+            UpstreamGuard guard = new UpstreamGuard("test", new Bulkhead(1), breaker, 1000, scheduler, 3, 1);
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            AtomicInteger attempts = new AtomicInteger();
+            CompletableFuture<Integer> outcome = guard.compensate(() -> {
+                CompletableFuture<Integer> call = new CompletableFuture<>();
+                if (attempts.incrementAndGet() < 3) {
+                    call.completeExceptionally(new ProcessingException("down"));
+                } else {
+                    call.complete(attempts.get());
+                }
+                return call;
+            });
+
+            assertEquals("The third attempt succeeds", Integer.valueOf(3), outcome.get(5, TimeUnit.SECONDS));
+            assertEquals(2L, guard.getStats().get("compensationRetries"));
+            assertEquals("The breaker was not asked", 0, breaker.getRejected());
+            assertEquals("Nor told of the failed attempts", 1, breaker.getOpened());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCompensationGivesUp() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            UpstreamGuard guard = new UpstreamGuard("test", new Bulkhead(1),
+                    new CircuitBreaker("test", 4, 4, 50, 60000), 1000, scheduler, 2, 1);
+            AtomicInteger attempts = new AtomicInteger();
+            CompletableFuture<Void> outcome = guard.compensate(() -> {
+                attempts.incrementAndGet();
+                CompletableFuture<Void> call = new CompletableFuture<>();
+                call.completeExceptionally(new ProcessingException("down"));
+                return call;
+            });
+
+            try {
+                outcome.get(5, TimeUnit.SECONDS);
+                fail("Expected the compensation to be given up on");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ProcessingException);
+            }
+            assertEquals(2, attempts.get());
+            assertEquals(1L, guard.getStats().get("compensationsAbandoned"));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
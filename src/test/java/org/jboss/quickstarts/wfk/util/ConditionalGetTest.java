@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.specimpl.RequestImpl;
+import org.junit.Test;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Answers list requests through {@link ConditionalGet} and checks that a current copy gets a 304 without the list
+ * being built, and that a write recorded by the {@link ModificationTracker} changes the ETag. No container is needed,
+ * so the write is counted once rather than again after a transaction.</p>
+ */
+public class ConditionalGetTest {
+
+    /** Stands in for an entity, so that the counters of the real tables are left alone. */
+    private static final class Listed {
+    }
+
+    private final AtomicInteger built = new AtomicInteger();
+
+    @Test
+    public void testNotModifiedWhileTablesUnchanged() throws Exception {
+        Response first = get(null);
+        assertEquals(200, first.getStatus());
+        EntityTag tag = first.getEntityTag();
+        assertNotNull("A list should be tagged", tag);
+
+        Response second = get(tag);
+        assertEquals("The client's copy is current", 304, second.getStatus());
+        assertEquals(tag, second.getEntityTag());
+        assertEquals("The list should only have been built once", 1, built.get());
+    }
+
+    @Test
+    public void testTagChangesOnWrite() throws Exception {
+        EntityTag before = get(null).getEntityTag();
+
+        new ModificationTracker().modified(Listed.class);
+
+        Response after = get(before);
+        assertEquals("A write makes the client's copy stale", 200, after.getStatus());
+        assertNotEquals(before, after.getEntityTag());
+        assertEquals(304, get(after.getEntityTag()).getStatus());
+    }
+
+    @Test
+    public void testTagCoversQueryString() throws Exception {
+        EntityTag all = get(null).getEntityTag();
+        MockHttpRequest http = MockHttpRequest.get("/things?fields=id");
+        EntityTag some = ConditionalGet.tableTag(http.getUri(), Listed.class);
+        assertNotEquals("Each set of fields is a different representation", all, some);
+    }
+
+    @Test
+    public void testResourceFoundByEmailIsTaggedById() throws Exception {
+        Date modified = new Date();
+        Revision revision = Revision.withId(new Object[] {7L, 3L, modified});
+        assertEquals(Long.valueOf(7), revision.getId());
+        assertEquals("3", revision.getVersions());
+        assertEquals(modified, revision.getLastModified());
+        assertNull("A revision read by id does not carry it", Revision.of(new Object[] {3L, modified}).getId());
+
+        MockHttpRequest http = MockHttpRequest.get("/things/email/jane@mailinator.com");
+        EntityTag tag = ConditionalGet.tag(http.getUri(), revision.getId(), revision.getVersions());
+        assertEquals("The tag should be accepted back in If-Match", Long.valueOf(3),
+                ConditionalGet.expectedVersion(tag.toString(), 7, null));
+
+        http.header("If-None-Match", tag.toString());
+        Response response = ConditionalGet.respond(new RequestImpl(http, null), revision.getLastModified(), tag, () -> {
+            built.incrementAndGet();
+            return Response.ok("{}");
+        });
+        assertEquals(304, response.getStatus());
+        assertEquals(0, built.get());
+    }
+
+    private Response get(EntityTag ifNoneMatch) throws Exception {
+        MockHttpRequest http = MockHttpRequest.get("/things");
+        if (ifNoneMatch != null) {
+            http.header("If-None-Match", ifNoneMatch.toString());
+        }
+        return ConditionalGet.respondForTables(new RequestImpl(http, null), http.getUri(), () -> {
+            built.incrementAndGet();
+            return Response.ok("[]");
+        }, Listed.class);
+    }
+}
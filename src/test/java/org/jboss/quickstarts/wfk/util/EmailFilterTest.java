@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Builds an {@link EmailFilter} over an in-memory table, and checks that no email added around a rebuild is lost,
+ * without a container.</p>
+ */
+public class EmailFilterTest {
+
+    /**
+     * <p>A filter over a list of emails, which can run a write while the list is being read.</p>
+     */
+    private static final class ListEmailFilter extends EmailFilter {
+
+        final List<String> table = new ArrayList<>();
+
+        Runnable duringLoad;
+
+        int loads;
+
+        @Override
+        protected Collection<String> loadEmails() {
+            loads++;
+            List<String> emails = new ArrayList<>(table);
+            if (duringLoad != null) {
+                duringLoad.run();
+            }
+            return emails;
+        }
+    }
+
+    @Test
+    public void testUnsureUntilBuilt() {
+        ListEmailFilter filter = new ListEmailFilter();
+        assertTrue("Every email may be registered until the filter is built", filter.mightContain("new@mailinator.com"));
+
+        filter.table.add("jane@mailinator.com");
+        filter.rebuild();
+        assertTrue(filter.mightContain("jane@mailinator.com"));
+        assertFalse(filter.mightContain("new@mailinator.com"));
+    }
+
+    @Test
+    public void testAddDuringRebuildIsKept() {
+        ListEmailFilter filter = new ListEmailFilter();
+        filter.table.addAll(Arrays.asList("jane@mailinator.com", "john@mailinator.com"));
+        filter.rebuild();
+
+        // Written after the table was read, but before the new filter is swapped in.
+        filter.duringLoad = () -> filter.add("late@mailinator.com");
+        filter.rebuild();
+
+        assertTrue("An email added during the rebuild should be in the new filter",
+                filter.mightContain("late@mailinator.com"));
+        assertTrue(filter.mightContain("jane@mailinator.com"));
+    }
+
+    @Test
+    public void testGrowsWithOneLoad() {
+        ListEmailFilter filter = new ListEmailFilter();
+        for (int i = 0; i < EmailFilter.MIN_CAPACITY; i++) {
+            filter.table.add("user" + i + "@mailinator.com");
+        }
+        filter.duringLoad = () -> filter.add("late@mailinator.com");
+        filter.rebuild();
+
+        assertEquals("The table should only be read once", 1, filter.loads);
+        assertEquals("The filter should have room to grow", 2 * EmailFilter.MIN_CAPACITY, filter.getCapacity());
+        assertTrue(filter.mightContain("user0@mailinator.com"));
+        assertTrue(filter.mightContain("late@mailinator.com"));
+    }
+
+    @Test
+    public void testRebuildsOnceStale() {
+        ListEmailFilter filter = new ListEmailFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.table.add("user" + i + "@mailinator.com");
+        }
+        filter.rebuild();
+        assertFalse(filter.rebuildIfStale());
+
+        for (int i = 0; i < 5; i++) {
+            filter.table.remove("user" + i + "@mailinator.com");
+            filter.recordRemoval("user" + i + "@mailinator.com");
+        }
+        assertTrue("Half the emails are gone", filter.rebuildIfStale());
+        assertEquals(0, filter.getRemovals());
+        assertEquals(5, filter.getInsertions());
+    }
+
+    @Test
+    public void testStats() {
+        ListEmailFilter filter = new ListEmailFilter();
+        filter.table.addAll(Arrays.asList("jane@mailinator.com", "john@mailinator.com"));
+        filter.rebuild();
+        filter.add("new@mailinator.com");
+        filter.recordRemoval("john@mailinator.com");
+
+        // Three unregistered emails checked, one of which the filter could not rule out.
+        assertFalse(filter.mightContain("a@mailinator.com"));
+        assertFalse(filter.mightContain("b@mailinator.com"));
+        filter.recordFalsePositive();
+
+        Map<String, Object> stats = filter.getStats();
+        assertEquals(true, stats.get("ready"));
+        assertEquals(3L, stats.get("insertions"));
+        assertEquals(1L, stats.get("removals"));
+        assertEquals(2L, stats.get("negatives"));
+        assertEquals(1L, stats.get("falsePositives"));
+        assertEquals(1.0 / 3, (Double) stats.get("observedFpp"), 1e-9);
+        assertEquals(filter.getExpectedFpp(), (Double) stats.get("expectedFpp"), 0);
+        assertTrue((Double) stats.get("expectedFpp") < EmailFilter.FPP);
+    }
+}
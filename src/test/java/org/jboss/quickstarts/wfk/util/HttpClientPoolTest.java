@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Calls a local HTTP server through an {@link HttpClientPool}, and checks that the calls share one kept alive
+ * connection and that the pool reports it, without a container.</p>
+ */
+public class HttpClientPoolTest {
+
+    private HttpServer server;
+
+    /* The client side port of each call the server answered, which is the same for calls on the same connection. */
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    private HttpClientPool pool;
+
+    @Before
+    public void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        pool = new HttpClientPool();
+        pool.start();
+    }
+
+    @After
+    public void stop() {
+        pool.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionIsReused() {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        for (int i = 0; i < 3; i++) {
+            Response response = pool.getClient().target(url).path("areas").request().get();
+            assertEquals(200, response.getStatus());
+            assertEquals("ok", response.readEntity(String.class));
+        }
+        assertEquals("The calls should have shared one connection", 1, clientPorts.size());
+
+        Map<String, Map<String, Integer>> stats = pool.getStats();
+        assertEquals("The connection should be back in the pool", Integer.valueOf(0), stats.get("total").get("leased"));
+        assertEquals(Integer.valueOf(1), stats.get("total").get("available"));
+        assertEquals(Integer.valueOf(HttpClientPool.MAX_TOTAL), stats.get("total").get("max"));
+        assertEquals("The route should be listed with its own limit", Integer.valueOf(HttpClientPool.MAX_PER_ROUTE),
+                stats.get(url).get("max"));
+        assertEquals(Integer.valueOf(1), stats.get(url).get("available"));
+    }
+
+    @Test
+    public void testParseRoutes() {
+        Map<HttpRoute, Integer> limits = HttpClientPool.parseRoutes(
+                "http://areas.example.com=20, https://payments.example.com:8443=5,not a route");
+        assertEquals("The entry that cannot be parsed should be skipped", 2, limits.size());
+        for (Map.Entry<HttpRoute, Integer> limit : limits.entrySet()) {
+            if (limit.getKey().isSecure()) {
+                assertEquals(8443, limit.getKey().getTargetHost().getPort());
+                assertEquals(Integer.valueOf(5), limit.getValue());
+            } else {
+                assertEquals("The scheme's default port should be filled in", 80,
+                        limit.getKey().getTargetHost().getPort());
+                assertEquals(Integer.valueOf(20), limit.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Compares the two ways the entities have taken their ids, with writers inserting in parallel on the test
+ * datasource: the shared generator row of <code>GenerationType.TABLE</code>, read and updated in a transaction of its
+ * own before every insert, against a sequence read once per block of ids, as configured in
+ * <code>META-INF/orm.xml</code>.</p>
+ *
+ * <p>Both run through plain JDBC against scratch tables, so that they do the same inserts and only the id allocation
+ * differs. The timings are logged rather than asserted, as they depend on the machine running the tests; only the
+ * uniqueness of the ids is checked.</p>
+ */
+@RunWith(Arquillian.class)
+public class IdAllocationBenchmarkTest {
+
+    private static final int THREADS = 8;
+
+    private static final int INSERTS_PER_THREAD = 250;
+
+    private static final int BLOCK_SIZE = 50;
+
+    private static final Logger log = Logger.getLogger(IdAllocationBenchmarkTest.class.getName());
+
+    /**
+     * <p>Compiles an Archive using Shrinkwrap, containing those external dependencies necessary to run the tests.</p>
+     *
+     * @return Micro test war to be deployed and executed.
+     */
+    @Deployment
+    public static Archive<?> createTestArchive() {
+        File[] libs = Maven.resolver().loadPomFromFile("pom.xml")
+                .resolve(
+                        "io.swagger:swagger-jaxrs:1.5.16"
+        ).withTransitivity().asFile();
+
+        return ShrinkWrap
+                .create(WebArchive.class, "test.war")
+                .addPackages(true, "org.jboss.quickstarts.wfk")
+                .addAsLibraries(libs)
+                .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
+                .addAsResource("META-INF/orm.xml")
+                .addAsWebInfResource("arquillian-ds.xml")
+                .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
+    }
+
+    @Resource(lookup = "java:jboss/datasources/JbossContactsMobileBasicTestDS")
+    DataSource dataSource;
+
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService")
+    ManagedExecutorService executor;
+
+    /**
+     * <p>Allocates ids the way GenerationType.TABLE does: the generator row is read with a lock and advanced in a
+     * transaction of its own, so every insert waits for the writers ahead of it.</p>
+     */
+    private final class TableAllocator implements Callable<Long> {
+        @Override
+        public Long call() throws SQLException {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                long id;
+                try (PreparedStatement select = connection.prepareStatement(
+                        "select next_val from id_bench_gen where segment = 'bench' for update");
+                     ResultSet row = select.executeQuery()) {
+                    row.next();
+                    id = row.getLong(1);
+                }
+                try (PreparedStatement update = connection.prepareStatement(
+                        "update id_bench_gen set next_val = ? where segment = 'bench'")) {
+                    update.setLong(1, id + 1);
+                    update.executeUpdate();
+                }
+                connection.commit();
+                return id;
+            }
+        }
+    }
+
+    /**
+     * <p>Allocates ids the way the pooled-lo optimizer does: one call to the sequence reserves a block of ids, which are
+     * then handed out in memory.</p>
+     */
+    private final class SequenceAllocator implements Callable<Long> {
+        private long next;
+        private long limit;
+
+        @Override
+        public synchronized Long call() throws SQLException {
+            if (next == limit) {
+                try (Connection connection = dataSource.getConnection();
+                     Statement statement = connection.createStatement();
+                     ResultSet row = statement.executeQuery("select next value for id_bench_seq")) {
+                    row.next();
+                    next = row.getLong(1);
+                    limit = next + BLOCK_SIZE;
+                }
+            }
+            return next++;
+        }
+    }
+
+    @Before
+    public void createTables() throws SQLException {
+        execute("create table id_bench (id bigint primary key, name varchar(25))",
+                "create table id_bench_gen (segment varchar(32) primary key, next_val bigint)",
+                "insert into id_bench_gen (segment, next_val) values ('bench', 1)",
+                "create sequence id_bench_seq start with 1 increment by " + BLOCK_SIZE);
+    }
+
+    @After
+    public void dropTables() throws SQLException {
+        execute("drop table id_bench", "drop table id_bench_gen", "drop sequence id_bench_seq");
+    }
+
+    @Test
+    public void benchmarkParallelInserts() throws Exception {
+        // Warm up the connection pool and the statement paths before timing.
+        insertInParallel(new TableAllocator());
+        execute("delete from id_bench");
+        insertInParallel(new SequenceAllocator());
+        execute("delete from id_bench");
+
+        long table = insertInParallel(new TableAllocator());
+        assertEquals("Every insert should have had an id of its own", THREADS * INSERTS_PER_THREAD, countRows());
+        execute("delete from id_bench");
+
+        long sequence = insertInParallel(new SequenceAllocator());
+        assertEquals("Every insert should have had an id of its own", THREADS * INSERTS_PER_THREAD, countRows());
+
+        int inserts = THREADS * INSERTS_PER_THREAD;
+        log.info(String.format("Inserting %d rows from %d threads: generator table = %.1f ms (%d round trips for ids),"
+                        + " sequence in blocks of %d = %.1f ms (%d round trips for ids)",
+                inserts, THREADS, table / 1e6, inserts * 3, BLOCK_SIZE, sequence / 1e6,
+                (inserts + BLOCK_SIZE - 1) / BLOCK_SIZE));
+    }
+
+    /**
+     * @return How long all the threads took to insert their rows, in nanoseconds
+     */
+    private long insertInParallel(Callable<Long> allocator) throws Exception {
+        List<Future<?>> writers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            writers.add(executor.submit(() -> {
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement insert = connection.prepareStatement(
+                             "insert into id_bench (id, name) values (?, ?)")) {
+                    for (int i = 0; i < INSERTS_PER_THREAD; i++) {
+                        insert.setLong(1, allocator.call());
+                        insert.setString(2, "Bench");
+                        insert.executeUpdate();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long countRows() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery("select count(distinct id) from id_bench")) {
+            row.next();
+            return row.getLong(1);
+        }
+    }
+
+    private void execute(String... statements) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+}
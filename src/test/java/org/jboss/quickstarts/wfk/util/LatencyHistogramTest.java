@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Checks the bucket layout of the {@link LatencyHistogram} and the figures read from it, without a container.</p>
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsHoldTheirValues() {
+        for (long micros = 0; micros < TimeUnit.HOURS.toMicros(1); micros = micros * 9 / 8 + 1) {
+            int index = LatencyHistogram.indexOf(micros);
+            assertTrue(micros + " should not be below its bucket", LatencyHistogram.lowerBound(index) <= micros);
+            assertTrue(micros + " should be below the next bucket", micros < LatencyHistogram.upperBound(index));
+            assertTrue(micros + " should be counted within 1/16 of its value",
+                    LatencyHistogram.upperBound(index) - LatencyHistogram.lowerBound(index)
+                            <= Math.max(1, micros / LatencyHistogram.SUB_BUCKETS));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testQuantilesAndCounts() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        long[] snapshot = histogram.snapshot();
+
+        assertEquals(1000, LatencyHistogram.count(snapshot));
+        assertEquals(TimeUnit.SECONDS.toMicros(1), histogram.getMaxMicros());
+        assertEquals(500500000L, histogram.getSumMicros());
+        assertWithin(500000, LatencyHistogram.quantileMicros(snapshot, 0.5));
+        assertWithin(990000, LatencyHistogram.quantileMicros(snapshot, 0.99));
+
+        long belowTenMillis = LatencyHistogram.countBelow(snapshot, TimeUnit.MILLISECONDS.toMicros(10));
+        assertTrue("10ms falls inside a bucket, so only the latencies under it are counted",
+                belowTenMillis >= 9 && belowTenMillis <= 10);
+        assertEquals(1000, LatencyHistogram.countBelow(snapshot, Long.MAX_VALUE));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " should be within 1/16 of " + expected,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.jboss.resteasy.core.interception.ContainerResponseContextImpl;
+import org.jboss.resteasy.core.interception.PreMatchContainerRequestContext;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.jboss.resteasy.specimpl.BuiltResponse;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Runs requests through a {@link MetricsFilter} and checks that their latencies are recorded, and that the timings
+ * allocated up front are handed back and reused, without a container.</p>
+ */
+public class MetricsFilterTest {
+
+    private final RequestMetrics metrics = new RequestMetrics();
+
+    /**
+     * <p>The resource method the requests are recorded against.</p>
+     */
+    public void listThings() {
+    }
+
+    @Test
+    public void testTimingsAreReused() throws Exception {
+        MetricsFilter filter = new MetricsFilter(2, metrics, resourceInfo());
+
+        ContainerRequestContext first = request();
+        filter.filter(first);
+        MetricsFilter.Timing timing = timing(first);
+        assertTrue("The timing should be one allocated up front", timing.slot >= 0);
+        respond(filter, first, 200);
+
+        for (int i = 0; i < 10; i++) {
+            ContainerRequestContext request = request();
+            filter.filter(request);
+            assertTrue("Every request should get a timing allocated up front", timing(request).slot >= 0);
+            respond(filter, request, 200);
+        }
+
+        LatencyHistogram histogram = endpoint().getHistograms().get(200);
+        assertEquals("Every request should be recorded", 11, LatencyHistogram.count(histogram.snapshot()));
+    }
+
+    @Test
+    public void testTimingsRunOut() throws Exception {
+        MetricsFilter filter = new MetricsFilter(2, metrics, resourceInfo());
+
+        // Three requests in flight at once, one more than there are timings for.
+        ContainerRequestContext[] requests = {request(), request(), request()};
+        for (ContainerRequestContext request : requests) {
+            filter.filter(request);
+        }
+        assertTrue(timing(requests[0]).slot >= 0);
+        assertTrue(timing(requests[1]).slot >= 0);
+        assertEquals("The third request should get a timing of its own", -1, timing(requests[2]).slot);
+        assertNotSame(timing(requests[0]), timing(requests[1]));
+
+        respond(filter, requests[0], 200);
+        respond(filter, requests[1], 404);
+        respond(filter, requests[2], 200);
+        assertEquals(2, LatencyHistogram.count(endpoint().getHistograms().get(200).snapshot()));
+        assertEquals(1, LatencyHistogram.count(endpoint().getHistograms().get(404).snapshot()));
+
+        ContainerRequestContext request = request();
+        filter.filter(request);
+        assertTrue("The timings handed back should be free again", timing(request).slot >= 0);
+    }
+
+    @Test
+    public void testUnmatchedRequest() throws Exception {
+        MetricsFilter filter = new MetricsFilter(2, metrics, resourceInfo());
+
+        // A request that matched no resource method never reaches the request filter.
+        respond(filter, request(), 404);
+
+        assertEquals(1, LatencyHistogram.count(metrics.endpoint(null).getHistograms().get(404).snapshot()));
+    }
+
+    private static ContainerRequestContext request() throws Exception {
+        return new PreMatchContainerRequestContext(MockHttpRequest.get("/things"));
+    }
+
+    private static void respond(MetricsFilter filter, ContainerRequestContext request, int status) throws Exception {
+        filter.filter(request, new ContainerResponseContextImpl(MockHttpRequest.get("/things"), new MockHttpResponse(),
+                (BuiltResponse) Response.status(status).build()));
+    }
+
+    private static MetricsFilter.Timing timing(ContainerRequestContext request) {
+        for (String name : request.getPropertyNames()) {
+            Object property = request.getProperty(name);
+            if (property instanceof MetricsFilter.Timing) {
+                return (MetricsFilter.Timing) property;
+            }
+        }
+        throw new AssertionError("The request should carry a timing");
+    }
+
+    private RequestMetrics.Endpoint endpoint() throws Exception {
+        return metrics.endpoint(getClass().getMethod("listThings"));
+    }
+
+    private ResourceInfo resourceInfo() {
+        return new ResourceInfo() {
+            @Override
+            public Method getResourceMethod() {
+                try {
+                    return MetricsFilterTest.class.getMethod("listThings");
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public Class<?> getResourceClass() {
+                return MetricsFilterTest.class;
+            }
+        };
+    }
+}
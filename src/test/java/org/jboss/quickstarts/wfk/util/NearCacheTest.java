@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Checks when a {@link NearCache} answers from memory and when it goes back to its loader, without a container.</p>
+ */
+public class NearCacheTest {
+
+    /**
+     * <p>A loader that counts its calls and answers with the key and the call number.</p>
+     */
+    private static final class CountingLoader implements Function<String, String> {
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public String apply(String key) {
+            return key + "#" + loads.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testHit() {
+        NearCache<String, String> cache = new NearCache<>(10, 60000);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals("a#1", cache.get("a", loader));
+        assertEquals("The second lookup should be answered from memory", "a#1", cache.get("a", loader));
+        assertEquals(1, loader.loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 0.0);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        NearCache<String, String> cache = new NearCache<>(10, 50);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("a", loader);
+        Thread.sleep(100);
+        assertEquals("An expired entry should be loaded again", "a#2", cache.get("a", loader));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testInvalidate() {
+        NearCache<String, String> cache = new NearCache<>(10, 60000);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("a", loader);
+        cache.get("b", loader);
+        cache.invalidate("a");
+        assertEquals("a#3", cache.get("a", loader));
+        assertEquals("Only the invalidated entry should be loaded again", "b#2", cache.get("b", loader));
+
+        cache.invalidateIf(value -> value.startsWith("b"));
+        assertEquals("b#4", cache.get("b", loader));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLoadRacingInvalidationIsNotCached() {
+        NearCache<String, String> cache = new NearCache<>(10, 60000);
+
+        // A writer invalidates the key while the value read before its change is still being loaded.
+        assertEquals("old", cache.get("a", key -> {
+            cache.invalidate(key);
+            return "old";
+        }));
+        assertEquals("The value loaded before the invalidation should not have been cached", "new",
+                cache.get("a", key -> "new"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        NearCache<String, String> cache = new NearCache<>(2, 60000);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("a", loader);
+        cache.get("b", loader);
+        cache.get("a", loader);
+        cache.get("c", loader);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("a was used more recently than b, so should still be cached", "a#1", cache.get("a", loader));
+        assertEquals("b#4", cache.get("b", loader));
+    }
+
+    @Test
+    public void testNullIsNotCached() {
+        NearCache<String, String> cache = new NearCache<>(10, 60000);
+
+        assertNull(cache.get("a", key -> null));
+        assertEquals(0, cache.size());
+    }
+}
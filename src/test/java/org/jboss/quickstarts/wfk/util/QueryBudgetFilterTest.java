@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import org.jboss.resteasy.core.interception.ContainerResponseContextImpl;
+import org.jboss.resteasy.core.interception.PreMatchContainerRequestContext;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.jboss.resteasy.specimpl.BuiltResponse;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Runs requests through a {@link QueryBudgetFilter}, with the statements they prepare counted by a
+ * {@link QueryCounter}, and checks which of them are flagged as over budget, without a container.</p>
+ */
+public class QueryBudgetFilterTest {
+
+    private static final int BUDGET = 3;
+
+    private final RequestMetrics metrics = new RequestMetrics();
+
+    private final QueryCounter inspector = new QueryCounter();
+
+    /**
+     * <p>The resource method the requests are recorded against.</p>
+     */
+    public void listThings() {
+    }
+
+    @Test
+    public void testWithinBudget() throws Exception {
+        QueryBudgetFilter filter = new QueryBudgetFilter(BUDGET, true, metrics, resourceInfo());
+
+        ContainerResponseContext response = serve(filter, BUDGET);
+
+        assertNull("A request within the budget should not be marked",
+                response.getHeaderString(QueryBudgetFilter.BUDGET_HEADER));
+        Map<String, Long> stats = queryStats();
+        assertEquals(Long.valueOf(1), stats.get("requests"));
+        assertEquals(Long.valueOf(BUDGET), stats.get("statements"));
+        assertEquals(Long.valueOf(0), stats.get("overBudget"));
+    }
+
+    @Test
+    public void testOverBudget() throws Exception {
+        QueryBudgetFilter filter = new QueryBudgetFilter(BUDGET, true, metrics, resourceInfo());
+
+        ContainerResponseContext response = serve(filter, BUDGET + 1);
+
+        assertEquals("statements=4; entities=0; budget=3", response.getHeaderString(QueryBudgetFilter.BUDGET_HEADER));
+        assertEquals(Long.valueOf(1), queryStats().get("overBudget"));
+        assertEquals(Long.valueOf(BUDGET + 1), queryStats().get("maxStatements"));
+    }
+
+    @Test
+    public void testOverBudgetOutsideDevMode() throws Exception {
+        QueryBudgetFilter filter = new QueryBudgetFilter(BUDGET, false, metrics, resourceInfo());
+
+        ContainerResponseContext response = serve(filter, BUDGET + 1);
+
+        assertNull("Only dev mode should mark the response", response.getHeaderString(QueryBudgetFilter.BUDGET_HEADER));
+        assertEquals("but the request should still be counted", Long.valueOf(1), queryStats().get("overBudget"));
+    }
+
+    @Test
+    public void testStatementsOutsideRequestAreNotCounted() throws Exception {
+        QueryBudgetFilter filter = new QueryBudgetFilter(BUDGET, true, metrics, resourceInfo());
+        serve(filter, 1);
+
+        // Prepared after the response was filtered.
+        inspector.inspect("select 1");
+        assertEquals(Long.valueOf(1), queryStats().get("statements"));
+    }
+
+    /**
+     * <p>Filters a request that prepares the given number of statements, and its response.</p>
+     */
+    private ContainerResponseContext serve(QueryBudgetFilter filter, int statements) throws Exception {
+        MockHttpRequest http = MockHttpRequest.get("/things");
+        ContainerRequestContext request = new PreMatchContainerRequestContext(http);
+        filter.filter(request);
+
+        for (int i = 0; i < statements; i++) {
+            inspector.inspect("select * from things where id = ?");
+        }
+
+        ContainerResponseContext response = new ContainerResponseContextImpl(http, new MockHttpResponse(),
+                (BuiltResponse) Response.ok().build());
+        filter.filter(request, response);
+        return response;
+    }
+
+    private Map<String, Long> queryStats() throws Exception {
+        return metrics.endpoint(getClass().getMethod("listThings")).getQueryStats();
+    }
+
+    private ResourceInfo resourceInfo() {
+        return new ResourceInfo() {
+            @Override
+            public Method getResourceMethod() {
+                try {
+                    return QueryBudgetFilterTest.class.getMethod("listThings");
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public Class<?> getResourceClass() {
+                return QueryBudgetFilterTest.class;
+            }
+        };
+    }
+}
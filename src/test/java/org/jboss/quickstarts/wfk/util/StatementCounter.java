@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import static org.junit.Assert.fail;
+
+/**
+ * <p>Records the SQL statements Hibernate prepares on the test datasource, so that tests can pin how many statements a
+ * flow issues and an N+1 regression fails the build.</p>
+ *
+ * <p>It is registered as the statement inspector of the <code>contacts_pu</code> persistence unit in
+ * <code>META-INF/test-persistence.xml</code>. Statements are recorded for the thread that prepared them, which for the
+ * in-container tests is the thread running the test, so work done in the background by the application is not
+ * counted.</p>
+ *
+ * <p>Usage: call {@link #reset()}, run the flow, then assert with {@link #assertCount(Kind, int)},
+ * {@link #assertCountAtMost(Kind, int)} or, for the statements against one table, {@link #assertCount(Kind, String, int)}.
+ * A failing assertion lists the statements that were recorded.</p>
+ */
+public class StatementCounter implements StatementInspector {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The kinds of statement counted. */
+    public enum Kind { SELECT, INSERT, UPDATE, DELETE, OTHER, ANY }
+
+    private static final ThreadLocal<List<String>> statements = ThreadLocal.withInitial(ArrayList::new);
+
+    @Override
+    public String inspect(String sql) {
+        statements.get().add(sql);
+        return sql;
+    }
+
+    /**
+     * <p>Forgets the statements recorded so far on the current thread.</p>
+     */
+    public static void reset() {
+        statements.get().clear();
+    }
+
+    /**
+     * @param kind The kind of statement
+     * @return The number of statements of that kind recorded on the current thread since the last reset
+     */
+    public static int count(Kind kind) {
+        int count = 0;
+        for (String sql : statements.get()) {
+            if (kind == Kind.ANY || kindOf(sql) == kind) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param kind The kind of statement
+     * @param table The name of a table
+     * @return The number of statements of that kind recorded on the current thread since the last reset that read from
+     * or join the table, not counting subqueries of other kinds of statement
+     */
+    public static int count(Kind kind, String table) {
+        Pattern reads = Pattern.compile("\\b(from|join)\\s+" + Pattern.quote(table) + "\\b", Pattern.CASE_INSENSITIVE);
+        int count = 0;
+        for (String sql : statements.get()) {
+            if ((kind == Kind.ANY || kindOf(sql) == kind) && reads.matcher(sql).find()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param kind The kind of statement
+     * @param expected The number of statements of that kind the flow must have issued
+     */
+    public static void assertCount(Kind kind, int expected) {
+        int actual = count(kind);
+        if (actual != expected) {
+            fail("Expected " + expected + " " + kind + " statements but there were " + actual + describe());
+        }
+    }
+
+    /**
+     * @param kind The kind of statement
+     * @param max The most statements of that kind the flow may have issued
+     */
+    public static void assertCountAtMost(Kind kind, int max) {
+        int actual = count(kind);
+        if (actual > max) {
+            fail("Expected at most " + max + " " + kind + " statements but there were " + actual + describe());
+        }
+    }
+
+    /**
+     * @param kind The kind of statement
+     * @param table The name of a table
+     * @param expected The number of statements of that kind against the table the flow must have issued
+     */
+    public static void assertCount(Kind kind, String table, int expected) {
+        int actual = count(kind, table);
+        if (actual != expected) {
+            fail("Expected " + expected + " " + kind + " statements against " + table + " but there were " + actual
+                    + describe());
+        }
+    }
+
+    static Kind kindOf(String sql) {
+        String statement = sql.trim();
+        // Skip the comments Hibernate adds when hibernate.use_sql_comments is on.
+        while (statement.startsWith("/*") && statement.contains("*/")) {
+            statement = statement.substring(statement.indexOf("*/") + 2).trim();
+        }
+        statement = statement.toLowerCase(Locale.ROOT);
+        if (statement.startsWith("select") || statement.startsWith("with")) {
+            return Kind.SELECT;
+        }
+        if (statement.startsWith("insert")) {
+            return Kind.INSERT;
+        }
+        if (statement.startsWith("update")) {
+            return Kind.UPDATE;
+        }
+        if (statement.startsWith("delete")) {
+            return Kind.DELETE;
+        }
+        return Kind.OTHER;
+    }
+
+    private static String describe() {
+        StringBuilder description = new StringBuilder(":");
+        for (String sql : statements.get()) {
+            description.append("\n  ").append(sql.replaceAll("\\s+", " ").trim());
+        }
+        return description.toString();
+    }
+}